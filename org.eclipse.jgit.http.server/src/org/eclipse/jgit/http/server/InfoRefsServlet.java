@@ -46,7 +46,7 @@
 import static org.eclipse.jgit.http.server.ServletUtils.getRepository;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.util.Map;
 
 import javax.servlet.http.HttpServlet;
@@ -58,13 +58,23 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefAdvertisementCache;
 import org.eclipse.jgit.transport.RefAdvertiser;
+import org.eclipse.jgit.transport.RefFilter;
 import org.eclipse.jgit.util.HttpSupport;
 
 /** Send a complete list of current refs, including peeled values for tags. */
 class InfoRefsServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
+	/** Hides HEAD, which is not listed in info/refs. */
+	private static final RefFilter NO_HEAD = new RefFilter() {
+		public Map<String, Ref> filter(final Map<String, Ref> refs) {
+			refs.remove(Constants.HEAD);
+			return refs;
+		}
+	};
+
 	public void doGet(final HttpServletRequest req,
 			final HttpServletResponse rsp) throws IOException {
 		// Assume a dumb client and send back the dumb client
@@ -77,16 +87,26 @@ public void doGet(final HttpServletRequest req,
 		try {
 			final RevFlag ADVERTISED = walk.newFlag("ADVERTISED");
 
-			final OutputStreamWriter out = new OutputStreamWriter(
-					new SmartOutputStream(req, rsp), Constants.CHARSET);
+			final OutputStream out = new SmartOutputStream(req, rsp);
 			final RefAdvertiser adv = new RefAdvertiser() {
 				@Override
 				protected void writeOne(final CharSequence line)
 						throws IOException {
+					out.write(encode(line));
+				}
+
+				@Override
+				protected byte[] encode(final CharSequence line) {
 					// Whoever decided that info/refs should use a different
 					// delimiter than the native git:// protocol shouldn't
 					// be allowed to design this sort of stuff. :-(
-					out.append(line.toString().replace(' ', '\t'));
+					return Constants.encode(line.toString().replace(' ', '\t'));
+				}
+
+				@Override
+				protected void writeEncoded(final byte[] lines)
+						throws IOException {
+					out.write(lines);
 				}
 
 				@Override
@@ -96,10 +116,7 @@ protected void end() {
 			};
 			adv.init(walk, ADVERTISED);
 			adv.setDerefTags(true);
-
-			Map<String, Ref> refs = db.getAllRefs();
-			refs.remove(Constants.HEAD);
-			adv.send(refs);
+			adv.send(db, NO_HEAD, RefAdvertisementCache.getInstance());
 			out.close();
 		} finally {
 			walk.release();
@@ -65,6 +65,12 @@
  * smaller payloads are primarily pure text that compresses well, while much
  * larger payloads are heavily compressed binary data. {@link UploadPackServlet}
  * is one such servlet.
+ * <p>
+ * A stream created to stream on flush also switches to streaming the first
+ * time {@link #flush()} is called, no matter how little has been written. The
+ * producer uses this to mark where the small negotiation ends and the large
+ * payload begins, so the client receives the payload as it is produced rather
+ * than after the buffer fills up.
  */
 class SmartOutputStream extends TemporaryBuffer {
 	private static final int LIMIT = 32 * 1024;
@@ -73,13 +79,21 @@ class SmartOutputStream extends TemporaryBuffer {
 
 	private final HttpServletResponse rsp;
 
+	private final boolean streamOnFlush;
+
 	private boolean startedOutput;
 
 	SmartOutputStream(final HttpServletRequest req,
 			final HttpServletResponse rsp) {
+		this(req, rsp, false);
+	}
+
+	SmartOutputStream(final HttpServletRequest req,
+			final HttpServletResponse rsp, final boolean streamOnFlush) {
 		super(LIMIT);
 		this.req = req;
 		this.rsp = rsp;
+		this.streamOnFlush = streamOnFlush;
 	}
 
 	@Override
@@ -88,6 +102,15 @@ protected OutputStream overflow() throws IOException {
 		return rsp.getOutputStream();
 	}
 
+	@Override
+	public void flush() throws IOException {
+		if (streamOnFlush) {
+			// Without a Content-Length the container sends the buffered
+			// content and everything after it using chunked encoding.
+			doFlush();
+		}
+	}
+
 	public void close() throws IOException {
 		super.close();
 
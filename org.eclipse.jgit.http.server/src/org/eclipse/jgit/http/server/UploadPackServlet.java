@@ -112,12 +112,7 @@ public void doPost(final HttpServletRequest req,
 			up.setBiDirectionalPipe(false);
 			rsp.setContentType(RSP_TYPE);
 
-			final SmartOutputStream out = new SmartOutputStream(req, rsp) {
-				@Override
-				public void flush() throws IOException {
-					doFlush();
-				}
-			};
+			final SmartOutputStream out = new SmartOutputStream(req, rsp, true);
 			up.upload(getInputStream(req), out, null);
 			out.close();
 
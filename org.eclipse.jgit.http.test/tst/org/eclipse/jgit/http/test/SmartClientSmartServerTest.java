@@ -254,6 +254,10 @@ public void testInitialClone_Small() throws Exception {
 		assertEquals(200, service.getStatus());
 		assertEquals("application/x-git-upload-pack-result", service
 				.getResponseHeader(HDR_CONTENT_TYPE));
+		assertNull("pack is streamed", service
+				.getResponseHeader(HDR_CONTENT_LENGTH));
+		assertNull("pack is not compressed", service
+				.getResponseHeader(HDR_CONTENT_ENCODING));
 	}
 
 	public void testFetchUpdateExisting() throws Exception {
@@ -320,6 +324,8 @@ public void testFetchUpdateExisting() throws Exception {
 		assertEquals(200, service.getStatus());
 		assertEquals("application/x-git-upload-pack-result", service
 				.getResponseHeader(HDR_CONTENT_TYPE));
+		assertNotNull("negotiation is buffered", service
+				.getResponseHeader(HDR_CONTENT_LENGTH));
 
 		service = requests.get(2);
 		assertEquals("POST", service.getMethod());
@@ -333,6 +339,8 @@ public void testFetchUpdateExisting() throws Exception {
 		assertEquals(200, service.getStatus());
 		assertEquals("application/x-git-upload-pack-result", service
 				.getResponseHeader(HDR_CONTENT_TYPE));
+		assertNull("pack is streamed", service
+				.getResponseHeader(HDR_CONTENT_LENGTH));
 	}
 
 	public void testInitialClone_BrokenServer() throws Exception {
@@ -76,6 +76,9 @@ class Clone extends AbstractFetchCommand {
 	@Option(name = "--origin", aliases = { "-o" }, metaVar = "metaVar_remoteName", usage = "usage_useNameInsteadOfOriginToTrackUpstream")
 	private String remoteName = Constants.DEFAULT_REMOTE_NAME;
 
+	@Option(name = "--depth", metaVar = "metaVar_depth", usage = "usage_fetchHistoryToDepth")
+	private int depth;
+
 	@Argument(index = 0, required = true, metaVar = "metaVar_uriish")
 	private String sourceUri;
 
@@ -135,6 +138,8 @@ private void saveRemote(final URIish uri) throws URISyntaxException,
 	private FetchResult runFetch() throws NotSupportedException,
 			URISyntaxException, TransportException {
 		final Transport tn = Transport.open(db, remoteName);
+		if (0 < depth)
+			tn.setDepth(depth);
 		final FetchResult r;
 		try {
 			r = tn.fetch(new TextProgressMonitor(), null);
@@ -73,6 +73,15 @@ class Daemon extends TextBuiltin {
 	@Option(name = "--timeout", metaVar = "metaVar_seconds", usage = "usage_abortConnectionIfNoActivity")
 	int timeout = -1;
 
+	@Option(name = "--max-threads", metaVar = "metaVar_n", usage = "usage_serveClientsFromThreadPool")
+	int maxThreads;
+
+	@Option(name = "--queue-size", metaVar = "metaVar_n", usage = "usage_maxQueuedRequests")
+	int queueSize = org.eclipse.jgit.transport.Daemon.DEFAULT_QUEUE_SIZE;
+
+	@Option(name = "--max-connections-per-ip", metaVar = "metaVar_n", usage = "usage_maxConnectionsPerAddress")
+	int maxConnectionsPerAddress;
+
 	@Option(name = "--enable", metaVar = "metaVar_service", usage = "usage_enableTheServiceInAllRepositories", multiValued = true)
 	final List<String> enable = new ArrayList<String>();
 
@@ -132,6 +141,9 @@ protected void run() throws Exception {
 		d.setPackConfig(packConfig);
 		if (0 <= timeout)
 			d.setTimeout(timeout);
+		d.setMaxThreads(maxThreads);
+		d.setQueueSize(queueSize);
+		d.setMaxConnectionsPerAddress(maxConnectionsPerAddress);
 
 		for (final String n : enable)
 			service(d, n).setEnabled(true);
@@ -51,6 +51,8 @@
 import java.util.ArrayList;
 import java.util.List;
 
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffConfig;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.RawTextIgnoreAllWhitespace;
@@ -132,6 +134,9 @@ void abbrev(@SuppressWarnings("unused") boolean on) {
 		diffFmt.setAbbreviationLength(Constants.OBJECT_ID_STRING_LENGTH);
 	}
 
+	@Option(name = "--diff-algorithm", metaVar = "metaVar_diffAlgorithm", usage = "usage_diffAlgorithm")
+	private String diffAlgorithm;
+
 	// END -- Options shared with Log
 
 	@Override
@@ -144,6 +149,9 @@ protected void run() throws Exception {
 
 		} else {
 			diffFmt.setRepository(db);
+			if (diffAlgorithm != null)
+				diffFmt.setDiffAlgorithm(DiffAlgorithm.getAlgorithm( //
+						DiffConfig.parseAlgorithm(diffAlgorithm)));
 			diffFmt.format(files);
 			diffFmt.flush();
 		}
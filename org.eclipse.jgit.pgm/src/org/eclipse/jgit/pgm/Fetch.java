@@ -82,6 +82,9 @@ void nothin(final boolean ignored) {
 		thin = Boolean.FALSE;
 	}
 
+	@Option(name = "--depth", metaVar = "metaVar_depth", usage = "usage_fetchHistoryToDepth")
+	private int depth;
+
 	@Argument(index = 0, metaVar = "metaVar_uriish")
 	private String remote = Constants.DEFAULT_REMOTE_NAME;
 
@@ -98,6 +101,8 @@ protected void run() throws Exception {
 		tn.setDryRun(dryRun);
 		if (thin != null)
 			tn.setFetchThin(thin.booleanValue());
+		if (0 < depth)
+			tn.setDepth(depth);
 		if (0 <= timeout)
 			tn.setTimeout(timeout);
 		final FetchResult r;
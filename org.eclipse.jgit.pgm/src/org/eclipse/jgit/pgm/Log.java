@@ -59,6 +59,8 @@
 import java.util.Set;
 import java.util.TimeZone;
 
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffConfig;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.RawTextIgnoreAllWhitespace;
@@ -141,6 +143,9 @@ void abbrev(@SuppressWarnings("unused") boolean on) {
 		diffFmt.setAbbreviationLength(Constants.OBJECT_ID_STRING_LENGTH);
 	}
 
+	@Option(name = "--diff-algorithm", metaVar = "metaVar_diffAlgorithm", usage = "usage_diffAlgorithm")
+	private String diffAlgorithm;
+
 	// END -- Options shared with Diff
 
 	Log() {
@@ -223,6 +228,9 @@ private void showDiff(RevCommit c) throws IOException {
 
 		} else {
 			diffFmt.setRepository(db);
+			if (diffAlgorithm != null)
+				diffFmt.setDiffAlgorithm(DiffAlgorithm.getAlgorithm( //
+						DiffConfig.parseAlgorithm(diffAlgorithm)));
 			diffFmt.format(files);
 			diffFmt.flush();
 		}
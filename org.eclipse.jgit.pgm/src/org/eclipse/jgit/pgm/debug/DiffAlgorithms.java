@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.pgm.debug;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.MyersDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.pgm.Command;
+import org.eclipse.jgit.pgm.TextBuiltin;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Compares the running time of the diff algorithms on a repository's history.
+ * <p>
+ * Every text file modified by a non-merge commit reachable from the starting
+ * point is compared against its prior version by each algorithm, and the
+ * total time spent by each algorithm is reported.
+ */
+@Command(usage = "usage_CompareDiffAlgorithms")
+class DiffAlgorithms extends TextBuiltin {
+	@Option(name = "--count", metaVar = "metaVar_n", usage = "usage_maximumCommitsToScan")
+	private int count = 1000;
+
+	@Option(name = "--text-limit", metaVar = "metaVar_n", usage = "usage_maximumFileSizeToCompare")
+	private int textLimit = 15 * 1024 * 1024;
+
+	@Argument(index = 0, metaVar = "metaVar_commitish")
+	private String start = Constants.HEAD;
+
+	private final List<Test> tests = new ArrayList<Test>();
+
+	@Override
+	protected void run() throws Exception {
+		tests.add(new Test("myers", MyersDiff.INSTANCE));
+		tests.add(new Test("histogram", new HistogramDiff()));
+
+		final ObjectId startId = db.resolve(start);
+		if (startId == null)
+			throw die("Not a revision: " + start);
+
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			final RevWalk rw = new RevWalk(reader);
+			final TreeWalk tw = new TreeWalk(reader);
+			tw.setFilter(TreeFilter.ANY_DIFF);
+			tw.setRecursive(true);
+
+			rw.markStart(rw.parseCommit(startId));
+			int commits = 0;
+			int files = 0;
+			RevCommit c;
+			while (commits < count && (c = rw.next()) != null) {
+				if (c.getParentCount() != 1)
+					continue;
+				commits++;
+
+				rw.parseHeaders(c.getParent(0));
+				tw.reset(c.getParent(0).getTree(), c.getTree());
+				while (tw.next()) {
+					if (!isFile(tw, 0) || !isFile(tw, 1))
+						continue;
+
+					final byte[] raw0 = open(reader, tw.getObjectId(0));
+					final byte[] raw1 = open(reader, tw.getObjectId(1));
+					if (raw0 == null || raw1 == null)
+						continue;
+					if (RawText.isBinary(raw0) || RawText.isBinary(raw1))
+						continue;
+
+					final RawText txt0 = new RawText(raw0);
+					final RawText txt1 = new RawText(raw1);
+					for (Test test : tests)
+						test.run(txt0, txt1);
+					files++;
+				}
+			}
+
+			out.println("Compared " + files + " files from " + commits
+					+ " commits");
+			out.println();
+			out.format("%-12s %12s %12s", "Algorithm", "Time (ms)", "Edits");
+			out.println();
+			for (Test test : tests) {
+				out.format("%-12s %12d %12d", test.name,
+						test.runningTime / 1000000, test.edits);
+				out.println();
+			}
+			out.flush();
+		} finally {
+			reader.release();
+		}
+	}
+
+	private static boolean isFile(TreeWalk tw, int nth) {
+		return FileMode.REGULAR_FILE.equals(tw.getRawMode(nth))
+				|| FileMode.EXECUTABLE_FILE.equals(tw.getRawMode(nth));
+	}
+
+	private byte[] open(ObjectReader reader, ObjectId id) throws Exception {
+		final ObjectLoader ldr = reader.open(id, Constants.OBJ_BLOB);
+		if (textLimit < ldr.getSize())
+			return null;
+		return ldr.getCachedBytes();
+	}
+
+	private static class Test {
+		final String name;
+
+		final DiffAlgorithm algorithm;
+
+		long runningTime;
+
+		long edits;
+
+		Test(String name, DiffAlgorithm algorithm) {
+			this.name = name;
+			this.algorithm = algorithm;
+		}
+
+		void run(RawText a, RawText b) {
+			final long start = System.nanoTime();
+			edits += algorithm.diff(a, b).size();
+			runningTime += System.nanoTime() - start;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+
+public class HistogramDiffTest extends TestCase {
+	public void testEmptyInputs() {
+		assertDiff("", "", "");
+	}
+
+	public void testCreateFile() {
+		assertDiff("", "abc", " -0,0 +0,3");
+	}
+
+	public void testDeleteFile() {
+		assertDiff("abc", "", " -0,3 +0,0");
+	}
+
+	public void testInsertMiddle() {
+		assertDiff("ac", "abc", " -1,0 +1,1");
+	}
+
+	public void testDeleteMiddle() {
+		assertDiff("abc", "ac", " -1,1 +1,0");
+	}
+
+	public void testReplaceMiddle() {
+		assertDiff("abc", "axc", " -1,1 +1,1");
+	}
+
+	public void testNothingInCommon() {
+		assertDiff("abc", "xyz", " -0,3 +0,3");
+	}
+
+	public void testUniqueLineAnchorsRepeatedLines() {
+		// The only unique common line is 'u', so the region is split around
+		// it rather than matching up the repeated 'x' lines.
+		assertDiff("xxux", "uxxx", " -0,2 +0,0 -3,0 +1,2");
+	}
+
+	public void testMultipleEdits() {
+		assertDiff("abcdefgh", "aBcdeFgh", " -1,1 +1,1 -5,1 +5,1");
+	}
+
+	public void testExceedsOccurrenceLimitUsesFallback() {
+		HistogramDiff hd = new HistogramDiff();
+		hd.setFallbackAlgorithm(null);
+		hd.setMaxChainLength(2);
+
+		// The only common line occurs more often than the limit, so it
+		// cannot be used to split the region.
+		EditList r = hd.diff(t("aaax"), t("yaaa"));
+		assertEquals(" -0,4 +0,4", toString(r));
+
+		hd.setFallbackAlgorithm(MyersDiff.INSTANCE);
+		r = hd.diff(t("aaax"), t("yaaa"));
+		assertEquals(new MyersDiff(t("aaax"), t("yaaa")).getEdits(), r);
+	}
+
+	public void testOccurrenceLimitIsInclusive() {
+		HistogramDiff hd = new HistogramDiff();
+		hd.setFallbackAlgorithm(null);
+		hd.setMaxChainLength(2);
+
+		// A line occurring exactly as often as the limit may still be used
+		// to split the region.
+		EditList r = hd.diff(t("aax"), t("yaa"));
+		assertEquals(" -0,0 +0,1 -2,1 +3,0", toString(r));
+	}
+
+	public void testNonRawTextUsesFallback() {
+		CharArray a = new CharArray("HELLO WORLD");
+		CharArray b = new CharArray("LOW");
+		assertEquals(new MyersDiff(a, b).getEdits(), new HistogramDiff()
+				.diff(a, b));
+	}
+
+	public void testParseAlgorithm() {
+		assertEquals(DiffAlgorithm.SupportedAlgorithm.MYERS, DiffConfig
+				.parseAlgorithm(null));
+		assertEquals(DiffAlgorithm.SupportedAlgorithm.MYERS, DiffConfig
+				.parseAlgorithm("myers"));
+		assertEquals(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM, DiffConfig
+				.parseAlgorithm("histogram"));
+		assertEquals(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM, DiffConfig
+				.parseAlgorithm("patience"));
+		try {
+			DiffConfig.parseAlgorithm("bogus");
+			fail("accepted unknown algorithm");
+		} catch (IllegalArgumentException err) {
+			// expected
+		}
+	}
+
+	public void testUnknownConfiguredAlgorithmUsesDefault() {
+		Config cfg = new Config();
+		cfg.setString("diff", null, "algorithm", "bogus");
+		assertEquals(DiffAlgorithm.SupportedAlgorithm.MYERS, cfg
+				.get(DiffConfig.KEY).getDiffAlgorithm());
+
+		cfg = new Config();
+		cfg.setString("diff", null, "algorithm", "histogram");
+		assertEquals(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM, cfg.get(
+				DiffConfig.KEY).getDiffAlgorithm());
+	}
+
+	private static void assertDiff(String a, String b, String edits) {
+		assertEquals(edits, toString(new HistogramDiff().diff(t(a), t(b))));
+	}
+
+	private static String toString(EditList list) {
+		StringBuilder builder = new StringBuilder();
+		for (Edit e : list)
+			builder.append(" -" + e.beginA + "," + (e.endA - e.beginA) + " +"
+					+ e.beginB + "," + (e.endB - e.beginB));
+		return builder.toString();
+	}
+
+	private static RawText t(String text) {
+		StringBuilder r = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			r.append(text.charAt(i));
+			r.append('\n');
+		}
+		return new RawText(Constants.encodeASCII(r.toString()));
+	}
+
+	private static class CharArray implements Sequence {
+		private final char[] array;
+
+		CharArray(String s) {
+			array = s.toCharArray();
+		}
+
+		public int size() {
+			return array.length;
+		}
+
+		public boolean equals(int i, Sequence other, int j) {
+			return array[i] == ((CharArray) other).array[j];
+		}
+	}
+}
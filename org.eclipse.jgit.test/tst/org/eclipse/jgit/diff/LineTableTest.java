@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+public class LineTableTest extends TestCase {
+	public void testEmpty() {
+		LineTable table = new LineTable();
+		InternedText a = table.intern(t(""));
+		assertEquals(0, a.size());
+		assertEquals(0, table.size());
+	}
+
+	public void testSameLinesShareIds() {
+		LineTable table = new LineTable();
+		InternedText a = table.intern(t("a\nb\na\n"));
+		InternedText b = table.intern(t("b\nc\na\n"));
+
+		assertEquals(3, table.size());
+		assertEquals(a.getLineId(0), a.getLineId(2));
+		assertEquals(a.getLineId(1), b.getLineId(0));
+		assertEquals(a.getLineId(0), b.getLineId(2));
+		assertFalse(a.getLineId(0) == a.getLineId(1));
+		assertFalse(b.getLineId(1) == a.getLineId(0));
+		assertFalse(b.getLineId(1) == a.getLineId(1));
+
+		assertTrue(a.equals(1, b, 0));
+		assertFalse(a.equals(0, b, 1));
+	}
+
+	public void testManyDistinctLines() {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 5000; i++)
+			s.append("line ").append(i).append('\n');
+		LineTable table = new LineTable();
+		InternedText a = table.intern(t(s.toString()));
+		InternedText b = table.intern(t(s.toString()));
+
+		assertEquals(5000, table.size());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(i, a.getLineId(i));
+			assertEquals(i, b.getLineId(i));
+		}
+	}
+
+	public void testIdsFollowTextEquality() {
+		LineTable table = new LineTable();
+		InternedText a = table.intern(new RawTextIgnoreAllWhitespace(
+				Constants.encode("a b\n")));
+		InternedText b = table.intern(new RawTextIgnoreAllWhitespace(
+				Constants.encode("ab\n")));
+		assertEquals(1, table.size());
+		assertTrue(a.equals(0, b, 0));
+	}
+
+	public void testRejectsMixedTextTypes() {
+		LineTable table = new LineTable();
+		table.intern(t("a\n"));
+		try {
+			table.intern(new RawTextIgnoreAllWhitespace(Constants
+					.encode("a\n")));
+			fail("accepted a different text type");
+		} catch (IllegalArgumentException err) {
+			// expected
+		}
+	}
+
+	public void testDiffMatchesRawText() {
+		RawText a = t("a\nb\nc\nd\ne\nf\n");
+		RawText b = t("a\nc\nd\nX\ne\nf\nb\n");
+		LineTable table = new LineTable();
+		InternedText ia = table.intern(a);
+		InternedText ib = table.intern(b);
+
+		assertEquals(new MyersDiff(a, b).getEdits(),
+				new MyersDiff(ia, ib).getEdits());
+		assertEquals(new HistogramDiff().diff(a, b),
+				new HistogramDiff().diff(ia, ib));
+	}
+
+	public void testRawTextCache() {
+		RawTextCache cache = new RawTextCache(RawText.FACTORY);
+		ObjectId id = ObjectId
+				.fromString("0123456789012345678901234567890123456789");
+		assertNull(cache.get(id));
+
+		RawText text = cache.put(id, Constants.encode("a\nb\n"));
+		assertEquals(2, text.size());
+		assertSame(text, cache.get(id));
+		assertSame(text, cache.put(id, Constants.encode("a\nb\n")));
+
+		cache.setMaxBytes(2);
+		assertNull(cache.get(id));
+		cache.put(id, Constants.encode("a\nb\n"));
+		assertNull(cache.get(id));
+	}
+
+	private static RawText t(String text) {
+		return new RawText(Constants.encode(text));
+	}
+}
@@ -43,6 +43,7 @@
 
 package org.eclipse.jgit.diff;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
@@ -50,6 +51,7 @@
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.RepositoryTestCase;
 
 public class RenameDetectorTest extends RepositoryTestCase {
@@ -222,6 +224,83 @@ public void testInexactRename_OnePair() throws Exception {
 		assertRename(b, a, 66, entries.get(0));
 	}
 
+	public void testInexactRename_ParallelMatchesSerial() throws Exception {
+		rd.addAll(movedDirectory(20));
+		List<DiffEntry> serial = rd.compute();
+
+		RenameDetector parallel = new RenameDetector(db);
+		parallel.setThreads(4);
+		parallel.addAll(movedDirectory(20));
+		List<DiffEntry> entries = parallel.compute();
+
+		assertEquals(20, entries.size());
+		assertEquals(serial.size(), entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			DiffEntry e = entries.get(i);
+			assertEquals(ChangeType.RENAME, e.getChangeType());
+			assertEquals(e.getOldPath().substring(4), e.getNewPath()
+					.substring(4));
+			assertEquals(serial.get(i).getOldPath(), e.getOldPath());
+			assertEquals(serial.get(i).getNewPath(), e.getNewPath());
+			assertEquals(serial.get(i).getScore(), e.getScore());
+		}
+	}
+
+	public void testInexactRename_PrunedMatchesExhaustive() throws Exception {
+		rd.setPruneThreshold(-1);
+		rd.addAll(movedDirectory(20));
+		List<DiffEntry> exhaustive = rd.compute();
+
+		RenameDetector pruned = new RenameDetector(db);
+		pruned.setPruneThreshold(0);
+		pruned.setThreads(2);
+		pruned.addAll(movedDirectory(20));
+		List<DiffEntry> entries = pruned.compute();
+
+		assertEquals(20, entries.size());
+		assertEquals(exhaustive.size(), entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			DiffEntry e = entries.get(i);
+			assertEquals(ChangeType.RENAME, e.getChangeType());
+			assertEquals(exhaustive.get(i).getOldPath(), e.getOldPath());
+			assertEquals(exhaustive.get(i).getNewPath(), e.getNewPath());
+			assertEquals(exhaustive.get(i).getScore(), e.getScore());
+		}
+	}
+
+	public void testInexactRename_SizeFilterSkipsHashing() throws Exception {
+		ObjectId aId = blob("foo\nbar\nbaz\nblarg\n");
+		ObjectId bId = blob("foo\nbar\nbaz\nblah\n");
+		StringBuilder big = new StringBuilder();
+		for (int line = 0; line < 100; line++)
+			big.append("line ").append(line).append('\n');
+		ObjectId cId = blob(big.toString());
+
+		for (int threads = 1; threads <= 2; threads++) {
+			List<DiffEntry> srcs = new ArrayList<DiffEntry>();
+			srcs.add(DiffEntry.delete(PATH_Q, bId));
+			srcs.add(DiffEntry.delete(PATH_H, cId));
+			List<DiffEntry> dsts = new ArrayList<DiffEntry>();
+			dsts.add(DiffEntry.add(PATH_A, aId));
+
+			SimilarityIndexCache cache = new SimilarityIndexCache();
+			ObjectReader reader = db.newObjectReader();
+			SimilarityRenameDetector d = new SimilarityRenameDetector(reader,
+					cache, srcs, dsts);
+			d.setThreads(threads);
+			try {
+				d.compute(null);
+			} finally {
+				reader.release();
+			}
+
+			assertEquals(1, d.getMatches().size());
+			assertNotNull(cache.get(aId));
+			assertNotNull(cache.get(bId));
+			assertNull("too large to pair, never hashed", cache.get(cId));
+		}
+	}
+
 	public void testInexactRename_OneRenameTwoUnrelatedFiles() throws Exception {
 		ObjectId aId = blob("foo\nbar\nbaz\nblarg\n");
 		ObjectId bId = blob("foo\nbar\nbaz\nblah\n");
@@ -552,6 +631,20 @@ public void testRenameLimit() throws Exception {
 		assertSame(d, entries.get(3));
 	}
 
+	private List<DiffEntry> movedDirectory(int files) throws Exception {
+		List<DiffEntry> r = new ArrayList<DiffEntry>();
+		for (int i = 0; i < files; i++) {
+			StringBuilder c = new StringBuilder();
+			for (int line = 0; line < 20; line++)
+				c.append("file ").append(i).append(" line ").append(line)
+						.append('\n');
+			r.add(DiffEntry.delete("old/f" + i, blob(c.toString())));
+			c.append("edited\n");
+			r.add(DiffEntry.add("new/f" + i, blob(c.toString())));
+		}
+		return r;
+	}
+
 	private ObjectId blob(String content) throws Exception {
 		return testDb.blob(content).copy();
 	}
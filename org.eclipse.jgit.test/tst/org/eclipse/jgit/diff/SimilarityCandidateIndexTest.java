@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.IntList;
+
+public class SimilarityCandidateIndexTest extends TestCase {
+	public void testSimilarFileIsCandidate() {
+		SimilarityIndex src = hash(lines("a", 100, 200));
+		SimilarityIndex[] dst = new SimilarityIndex[12];
+		for (int i = 0; i < 10; i++) {
+			dst[i] = hash(lines("u" + i, 100, 200));
+			assertEquals(0, src.score(dst[i], 100));
+		}
+		dst[10] = hash(lines("a", 100, 160) + lines("b", 200, 240));
+		dst[11] = null;
+		assertEquals(60, src.score(dst[10], 100));
+
+		IntList out = candidates(new SimilarityCandidateIndex(dst), src);
+		assertEquals(1, out.size());
+		assertEquals(10, out.get(0));
+	}
+
+	public void testUnrelatedFilesAreNotCandidates() {
+		SimilarityIndex[] dst = new SimilarityIndex[10];
+		for (int i = 0; i < dst.length; i++)
+			dst[i] = hash(lines("u" + i, 100, 200));
+		SimilarityCandidateIndex idx = new SimilarityCandidateIndex(dst);
+
+		assertEquals(0, candidates(idx, hash(lines("a", 100, 200))).size());
+		assertEquals(0, candidates(idx, hash(lines("u0", 200, 300))).size());
+	}
+
+	public void testCandidateReportedOnce() {
+		SimilarityIndex src = hash(lines("a", 100, 200));
+		SimilarityCandidateIndex idx = new SimilarityCandidateIndex(
+				new SimilarityIndex[] { hash(lines("a", 100, 200)) });
+		int[] seen = new int[1];
+		IntList out = new IntList();
+		idx.candidates(src, seen, 1, out);
+		idx.candidates(src, seen, 1, out);
+		assertEquals(1, out.size());
+		assertEquals(0, out.get(0));
+	}
+
+	private static IntList candidates(SimilarityCandidateIndex idx,
+			SimilarityIndex src) {
+		IntList out = new IntList();
+		idx.candidates(src, new int[12], 1, out);
+		return out;
+	}
+
+	private static String lines(String name, int start, int end) {
+		// Only the tail of a line reaches its hash, so keep it distinct.
+		StringBuilder b = new StringBuilder();
+		for (int i = start; i < end; i++)
+			b.append("line ").append(i).append(' ').append(name).append('\n');
+		return b.toString();
+	}
+
+	private static SimilarityIndex hash(String text) {
+		SimilarityIndex idx = new SimilarityIndex();
+		byte[] raw = Constants.encode(text);
+		idx.setFileSize(raw.length);
+		idx.hash(raw, 0, raw.length);
+		idx.sort();
+		return idx;
+	}
+}
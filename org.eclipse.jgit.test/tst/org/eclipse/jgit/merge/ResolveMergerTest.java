@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.merge;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.Constants.OBJ_COMMIT;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Commit;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+public class ResolveMergerTest extends RepositoryTestCase {
+	private ObjectInserter ins;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		ins = db.newObjectInserter();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ins.release();
+		super.tearDown();
+	}
+
+	public void testMergesDisjointEdits() throws Exception {
+		ObjectId b = commit(tree("f", "a\nb\nc\nd\ne\n"));
+		ObjectId o = commit(tree("f", "a\nB\nc\nd\ne\n"), b);
+		ObjectId t = commit(tree("f", "a\nb\nc\nD\ne\n"), b);
+
+		ResolveMerger m = newMerger();
+		assertTrue(m.merge(o, t));
+		assertEquals("a\nB\nc\nD\ne\n", read(m.getResultTreeId(), "f"));
+		assertTrue(m.getUnmergedPaths().isEmpty());
+		assertTrue(m.getMergeResults().isEmpty());
+	}
+
+	public void testKeepsMissingNewlineAtEnd() throws Exception {
+		ObjectId b = commit(tree("f", "a\nb\nc\nd"));
+		ObjectId o = commit(tree("f", "A\nb\nc\nd"), b);
+		ObjectId t = commit(tree("f", "a\nb\nc\nD"), b);
+
+		ResolveMerger m = newMerger();
+		assertTrue(m.merge(o, t));
+		assertEquals("A\nb\nc\nD", read(m.getResultTreeId(), "f"));
+	}
+
+	public void testMergesOtherPathsAroundContentMerge() throws Exception {
+		ObjectId b = commit(tree("d/f", "1\n2\n3\n", "g", "g\n"));
+		ObjectId o = commit(tree("d/f", "0\n1\n2\n3\n", "g", "g\n"), b);
+		ObjectId t = commit(tree("d/f", "1\n2\n3\n4\n", "h", "h\n"), b);
+
+		ResolveMerger m = newMerger();
+		assertTrue(m.merge(o, t));
+		assertEquals("0\n1\n2\n3\n4\n", read(m.getResultTreeId(), "d/f"));
+		assertEquals("h\n", read(m.getResultTreeId(), "h"));
+		assertNull(read(m.getResultTreeId(), "g"));
+	}
+
+	public void testConflictingEdits() throws Exception {
+		ObjectId b = commit(tree("f", "a\nb\nc\n"));
+		ObjectId o = commit(tree("f", "a\nO\nc\n"), b);
+		ObjectId t = commit(tree("f", "a\nT\nc\n"), b);
+
+		ResolveMerger m = newMerger();
+		assertFalse(m.merge(o, t));
+		assertNull(m.getResultTreeId());
+		assertEquals(Collections.singletonList("f"), m.getUnmergedPaths());
+
+		MergeResult r = m.getMergeResults().get("f");
+		assertNotNull(r);
+		assertTrue(r.containsConflicts());
+
+		DirCache idx = m.getResultIndex();
+		assertEquals(3, idx.getEntryCount());
+		assertEquals(DirCacheEntry.STAGE_1, idx.getEntry(0).getStage());
+		assertEquals(DirCacheEntry.STAGE_2, idx.getEntry(1).getStage());
+		assertEquals(DirCacheEntry.STAGE_3, idx.getEntry(2).getStage());
+	}
+
+	public void testConflictFlushesMergedFiles() throws Exception {
+		ObjectId b = commit(tree("f", "a\nb\nc\nd\ne\n", "g", "g\n"));
+		ObjectId o = commit(tree("f", "a\nB\nc\nd\ne\n", "g", "O\n"), b);
+		ObjectId t = commit(tree("f", "a\nb\nc\nD\ne\n", "g", "T\n"), b);
+
+		final FileRepository repo = db;
+		ResolveMerger m = new ResolveMerger(repo) {
+			private ObjectInserter packed;
+
+			@Override
+			public ObjectInserter getObjectInserter() {
+				if (packed == null)
+					packed = repo.getObjectDatabase().newPackInserter();
+				return packed;
+			}
+		};
+		assertFalse(m.merge(o, t));
+		assertEquals(Arrays.asList("g"), m.getUnmergedPaths());
+
+		DirCacheEntry f = m.getResultIndex().getEntry("f");
+		assertEquals(DirCacheEntry.STAGE_0, f.getStage());
+		assertTrue(db.hasObject(f.getObjectId()));
+	}
+
+	public void testDeleteModifyConflicts() throws Exception {
+		ObjectId b = commit(tree("f", "a\n", "g", "g\n"));
+		ObjectId o = commit(tree("g", "g\n"), b);
+		ObjectId t = commit(tree("f", "A\n", "g", "g\n"), b);
+
+		ResolveMerger m = newMerger();
+		assertFalse(m.merge(o, t));
+		assertEquals(Arrays.asList("f"), m.getUnmergedPaths());
+		assertTrue(m.getMergeResults().isEmpty());
+	}
+
+	public void testBinaryConflicts() throws Exception {
+		ObjectId b = commit(tree("f", "a\0\nb\nc\n"));
+		ObjectId o = commit(tree("f", "A\0\nb\nc\n"), b);
+		ObjectId t = commit(tree("f", "a\0\nb\nC\n"), b);
+
+		ResolveMerger m = newMerger();
+		assertFalse(m.merge(o, t));
+		assertEquals(Arrays.asList("f"), m.getUnmergedPaths());
+		assertTrue(m.getMergeResults().isEmpty());
+	}
+
+	public void testStrategyIsRegistered() {
+		assertSame(MergeStrategy.RESOLVE, MergeStrategy.get("resolve"));
+	}
+
+	private ResolveMerger newMerger() {
+		return (ResolveMerger) MergeStrategy.RESOLVE.newMerger(db);
+	}
+
+	private DirCache tree(String... pathAndContent) throws Exception {
+		DirCache dc = DirCache.newInCore();
+		DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < pathAndContent.length; i += 2) {
+			DirCacheEntry ent = new DirCacheEntry(pathAndContent[i]);
+			ent.setFileMode(FileMode.REGULAR_FILE);
+			ent.setObjectId(ins.insert(OBJ_BLOB, Constants
+					.encode(pathAndContent[i + 1])));
+			b.add(ent);
+		}
+		b.finish();
+		return dc;
+	}
+
+	private ObjectId commit(DirCache tree, ObjectId... parentIds)
+			throws Exception {
+		final Commit c = new Commit(db);
+		c.setTreeId(tree.writeTree(ins));
+		c.setAuthor(new PersonIdent("A U Thor", "a.u.thor", 1L, 0));
+		c.setCommitter(c.getAuthor());
+		c.setParentIds(parentIds);
+		c.setMessage("Tree " + c.getTreeId().name());
+		ObjectId id = ins.insert(OBJ_COMMIT, ins.format(c));
+		ins.flush();
+		return id;
+	}
+
+	private String read(ObjectId treeId, String path) throws Exception {
+		ObjectReader reader = db.newObjectReader();
+		try {
+			TreeWalk tw = TreeWalk.forPath(reader, path, treeId);
+			if (tw == null)
+				return null;
+			byte[] raw = reader.open(tw.getObjectId(0), OBJ_BLOB)
+					.getCachedBytes();
+			return new String(raw, "UTF-8");
+		} finally {
+			reader.release();
+		}
+	}
+}
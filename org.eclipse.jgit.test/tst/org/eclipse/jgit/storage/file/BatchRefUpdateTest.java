@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+public class BatchRefUpdateTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private TestRepository<FileRepository> repo;
+
+	private RevCommit A;
+
+	private RevCommit B;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		db = createBareRepository();
+		repo = new TestRepository<FileRepository>(db);
+		A = repo.commit().create();
+		B = repo.commit(A);
+	}
+
+	public void testCreateManyTags() throws Exception {
+		List<ReceiveCommand> cmds = new ArrayList<ReceiveCommand>();
+		List<RevTag> tags = new ArrayList<RevTag>();
+		for (int i = 0; i < 50; i++) {
+			RevTag t = repo.tag("t" + i, B);
+			tags.add(t);
+			cmds.add(create("refs/tags/t" + i, t));
+		}
+		cmds.add(create("refs/tags/light", A));
+		execute(db, false, cmds);
+
+		assertAllOk(cmds);
+		File d = db.getDirectory();
+		assertTrue(new File(d, "packed-refs").isFile());
+		assertEquals(0, new File(d, "refs/tags").list().length);
+
+		RefDatabase refdb = db.getRefDatabase();
+		assertEquals(51, refdb.getRefs("refs/tags/").size());
+		for (int i = 0; i < tags.size(); i++) {
+			Ref r = refdb.getRef("refs/tags/t" + i);
+			assertEquals(tags.get(i), r.getObjectId());
+			assertTrue(r.isPeeled());
+			assertEquals(B, r.getPeeledObjectId());
+		}
+		Ref light = refdb.getRef("refs/tags/light");
+		assertEquals(A, light.getObjectId());
+		assertTrue(light.isPeeled());
+		assertNull(light.getPeeledObjectId());
+	}
+
+	public void testUpdateLooseAndPacked() throws Exception {
+		repo.update("refs/heads/master", A);
+		repo.update("refs/heads/old", A);
+		repo.update("refs/heads/packed", A);
+		((RefDirectory) db.getRefDatabase()).pack(Arrays.asList(
+				"refs/heads/old", "refs/heads/packed"));
+		repo.update("refs/heads/old", B);
+		db.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_LOGALLREFUPDATES, true);
+
+		List<ReceiveCommand> cmds = new ArrayList<ReceiveCommand>();
+		cmds.add(update("refs/heads/master", A, B));
+		cmds.add(update("refs/heads/packed", A, B));
+		cmds.add(delete("refs/heads/old", B));
+		cmds.add(create("refs/heads/new", B));
+		execute(db, false, cmds);
+
+		assertAllOk(cmds);
+		RefDatabase refdb = db.getRefDatabase();
+		assertEquals(B, refdb.getRef("refs/heads/master").getObjectId());
+		assertEquals(B, refdb.getRef("refs/heads/packed").getObjectId());
+		assertEquals(B, refdb.getRef("refs/heads/new").getObjectId());
+		assertNull(refdb.getRef("refs/heads/old"));
+		assertFalse(new File(db.getDirectory(), "refs/heads/old").exists());
+		assertFalse(new File(db.getDirectory(), "refs/heads/master").exists());
+		assertFalse(new File(db.getDirectory(), "logs/refs/heads/old")
+				.exists());
+
+		ReflogReader log = db.getReflogReader("refs/heads/master");
+		assertEquals(B, log.getLastEntry().getNewId());
+		assertEquals("push: fast forward", log.getLastEntry().getComment());
+		log = db.getReflogReader("refs/heads/new");
+		assertEquals("push: created", log.getLastEntry().getComment());
+	}
+
+	public void testUnrelatedPackedRefIsNotPeeled() throws Exception {
+		ObjectId missing = ObjectId
+				.fromString("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef");
+		File packed = new File(db.getDirectory(), "packed-refs");
+		write(packed, missing.name() + " refs/heads/broken\n" + A.name()
+				+ " refs/heads/master\n");
+
+		List<ReceiveCommand> cmds = new ArrayList<ReceiveCommand>();
+		cmds.add(update("refs/heads/master", A, B));
+		cmds.add(create("refs/heads/new", B));
+		execute(db, false, cmds);
+
+		assertAllOk(cmds);
+		RefDatabase refdb = db.getRefDatabase();
+		assertEquals(missing, refdb.getRef("refs/heads/broken").getObjectId());
+		assertEquals(B, refdb.getRef("refs/heads/master").getObjectId());
+		assertEquals(B, refdb.getRef("refs/heads/new").getObjectId());
+		assertFalse(read(packed).startsWith("# pack-refs with: peeled"));
+	}
+
+	public void testPartialFailure() throws Exception {
+		repo.update("refs/heads/master", B);
+		repo.update("refs/heads/side", B);
+
+		List<ReceiveCommand> cmds = new ArrayList<ReceiveCommand>();
+		cmds.add(update("refs/heads/master", A, B));
+		cmds.add(update("refs/heads/side", B, A));
+		cmds.add(create("refs/heads/new", B));
+		execute(db, false, cmds);
+
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, cmds.get(0)
+				.getResult());
+		assertEquals(ReceiveCommand.Result.REJECTED_NONFASTFORWARD, cmds
+				.get(1).getResult());
+		assertEquals(ReceiveCommand.Result.OK, cmds.get(2).getResult());
+
+		RefDatabase refdb = db.getRefDatabase();
+		assertEquals(B, refdb.getRef("refs/heads/master").getObjectId());
+		assertEquals(B, refdb.getRef("refs/heads/side").getObjectId());
+		assertEquals(B, refdb.getRef("refs/heads/new").getObjectId());
+	}
+
+	public void testAtomicFailure() throws Exception {
+		repo.update("refs/heads/master", B);
+
+		List<ReceiveCommand> cmds = new ArrayList<ReceiveCommand>();
+		cmds.add(update("refs/heads/master", A, B));
+		cmds.add(create("refs/heads/new", B));
+		execute(db, true, cmds);
+
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, cmds.get(0)
+				.getResult());
+		assertEquals(ReceiveCommand.Result.REJECTED_OTHER_REASON, cmds.get(1)
+				.getResult());
+		assertNull(db.getRefDatabase().getRef("refs/heads/new"));
+		assertEquals(B, db.getRefDatabase().getRef("refs/heads/master")
+				.getObjectId());
+	}
+
+	public void testNameConflict() throws Exception {
+		repo.update("refs/heads/x", A);
+
+		List<ReceiveCommand> cmds = new ArrayList<ReceiveCommand>();
+		cmds.add(create("refs/heads/a", A));
+		cmds.add(create("refs/heads/a/b", A));
+		cmds.add(create("refs/heads/x/y", A));
+		cmds.add(create("refs/heads/z", A));
+		execute(db, false, cmds);
+
+		assertEquals(ReceiveCommand.Result.OK, cmds.get(0).getResult());
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, cmds.get(1)
+				.getResult());
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, cmds.get(2)
+				.getResult());
+		assertEquals(ReceiveCommand.Result.OK, cmds.get(3).getResult());
+	}
+
+	public void testDeleteCurrentBranch() throws Exception {
+		repo.update("refs/heads/master", A);
+		repo.update("refs/heads/side", A);
+
+		List<ReceiveCommand> cmds = new ArrayList<ReceiveCommand>();
+		cmds.add(delete("refs/heads/master", A));
+		cmds.add(delete("refs/heads/side", A));
+		execute(db, false, cmds);
+
+		assertEquals(ReceiveCommand.Result.REJECTED_CURRENT_BRANCH, cmds.get(0)
+				.getResult());
+		assertEquals(ReceiveCommand.Result.OK, cmds.get(1).getResult());
+		assertNotNull(db.getRefDatabase().getRef("refs/heads/master"));
+		assertNull(db.getRefDatabase().getRef("refs/heads/side"));
+	}
+
+	public void testReftableAtomic() throws Exception {
+		File dir = db.getDirectory();
+		FileRepository rt = new FileRepository(new File(dir.getParentFile(),
+				dir.getName() + "_reftable"));
+		rt.getConfig().setString(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REF_STORAGE,
+				ConfigConstants.CONFIG_REF_STORAGE_REFTABLE);
+		rt.create(true);
+		try {
+			TestRepository<FileRepository> r = new TestRepository<FileRepository>(
+					rt);
+			RevCommit a = r.commit().create();
+			RevCommit b = r.commit(a);
+			RefDatabase refdb = rt.getRefDatabase();
+
+			List<ReceiveCommand> cmds = new ArrayList<ReceiveCommand>();
+			cmds.add(create("refs/heads/master", a));
+			cmds.add(create("refs/heads/side", b));
+			cmds.add(create("refs/tags/v1", b));
+			execute(rt, true, cmds);
+			assertAllOk(cmds);
+			assertEquals(3, refdb.getRefs(Constants.R_REFS).size());
+
+			cmds.clear();
+			cmds.add(update("refs/heads/master", a, b));
+			cmds.add(update("refs/heads/side", a, b));
+			execute(rt, true, cmds);
+			assertEquals(ReceiveCommand.Result.REJECTED_OTHER_REASON, cmds
+					.get(0).getResult());
+			assertEquals(ReceiveCommand.Result.LOCK_FAILURE, cmds.get(1)
+					.getResult());
+			assertEquals(a, refdb.getRef("refs/heads/master").getObjectId());
+		} finally {
+			rt.close();
+		}
+	}
+
+	private static void execute(FileRepository repository, boolean atomic,
+			List<ReceiveCommand> cmds) throws IOException {
+		BatchRefUpdate u = repository.getRefDatabase().newBatchUpdate();
+		u.setAtomic(atomic);
+		u.setRefLogMessage("push", true);
+		u.addCommand(cmds);
+		RevWalk rw = new RevWalk(repository);
+		try {
+			u.execute(rw, NullProgressMonitor.INSTANCE);
+		} finally {
+			rw.release();
+		}
+	}
+
+	private static void assertAllOk(List<ReceiveCommand> cmds) {
+		for (ReceiveCommand cmd : cmds)
+			assertEquals(cmd.toString(), ReceiveCommand.Result.OK, cmd
+					.getResult());
+	}
+
+	private static ReceiveCommand create(String name, ObjectId id) {
+		return new ReceiveCommand(ObjectId.zeroId(), id, name);
+	}
+
+	private static ReceiveCommand update(String name, ObjectId oldId,
+			ObjectId newId) {
+		return new ReceiveCommand(oldId, newId, name);
+	}
+
+	private static ReceiveCommand delete(String name, ObjectId oldId) {
+		return new ReceiveCommand(oldId, ObjectId.zeroId(), name);
+	}
+}
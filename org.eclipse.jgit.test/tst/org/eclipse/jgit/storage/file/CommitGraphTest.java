@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+public class CommitGraphTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private List<RevCommit> commits;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		commits = new ArrayList<RevCommit>();
+	}
+
+	public void testNoGraph() {
+		assertNull(repo.getObjectDatabase().getCommitGraph());
+	}
+
+	public void testWriteAndRead() throws Exception {
+		final RevCommit tip = createHistory();
+		repo.getObjectDatabase().updateCommitGraph(
+				Collections.singleton(tip), null);
+
+		final CommitGraph g = repo.getObjectDatabase().getCommitGraph();
+		assertNotNull("graph loaded", g);
+		assertEquals(commits.size(), g.getCommitCount());
+
+		for (RevCommit c : commits) {
+			final int pos = g.findPosition(c);
+			assertTrue(c.name(), 0 <= pos);
+			assertEquals(c, g.getObjectId(pos));
+			assertEquals(c.getTree(), g.getTree(pos));
+			assertEquals(c.getCommitTime(), g.getCommitTime(pos));
+
+			final int[] p = g.getParents(pos);
+			assertEquals(c.getParentCount(), p.length);
+			int gen = 0;
+			for (int i = 0; i < p.length; i++) {
+				assertEquals(c.getParent(i), g.getObjectId(p[i]));
+				gen = Math.max(gen, g.getGeneration(p[i]));
+			}
+			assertEquals(gen + 1, g.getGeneration(pos));
+		}
+		assertEquals(-1, g.findPosition(tip.getTree()));
+	}
+
+	public void testRevWalkParsesFromGraph() throws Exception {
+		final RevCommit tip = createHistory();
+		repo.getObjectDatabase().updateCommitGraph(
+				Collections.singleton(tip), null);
+
+		// Without the commit objects only the graph can answer.
+		for (RevCommit c : commits)
+			assertTrue(repo.getObjectDatabase().fileFor(c).delete());
+
+		final RevWalk rw = new RevWalk(repo);
+		rw.setRetainBody(false);
+		rw.markStart(rw.parseCommit(tip));
+		int cnt = 0;
+		for (RevCommit c : rw) {
+			assertEquals(find(c).getCommitTime(), c.getCommitTime());
+			cnt++;
+		}
+		assertEquals(commits.size(), cnt);
+		rw.release();
+
+		final RevWalk withBody = new RevWalk(repo);
+		try {
+			withBody.parseCommit(tip);
+			fail("commit body was available");
+		} catch (MissingObjectException notFound) {
+			// expected
+		} finally {
+			withBody.release();
+		}
+	}
+
+	public void testIsMergedInto() throws Exception {
+		final RevCommit tip = createHistory();
+		final boolean[][] expect = new boolean[commits.size()][];
+		RevWalk rw = new RevWalk(repo);
+		for (int b = 0; b < commits.size(); b++) {
+			expect[b] = new boolean[commits.size()];
+			for (int t = 0; t < commits.size(); t++)
+				expect[b][t] = rw.isMergedInto(rw.parseCommit(commits.get(b)),
+						rw.parseCommit(commits.get(t)));
+		}
+		rw.release();
+
+		repo.getObjectDatabase().updateCommitGraph(
+				Collections.singleton(tip), null);
+		for (RevCommit c : commits)
+			assertTrue(repo.getObjectDatabase().fileFor(c).delete());
+
+		rw = new RevWalk(repo);
+		rw.setRetainBody(false);
+		for (int b = 0; b < commits.size(); b++) {
+			for (int t = 0; t < commits.size(); t++) {
+				assertEquals(b + " in " + t, expect[b][t], rw.isMergedInto(rw
+						.lookupCommit(commits.get(b)), rw.lookupCommit(commits
+						.get(t))));
+			}
+		}
+		rw.release();
+	}
+
+	public void testIncrementalUpdate() throws Exception {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final RevCommit tip = createHistory();
+		final RevCommit side = commit("side", "s", tip);
+		odb.updateCommitGraph(Collections.singleton(side), null);
+		assertEquals(commits.size(), odb.getCommitGraph().getCommitCount());
+
+		// The side branch is not a tip anymore, but stays in the graph.
+		final RevCommit next = commit("next", "n", tip);
+		odb.updateCommitGraph(Collections.singleton(next), null);
+		final CommitGraph g = odb.getCommitGraph();
+		assertEquals(commits.size(), g.getCommitCount());
+		assertTrue(0 <= g.findPosition(side));
+		final int pos = g.findPosition(next);
+		assertEquals(g.getGeneration(g.findPosition(tip)) + 1, g
+				.getGeneration(pos));
+	}
+
+	public void testCorruptGraphIgnored() throws Exception {
+		final RevCommit tip = createHistory();
+		final File f = new File(repo.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		final FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write("CGPH not really".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		assertNull(repo.getObjectDatabase().getCommitGraph());
+
+		final RevWalk rw = new RevWalk(repo);
+		rw.setRetainBody(false);
+		assertTrue(rw.isMergedInto(rw.parseCommit(commits.get(0)), rw
+				.parseCommit(tip)));
+		rw.release();
+
+		// Writing a new graph replaces the damaged one.
+		repo.getObjectDatabase().updateCommitGraph(
+				Collections.singleton(tip), null);
+		assertEquals(commits.size(), repo.getObjectDatabase()
+				.getCommitGraph().getCommitCount());
+	}
+
+	private RevCommit createHistory() throws Exception {
+		final RevCommit root = commit("a", "a");
+		RevCommit main = root;
+		RevCommit b1 = commit("b", "1", root);
+		RevCommit b2 = commit("c", "1", root);
+		for (int i = 0; i < 5; i++) {
+			main = commit("a", "a" + i, main);
+			b1 = commit("b", "b" + i, b1);
+		}
+		main = commit("m", "m", main, b1);
+		final RevCommit other = commit("o", "o");
+		main = commit("x", "x", main, b2, other);
+		main = commit("a", "last", main);
+		return main;
+	}
+
+	private RevCommit find(final AnyObjectId id) {
+		for (RevCommit c : commits) {
+			if (AnyObjectId.equals(c, id))
+				return c;
+		}
+		fail("unknown commit " + id.name());
+		return null;
+	}
+
+	private RevCommit commit(final String path, final String content,
+			final RevCommit... parents) throws Exception {
+		final TestRepository<FileRepository>.CommitBuilder b = tr.commit();
+		for (RevCommit p : parents)
+			b.parent(p);
+		b.add(path, content);
+		final RevCommit c = tr.parseBody(b.create());
+		commits.add(c);
+		return c;
+	}
+}
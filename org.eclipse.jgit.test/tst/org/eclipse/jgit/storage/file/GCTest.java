@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+public class GCTest extends LocalDiskRepositoryTestCase {
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private FileRepository db;
+
+	private TestRepository<FileRepository> tr;
+
+	private GC gc;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+		tr = new TestRepository<FileRepository>(db);
+		gc = new GC(db);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (db != null)
+			db.close();
+		super.tearDown();
+	}
+
+	public void testPackRefs() throws Exception {
+		final RevCommit a = tr.branch("master").commit().create();
+		final RevCommit b = tr.branch("side").commit().parent(a).create();
+		assertEquals(2, gc.getStatistics().numberOfLooseRefs);
+
+		gc.packRefs();
+
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(0, s.numberOfLooseRefs);
+		assertEquals(2, s.numberOfPackedRefs);
+		assertFalse(new File(db.getDirectory(), "refs/heads/master").exists());
+		assertEquals(a, db.resolve("refs/heads/master"));
+		assertEquals(b, db.resolve("refs/heads/side"));
+
+		final Ref head = db.getRef(Constants.HEAD);
+		assertTrue(head.isSymbolic());
+		assertEquals(a, head.getObjectId());
+	}
+
+	public void testPackRefsSkipsBrokenRef() throws Exception {
+		final RevCommit a = tr.branch("master").commit().create();
+		final File broken = new File(db.getDirectory(), "refs/heads/broken");
+		write(broken, "0123456789012345678901234567890123456789\n");
+
+		gc.packRefs();
+
+		assertFalse(new File(db.getDirectory(), "refs/heads/master").exists());
+		assertTrue(broken.exists());
+		assertEquals(a, db.resolve("refs/heads/master"));
+		assertTrue(db.getRef("refs/heads/master").isPeeled());
+	}
+
+	public void testRepackIntoOnePack() throws Exception {
+		final RevCommit a = tr.branch("master").commit().add("a", "a")
+				.create();
+		tr.packAndPrune();
+		final RevCommit b = tr.branch("master").commit().parent(a).add("b",
+				"b").create();
+		assertEquals(1, gc.getStatistics().numberOfPackFiles);
+		assertTrue(gc.getStatistics().numberOfLooseObjects > 0);
+
+		final PackFile pack = gc.gc();
+
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(1, s.numberOfPackFiles);
+		assertEquals(0, s.numberOfLooseObjects);
+		assertEquals(6, s.numberOfPackedObjects);
+		assertTrue(pack.hasObject(a));
+		assertTrue(pack.hasObject(b));
+		tr.fsck(b);
+	}
+
+	public void testRepackKeepsPackWithKeepFile() throws Exception {
+		tr.branch("master").commit().add("a", "a").create();
+		tr.packAndPrune();
+		final PackFile kept = db.getObjectDatabase().getPacks().iterator()
+				.next();
+		final String name = kept.getPackFile().getName();
+		final File keep = new File(kept.getPackFile().getParentFile(), name
+				.substring(0, name.length() - ".pack".length())
+				+ ".keep");
+		write(keep, "");
+		tr.branch("master").commit().add("b", "b").create();
+
+		gc.gc();
+
+		assertTrue(kept.getPackFile().exists());
+		assertEquals(2, gc.getStatistics().numberOfPackFiles);
+	}
+
+	public void testRecentUnreachableLooseObjectIsKept() throws Exception {
+		tr.branch("master").commit().create();
+		final RevBlob recent = tr.blob("recent");
+		final RevBlob old = tr.blob("old");
+		db.getObjectDatabase().fileFor(old).setLastModified(
+				System.currentTimeMillis() - 30 * DAY);
+
+		gc.gc();
+
+		assertTrue(db.hasObject(recent));
+		assertFalse(db.hasObject(old));
+	}
+
+	public void testUnreachableObjectInPackIsLoosened() throws Exception {
+		final RevCommit a = tr.branch("master").commit().add("a", "a")
+				.create();
+		tr.packAndPrune();
+		final RevCommit b = tr.branch("master").commit().noParents().add(
+				"b", "b").create();
+
+		gc.gc();
+
+		assertTrue(db.getObjectDatabase().fileFor(a).exists());
+		assertTrue(db.hasObject(a));
+		assertEquals(Constants.OBJ_COMMIT, db.open(a).getType());
+		assertTrue(db.hasObject(b));
+		assertEquals(1, gc.getStatistics().numberOfPackFiles);
+
+		gc.setExpire(new Date(System.currentTimeMillis() + DAY));
+		gc.gc();
+		assertFalse(db.hasObject(a));
+		assertTrue(db.hasObject(b));
+	}
+
+	public void testExpireReflogs() throws Exception {
+		final RevCommit a = tr.branch("master").commit().create();
+		final RevCommit b = tr.branch("master").commit().parent(a).create();
+		final long now = System.currentTimeMillis();
+		final File log = new File(db.getDirectory(), "logs/refs/heads/master");
+		log.getParentFile().mkdirs();
+		write(log, entry(ObjectId.zeroId(), a, now - 100 * DAY, "old")
+				+ entry(a, b, now - DAY, "new"));
+
+		final Set<ObjectId> ids = gc.expireReflogs();
+
+		assertEquals(2, ids.size());
+		assertTrue(ids.contains(a.copy()));
+		assertTrue(ids.contains(b.copy()));
+		final String left = RawParseUtils.decode(IO.readFully(log));
+		assertEquals(entry(a, b, now - DAY, "new"), left);
+	}
+
+	public void testLockedReflogKeepsObjects() throws Exception {
+		final RevCommit a = tr.branch("master").commit().create();
+		final RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		db.getObjectDatabase().fileFor(b).setLastModified(
+				System.currentTimeMillis() - 30 * DAY);
+		final long now = System.currentTimeMillis();
+		final File log = new File(db.getDirectory(), "logs/refs/heads/master");
+		log.getParentFile().mkdirs();
+		final String content = entry(ObjectId.zeroId(), a, now - DAY, "a")
+				+ entry(a, b, now - DAY, "b") + entry(b, a, now, "reset");
+		write(log, content);
+		final File lck = new File(log.getParentFile(), "master.lock");
+		write(lck, "");
+
+		gc.gc();
+
+		assertTrue(db.hasObject(b));
+		assertEquals(content, RawParseUtils.decode(IO.readFully(log)));
+		assertTrue(lck.exists());
+	}
+
+	public void testGeometricSplit() {
+		assertEquals(0, GC.geometricSplit(new long[] {}, 0, 2));
+		assertEquals(0, GC.geometricSplit(new long[] { 1, 3, 10, 100 }, 0, 2));
+		assertEquals(3, GC.geometricSplit(new long[] { 1, 4, 5, 100 }, 0, 2));
+		assertEquals(4, GC.geometricSplit(new long[] { 1, 4, 5, 19 }, 0, 2));
+		assertEquals(2, GC.geometricSplit(new long[] { 1, 3, 10, 100 }, 1, 2));
+		assertEquals(3, GC.geometricSplit(new long[] { 1, 3, 10, 100 }, 0, 4));
+	}
+
+	public void testRepackGeometricKeepsBasePack() throws Exception {
+		final PackFile base = insertPack("base", 100).pack;
+		insertPack("a", 5);
+		insertPack("b", 4);
+		final List<ObjectId> small = new ArrayList<ObjectId>();
+		small.addAll(insertPack("c", 1).ids);
+		final RevBlob loose = tr.blob("loose");
+
+		final PackFile pack = gc.repackGeometric();
+
+		assertNotNull(pack);
+		assertEquals(11, pack.getObjectCount());
+		assertTrue(pack.hasObject(small.get(0)));
+		assertTrue(pack.hasObject(loose));
+		assertTrue(base.getPackFile().exists());
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(2, s.numberOfPackFiles);
+		assertEquals(0, s.numberOfLooseObjects);
+		assertEquals(111, s.numberOfPackedObjects);
+	}
+
+	public void testRepackGeometricLeavesProgressionAlone() throws Exception {
+		insertPack("base", 100);
+		insertPack("a", 10);
+		insertPack("b", 3);
+		insertPack("c", 1);
+
+		assertNull(gc.repackGeometric());
+		assertEquals(4, gc.getStatistics().numberOfPackFiles);
+
+		gc.setGeometricFactor(4);
+		assertNotNull(gc.repackGeometric());
+		assertEquals(2, gc.getStatistics().numberOfPackFiles);
+	}
+
+	public void testRepackGeometricPacksLooseObjects() throws Exception {
+		final PackFile base = insertPack("base", 100).pack;
+		final PackFile a = insertPack("a", 10).pack;
+		final RevBlob loose = tr.blob("loose");
+
+		final PackFile pack = gc.repackGeometric();
+
+		assertNotNull(pack);
+		assertEquals(1, pack.getObjectCount());
+		assertTrue(pack.hasObject(loose));
+		assertTrue(base.getPackFile().exists());
+		assertTrue(a.getPackFile().exists());
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(3, s.numberOfPackFiles);
+		assertEquals(0, s.numberOfLooseObjects);
+	}
+
+	public void testRepackGeometricStopsWhenOutOfTime() throws Exception {
+		insertPack("base", 100);
+		insertPack("a", 5);
+		insertPack("b", 4);
+		insertPack("c", 1);
+		final RevBlob loose = tr.blob("loose");
+		final File packDir = new File(db.getObjectDatabase().getDirectory(),
+				"pack");
+		final int files = packDir.list().length;
+
+		gc.setTimeBudget(1);
+		gc.setProgressMonitor(new ProgressMonitor() {
+			public void start(int totalTasks) {
+				// Not reported.
+			}
+
+			public void beginTask(String title, int totalWork) {
+				// Not reported.
+			}
+
+			public void update(int completed) {
+				// Not reported.
+			}
+
+			public void endTask() {
+				// Not reported.
+			}
+
+			public boolean isCancelled() {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					// Only delays the check.
+				}
+				return false;
+			}
+		});
+
+		assertNull(gc.repackGeometric());
+		assertEquals(files, packDir.list().length);
+		assertTrue(db.getObjectDatabase().fileFor(loose).exists());
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(4, s.numberOfPackFiles);
+		assertEquals(1, s.numberOfLooseObjects);
+	}
+
+	public void testRepackGeometricRejectsSmallFactor() {
+		try {
+			gc.setGeometricFactor(1);
+			fail("accepted factor 1");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static class InsertedPack {
+		final List<ObjectId> ids = new ArrayList<ObjectId>();
+
+		PackFile pack;
+	}
+
+	private InsertedPack insertPack(final String prefix, final int n)
+			throws Exception {
+		final InsertedPack r = new InsertedPack();
+		final PackInserter ins = db.getObjectDatabase().newPackInserter();
+		try {
+			for (int i = 0; i < n; i++)
+				r.ids.add(ins.insert(Constants.OBJ_BLOB, Constants
+						.encode(prefix + " " + i)));
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+		for (final PackFile p : db.getObjectDatabase().getPacks())
+			if (p.hasObject(r.ids.get(0)))
+				r.pack = p;
+		return r;
+	}
+
+	private static String entry(final ObjectId oldId, final ObjectId newId,
+			final long when, final String msg) {
+		return oldId.name() + " " + newId.name()
+				+ " A U Thor <a@example.com> " + (when / 1000) + " +0000\t"
+				+ msg + "\n";
+	}
+}
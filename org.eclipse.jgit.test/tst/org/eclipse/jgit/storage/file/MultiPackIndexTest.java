@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
+
+public class MultiPackIndexTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private File midxFile;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		midxFile = new File(repo.getObjectDatabase().getDirectory(),
+				"pack/multi-pack-index");
+	}
+
+	public void testWriteAndRead() throws Exception {
+		createPacks(3);
+		repo.getObjectDatabase().updateMultiPackIndex(null);
+		assertTrue(midxFile.isFile());
+
+		final List<PackFile> packs = new ArrayList<PackFile>(repo
+				.getObjectDatabase().getPacks());
+		assertEquals(3, packs.size());
+
+		final MultiPackIndex midx = MultiPackIndex.open(midxFile);
+		assertEquals(packs.size(), midx.getPackCount());
+		for (int i = 1; i < midx.getPackCount(); i++)
+			assertTrue(midx.getPackName(i - 1).compareTo(
+					midx.getPackName(i)) < 0);
+
+		final ObjectIdSubclassMap<ObjectId> all = new ObjectIdSubclassMap<ObjectId>();
+		for (PackFile p : packs) {
+			for (MutableEntry e : p) {
+				final ObjectId id = e.toObjectId();
+				final int pos = midx.find(id);
+				assertTrue(id.name(), 0 <= pos);
+				assertEquals(id, midx.getObjectId(pos));
+
+				final PackFile owner = find(packs, midx.getPackName(midx
+						.getPackId(pos)));
+				assertTrue(owner.hasObject(id));
+				if (owner == p)
+					assertEquals(e.getOffset(), midx.getOffset(pos));
+				if (!all.contains(id))
+					all.add(id);
+			}
+		}
+		assertEquals(all.size(), midx.getObjectCount());
+		assertEquals(-1, midx.find(ObjectId.zeroId()));
+	}
+
+	public void testOpenThroughIndex() throws Exception {
+		final List<RevBlob> blobs = createPacks(3);
+		repo.getObjectDatabase().updateMultiPackIndex(null);
+
+		// A pack written after the index is searched on its own.
+		final RevBlob extra = tr.blob("not in the index");
+		tr.update("extra", tr.commit().add("e", extra).create());
+		tr.packAndPrune();
+		blobs.add(extra);
+
+		final FileRepository fresh = new FileRepository(repo.getDirectory());
+		final ObjectReader reader = fresh.newObjectReader();
+		try {
+			for (RevBlob b : blobs) {
+				assertTrue(b.name(), reader.has(b));
+				assertEquals(b.name(), reader.open(b).getSize(), reader
+						.getObjectSize(b, Constants.OBJ_BLOB));
+			}
+			assertEquals("not in the index", new String(reader.open(extra)
+					.getCachedBytes(), "UTF-8"));
+			assertFalse(reader.has(ObjectId.zeroId()));
+		} finally {
+			reader.release();
+			fresh.close();
+		}
+	}
+
+	public void testStaleIndexIsIgnored() throws Exception {
+		final List<RevBlob> blobs = createPacks(2);
+		repo.getObjectDatabase().updateMultiPackIndex(null);
+
+		// Every pack holds all objects reachable at the time it was
+		// written, so the most recent one alone still has everything.
+		final List<PackFile> packs = new ArrayList<PackFile>(repo
+				.getObjectDatabase().getPacks());
+		PackFile oldest = packs.get(0);
+		for (PackFile p : packs) {
+			if (p.getObjectCount() < oldest.getObjectCount())
+				oldest = p;
+		}
+		final String base = oldest.getPackFile().getPath();
+		oldest.close();
+		repo.close();
+		assertTrue(new File(base).delete());
+		assertTrue(new File(base.replace(".pack", ".idx")).delete());
+
+		final FileRepository fresh = new FileRepository(repo.getDirectory());
+		final ObjectReader reader = fresh.newObjectReader();
+		try {
+			for (RevBlob b : blobs)
+				assertEquals(b.name(), Constants.OBJ_BLOB, reader.open(b)
+						.getType());
+		} finally {
+			reader.release();
+			fresh.close();
+		}
+	}
+
+	public void testCorruptIndexIsIgnored() throws Exception {
+		final List<RevBlob> blobs = createPacks(2);
+		write(midxFile, "MIDX garbage");
+
+		final FileRepository fresh = new FileRepository(repo.getDirectory());
+		final ObjectReader reader = fresh.newObjectReader();
+		try {
+			for (RevBlob b : blobs)
+				assertTrue(b.name(), reader.has(b));
+		} finally {
+			reader.release();
+			fresh.close();
+		}
+	}
+
+	private List<RevBlob> createPacks(final int count) throws Exception {
+		final List<RevBlob> blobs = new ArrayList<RevBlob>();
+		RevCommit tip = null;
+		for (int n = 0; n < count; n++) {
+			for (int i = 0; i < 4; i++) {
+				final RevBlob b = tr.blob(b(n, i));
+				final TestRepository<FileRepository>.CommitBuilder c = tr
+						.commit();
+				if (tip != null)
+					c.parent(tip);
+				c.add("f" + n + "_" + i, b);
+				tip = c.create();
+				blobs.add(b);
+			}
+			tr.update("master", tip);
+			tr.packAndPrune();
+		}
+		return blobs;
+	}
+
+	private static String b(final int n, final int i) {
+		return n + "_" + i;
+	}
+
+	private static PackFile find(final List<PackFile> packs, final String idx) {
+		for (PackFile p : packs) {
+			if (p.getPackFile().getName().equals(
+					idx.replace(".idx", ".pack")))
+				return p;
+		}
+		fail("unknown pack " + idx);
+		return null;
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.TestRng;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackWriter;
+
+public class PackBitmapIndexTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private PackConfig config;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		config = new PackConfig(repo);
+		config.setBitmapCommitInterval(3);
+	}
+
+	public void testEWAH_RoundTrip() throws IOException {
+		final TestRng rng = new TestRng(getName());
+		assertRoundTrip(new BitSet());
+
+		final BitSet dense = new BitSet();
+		dense.set(0, 1000);
+		assertRoundTrip(dense);
+
+		final BitSet sparse = new BitSet();
+		sparse.set(3);
+		sparse.set(64);
+		sparse.set(100000);
+		assertRoundTrip(sparse);
+
+		final BitSet random = new BitSet();
+		for (int i = 0; i < 5000; i++)
+			random.set((rng.nextInt() >>> 1) % 20000);
+		random.set(30000, 40000);
+		assertRoundTrip(random);
+	}
+
+	public void testEWAH_CompressesRuns() {
+		final BitSet bits = new BitSet();
+		bits.set(0, 64 * 1000);
+		bits.set(64 * 2000 + 5);
+		final EWAHBitmap b = EWAHBitmap.compress(bits);
+		assertTrue(b.getWordCount() < 10);
+		assertEquals(bits, b.toBitSet());
+	}
+
+	public void testWriteAndOpen() throws Exception {
+		final RevCommit tip = createHistory();
+		final PackFile pack = repack(tip);
+
+		final PackBitmapIndex idx = pack.getBitmapIndex();
+		assertNotNull("bitmap index loaded", idx);
+		assertEquals(pack.getObjectCount(), idx.getObjectCount());
+		assertTrue(0 < idx.getBitmapCount());
+		assertNotNull("tip has bitmap", idx.getBitmap(tip));
+	}
+
+	public void testIgnoresBitmapOfOtherPack() throws Exception {
+		final RevCommit tip = createHistory();
+		final PackFile pack = repack(tip);
+		final File bitmap = bitmapFor(pack);
+
+		// Replace the bitmap with one made for a different pack.
+		final PackWriter pw = new PackWriter(config, repo.newObjectReader());
+		try {
+			pw.preparePack(NullProgressMonitor.INSTANCE, Collections
+					.singleton(tip.getParent(0)), null);
+			pw.writePack(null, null, new ByteArrayOutputStream());
+			bitmap.delete();
+			write(bitmap, pw, 2);
+		} finally {
+			pw.release();
+		}
+		pack.close();
+		assertNull(pack.getBitmapIndex());
+	}
+
+	public void testPreparePack() throws Exception {
+		final RevCommit tip = createHistory();
+		final RevTag tag = tr.tag("v1", tip.getParent(0));
+		tr.update("refs/tags/v1", tag);
+		repack(tip, tag);
+
+		final List<ObjectId> all = new ArrayList<ObjectId>();
+		all.add(tip);
+		all.add(tag);
+		assertPreparePack(all, null);
+
+		RevCommit c = tip;
+		while (c.getParentCount() > 0) {
+			c = tr.parseBody(c.getParent(c.getParentCount() - 1));
+			assertPreparePack(Collections.singleton(tip), Collections
+					.singleton(c));
+			assertPreparePack(Collections.singleton(c), null);
+		}
+	}
+
+	public void testFindObjectsToPack() throws Exception {
+		final RevCommit tip = createHistory();
+		repack(tip);
+
+		final WindowCursor wc = (WindowCursor) repo.newObjectReader();
+		try {
+			final RevCommit base = tr.parseBody(tip.getParent(0));
+			final List<RevObject> found = wc.findObjectsToPack(
+					NullProgressMonitor.INSTANCE, Collections.singleton(tip),
+					Collections.singleton(base));
+			assertNotNull("bitmaps answered", found);
+
+			final Set<ObjectId> expect = reachable(Collections.singleton(tip));
+			expect.removeAll(reachable(Collections.singleton(base)));
+			final Set<ObjectId> actual = new HashSet<ObjectId>();
+			for (RevObject o : found)
+				actual.add(o.copy());
+			assertEquals(expect, actual);
+		} finally {
+			wc.release();
+		}
+	}
+
+	public void testPreparePack_LooseObjectsFallBackToWalk() throws Exception {
+		final RevCommit tip = createHistory();
+		repack(tip);
+
+		final RevCommit next = tr.commit().parent(tip).add("loose", "l")
+				.create();
+		assertPreparePack(Collections.singleton(next), Collections
+				.singleton(tip));
+		assertPreparePack(Collections.singleton(next), null);
+	}
+
+	public void testPreparePack_ThinPackFallsBackToWalk() throws Exception {
+		TestRepository<FileRepository>.CommitBuilder cb = tr.commit();
+		for (int i = 0; i < 200; i++)
+			cb.add("f" + i, "c" + i);
+		final RevCommit base = cb.create();
+
+		final RevCommit next = tr.commit().parent(base).rm("f0").create();
+		tr.update("refs/heads/master", next);
+		repack(next);
+
+		// The new tree is only small as a delta against the old tree,
+		// which a thin pack can use because the receiver already has it.
+		// Search for deltas instead of copying the packed representation.
+		// Removing a file keeps the new tree smaller than its base, so the
+		// base enters the delta window first.
+		config.setReuseDeltas(false);
+		config.setReuseObjects(false);
+		final int full = packSize(next, base, false);
+		final int thin = packSize(next, base, true);
+		assertTrue(thin + " < " + full, thin < full / 2);
+	}
+
+	private RevCommit createHistory() throws Exception {
+		RevCommit base = tr.commit().add("a", "a0").add("b", "b0").create();
+		RevCommit side = base;
+		for (int i = 1; i <= 10; i++) {
+			base = tr.commit().parent(base).add("a", "a" + i).add("d/c",
+					"c" + (i % 3)).create();
+			if (i % 4 == 0) {
+				side = tr.commit().parent(side).add("s", "s" + i).create();
+				base = tr.commit().parent(base).parent(side).add("s",
+						"s" + i).create();
+			}
+		}
+		tr.update("refs/heads/master", base);
+		return tr.parseBody(base);
+	}
+
+	private PackFile repack(final ObjectId... tips) throws Exception {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final File dir = new File(odb.getDirectory(), "pack");
+		final PackWriter pw = new PackWriter(config, repo.newObjectReader());
+		final File packFile, idxFile;
+		try {
+			final List<ObjectId> want = new ArrayList<ObjectId>();
+			Collections.addAll(want, tips);
+			pw.preparePack(NullProgressMonitor.INSTANCE, want, null);
+			final String name = "pack-" + pw.computeName().name();
+
+			packFile = new File(dir, name + ".pack");
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					packFile));
+			try {
+				pw.writePack(null, null, out);
+			} finally {
+				out.close();
+			}
+
+			idxFile = new File(dir, name + ".idx");
+			write(idxFile, pw, 1);
+			write(new File(dir, name + ".bitmap"), pw, 2);
+		} finally {
+			pw.release();
+		}
+		odb.openPack(packFile, idxFile);
+		for (PackFile p : odb.getPacks()) {
+			if (p.getPackFile().equals(packFile))
+				return p;
+		}
+		fail("pack was not opened");
+		return null;
+	}
+
+	private int packSize(final ObjectId want, final ObjectId have,
+			final boolean thin) throws IOException {
+		final PackWriter pw = new PackWriter(config, repo.newObjectReader());
+		try {
+			pw.setThin(thin);
+			pw.preparePack(null, Collections.singleton(want), Collections
+					.singleton(have));
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			pw.writePack(null, null, out);
+			return out.size();
+		} finally {
+			pw.release();
+		}
+	}
+
+	private static void write(final File file, final PackWriter pw,
+			final int what) throws IOException {
+		final OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(file));
+		try {
+			if (what == 1)
+				pw.writeIndex(out);
+			else
+				pw.writeBitmapIndex(null, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static File bitmapFor(final PackFile pack) {
+		final String p = pack.getPackFile().getPath();
+		return new File(p.substring(0, p.length() - 5) + ".bitmap");
+	}
+
+	private void assertPreparePack(final Collection<? extends ObjectId> want,
+			final Collection<? extends ObjectId> have) throws IOException {
+		final Set<ObjectId> expect = reachable(want);
+		if (have != null)
+			expect.removeAll(reachable(have));
+
+		final PackWriter pw = new PackWriter(config, repo.newObjectReader());
+		try {
+			pw.preparePack(null, want, have);
+			assertEquals(expect.size(), pw.getObjectsNumber());
+			for (ObjectId id : expect)
+				assertTrue(id.name(), pw.willInclude(id));
+		} finally {
+			pw.release();
+		}
+	}
+
+	private Set<ObjectId> reachable(final Collection<? extends ObjectId> tips)
+			throws IOException {
+		final Set<ObjectId> r = new HashSet<ObjectId>();
+		final ObjectWalk ow = new ObjectWalk(repo);
+		try {
+			for (ObjectId id : tips)
+				ow.markStart(ow.parseAny(id));
+			RevObject o;
+			while ((o = ow.next()) != null)
+				r.add(o.copy());
+			while ((o = ow.nextObject()) != null)
+				r.add(o.copy());
+		} finally {
+			ow.release();
+		}
+		return r;
+	}
+
+	private static void assertRoundTrip(final BitSet bits) throws IOException {
+		final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		EWAHBitmap.compress(bits).writeTo(new DataOutputStream(buf));
+
+		final EWAHBitmap b = EWAHBitmap.read(new DataInputStream(
+				new ByteArrayInputStream(buf.toByteArray())));
+		assertEquals(bits, b.toBitSet());
+		assertEquals(bits.length(), b.length());
+	}
+}
@@ -44,6 +44,7 @@
 package org.eclipse.jgit.storage.file;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -139,7 +140,7 @@ public void testIteratorReturnedValues1() {
 	/**
 	 * Compare offset from iterator entries with output of findOffset() method.
 	 */
-	public void testCompareEntriesOffsetsWithFindOffsets() {
+	public void testCompareEntriesOffsetsWithFindOffsets() throws IOException {
 		for (MutableEntry me : smallIdx) {
 			assertEquals(smallIdx.findOffset(me.toObjectId()), me.getOffset());
 		}
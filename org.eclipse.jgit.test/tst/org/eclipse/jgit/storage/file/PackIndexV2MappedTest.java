@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+public class PackIndexV2MappedTest extends PackIndexV2Test {
+	public void setUp() throws Exception {
+		super.setUp();
+		smallIdx = PackIndex.open(getFileForPack34be9032(), true);
+		denseIdx = PackIndex.open(getFileForPackdf2982f28(), true);
+	}
+
+	public void testIsMapped() {
+		assertTrue(smallIdx instanceof PackIndexV2Mapped);
+		assertTrue(denseIdx instanceof PackIndexV2Mapped);
+	}
+
+	public void testFindMissing() throws IOException {
+		assertEquals(-1, denseIdx.findOffset(ObjectId
+				.fromString("0000000000000000000000000000000000000000")));
+		assertEquals(-1, denseIdx.findOffset(ObjectId
+				.fromString("ffffffffffffffffffffffffffffffffffffffff")));
+		assertEquals(-1, denseIdx.findOffset(ObjectId
+				.fromString("02ba32d3649e510002c21651936b7077aa75ffa8")));
+	}
+
+	public void testCorruptOffset64Index() throws Exception {
+		final byte[] raw = IO.readFully(getFileForPackdf2982f28());
+		final int cnt = NB.decodeInt32(raw, 8 + 4 * 255);
+		final int offset32 = 8 + 4 * 256 + cnt
+				* (Constants.OBJECT_ID_LENGTH + 4);
+		NB.encodeInt32(raw, offset32, 0x80000000 | 5);
+		final File corrupt = new File(trash, "corrupt.idx");
+		final FileOutputStream out = new FileOutputStream(corrupt);
+		try {
+			out.write(raw);
+		} finally {
+			out.close();
+		}
+
+		final PackIndex idx = PackIndex.open(corrupt, true);
+		final ObjectId first = idx.getObjectId(0);
+		assertTrue(idx.hasObject(first));
+		try {
+			idx.findOffset(first);
+			fail("read 64 bit offset outside of the table");
+		} catch (CorruptObjectException err) {
+			// expected
+		}
+	}
+
+	public void testSameAsHeap() throws Exception {
+		final PackIndex heap = PackIndex.open(getFileForPackdf2982f28());
+		assertEquals(heap.getObjectCount(), denseIdx.getObjectCount());
+		assertEquals(heap.getOffset64Count(), denseIdx.getOffset64Count());
+		for (PackIndex.MutableEntry e : heap) {
+			final ObjectId id = e.toObjectId();
+			assertEquals(e.getOffset(), denseIdx.findOffset(id));
+			assertEquals(heap.findCRC32(id), denseIdx.findCRC32(id));
+		}
+		for (int i = 0; i < heap.getObjectCount(); i++)
+			assertEquals(heap.getObjectId(i), denseIdx.getObjectId(i));
+	}
+}
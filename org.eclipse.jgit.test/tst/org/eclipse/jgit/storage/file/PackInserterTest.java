@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.util.IO;
+
+public class PackInserterTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private File packDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+		packDir = new File(db.getObjectsDirectory(), "pack");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (db != null)
+			db.close();
+		super.tearDown();
+	}
+
+	public void testReadBeforeFlush() throws Exception {
+		final PackInserter ins = db.getObjectDatabase().newPackInserter();
+		try {
+			final ObjectId a = ins.insert(Constants.OBJ_BLOB, bytes("a"));
+			final ObjectReader reader = ins.newReader();
+			try {
+				final ObjectId b = ins.insert(Constants.OBJ_BLOB, bytes("b"));
+				assertEquals("a", content(reader.open(a)));
+				assertEquals("b", content(reader.open(b,
+						Constants.OBJ_BLOB)));
+				assertEquals(1, reader.getObjectSize(b, Constants.OBJ_BLOB));
+				assertTrue(reader.has(a));
+			} finally {
+				reader.release();
+			}
+
+			assertFalse(db.hasObject(a));
+			assertEquals(0, packFiles().size());
+		} finally {
+			ins.release();
+		}
+	}
+
+	public void testFlushPublishesOnePack() throws Exception {
+		final PackInserter ins = db.getObjectDatabase().newPackInserter();
+		final List<ObjectId> ids = new ArrayList<ObjectId>();
+		try {
+			for (int i = 0; i < 100; i++)
+				ids.add(ins.insert(Constants.OBJ_BLOB, bytes("blob " + i)));
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+
+		assertEquals(Arrays.asList("idx", "pack"), packFiles());
+		for (int i = 0; i < ids.size(); i++)
+			assertEquals("blob " + i, content(db.open(ids.get(i))));
+
+		final File[] files = db.getObjectsDirectory().listFiles();
+		for (final File f : files)
+			assertFalse(f.getName(), f.getName().startsWith("insert_"));
+
+		final PackFile pack = db.getObjectDatabase().getPacks().iterator()
+				.next();
+		assertEquals(100, pack.getObjectCount());
+	}
+
+	public void testDuplicatesAreSkipped() throws Exception {
+		final ObjectInserter loose = db.newObjectInserter();
+		final ObjectId existing;
+		try {
+			existing = loose.insert(Constants.OBJ_BLOB, bytes("existing"));
+			loose.flush();
+		} finally {
+			loose.release();
+		}
+
+		final byte[] big = new byte[100000];
+		for (int i = 0; i < big.length; i++)
+			big[i] = (byte) i;
+
+		final PackInserter ins = db.getObjectDatabase().newPackInserter();
+		try {
+			assertEquals(existing, ins.insert(Constants.OBJ_BLOB,
+					bytes("existing")));
+			final ObjectId a = ins.insert(Constants.OBJ_BLOB, bytes("a"));
+			assertEquals(a, ins.insert(Constants.OBJ_BLOB, bytes("a")));
+
+			final ObjectId b = ins.insert(Constants.OBJ_BLOB, big.length,
+					new ByteArrayInputStream(big));
+			assertEquals(b, ins.insert(Constants.OBJ_BLOB, big.length,
+					new ByteArrayInputStream(big)));
+			final ObjectId c = ins.insert(Constants.OBJ_BLOB, bytes("c"));
+			assertEquals(3, ins.getObjectCount());
+			ins.flush();
+
+			assertTrue(Arrays.equals(big, db.open(b).getCachedBytes()));
+			assertEquals("c", content(db.open(c)));
+		} finally {
+			ins.release();
+		}
+	}
+
+	public void testLargeObjectIsStreamed() throws Exception {
+		db.getConfig().setInt("core", null, "streamfilethreshold", 4096);
+		final byte[] big = new byte[10000];
+		for (int i = 0; i < big.length; i++)
+			big[i] = (byte) (i % 7);
+
+		final PackInserter ins = db.getObjectDatabase().newPackInserter();
+		try {
+			final ObjectId id = ins.insert(Constants.OBJ_BLOB, big);
+			final ObjectReader reader = ins.newReader();
+			try {
+				final ObjectLoader ldr = reader.open(id);
+				assertTrue(ldr.isLarge());
+				assertEquals(big.length, ldr.getSize());
+				final byte[] act = new byte[big.length];
+				IO.readFully(ldr.openStream(), act, 0, act.length);
+				assertTrue(Arrays.equals(big, act));
+			} finally {
+				reader.release();
+			}
+		} finally {
+			ins.release();
+		}
+	}
+
+	public void testLargeObjectReadAfterFlush() throws Exception {
+		db.getConfig().setInt("core", null, "streamfilethreshold", 4096);
+		final byte[] big = new byte[10000];
+		for (int i = 0; i < big.length; i++)
+			big[i] = (byte) (i % 7);
+
+		final PackInserter ins = db.getObjectDatabase().newPackInserter();
+		try {
+			final ObjectId id = ins.insert(Constants.OBJ_BLOB, big);
+			final ObjectReader reader = ins.newReader();
+			try {
+				final ObjectLoader ldr = reader.open(id);
+				assertTrue(ldr.isLarge());
+				ins.flush();
+
+				final byte[] act = new byte[big.length];
+				final InputStream in = ldr.openStream();
+				try {
+					IO.readFully(in, act, 0, act.length);
+				} finally {
+					in.close();
+				}
+				assertTrue(Arrays.equals(big, act));
+			} finally {
+				reader.release();
+			}
+		} finally {
+			ins.release();
+		}
+	}
+
+	public void testReleaseDiscardsObjects() throws Exception {
+		final PackInserter ins = db.getObjectDatabase().newPackInserter();
+		final ObjectId a;
+		try {
+			a = ins.insert(Constants.OBJ_BLOB, bytes("a"));
+		} finally {
+			ins.release();
+		}
+		assertFalse(db.hasObject(a));
+		assertEquals(0, packFiles().size());
+		for (final File f : db.getObjectsDirectory().listFiles())
+			assertFalse(f.getName(), f.getName().startsWith("insert_"));
+	}
+
+	private List<String> packFiles() {
+		final List<String> r = new ArrayList<String>();
+		final String[] names = packDir.list();
+		if (names != null) {
+			Arrays.sort(names);
+			for (final String n : names)
+				r.add(n.substring(n.lastIndexOf('.') + 1));
+		}
+		return r;
+	}
+
+	private static byte[] bytes(final String s) {
+		return Constants.encode(s);
+	}
+
+	private static String content(final ObjectLoader ldr) throws Exception {
+		return new String(ldr.getCachedBytes(), "UTF-8");
+	}
+}
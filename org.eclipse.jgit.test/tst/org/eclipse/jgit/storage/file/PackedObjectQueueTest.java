@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevBlob;
+
+public class PackedObjectQueueTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+	}
+
+	public void testPackedObjectsInPackOrder() throws Exception {
+		final List<RevBlob> blobs = new ArrayList<RevBlob>();
+		for (int i = 0; i < 20; i++)
+			blobs.add(tr.blob("blob " + i));
+		tr.update("master", tr.commit().add("a", blobs.get(0)).create());
+		for (int i = 0; i < blobs.size(); i++)
+			tr.update("b" + i, blobs.get(i));
+		tr.packAndPrune();
+
+		final RevBlob loose = tr.blob("loose");
+		final List<ObjectId> want = new ArrayList<ObjectId>();
+		want.add(loose);
+		want.addAll(blobs);
+
+		final PackFile pack = repo.getObjectDatabase().getPacks().iterator()
+				.next();
+		final ObjectReader reader = repo.newObjectReader();
+		try {
+			final AsyncObjectLoaderQueue<ObjectId> q = reader.open(want, true);
+			long lastOffset = -1;
+			int n = 0;
+			while (q.next()) {
+				final ObjectId id = q.getObjectId();
+				final ObjectLoader ldr = q.open();
+				if (n < blobs.size()) {
+					final long offset = pack.findOffset(id);
+					assertTrue(lastOffset < offset);
+					lastOffset = offset;
+				} else {
+					// Loose objects come after the packed ones.
+					assertEquals(loose, id);
+				}
+				assertEquals(reader.open(id).getSize(), ldr.getSize());
+				n++;
+			}
+			assertEquals(want.size(), n);
+			q.release();
+		} finally {
+			reader.release();
+		}
+	}
+
+	public void testMissingObjects() throws Exception {
+		final RevBlob a = tr.blob("a");
+		final ObjectId missing = ObjectId
+				.fromString("0123456789012345678901234567890123456789");
+		final List<ObjectId> want = new ArrayList<ObjectId>();
+		want.add(missing);
+		want.add(a);
+
+		final ObjectReader reader = repo.newObjectReader();
+		try {
+			AsyncObjectLoaderQueue<ObjectId> q = reader.open(want, false);
+			assertTrue(q.next());
+			assertEquals(a, q.getCurrent());
+			assertFalse(q.next());
+
+			q = reader.open(want, true);
+			try {
+				q.next();
+				fail("missing object not reported");
+			} catch (MissingObjectException e) {
+				// Expected.
+			}
+		} finally {
+			reader.release();
+		}
+	}
+}
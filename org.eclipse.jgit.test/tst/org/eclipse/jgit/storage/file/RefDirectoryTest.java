@@ -58,6 +58,7 @@
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTag;
@@ -807,6 +808,103 @@ public void testGetRefs_PackedWithPeeled() throws IOException {
 		assertEquals(v1_0.getObject(), tag.getPeeledObjectId());
 	}
 
+	public void testGetRefs_PackedWithPeeled_CRLF() throws IOException {
+		writePackedRefs("# pack-refs with: peeled \r\n" + //
+				A.name() + " refs/heads/master\r\n" + //
+				v1_0.name() + " refs/tags/v1.0\r\n" + //
+				"^" + v1_0.getObject().name() + "\r\n");
+
+		final Ref master = refdir.getRef("refs/heads/master");
+		assertEquals("refs/heads/master", master.getName());
+		assertEquals(A, master.getObjectId());
+		assertTrue(master.isPeeled());
+
+		final Ref tag = refdir.getRefs(R_TAGS).get("v1.0");
+		assertEquals(v1_0, tag.getObjectId());
+		assertEquals(v1_0.getObject(), tag.getPeeledObjectId());
+	}
+
+	public void testGetRef_ManyPacked() throws IOException {
+		// Large enough for the packed-refs file to be memory mapped.
+		final int n = 20000;
+		final StringBuilder b = new StringBuilder();
+		b.append("# pack-refs with: peeled \n");
+		for (int i = 0; i < n; i++)
+			b.append(A.name()).append(" refs/heads/b").append(pad(i))
+					.append('\n');
+		for (int i = 0; i < n; i++) {
+			b.append(v1_0.name()).append(" refs/tags/t").append(pad(i))
+					.append('\n');
+			b.append('^').append(v1_0.getObject().name()).append('\n');
+		}
+		writePackedRefs(b.toString());
+
+		Ref r = refdir.getRef("refs/heads/b00000");
+		assertEquals("refs/heads/b00000", r.getName());
+		assertEquals(A, r.getObjectId());
+		assertTrue(r.isPeeled());
+		assertNull(r.getPeeledObjectId());
+
+		r = refdir.getRef("b" + pad(n - 1));
+		assertEquals("refs/heads/b" + pad(n - 1), r.getName());
+		assertEquals(A, r.getObjectId());
+
+		r = refdir.getRef("t" + pad(n / 2));
+		assertEquals("refs/tags/t" + pad(n / 2), r.getName());
+		assertEquals(v1_0, r.getObjectId());
+		assertEquals(v1_0.getObject(), r.getPeeledObjectId());
+
+		assertNull(refdir.getRef("refs/heads/b"));
+		assertNull(refdir.getRef("refs/heads/b000000"));
+		assertNull(refdir.getRef("refs/heads/a"));
+		assertNull(refdir.getRef("refs/tags/z"));
+
+		assertTrue(refdir.isNameConflicting("refs/tags"));
+		assertTrue(refdir.isNameConflicting("refs/tags/t00001/x"));
+		assertFalse(refdir.isNameConflicting("refs/heads/b"));
+	}
+
+	public void testGetRefs_ManyPackedPrefix() throws IOException {
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			b.append(A.name()).append(" refs/heads/a/b").append(pad(i))
+					.append('\n');
+		for (int i = 0; i < 50; i++)
+			b.append(B.name()).append(" refs/heads/b/b").append(pad(i))
+					.append('\n');
+		b.append(A.name()).append(" refs/heads/b0\n");
+		b.append(v1_0.name()).append(" refs/tags/v1.0\n");
+		writePackedRefs(b.toString());
+		writeLooseRef("refs/heads/b/loose", A);
+
+		Map<String, Ref> heads = refdir.getRefs("refs/heads/b/");
+		assertEquals(51, heads.size());
+		assertEquals(B, heads.get("b" + pad(49)).getObjectId());
+		assertEquals(A, heads.get("loose").getObjectId());
+		assertFalse(heads.containsKey("b" + pad(50)));
+
+		assertEquals(152, refdir.getRefs(R_HEADS).size());
+		assertEquals(1, refdir.getRefs(R_TAGS).size());
+		assertTrue(refdir.getRefs("refs/remotes/").isEmpty());
+		assertEquals(153, refdir.getRefs(RefDatabase.ALL).size());
+	}
+
+	public void testDeletePacked_ManyPacked() throws IOException {
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			b.append(A.name()).append(" refs/heads/b").append(pad(i))
+					.append('\n');
+		writePackedRefs(b.toString());
+
+		final RefUpdate u = diskRepo.updateRef("refs/heads/b" + pad(42));
+		u.setForceUpdate(true);
+		assertEquals(RefUpdate.Result.FORCED, u.delete());
+
+		assertNull(refdir.getRef("refs/heads/b" + pad(42)));
+		assertNotNull(refdir.getRef("refs/heads/b" + pad(43)));
+		assertEquals(99, refdir.getRefs(R_HEADS).size());
+	}
+
 	public void testGetRef_EmptyDatabase() throws IOException {
 		Ref r;
 
@@ -985,6 +1083,11 @@ public void testPeelCommit() throws IOException {
 		assertSame(master_p2, refdir.peel(master_p2));
 	}
 
+	private static String pad(int i) {
+		final String s = String.valueOf(i);
+		return "00000".substring(s.length()) + s;
+	}
+
 	private void writeLooseRef(String name, AnyObjectId id) throws IOException {
 		writeLooseRef(name, id.name() + "\n");
 	}
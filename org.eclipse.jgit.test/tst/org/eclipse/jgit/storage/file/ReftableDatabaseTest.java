@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_TAGS;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefRename;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.util.FS;
+
+public class ReftableDatabaseTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private ReftableDatabase refdb;
+
+	private TestRepository<FileRepository> repo;
+
+	private RevCommit A;
+
+	private RevCommit B;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		File dir = createBareRepository().getDirectory();
+		db = new FileRepository(new File(dir.getParentFile(), dir.getName()
+				+ "_reftable"));
+		db.getConfig().setString(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REF_STORAGE,
+				ConfigConstants.CONFIG_REF_STORAGE_REFTABLE);
+		db.create(true);
+		refdb = (ReftableDatabase) db.getRefDatabase();
+
+		repo = new TestRepository<FileRepository>(db);
+		A = repo.commit().create();
+		B = repo.commit(A);
+	}
+
+	protected void tearDown() throws Exception {
+		db.close();
+		super.tearDown();
+	}
+
+	public void testCreate() throws IOException {
+		assertTrue(new File(db.getDirectory(), "reftable/tables.list")
+				.isFile());
+		assertTrue(RepositoryCache.FileKey.isGitRepository(db.getDirectory(),
+				FS.DETECTED));
+
+		Ref head = refdb.getRef(HEAD);
+		assertTrue(head.isSymbolic());
+		assertEquals("refs/heads/master", head.getTarget().getName());
+		assertNull(head.getObjectId());
+		assertTrue(refdb.getRefs(RefDatabase.ALL).isEmpty());
+
+		FileRepository other = new FileRepository(db.getDirectory());
+		try {
+			assertTrue(other.getRefDatabase() instanceof ReftableDatabase);
+		} finally {
+			other.close();
+		}
+	}
+
+	public void testCreateRecordsExtension() {
+		assertEquals(1, db.getConfig().getInt(
+				ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 0));
+		assertEquals(ConfigConstants.CONFIG_REF_STORAGE_REFTABLE, db
+				.getConfig().getString(
+						ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+						ConfigConstants.CONFIG_KEY_REF_STORAGE));
+	}
+
+	public void testRefStorageDoesNotConvertLooseRepository()
+			throws Exception {
+		FileRepository loose = createBareRepository();
+		new TestRepository<FileRepository>(loose).branch("master").commit()
+				.create();
+		loose.getConfig().setString(ConfigConstants.CONFIG_CORE_SECTION,
+				null, ConfigConstants.CONFIG_KEY_REF_STORAGE,
+				ConfigConstants.CONFIG_REF_STORAGE_REFTABLE);
+		loose.getConfig().save();
+
+		FileRepository other = new FileRepository(loose.getDirectory());
+		try {
+			assertTrue(other.getRefDatabase() instanceof RefDirectory);
+			assertNotNull(other.getRef("refs/heads/master"));
+		} finally {
+			other.close();
+		}
+	}
+
+	public void testExtensionRequiresFormat1() throws Exception {
+		db.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 0);
+		db.getConfig().save();
+		try {
+			new FileRepository(db.getDirectory());
+			fail("opened repository with extensions and format 0");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testExtensionRequiresTables() throws Exception {
+		FileRepository loose = createBareRepository();
+		loose.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 1);
+		loose.getConfig().setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION,
+				null, ConfigConstants.CONFIG_KEY_REF_STORAGE,
+				ConfigConstants.CONFIG_REF_STORAGE_REFTABLE);
+		loose.getConfig().save();
+		try {
+			new FileRepository(loose.getDirectory());
+			fail("opened reftable repository without tables");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testTablesRequireExtension() throws Exception {
+		db.getConfig().unset(ConfigConstants.CONFIG_EXTENSIONS_SECTION,
+				null, ConfigConstants.CONFIG_KEY_REF_STORAGE);
+		db.getConfig().save();
+		try {
+			new FileRepository(db.getDirectory());
+			fail("opened reftable repository as loose references");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testUpdate() throws Exception {
+		RefUpdate u = db.updateRef("refs/heads/master");
+		u.setNewObjectId(A);
+		assertEquals(RefUpdate.Result.NEW, u.update());
+
+		u = db.updateRef("refs/heads/master");
+		u.setNewObjectId(B);
+		assertEquals(RefUpdate.Result.FAST_FORWARD, u.update());
+
+		u = db.updateRef("refs/heads/master");
+		u.setNewObjectId(A);
+		assertEquals(RefUpdate.Result.REJECTED, u.update());
+
+		u = db.updateRef("refs/heads/master");
+		u.setNewObjectId(A);
+		u.setExpectedOldObjectId(A);
+		assertEquals(RefUpdate.Result.LOCK_FAILURE, u.forceUpdate());
+
+		Ref head = refdb.getRef(HEAD);
+		assertEquals(B, head.getObjectId());
+		assertEquals("refs/heads/master", head.getTarget().getName());
+		assertEquals(B, refdb.getRef("master").getObjectId());
+	}
+
+	public void testLockedUpdate() throws Exception {
+		LockFile lck = refdb.lock();
+		try {
+			RefUpdate u = db.updateRef("refs/heads/master");
+			u.setNewObjectId(A);
+			assertEquals(RefUpdate.Result.LOCK_FAILURE, u.update());
+		} finally {
+			lck.unlock();
+		}
+		assertNull(refdb.getRef("refs/heads/master"));
+	}
+
+	public void testDelete() throws Exception {
+		repo.update("master", A);
+		repo.update("side", B);
+
+		RefUpdate u = db.updateRef("refs/heads/side");
+		u.setForceUpdate(true);
+		assertEquals(RefUpdate.Result.FORCED, u.delete());
+		assertNull(refdb.getRef("refs/heads/side"));
+		assertEquals(1, refdb.getRefs(R_HEADS).size());
+
+		u = db.updateRef("refs/heads/master");
+		u.setForceUpdate(true);
+		assertEquals(RefUpdate.Result.REJECTED_CURRENT_BRANCH, u.delete());
+
+		refdb.compact();
+		assertEquals(1, refdb.getTableCount());
+		assertNull(refdb.getRef("refs/heads/side"));
+		assertEquals(A, refdb.getRef("refs/heads/master").getObjectId());
+	}
+
+	public void testGetRefsPrefix() throws Exception {
+		for (int i = 0; i < 50; i++) {
+			repo.update("refs/heads/b" + i, A);
+			repo.update("refs/tags/t" + i, B);
+		}
+		repo.update("refs/heads-not/x", A);
+		repo.update("master", B);
+
+		Map<String, Ref> heads = refdb.getRefs(R_HEADS);
+		assertEquals(51, heads.size());
+		assertEquals(A, heads.get("b7").getObjectId());
+		assertEquals(B, heads.get("master").getObjectId());
+		assertFalse(heads.containsKey("x"));
+
+		Map<String, Ref> tags = refdb.getRefs(R_TAGS);
+		assertEquals(50, tags.size());
+		assertEquals(B, tags.get("t49").getObjectId());
+
+		Map<String, Ref> all = refdb.getRefs(RefDatabase.ALL);
+		assertEquals(103, all.size());
+		assertEquals(B, all.get(HEAD).getObjectId());
+
+		// Automatic compaction keeps the stack shallow.
+		assertTrue(refdb.getTableCount() < 10);
+	}
+
+	public void testIsNameConflicting() throws Exception {
+		repo.update("refs/heads/a/b", A);
+		repo.update("refs/heads/q", B);
+
+		assertTrue(refdb.isNameConflicting("refs"));
+		assertTrue(refdb.isNameConflicting("refs/heads"));
+		assertTrue(refdb.isNameConflicting("refs/heads/a"));
+		assertFalse(refdb.isNameConflicting("refs/heads/a/b"));
+		assertFalse(refdb.isNameConflicting("refs/heads/a/d"));
+		assertFalse(refdb.isNameConflicting("refs/heads/master"));
+		assertTrue(refdb.isNameConflicting("refs/heads/a/b/c"));
+		assertTrue(refdb.isNameConflicting("refs/heads/q/master"));
+	}
+
+	public void testRename() throws Exception {
+		repo.update("master", A);
+
+		RefRename r = refdb.newRename("refs/heads/master", "refs/heads/main");
+		assertEquals(RefUpdate.Result.RENAMED, r.rename());
+
+		assertNull(refdb.getRef("refs/heads/master"));
+		assertEquals(A, refdb.getRef("refs/heads/main").getObjectId());
+		Ref head = refdb.getRef(HEAD);
+		assertEquals("refs/heads/main", head.getTarget().getName());
+		assertEquals(A, head.getObjectId());
+	}
+
+	public void testOtherInstanceSeesUpdates() throws Exception {
+		FileRepository other = new FileRepository(db.getDirectory());
+		try {
+			RefDatabase otherRefs = other.getRefDatabase();
+			assertNull(otherRefs.getRef("refs/heads/master"));
+
+			repo.update("master", A);
+			assertEquals(A, otherRefs.getRef("refs/heads/master")
+					.getObjectId());
+
+			RefUpdate u = other.updateRef("refs/heads/master");
+			u.setNewObjectId(B);
+			assertEquals(RefUpdate.Result.FAST_FORWARD, u.update());
+			assertEquals(B, refdb.getRef("refs/heads/master").getObjectId());
+		} finally {
+			other.close();
+		}
+	}
+
+	public void testPeel() throws Exception {
+		RevTag v1 = repo.tag("v1", B);
+		repo.update("refs/tags/v1", v1);
+
+		Ref tag = refdb.getRef("refs/tags/v1");
+		assertFalse(tag.isPeeled());
+		Ref peeled = refdb.peel(tag);
+		assertTrue(peeled.isPeeled());
+		assertEquals(B, peeled.getPeeledObjectId());
+	}
+
+	public void testGcCompacts() throws Exception {
+		for (int i = 0; i < 5; i++)
+			repo.update("refs/heads/b" + i, A);
+		new GC(db).packRefs();
+		assertEquals(1, refdb.getTableCount());
+		assertEquals(5, refdb.getRefs(R_HEADS).size());
+	}
+}
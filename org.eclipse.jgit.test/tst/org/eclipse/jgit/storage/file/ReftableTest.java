@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.SymbolicRef;
+
+public class ReftableTest extends TestCase {
+	private static final ObjectId A = ObjectId
+			.fromString("a7e4d5b3c4d2f6e1a0b9c8d7e6f5a4b3c2d1e0f9");
+
+	private static final ObjectId B = ObjectId
+			.fromString("1e0f9a7e4d5b3c4d2f6e1a0b9c8d7e6f5a4b3c2d");
+
+	public void testEmptyTable() throws IOException {
+		ReftableReader t = read(write(64, new ArrayList<Ref>()));
+		assertEquals(0, t.getRefCount());
+		assertFalse(t.seek("").next());
+		assertNull(t.exact("refs/heads/master"));
+	}
+
+	public void testSingleBlock() throws IOException {
+		List<Ref> refs = new ArrayList<Ref>();
+		refs.add(new SymbolicRef("HEAD", new ObjectIdRef.Unpeeled(NEW,
+				"refs/heads/master", null)));
+		refs.add(new ObjectIdRef.Unpeeled(PACKED, "refs/heads/master", A));
+		refs.add(new ObjectIdRef.PeeledNonTag(PACKED, "refs/heads/next", B));
+		refs.add(new ObjectIdRef.PeeledTag(PACKED, "refs/tags/v1", A, B));
+		refs.add(ReftableDatabase.deletion("refs/tags/v2"));
+
+		ReftableReader t = read(write(4096, refs));
+		assertEquals(5, t.getRefCount());
+		assertEquals(3, t.getMinUpdateIndex());
+		assertEquals(7, t.getMaxUpdateIndex());
+
+		Ref head = t.exact("HEAD").getRef();
+		assertTrue(head.isSymbolic());
+		assertEquals("refs/heads/master", head.getTarget().getName());
+
+		Ref master = t.exact("refs/heads/master").getRef();
+		assertEquals(A, master.getObjectId());
+		assertFalse(master.isPeeled());
+
+		Ref next = t.exact("refs/heads/next").getRef();
+		assertEquals(B, next.getObjectId());
+		assertTrue(next.isPeeled());
+		assertNull(next.getPeeledObjectId());
+
+		Ref v1 = t.exact("refs/tags/v1").getRef();
+		assertEquals(A, v1.getObjectId());
+		assertEquals(B, v1.getPeeledObjectId());
+
+		ReftableReader.Cursor v2 = t.exact("refs/tags/v2");
+		assertTrue(v2.isDeletion());
+		assertNull(v2.getRef());
+
+		assertNull(t.exact("refs/heads"));
+		assertNull(t.exact("refs/heads/mast"));
+		assertNull(t.exact("refs/tags/v3"));
+	}
+
+	public void testManyBlocks() throws IOException {
+		List<Ref> refs = new ArrayList<Ref>();
+		for (int i = 0; i < 2000; i++)
+			refs.add(new ObjectIdRef.Unpeeled(PACKED, name(i), i % 2 == 0 ? A
+					: B));
+		ReftableReader t = read(write(256, refs));
+		assertEquals(2000, t.getRefCount());
+
+		for (int i = 0; i < 2000; i++) {
+			ReftableReader.Cursor c = t.exact(name(i));
+			assertNotNull(name(i), c);
+			assertEquals(i % 2 == 0 ? A : B, c.getRef().getObjectId());
+		}
+		assertNull(t.exact("refs/heads/a"));
+		assertNull(t.exact("refs/heads/z"));
+
+		ReftableReader.Cursor c = t.seek("");
+		for (int i = 0; i < 2000; i++) {
+			assertTrue(c.next());
+			assertEquals(name(i), c.getName());
+		}
+		assertFalse(c.next());
+
+		c = t.seek("refs/heads/b/01");
+		for (int i = 100; i < 2000; i++) {
+			assertTrue(c.next());
+			assertEquals(name(i), c.getName());
+		}
+		assertFalse(c.next());
+	}
+
+	public void testOutOfOrder() throws IOException {
+		ReftableWriter w = new ReftableWriter();
+		w.begin(new ByteArrayOutputStream());
+		w.writeRef(new ObjectIdRef.Unpeeled(PACKED, "refs/heads/b", A));
+		try {
+			w.writeRef(new ObjectIdRef.Unpeeled(PACKED, "refs/heads/a", A));
+			fail("accepted out of order name");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testCorruptFooter() throws IOException {
+		List<Ref> refs = new ArrayList<Ref>();
+		refs.add(new ObjectIdRef.Unpeeled(PACKED, "refs/heads/master", A));
+		byte[] table = write(4096, refs);
+		table[table.length - 10]++;
+		try {
+			read(table);
+			fail("accepted corrupt footer");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static String name(int i) {
+		String s = String.valueOf(i);
+		return "refs/heads/b/" + "0000".substring(s.length()) + s;
+	}
+
+	private static byte[] write(int blockSize, List<Ref> refs)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReftableWriter w = new ReftableWriter();
+		w.setBlockSize(blockSize);
+		w.setUpdateIndex(3, 7);
+		w.begin(out);
+		for (Ref r : refs) {
+			if (ReftableDatabase.isDeletion(r))
+				w.deleteRef(r.getName());
+			else
+				w.writeRef(r);
+		}
+		assertEquals(refs.size(), w.finish());
+		return out.toByteArray();
+	}
+
+	private static ReftableReader read(byte[] table) throws IOException {
+		return new ReftableReader("test.ref", table);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Constants;
+
+public class UnpackedObjectCacheTest extends TestCase {
+	private PackFile pack1;
+
+	private PackFile pack2;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		pack1 = newPack("1");
+		pack2 = newPack("2");
+	}
+
+	public void testHitAndMiss() {
+		final UnpackedObjectCache c = new UnpackedObjectCache(1000, 4);
+		final byte[] data = new byte[10];
+		assertNull(c.get(pack1, 12));
+		c.store(pack1, 12, data, Constants.OBJ_BLOB);
+
+		final UnpackedObjectCache.Entry e = c.get(pack1, 12);
+		assertNotNull(e);
+		assertSame(data, e.data);
+		assertEquals(Constants.OBJ_BLOB, e.type);
+		assertNull(c.get(pack2, 12));
+
+		final DeltaBaseCacheStats s = c.getStats();
+		assertEquals(1, s.getHitCount());
+		assertEquals(2, s.getMissCount());
+		assertEquals(0, s.getEvictionCount());
+		assertEquals(10, s.getOpenByteCount());
+		assertEquals(1000, s.getMaxByteCount());
+	}
+
+	public void testTooLargeIsNotCached() {
+		final UnpackedObjectCache c = new UnpackedObjectCache(100, 1);
+		c.store(pack1, 1, new byte[101], Constants.OBJ_BLOB);
+		assertNull(c.get(pack1, 1));
+		assertEquals(0, c.getStats().getOpenByteCount());
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		final UnpackedObjectCache c = new UnpackedObjectCache(300, 1);
+		c.store(pack1, 1, new byte[100], Constants.OBJ_BLOB);
+		c.store(pack1, 2, new byte[100], Constants.OBJ_BLOB);
+		c.store(pack1, 3, new byte[100], Constants.OBJ_BLOB);
+		assertNotNull(c.get(pack1, 1));
+
+		c.store(pack1, 4, new byte[100], Constants.OBJ_BLOB);
+		assertNull(c.get(pack1, 2));
+		assertNotNull(c.get(pack1, 1));
+		assertNotNull(c.get(pack1, 3));
+		assertNotNull(c.get(pack1, 4));
+
+		final DeltaBaseCacheStats s = c.getStats();
+		assertEquals(1, s.getEvictionCount());
+		assertEquals(300, s.getOpenByteCount());
+	}
+
+	public void testNewEntryIsKept() {
+		final UnpackedObjectCache c = new UnpackedObjectCache(100, 8);
+		c.store(pack1, 1, new byte[60], Constants.OBJ_BLOB);
+		c.store(pack1, 2, new byte[60], Constants.OBJ_BLOB);
+		assertNull(c.get(pack1, 1));
+		assertNotNull(c.get(pack1, 2));
+		assertEquals(60, c.getStats().getOpenByteCount());
+	}
+
+	public void testReconfigureShrinks() {
+		final UnpackedObjectCache c = new UnpackedObjectCache(1000, 2);
+		for (int i = 0; i < 10; i++)
+			c.store(pack1, i, new byte[100], Constants.OBJ_BLOB);
+		assertEquals(1000, c.getStats().getOpenByteCount());
+
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setDeltaBaseCacheLimit(250);
+		c.reconfigure(cfg);
+		assertEquals(200, c.getStats().getOpenByteCount());
+		assertEquals(250, c.getStats().getMaxByteCount());
+	}
+
+	public void testPurge() {
+		final UnpackedObjectCache c = new UnpackedObjectCache(1000, 4);
+		c.store(pack1, 1, new byte[10], Constants.OBJ_BLOB);
+		c.store(pack2, 2, new byte[20], Constants.OBJ_BLOB);
+		c.purge(pack1);
+		assertNull(c.get(pack1, 1));
+		assertNotNull(c.get(pack2, 2));
+		assertEquals(20, c.getStats().getOpenByteCount());
+	}
+
+	public void testConcurrentAccess() throws Exception {
+		final UnpackedObjectCache c = new UnpackedObjectCache(64 * 100, 16);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final PackFile pack = t % 2 == 0 ? pack1 : pack2;
+			final int seed = t;
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < 20000; i++) {
+							final long pos = (seed * 31 + i * 7) % 2048;
+							final UnpackedObjectCache.Entry e = c.get(pack,
+									pos);
+							if (e == null)
+								c.store(pack, pos, new byte[(int) pos % 200],
+										Constants.OBJ_BLOB);
+							else if (e.data.length != (int) pos % 200)
+								throw new AssertionError("wrong entry");
+						}
+					} catch (Throwable err) {
+						failure.set(err);
+					}
+				}
+			});
+		}
+		for (final Thread t : threads)
+			t.start();
+		for (final Thread t : threads)
+			t.join();
+		if (failure.get() != null)
+			throw new Exception(failure.get());
+
+		assertTrue(c.getStats().getOpenByteCount() <= 64 * 100 + 8 * 200);
+		c.purge(pack1);
+		c.purge(pack2);
+		assertEquals(0, c.getStats().getOpenByteCount());
+	}
+
+	private static PackFile newPack(final String name) {
+		final File dir = new File("pack-" + name);
+		return new PackFile(new File(dir, name + ".idx"), new File(dir, name
+				+ ".pack"));
+	}
+}
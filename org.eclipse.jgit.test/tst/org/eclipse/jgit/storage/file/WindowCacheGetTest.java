@@ -116,6 +116,68 @@ public void testCache_TooSmallLimit() throws IOException {
 		checkLimits(cfg);
 	}
 
+	public void testClockCache_Defaults() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitClockCache(true);
+		WindowCache.reconfigure(cfg);
+		doCacheTests();
+		checkLimits(cfg);
+
+		final WindowCache cache = WindowCache.getInstance();
+		assertTrue(cache instanceof ClockWindowCache);
+		assertEquals(6, cache.getOpenFiles());
+		assertEquals(17346, cache.getOpenBytes());
+	}
+
+	public void testClockCache_TooFewFiles() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitClockCache(true);
+		cfg.setPackedGitOpenFiles(2);
+		WindowCache.reconfigure(cfg);
+		doCacheTests();
+		checkLimits(cfg);
+	}
+
+	public void testClockCache_TooSmallLimit() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitClockCache(true);
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(4096);
+		WindowCache.reconfigure(cfg);
+		doCacheTests();
+		checkLimits(cfg);
+	}
+
+	public void testClockCache_ConcurrentReaders() throws Exception {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitClockCache(true);
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(3 * 4096);
+		WindowCache.reconfigure(cfg);
+
+		final Throwable[] errors = new Throwable[8];
+		final Thread[] threads = new Thread[errors.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int idx = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int n = 0; n < 10; n++)
+							doCacheTests();
+					} catch (Throwable e) {
+						errors[idx] = e;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			if (errors[i] != null)
+				throw new Exception(errors[i]);
+		}
+	}
+
 	private void checkLimits(final WindowCacheConfig cfg) {
 		final WindowCache cache = WindowCache.getInstance();
 		assertTrue(cache.getOpenFiles() <= cfg.getPackedGitOpenFiles());
@@ -113,6 +113,19 @@ public void testConfigureCache_PackedGitWindowSizeAbovePackedGitLimit() {
 		}
 	}
 
+	public void testConfigureClockCache_PackedGitWindowSizeAbovePackedGitLimit() {
+		try {
+			final WindowCacheConfig cfg = new WindowCacheConfig();
+			cfg.setPackedGitClockCache(true);
+			cfg.setPackedGitLimit(1024);
+			cfg.setPackedGitWindowSize(8192);
+			WindowCache.reconfigure(cfg);
+			fail("incorrectly permitted PackedGitWindowSize > PackedGitLimit");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Window size must be < limit", e.getMessage());
+		}
+	}
+
 	public void testConfigureCache_Limits1() {
 		// This test is just to force coverage over some lower bounds for
 		// the table. We don't want the table to wind up with too small
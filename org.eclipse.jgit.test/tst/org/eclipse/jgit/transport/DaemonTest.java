@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.text.MessageFormat;
+import java.util.Collections;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+
+public class DaemonTest extends LocalDiskRepositoryTestCase {
+	private static final String R_MASTER = Constants.R_HEADS
+			+ Constants.MASTER;
+
+	private FileRepository src;
+
+	private FileRepository dst;
+
+	private RevBlob blob;
+
+	private RevCommit commit;
+
+	private Daemon daemon;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		src = createBareRepository();
+		dst = createBareRepository();
+
+		final TestRepository<FileRepository> s;
+		s = new TestRepository<FileRepository>(src);
+		blob = s.blob("content");
+		commit = s.commit(s.tree(s.file("f", blob)));
+		s.update(R_MASTER, commit);
+
+		daemon = new Daemon(new InetSocketAddress("127.0.0.1", 0));
+		daemon.exportRepository("src", src);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (daemon != null)
+			daemon.stop();
+		if (src != null)
+			src.close();
+		if (dst != null)
+			dst.close();
+		super.tearDown();
+	}
+
+	public void testFetchFromWorkerPool() throws Exception {
+		daemon.setMaxThreads(2);
+		daemon.start();
+
+		for (int i = 0; i < 3; i++) {
+			final Transport tn = Transport.open(dst, uri());
+			try {
+				tn.fetch(NullProgressMonitor.INSTANCE, Collections
+						.singleton(new RefSpec("+" + R_MASTER + ":" + R_MASTER)));
+			} finally {
+				tn.close();
+			}
+		}
+		assertEquals(commit, dst.resolve(R_MASTER));
+		assertTrue(dst.hasObject(blob));
+	}
+
+	public void testConnectionLimitPerAddress() throws Exception {
+		daemon.setMaxThreads(1);
+		daemon.setMaxConnectionsPerAddress(2);
+		daemon.start();
+
+		final Socket idle1 = connect();
+		final Socket idle2 = connect();
+		try {
+			final Socket refused = connect();
+			try {
+				assertEquals("ERR " + MessageFormat.format(
+						JGitText.get().daemonTooManyConnections, "127.0.0.1"),
+						readLine(refused));
+			} finally {
+				refused.close();
+			}
+		} finally {
+			idle1.close();
+			idle2.close();
+		}
+	}
+
+	public void testBusyServerRefusesRequests() throws Exception {
+		daemon.setMaxThreads(1);
+		daemon.setQueueSize(0);
+		daemon.start();
+
+		// The first client is served, and is left waiting for its wants.
+		final Socket served = connect();
+		try {
+			sendUploadPack(served);
+			assertTrue(readLine(served).startsWith(commit.name() + " HEAD"));
+
+			final Socket refused = connect();
+			try {
+				sendUploadPack(refused);
+				assertEquals("ERR " + JGitText.get().daemonServerBusy,
+						readLine(refused));
+			} finally {
+				refused.close();
+			}
+		} finally {
+			served.close();
+		}
+	}
+
+	public void testIdleClientTimesOut() throws Exception {
+		daemon.setMaxThreads(1);
+		daemon.setTimeout(1);
+		daemon.start();
+
+		final Socket idle = connect();
+		try {
+			assertEquals(-1, idle.getInputStream().read());
+		} finally {
+			idle.close();
+		}
+	}
+
+	private URIish uri() {
+		final InetSocketAddress addr = daemon.getAddress();
+		return new URIish().setScheme("git").setHost("127.0.0.1").setPort(
+				addr.getPort()).setPath("/src.git");
+	}
+
+	private Socket connect() throws IOException {
+		final Socket s = new Socket("127.0.0.1", daemon.getAddress()
+				.getPort());
+		s.setSoTimeout(10 * 1000);
+		return s;
+	}
+
+	private static void sendUploadPack(final Socket s) throws IOException {
+		final PacketLineOut pckOut = new PacketLineOut(s.getOutputStream());
+		pckOut.writeString("git-upload-pack /src.git\0host=127.0.0.1\0");
+		pckOut.flush();
+	}
+
+	private static String readLine(final Socket s) throws IOException {
+		final InputStream in = s.getInputStream();
+		return new PacketLineIn(in).readString();
+	}
+}
@@ -47,11 +47,13 @@
 package org.eclipse.jgit.transport;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.zip.Deflater;
 
 import org.eclipse.jgit.junit.TestRepository;
@@ -62,6 +64,8 @@
 import org.eclipse.jgit.lib.TextProgressMonitor;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.storage.file.PackFile;
+import org.eclipse.jgit.storage.pack.DeltaEncoder;
+import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.JGitTestUtil;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.TemporaryBuffer;
@@ -130,6 +134,144 @@ public void test2() throws  IOException {
 		}
 	}
 
+	public void testParallelResolutionCreatesSameIndex() throws IOException {
+		final String name = "pack-df2982f284bbabb6bdb59ee3fcc6eb0983e20371.pack";
+		final byte[] serial = index(name, "tmp_serial", 1);
+		final byte[] parallel = index(name, "tmp_parallel", 4);
+		assertTrue(Arrays.equals(serial, parallel));
+
+		PackFile file = new PackFile(new File(trash, "tmp_parallel.idx"),
+				new File(trash, "tmp_parallel.pack"));
+		assertTrue(file.hasObject(ObjectId.fromString("02ba32d3649e510002c21651936b7077aa75ffa9")));
+		assertTrue(file.hasObject(ObjectId.fromString("2675188fd86978d5bc4d7211698b2118ae3bf658")));
+	}
+
+	private byte[] index(String packName, String dst, int threads)
+			throws IOException {
+		File packFile = JGitTestUtil.getTestResourceFile(packName);
+		final InputStream is = new FileInputStream(packFile);
+		try {
+			IndexPack pack = new IndexPack(db, is, new File(trash, dst));
+			pack.setThreads(threads);
+			pack.index(NullProgressMonitor.INSTANCE);
+		} finally {
+			is.close();
+		}
+		return IO.readFully(new File(trash, dst + ".idx"));
+	}
+
+	public void testLargeDeltaChainCreatesSameIndex() throws Exception {
+		TestRepository d = new TestRepository(db);
+		final byte[] a = new byte[2000];
+		for (int i = 0; i < a.length; i++)
+			a[i] = (byte) ('a' + i % 26);
+		final byte[] b = concat(a, Constants.encode("tail of b"));
+		final byte[] c = concat(b, Constants.encode("tail of c"));
+		final RevBlob idA = d.blob(a); // existing copy is compared, not read
+
+		TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(64 * 1024);
+		packHeader(pack, 3);
+
+		objectHeader(pack, Constants.OBJ_BLOB, a.length);
+		deflate(pack, a);
+
+		final long posB = pack.length();
+		final byte[] deltaB = delta(a, b);
+		objectHeader(pack, Constants.OBJ_OFS_DELTA, deltaB.length);
+		ofsDelta(pack, posB);
+		deflate(pack, deltaB);
+
+		final byte[] deltaC = delta(b, c);
+		objectHeader(pack, Constants.OBJ_REF_DELTA, deltaC.length);
+		d.blob(b).copyRawTo(pack);
+		deflate(pack, deltaC);
+
+		digest(pack);
+		final byte[] raw = pack.toByteArray();
+
+		final byte[] small = index(raw, "tmp_small", Long.MAX_VALUE);
+		final byte[] large = index(raw, "tmp_large", 100);
+		assertTrue(Arrays.equals(small, large));
+
+		PackFile file = new PackFile(new File(trash, "tmp_large.idx"),
+				new File(trash, "tmp_large.pack"));
+		assertTrue(file.hasObject(idA));
+		assertTrue(file.hasObject(d.blob(c)));
+	}
+
+	public void testLargeThinPack() throws Exception {
+		TestRepository d = new TestRepository(db);
+		final byte[] a = new byte[500];
+		Arrays.fill(a, (byte) 'a');
+		final byte[] b = concat(a, Constants.encode("tail of b"));
+		final RevBlob idA = d.blob(a);
+
+		TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1024);
+		packHeader(pack, 1);
+		final byte[] deltaB = delta(a, b);
+		objectHeader(pack, Constants.OBJ_REF_DELTA, deltaB.length);
+		idA.copyRawTo(pack);
+		deflate(pack, deltaB);
+		digest(pack);
+
+		IndexPack ip = IndexPack.create(db, new ByteArrayInputStream(pack
+				.toByteArray()));
+		ip.setFixThin(true);
+		ip.setBigFileThreshold(100);
+		ip.index(NullProgressMonitor.INSTANCE);
+		ip.renameAndOpenPack();
+		assertTrue(db.hasObject(d.blob(b)));
+	}
+
+	private byte[] index(byte[] raw, String dst, long bigFileThreshold)
+			throws IOException {
+		IndexPack pack = new IndexPack(db, new ByteArrayInputStream(raw),
+				new File(trash, dst));
+		pack.setBigFileThreshold(bigFileThreshold);
+		pack.setObjectChecking(true);
+		pack.index(NullProgressMonitor.INSTANCE);
+		return IO.readFully(new File(trash, dst + ".idx"));
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		final byte[] r = new byte[a.length + b.length];
+		System.arraycopy(a, 0, r, 0, a.length);
+		System.arraycopy(b, 0, r, a.length, b.length);
+		return r;
+	}
+
+	private static byte[] delta(byte[] base, byte[] res) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DeltaEncoder de = new DeltaEncoder(out, base.length, res.length);
+		de.copy(0, base.length);
+		de.insert(res, base.length, res.length - base.length);
+		return out.toByteArray();
+	}
+
+	private static void objectHeader(TemporaryBuffer.Heap pack, int type,
+			long sz) throws IOException {
+		int c = (type << 4) | (int) (sz & 15);
+		sz >>>= 4;
+		while (sz > 0) {
+			pack.write(c | 0x80);
+			c = (int) (sz & 0x7f);
+			sz >>>= 7;
+		}
+		pack.write(c);
+	}
+
+	private static void ofsDelta(TemporaryBuffer.Heap pack, long ofs)
+			throws IOException {
+		// The base is always the first object, immediately after the header.
+		ofs -= 12;
+		final byte[] buf = new byte[10];
+		int n = buf.length - 1;
+		buf[n] = (byte) (ofs & 0x7f);
+		while ((ofs >>= 7) > 0)
+			buf[--n] = (byte) (0x80 | (--ofs & 0x7f));
+		pack.write(buf, n, buf.length - n);
+	}
+
 	public void testTinyThinPack() throws Exception {
 		TestRepository d = new TestRepository(db);
 		RevBlob a = d.blob("a");
@@ -411,6 +411,66 @@ public void testUsingUnknownTreeFails() throws Exception {
 		assertSame(PacketLineIn.END, r.readString());
 	}
 
+	public void testCheckReceivedUnknownBlobFails() throws Exception {
+		TestRepository<Repository> s = new TestRepository<Repository>(src);
+		RevBlob n = s.blob("n");
+		RevCommit N = s.commit().parent(B).add("q", n).create();
+
+		// Only send the commit and its tree, the blob is unknown to dst.
+		//
+		final TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1024);
+		packHeader(pack, 2);
+		copy(pack, src.open(N));
+		copy(pack, src.open(s.parseBody(N).getTree()));
+		digest(pack);
+
+		final PacketLineIn r = receiveWithoutFilter(N, pack);
+		assertEquals("unpack error Missing blob " + n.name(), r.readString());
+		assertEquals("ng refs/heads/s n/a (unpacker error)", r.readString());
+		assertSame(PacketLineIn.END, r.readString());
+	}
+
+	public void testCheckReceivedExistingBlobSucceeds() throws Exception {
+		// The 'a' blob is already in dst, so it need not be sent.
+		//
+		TestRepository<Repository> s = new TestRepository<Repository>(src);
+		RevCommit N = s.commit().parent(B).add("q", s.blob("a")).create();
+
+		final TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1024);
+		packHeader(pack, 2);
+		copy(pack, src.open(N));
+		copy(pack, src.open(s.parseBody(N).getTree()));
+		digest(pack);
+
+		final PacketLineIn r = receiveWithoutFilter(N, pack);
+		assertEquals("unpack ok", r.readString());
+		assertEquals("ok refs/heads/s", r.readString());
+		assertSame(PacketLineIn.END, r.readString());
+		assertEquals(N.copy(), dst.resolve("refs/heads/s"));
+	}
+
+	private PacketLineIn receiveWithoutFilter(RevCommit N,
+			TemporaryBuffer.Heap pack) throws IOException {
+		final TemporaryBuffer.Heap inBuf = new TemporaryBuffer.Heap(1024);
+		final PacketLineOut inPckLine = new PacketLineOut(inBuf);
+		inPckLine.writeString(ObjectId.zeroId().name() + ' ' + N.name() + ' '
+				+ "refs/heads/s" + '\0'
+				+ BasePackPushConnection.CAPABILITY_REPORT_STATUS);
+		inPckLine.end();
+		pack.writeTo(inBuf, PM);
+
+		final TemporaryBuffer.Heap outBuf = new TemporaryBuffer.Heap(1024);
+		final ReceivePack rp = new ReceivePack(dst);
+		rp.setCheckReceivedObjects(true);
+		rp.receive(new ByteArrayInputStream(inBuf.toByteArray()), outBuf, null);
+
+		final PacketLineIn r = asPacketLineIn(outBuf);
+		String line;
+		while ((line = r.readString()) != PacketLineIn.END)
+			assertTrue(line.length() > 0);
+		return r;
+	}
+
 	private void packHeader(TemporaryBuffer.Heap tinyPack, int cnt)
 			throws IOException {
 		final byte[] hdr = new byte[8];
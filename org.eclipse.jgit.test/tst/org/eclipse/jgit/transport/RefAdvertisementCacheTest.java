@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser;
+
+public class RefAdvertisementCacheTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private TestRepository<FileRepository> tr;
+
+	private RefAdvertisementCache cache;
+
+	private RevCommit commit;
+
+	private RevTag tag;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+		tr = new TestRepository<FileRepository>(db);
+		cache = new RefAdvertisementCache();
+		commit = tr.branch("master").commit().create();
+		tag = tr.tag("v1", commit);
+		tr.update("refs/tags/v1", tag);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (db != null)
+			db.close();
+		super.tearDown();
+	}
+
+	public void testReplayMatchesFormattedAdvertisement() throws Exception {
+		final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		final RevWalk rw = new RevWalk(db);
+		final RefAdvertiser adv = newAdvertiser(plain, rw, rw
+				.newFlag("ADVERTISED"));
+		adv.send(db.getAllRefs());
+		adv.end();
+
+		final Advertised first = advertise();
+		final Advertised second = advertise();
+
+		assertTrue(Arrays.equals(plain.toByteArray(), first.bytes));
+		assertTrue(Arrays.equals(first.bytes, second.bytes));
+
+		assertTrue(first.tagFlagged);
+		assertFalse("replayed without parsing", second.tagFlagged);
+		assertTrue(second.adv.isAdvertised(tag));
+		assertTrue(second.adv.isAdvertised(commit));
+		assertFalse(second.adv.isAdvertised(ObjectId.zeroId()));
+	}
+
+	public void testChangedRefsAreFormattedAgain() throws Exception {
+		final Advertised before = advertise();
+		final RevCommit next = tr.branch("master").commit().parent(commit)
+				.create();
+
+		final Advertised after = advertise();
+
+		assertFalse(Arrays.equals(before.bytes, after.bytes));
+		assertTrue(after.tagFlagged);
+		assertTrue(new String(after.bytes, "UTF-8").contains(next.name()));
+		assertTrue(Arrays.equals(after.bytes, advertise().bytes));
+	}
+
+	public void testDefaultReplayWritesEachLine() throws Exception {
+		final String plain = advertiseText(null);
+		final String first = advertiseText(cache);
+		final String second = advertiseText(cache);
+
+		assertEquals(plain, first);
+		assertEquals(plain, second);
+		assertTrue(plain.contains(tag.name() + " refs/tags/v1\n"));
+	}
+
+	private String advertiseText(final RefAdvertisementCache c)
+			throws Exception {
+		final StringBuilder out = new StringBuilder();
+		final RevWalk rw = new RevWalk(db);
+		try {
+			final RefAdvertiser adv = new RefAdvertiser() {
+				@Override
+				protected void writeOne(final CharSequence line) {
+					out.append("<").append(line);
+				}
+
+				@Override
+				protected byte[] encode(final CharSequence line) {
+					return Constants.encode(line.toString());
+				}
+
+				@Override
+				protected void end() {
+					// No end marker.
+				}
+			};
+			adv.init(rw, rw.newFlag("ADVERTISED"));
+			adv.setDerefTags(true);
+			if (c != null)
+				adv.send(db, RefFilter.DEFAULT, c);
+			else
+				adv.send(db.getAllRefs());
+		} finally {
+			rw.release();
+		}
+		return out.toString();
+	}
+
+	public void testUploadPackAcceptsWantFromReplayedAdvertisement()
+			throws Exception {
+		upload(commit);
+		upload(commit);
+		upload(tag);
+	}
+
+	public void testUploadPackRejectsUnadvertisedWant() throws Exception {
+		final RevBlob blob = tr.blob("not advertised");
+		upload(commit);
+		try {
+			upload(blob);
+			fail("accepted want for an object that was not advertised");
+		} catch (PackProtocolException e) {
+			// expected
+		}
+	}
+
+	private void upload(final ObjectId want) throws Exception {
+		final ByteArrayOutputStream req = new ByteArrayOutputStream();
+		final PacketLineOut pckOut = new PacketLineOut(req);
+		pckOut.writeString("want " + want.name() + "\n");
+		pckOut.end();
+		pckOut.writeString("done\n");
+
+		final UploadPack up = new UploadPack(db);
+		up.setAdvertisementCache(cache);
+		up.upload(new ByteArrayInputStream(req.toByteArray()),
+				new ByteArrayOutputStream(), null);
+	}
+
+	private Advertised advertise() throws Exception {
+		final Advertised r = new Advertised();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final RevWalk rw = new RevWalk(db);
+		try {
+			final RevFlag advertised = rw.newFlag("ADVERTISED");
+			r.adv = newAdvertiser(out, rw, advertised);
+			r.adv.send(db, RefFilter.DEFAULT, cache);
+			r.adv.end();
+			r.bytes = out.toByteArray();
+			r.tagFlagged = rw.lookupAny(tag, tag.getType()).has(advertised);
+		} finally {
+			rw.release();
+		}
+		return r;
+	}
+
+	private static RefAdvertiser newAdvertiser(final ByteArrayOutputStream out,
+			final RevWalk rw, final RevFlag advertised) {
+		final RefAdvertiser adv = new PacketLineOutRefAdvertiser(
+				new PacketLineOut(out));
+		adv.init(rw, advertised);
+		adv.advertiseCapability("multi_ack");
+		adv.setDerefTags(true);
+		return adv;
+	}
+
+	private static class Advertised {
+		RefAdvertiser adv;
+
+		byte[] bytes;
+
+		boolean tagFlagged;
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepository;
+
+public class ShallowFetchTest extends LocalDiskRepositoryTestCase {
+	private static final String R_MASTER = Constants.R_HEADS
+			+ Constants.MASTER;
+
+	private FileRepository src;
+
+	private FileRepository dst;
+
+	private TestRepository<FileRepository> s;
+
+	private final List<RevCommit> commits = new ArrayList<RevCommit>();
+
+	private final List<RevBlob> blobs = new ArrayList<RevBlob>();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		src = createBareRepository();
+		dst = createBareRepository();
+		s = new TestRepository<FileRepository>(src);
+
+		// Each commit replaces the content of the same file, so older
+		// blobs are only reachable through older commits.
+		for (int i = 0; i < 5; i++)
+			commit();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (src != null)
+			src.close();
+		if (dst != null)
+			dst.close();
+		super.tearDown();
+	}
+
+	public void testShallowClone() throws Exception {
+		fetch(1);
+
+		assertEquals(tip(), dst.resolve(R_MASTER));
+		assertEquals(Collections.singleton(tip()), shallow());
+		assertTrue(dst.hasObject(blobs.get(4)));
+		assertFalse(dst.hasObject(commits.get(3)));
+		assertFalse(dst.hasObject(blobs.get(3)));
+		assertEquals(1, countHistory());
+	}
+
+	public void testDeepen() throws Exception {
+		fetch(2);
+		assertEquals(Collections.singleton(commits.get(3).copy()), shallow());
+		assertEquals(2, countHistory());
+
+		fetch(4);
+		assertEquals(Collections.singleton(commits.get(1).copy()), shallow());
+		assertTrue(dst.hasObject(blobs.get(1)));
+		assertTrue(dst.hasObject(blobs.get(2)));
+		assertFalse(dst.hasObject(blobs.get(0)));
+		assertEquals(4, countHistory());
+
+		fetch(10);
+		assertTrue(shallow().isEmpty());
+		assertTrue(dst.hasObject(blobs.get(0)));
+		assertEquals(5, countHistory());
+	}
+
+	public void testFetchIntoShallowRepository() throws Exception {
+		fetch(1);
+		commit();
+		commit();
+		fetch(0);
+
+		assertEquals(tip(), dst.resolve(R_MASTER));
+		assertEquals(Collections.singleton(commits.get(4).copy()), shallow());
+		assertEquals(3, countHistory());
+	}
+
+	public void testCompleteCommitsStayComplete() throws Exception {
+		fetch(0);
+		commit();
+		fetch(1);
+
+		// The new tip is the boundary, but its parent is already here.
+		assertTrue(shallow().isEmpty());
+		assertEquals(6, countHistory());
+	}
+
+	public void testRevWalkStopsAtShallowCommits() throws Exception {
+		src.getObjectDatabase().setShallowCommits(
+				Collections.singleton(commits.get(2).copy()));
+		assertEquals(3, countHistory(src));
+
+		src.getObjectDatabase().setShallowCommits(
+				Collections.<ObjectId> emptySet());
+		assertEquals(5, countHistory(src));
+	}
+
+	private void commit() throws Exception {
+		final int n = commits.size();
+		final RevBlob b = s.blob("content " + n);
+		final TestRepository<FileRepository>.CommitBuilder cb = s.commit();
+		if (n > 0)
+			cb.parent(commits.get(n - 1));
+		final RevCommit c = cb.add("f", b).create();
+		s.update(R_MASTER, c);
+		commits.add(c);
+		blobs.add(b);
+	}
+
+	private ObjectId tip() {
+		return commits.get(commits.size() - 1).copy();
+	}
+
+	private void fetch(final int depth) throws Exception {
+		final Transport t = Transport.open(dst, uriOf(src));
+		try {
+			t.setDepth(depth);
+			t.setCheckFetchedObjects(true);
+			t.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec("+refs/heads/*:refs/heads/*")));
+		} finally {
+			t.close();
+		}
+	}
+
+	private Set<ObjectId> shallow() throws Exception {
+		return dst.getObjectDatabase().newReader().getShallowCommits();
+	}
+
+	private int countHistory() throws Exception {
+		return countHistory(dst);
+	}
+
+	private static int countHistory(final Repository db) throws Exception {
+		final RevWalk rw = new RevWalk(db);
+		try {
+			rw.markStart(rw.parseCommit(db.resolve(R_MASTER)));
+			int n = 0;
+			while (rw.next() != null)
+				n++;
+			return n;
+		} finally {
+			rw.release();
+		}
+	}
+
+	private static URIish uriOf(Repository r) throws URISyntaxException {
+		return new URIish(r.getDirectory().getAbsolutePath());
+	}
+}
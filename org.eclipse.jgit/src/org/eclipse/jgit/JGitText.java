@@ -76,6 +76,8 @@ public static JGitText get() {
 	/***/ public String atLeastOnePathIsRequired;
 	/***/ public String atLeastOnePatternIsRequired;
 	/***/ public String atLeastTwoFiltersNeeded;
+	/***/ public String atomicRefUpdatesNotSupported;
+	/***/ public String atomicSymbolicRefNotSupported;
 	/***/ public String badBase64InputCharacterAt;
 	/***/ public String badEntryDelimiter;
 	/***/ public String badEntryName;
@@ -83,11 +85,13 @@ public static JGitText get() {
 	/***/ public String badGroupHeader;
 	/***/ public String badObjectType;
 	/***/ public String badSectionEntry;
+	/***/ public String badShallowLine;
 	/***/ public String base64InputNotProperlyPadded;
 	/***/ public String baseLengthIncorrect;
 	/***/ public String bareRepositoryNoWorkdirAndIndex;
 	/***/ public String blobNotFound;
 	/***/ public String blobNotFoundForPath;
+	/***/ public String buildingBitmaps;
 	/***/ public String cannotBeCombined;
 	/***/ public String cannotCombineTreeFilterWithRevFilter;
 	/***/ public String cannotCommitOnARepoWithState;
@@ -104,6 +108,7 @@ public static JGitText get() {
 	/***/ public String cannotDownload;
 	/***/ public String cannotExecute;
 	/***/ public String cannotGet;
+	/***/ public String cannotInternTextOfDifferentType;
 	/***/ public String cannotListRefs;
 	/***/ public String cannotLock;
 	/***/ public String cannotLockFile;
@@ -139,7 +144,10 @@ public static JGitText get() {
 	/***/ public String compressingObjects;
 	/***/ public String connectionFailed;
 	/***/ public String connectionTimeOut;
+	/***/ public String connectivityCheckInterrupted;
 	/***/ public String contextMustBeNonNegative;
+	/***/ public String corruptCommitGraph;
+	/***/ public String corruptMultiPackIndex;
 	/***/ public String corruptObjectBadStream;
 	/***/ public String corruptObjectBadStreamCorruptHeader;
 	/***/ public String corruptObjectGarbageAfterSize;
@@ -162,6 +170,7 @@ public static JGitText get() {
 	/***/ public String corruptObjectNoType;
 	/***/ public String corruptObjectNotree;
 	/***/ public String corruptObjectPackfileChecksumIncorrect;
+	/***/ public String corruptPackBitmapIndex;
 	/***/ public String corruptionDetectedReReadingAt;
 	/***/ public String couldNotCheckOutBecauseOfConflicts;
 	/***/ public String couldNotDeleteLockFileShouldNotHappen;
@@ -175,6 +184,8 @@ public static JGitText get() {
 	/***/ public String countingObjects;
 	/***/ public String creatingDeltasIsNotImplemented;
 	/***/ public String daemonAlreadyRunning;
+	/***/ public String daemonServerBusy;
+	/***/ public String daemonTooManyConnections;
 	/***/ public String deletingNotSupported;
 	/***/ public String destinationIsNotAWildcard;
 	/***/ public String dirCacheDoesNotHaveABackingFile;
@@ -202,6 +213,7 @@ public static JGitText get() {
 	/***/ public String errorReadingInfoRefs;
 	/***/ public String exceptionCaughtDuringExecutionOfAddCommand;
 	/***/ public String exceptionCaughtDuringExecutionOfCommitCommand;
+	/***/ public String exceptionCaughtDuringExecutionOfGarbageCollectCommand;
 	/***/ public String exceptionCaughtDuringExecutionOfMergeCommand;
 	/***/ public String exceptionOccuredDuringAddingOfOptionToALogCommand;
 	/***/ public String exceptionOccuredDuringReadingOfGIT_DIR;
@@ -214,6 +226,7 @@ public static JGitText get() {
 	/***/ public String expectedPktLineWithService;
 	/***/ public String expectedReceivedContentType;
 	/***/ public String expectedReportForRefNotReceived;
+	/***/ public String expireReflogs;
 	/***/ public String failedUpdatingRefs;
 	/***/ public String failureDueToOneOfTheFollowing;
 	/***/ public String failureUpdatingFETCH_HEAD;
@@ -226,6 +239,8 @@ public static JGitText get() {
 	/***/ public String flagNotFromThis;
 	/***/ public String flagsAlreadyCreated;
 	/***/ public String funnyRefname;
+	/***/ public String garbageCollectRequiresFileRepository;
+	/***/ public String geometricFactorMustBeAtLeast2;
 	/***/ public String hugeIndexesAreNotSupportedByJgitYet;
 	/***/ public String hunkBelongsToAnotherFile;
 	/***/ public String hunkDisconnectedFromFile;
@@ -249,6 +264,7 @@ public static JGitText get() {
 	/***/ public String invalidChannel;
 	/***/ public String invalidCharacterInBase64Data;
 	/***/ public String invalidCommitParentNumber;
+	/***/ public String invalidDepth;
 	/***/ public String invalidEncryption;
 	/***/ public String invalidGitType;
 	/***/ public String invalidId;
@@ -263,6 +279,7 @@ public static JGitText get() {
 	/***/ public String invalidPacketLineHeader;
 	/***/ public String invalidPath;
 	/***/ public String invalidRefName;
+	/***/ public String invalidReftable;
 	/***/ public String invalidStageForPath;
 	/***/ public String invalidTagOption;
 	/***/ public String invalidTimeout;
@@ -279,6 +296,7 @@ public static JGitText get() {
 	/***/ public String lockError;
 	/***/ public String lockOnNotClosed;
 	/***/ public String lockOnNotHeld;
+	/***/ public String loosenUnreachableObjects;
 	/***/ public String malformedpersonIdentString;
 	/***/ public String mergeStrategyAlreadyExistsAsDefault;
 	/***/ public String mergeStrategyDoesNotSupportHeads;
@@ -332,7 +350,10 @@ public static JGitText get() {
 	/***/ public String packDoesNotMatchIndex;
 	/***/ public String packFileInvalid;
 	/***/ public String packHasUnresolvedDeltas;
+	/***/ public String packIndexIsTruncated;
+	/***/ public String packIndexOffsetOutOfRange;
 	/***/ public String packObjectCountMismatch;
+	/***/ public String packRefs;
 	/***/ public String packTooLargeForIndexVersion1;
 	/***/ public String packetSizeMustBeAtLeast;
 	/***/ public String packetSizeMustBeAtMost;
@@ -346,6 +367,7 @@ public static JGitText get() {
 	/***/ public String problemWithResolvingPushRefSpecsLocally;
 	/***/ public String progressMonUploading;
 	/***/ public String propertyIsAlreadyNonNull;
+	/***/ public String pruneLooseObjects;
 	/***/ public String pushCancelled;
 	/***/ public String pushIsNotSupportedForBundleTransport;
 	/***/ public String pushNotPermitted;
@@ -353,8 +375,10 @@ public static JGitText get() {
 	/***/ public String readTimedOut;
 	/***/ public String readingObjectsFromLocalRepositoryFailed;
 	/***/ public String receivingObjects;
+	/***/ public String refStorageDoesNotMatch;
 	/***/ public String refUpdateReturnCodeWas;
 	/***/ public String reflogsNotYetSupportedByRevisionParser;
+	/***/ public String reftableRecordsOutOfOrder;
 	/***/ public String remoteConfigHasNoURIAssociated;
 	/***/ public String remoteDoesNotHaveSpec;
 	/***/ public String remoteDoesNotSupportSmartHTTPPush;
@@ -364,9 +388,11 @@ public static JGitText get() {
 	/***/ public String renamesBreakingModifies;
 	/***/ public String renamesFindingByContent;
 	/***/ public String renamesFindingExact;
+	/***/ public String renamesInterrupted;
 	/***/ public String renamesRejoiningModifies;
 	/***/ public String repositoryAlreadyExists;
 	/***/ public String repositoryConfigFileInvalid;
+	/***/ public String repositoryExtensionsNeedFormat1;
 	/***/ public String repositoryIsRequired;
 	/***/ public String repositoryNotFound;
 	/***/ public String repositoryState_applyMailbox;
@@ -381,6 +407,7 @@ public static JGitText get() {
 	/***/ public String requiredHashFunctionNotAvailable;
 	/***/ public String resolvingDeltas;
 	/***/ public String serviceNotPermitted;
+	/***/ public String shallowNotSupported;
 	/***/ public String shortCompressedStreamAt;
 	/***/ public String shortReadOfBlock;
 	/***/ public String shortReadOfOptionalDIRCExtensionExpectedAnotherBytes;
@@ -400,6 +427,7 @@ public static JGitText get() {
 	/***/ public String theFactoryMustNotBeNull;
 	/***/ public String timerAlreadyTerminated;
 	/***/ public String topologicalSortRequired;
+	/***/ public String transactionAborted;
 	/***/ public String transportExceptionBadRef;
 	/***/ public String transportExceptionEmptyRef;
 	/***/ public String transportExceptionInvalid;
@@ -422,9 +450,12 @@ public static JGitText get() {
 	/***/ public String unexpectedReportLine2;
 	/***/ public String unexpectedReportLine;
 	/***/ public String unknownDIRCVersion;
+	/***/ public String unknownDiffAlgorithm;
 	/***/ public String unknownHost;
 	/***/ public String unknownIndexVersionOrCorruptIndex;
 	/***/ public String unknownObjectType;
+	/***/ public String unknownRefStorage;
+	/***/ public String unknownRepositoryExtension;
 	/***/ public String unknownRepositoryFormat2;
 	/***/ public String unknownRepositoryFormat;
 	/***/ public String unknownZlibError;
@@ -433,18 +464,24 @@ public static JGitText get() {
 	/***/ public String unreadablePackIndex;
 	/***/ public String unrecognizedRef;
 	/***/ public String unsupportedCommand0;
+	/***/ public String unsupportedCommitGraphVersion;
 	/***/ public String unsupportedEncryptionAlgorithm;
 	/***/ public String unsupportedEncryptionVersion;
+	/***/ public String unsupportedMultiPackIndexVersion;
 	/***/ public String unsupportedOperationNotAddAtEnd;
+	/***/ public String unsupportedPackBitmapIndexVersion;
 	/***/ public String unsupportedPackIndexVersion;
 	/***/ public String unsupportedPackVersion;
 	/***/ public String updatingRefFailed;
+	/***/ public String updatingReferences;
 	/***/ public String userConfigFileInvalid;
 	/***/ public String walkFailure;
 	/***/ public String windowSizeMustBeLesserThanLimit;
 	/***/ public String windowSizeMustBePowerOf2;
 	/***/ public String writeTimedOut;
 	/***/ public String writerAlreadyInitialized;
+	/***/ public String writingCommitGraph;
+	/***/ public String writingMultiPackIndex;
 	/***/ public String writingNotPermitted;
 	/***/ public String writingNotSupported;
 	/***/ public String writingObjects;
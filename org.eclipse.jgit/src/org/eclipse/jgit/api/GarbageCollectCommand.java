@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.api;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Date;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.GC;
+
+/**
+ * A class used to execute a {@code gc} command. It has setters for all
+ * supported options and arguments of this command and a {@link #call()} method
+ * to finally execute the command. Each instance of this class should only be
+ * used for one invocation of the command (means: one call to {@link #call()})
+ *
+ * @see <a href="http://www.kernel.org/pub/software/scm/git/docs/git-gc.html"
+ *      >Git documentation about gc</a>
+ */
+public class GarbageCollectCommand extends GitCommand<GC.RepoStatistics> {
+	private ProgressMonitor monitor = NullProgressMonitor.INSTANCE;
+
+	private Date expire;
+
+	/**
+	 * @param repo
+	 */
+	protected GarbageCollectCommand(Repository repo) {
+		super(repo);
+	}
+
+	/**
+	 * @param monitor
+	 *            a progress monitor
+	 * @return {@code this}
+	 */
+	public GarbageCollectCommand setProgressMonitor(ProgressMonitor monitor) {
+		checkCallable();
+		this.monitor = monitor;
+		return this;
+	}
+
+	/**
+	 * During gc() unreachable objects modified after this date are kept.
+	 *
+	 * @param expire
+	 *            the expiration date; null to keep unreachable objects for two
+	 *            weeks.
+	 * @return {@code this}
+	 */
+	public GarbageCollectCommand setExpire(Date expire) {
+		checkCallable();
+		this.expire = expire;
+		return this;
+	}
+
+	/**
+	 * Executes the {@code gc} command. Each instance of this class should only
+	 * be used for one invocation of the command. Don't call this method twice
+	 * on an instance.
+	 *
+	 * @return statistics of the repository after the collection
+	 */
+	public GC.RepoStatistics call() throws JGitInternalException {
+		checkCallable();
+		if (!(repo instanceof FileRepository))
+			throw new JGitInternalException(MessageFormat.format(
+					JGitText.get().garbageCollectRequiresFileRepository,
+					repo.toString()));
+		try {
+			final GC gc = new GC((FileRepository) repo);
+			gc.setProgressMonitor(monitor);
+			gc.setExpire(expire);
+			gc.gc();
+			setCallable(false);
+			return gc.getStatistics();
+		} catch (IOException e) {
+			throw new JGitInternalException(MessageFormat.format(
+					JGitText.get().exceptionCaughtDuringExecutionOfGarbageCollectCommand,
+					e), e);
+		}
+	}
+}
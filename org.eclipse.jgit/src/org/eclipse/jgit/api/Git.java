@@ -145,6 +145,19 @@ public AddCommand add() {
 		return new AddCommand(repo);
 	}
 
+	/**
+	 * Returns a command object to execute a {@code gc} command
+	 *
+	 * @see <a
+	 *      href="http://www.kernel.org/pub/software/scm/git/docs/git-gc.html"
+	 *      >Git documentation about gc</a>
+	 * @return a {@link GarbageCollectCommand} used to collect all optional
+	 *         parameters and to finally execute the {@code gc} command
+	 */
+	public GarbageCollectCommand gc() {
+		return new GarbageCollectCommand(repo);
+	}
+
 	/**
 	 * @return the git repository this class is interacting with
 	 */
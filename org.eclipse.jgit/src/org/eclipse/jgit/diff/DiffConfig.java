@@ -43,6 +43,10 @@
 
 package org.eclipse.jgit.diff;
 
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Config.SectionParser;
 
@@ -57,12 +61,54 @@ public DiffConfig parse(final Config cfg) {
 
 	private final int renameLimit;
 
+	private final SupportedAlgorithm diffAlgorithm;
+
 	private DiffConfig(final Config rc) {
 		renameLimit = rc.getInt("diff", "renamelimit", 200);
+		diffAlgorithm = configAlgorithm(rc.getString("diff", null, "algorithm"));
+	}
+
+	private static SupportedAlgorithm configAlgorithm(final String name) {
+		// A bad value must not break every diff of the repository, so the
+		// configuration falls back to the default instead of failing.
+		try {
+			return parseAlgorithm(name);
+		} catch (IllegalArgumentException unknown) {
+			return SupportedAlgorithm.MYERS;
+		}
+	}
+
+	/**
+	 * Parse the name of a diff algorithm, as used by {@code diff.algorithm}.
+	 * <p>
+	 * Unlike the configuration, which ignores a name it does not know, this
+	 * method is strict and suits options given by the user.
+	 *
+	 * @param name
+	 *            the name of the algorithm; null selects the default.
+	 * @return the algorithm named.
+	 * @throws IllegalArgumentException
+	 *             the name is not a supported algorithm.
+	 */
+	public static SupportedAlgorithm parseAlgorithm(final String name) {
+		if (name == null || name.equalsIgnoreCase("default")
+				|| name.equalsIgnoreCase("myers")
+				|| name.equalsIgnoreCase("minimal"))
+			return SupportedAlgorithm.MYERS;
+		if (name.equalsIgnoreCase("histogram")
+				|| name.equalsIgnoreCase("patience"))
+			return SupportedAlgorithm.HISTOGRAM;
+		throw new IllegalArgumentException(MessageFormat.format(
+				JGitText.get().unknownDiffAlgorithm, name));
 	}
 
 	/** @return limit on number of paths to perform inexact rename detection. */
 	public int getRenameLimit() {
 		return renameLimit;
 	}
+
+	/** @return the algorithm selected by {@code diff.algorithm}. */
+	public SupportedAlgorithm getDiffAlgorithm() {
+		return diffAlgorithm;
+	}
 }
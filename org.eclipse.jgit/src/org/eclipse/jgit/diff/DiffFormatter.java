@@ -87,6 +87,10 @@ public class DiffFormatter {
 
 	private RawText.Factory rawTextFactory = RawText.FACTORY;
 
+	private RawTextCache textCache;
+
+	private DiffAlgorithm diffAlgorithm = MyersDiff.INSTANCE;
+
 	private long bigFileThreshold = 50 * 1024 * 1024;
 
 	/**
@@ -119,6 +123,9 @@ public void setRepository(Repository repository) {
 
 		CoreConfig cfg = db.getConfig().get(CoreConfig.KEY);
 		bigFileThreshold = cfg.getStreamFileThreshold();
+
+		DiffConfig dc = db.getConfig().get(DiffConfig.KEY);
+		diffAlgorithm = DiffAlgorithm.getAlgorithm(dc.getDiffAlgorithm());
 	}
 
 	/**
@@ -164,6 +171,35 @@ public void setAbbreviationLength(final int count) {
 	 */
 	public void setRawTextFactory(RawText.Factory type) {
 		rawTextFactory = type;
+		if (textCache != null && textCache.getFactory() != type)
+			textCache = null;
+	}
+
+	/**
+	 * Set the cache used to hold the text of blobs being compared.
+	 * <p>
+	 * The cache may be shared with other formatters or merges working on the
+	 * same blobs, so each blob is only split into lines once. The factory of
+	 * the cache replaces the one set by {@link #setRawTextFactory}.
+	 *
+	 * @param cache
+	 *            the cache to use.
+	 */
+	public void setRawTextCache(RawTextCache cache) {
+		textCache = cache;
+		rawTextFactory = cache.getFactory();
+	}
+
+	/**
+	 * Set the algorithm that constructs difference output.
+	 *
+	 * @param alg
+	 *            the algorithm to produce text file differences.
+	 * @see MyersDiff#INSTANCE
+	 * @see HistogramDiff
+	 */
+	public void setDiffAlgorithm(DiffAlgorithm alg) {
+		diffAlgorithm = alg;
 	}
 
 	/**
@@ -218,16 +254,14 @@ public void format(DiffEntry ent) throws IOException {
 		if (ent.getOldMode() == GITLINK || ent.getNewMode() == GITLINK) {
 			writeGitLinkDiffText(out, ent);
 		} else {
-			byte[] aRaw = open(ent.getOldMode(), ent.getOldId());
-			byte[] bRaw = open(ent.getNewMode(), ent.getNewId());
+			RawText a = text(ent.getOldMode(), ent.getOldId());
+			RawText b = text(ent.getNewMode(), ent.getNewId());
 
-			if (RawText.isBinary(aRaw) || RawText.isBinary(bRaw)) {
+			if (a == null || b == null) {
 				out.write(encodeASCII("Binary files differ\n"));
 
 			} else {
-				RawText a = rawTextFactory.create(aRaw);
-				RawText b = rawTextFactory.create(bRaw);
-				formatEdits(a, b, new MyersDiff(a, b).getEdits());
+				formatEdits(a, b, diffAlgorithm.diff(a, b));
 			}
 		}
 	}
@@ -338,6 +372,31 @@ private static String quotePath(String name) {
 		return ('"' + name + '"').equals(q) ? name : q;
 	}
 
+	/**
+	 * Get the text of a blob, reusing it from the cache if possible.
+	 *
+	 * @return the text; null if the content is binary.
+	 */
+	private RawText text(FileMode mode, AbbreviatedObjectId id)
+			throws IOException {
+		final boolean cacheable = id.isComplete()
+				&& mode.getObjectType() == Constants.OBJ_BLOB;
+		if (cacheable) {
+			if (textCache == null)
+				textCache = new RawTextCache(rawTextFactory);
+			RawText text = textCache.get(id.toObjectId());
+			if (text != null)
+				return text;
+		}
+
+		byte[] raw = open(mode, id);
+		if (RawText.isBinary(raw))
+			return null;
+		if (cacheable && raw.length != 0)
+			return textCache.put(id.toObjectId(), raw);
+		return rawTextFactory.create(raw);
+	}
+
 	private byte[] open(FileMode mode, AbbreviatedObjectId id)
 			throws IOException {
 		if (mode == FileMode.MISSING)
@@ -616,17 +675,15 @@ public FileHeader createFileHeader(DiffEntry ent) throws IOException,
 			editList = new EditList();
 			type = PatchType.UNIFIED;
 		} else {
-			byte[] aRaw = open(ent.getOldMode(), ent.getOldId());
-			byte[] bRaw = open(ent.getNewMode(), ent.getNewId());
+			RawText a = text(ent.getOldMode(), ent.getOldId());
+			RawText b = text(ent.getNewMode(), ent.getNewId());
 
-			if (RawText.isBinary(aRaw) || RawText.isBinary(bRaw)) {
+			if (a == null || b == null) {
 				buf.write(encodeASCII("Binary files differ\n"));
 				editList = new EditList();
 				type = PatchType.BINARY;
 			} else {
-				RawText a = rawTextFactory.create(aRaw);
-				RawText b = rawTextFactory.create(bRaw);
-				editList = new MyersDiff(a, b).getEdits();
+				editList = diffAlgorithm.diff(a, b);
 				type = PatchType.UNIFIED;
 			}
 		}
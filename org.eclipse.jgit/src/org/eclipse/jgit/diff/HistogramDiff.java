@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+/**
+ * An extended form of Bram Cohen's patience diff algorithm.
+ * <p>
+ * This implementation was derived by using the 4 rules that are outlined in
+ * Bram Cohen's <a href="http://bramcohen.livejournal.com/73318.html">blog</a>,
+ * and then was further extended to support low-occurrence common elements.
+ * <p>
+ * The basic idea of the algorithm is to create a histogram of occurrences for
+ * each element of sequence A. Each element of sequence B is then considered in
+ * turn. If the element also exists in sequence A, and has a lower occurrence
+ * count, the positions are considered as a candidate for the longest common
+ * subsequence (LCS). After scanning of B is complete the LCS that has the
+ * lowest number of occurrences is chosen as a split point. The region is split
+ * around the LCS, and the algorithm is recursively applied to the sections
+ * before and after the LCS.
+ * <p>
+ * By always selecting a LCS position with the lowest occurrence count, this
+ * algorithm behaves exactly like Bram Cohen's patience diff whenever there is a
+ * unique common element available between the two sequences. When no unique
+ * elements exist, the lowest occurrence element is chosen instead. This offers
+ * more readable diffs than simply falling back on the standard Myers' O(ND)
+ * algorithm would produce, and it is much faster on files with many repeated
+ * lines, where Myers' middle snake search degrades.
+ * <p>
+ * To prevent the algorithm from having an O(N^2) running time, an upper limit
+ * on the number of unique elements in a histogram bucket is configured by
+ * {@link #setMaxChainLength(int)}. If sequence A has more than this many
+ * elements that hash into the same hash bucket, or if no common element occurs
+ * less often than this, the region is passed to the fallback algorithm,
+ * {@link MyersDiff} by default. Elements that occur more often than the limit
+ * are never used as split points.
+ * <p>
+ * The line hashes already computed by {@link RawText}, or the line ids of an
+ * {@link InternedText}, are used to build the histogram, so only those
+ * sequences are compared by this algorithm. Other sequences are passed to the
+ * fallback algorithm as a whole.
+ * <p>
+ * Instances are stateless once configured, and may be shared between threads.
+ */
+public class HistogramDiff extends DiffAlgorithm {
+	/** Algorithm to use when there are too many element occurrences. */
+	private DiffAlgorithm fallback = MyersDiff.INSTANCE;
+
+	/**
+	 * Maximum number of positions to consider for a given element hash.
+	 * <p>
+	 * All elements with the same hash are stored into a single chain. The
+	 * chain size is capped to ensure search is linear time at O(len_A +
+	 * len_B) rather than quadratic at O(len_A * len_B).
+	 */
+	private int maxChainLength = 64;
+
+	/**
+	 * Set the algorithm used when there are too many element occurrences.
+	 *
+	 * @param alg
+	 *            the secondary algorithm. If null the region will be denoted
+	 *            as a single REPLACE block.
+	 */
+	public void setFallbackAlgorithm(DiffAlgorithm alg) {
+		fallback = alg;
+	}
+
+	/**
+	 * Maximum number of positions to consider for a given element hash.
+	 * <p>
+	 * All elements with the same hash are stored into a single chain. The
+	 * chain size is capped to ensure search is linear time at O(len_A +
+	 * len_B) rather than quadratic at O(len_A * len_B).
+	 *
+	 * @param maxLen
+	 *            new maximum length.
+	 */
+	public void setMaxChainLength(int maxLen) {
+		maxChainLength = maxLen;
+	}
+
+	public EditList diff(Sequence a, Sequence b) {
+		final EditList edits = new EditList();
+		final State s = new State(a, b, edits);
+		if (HistogramDiffIndex.isHashed(a) && a.getClass() == b.getClass())
+			s.diffRegion(0, a.size(), 0, b.size());
+		else
+			s.fallback(0, a.size(), 0, b.size());
+		return edits;
+	}
+
+	private class State {
+		private final Sequence a;
+
+		private final Sequence b;
+
+		private final EditList edits;
+
+		State(Sequence a, Sequence b, EditList edits) {
+			this.a = a;
+			this.b = b;
+			this.edits = edits;
+		}
+
+		void diffRegion(int beginA, int endA, int beginB, int endB) {
+			for (;;) {
+				// Elements common at either end never need to be indexed.
+				//
+				while (beginA < endA && beginB < endB
+						&& a.equals(beginA, b, beginB)) {
+					beginA++;
+					beginB++;
+				}
+				while (beginA < endA && beginB < endB
+						&& a.equals(endA - 1, b, endB - 1)) {
+					endA--;
+					endB--;
+				}
+
+				if (beginA == endA || beginB == endB) {
+					if (beginA < endA || beginB < endB)
+						add(new Edit(beginA, endA, beginB, endB));
+					return;
+				}
+
+				final HistogramDiffIndex index = new HistogramDiffIndex(
+						maxChainLength, a, b, beginA, endA, beginB, endB);
+				final Edit lcs = index.findLongestCommonSequence();
+				if (lcs == null) {
+					fallback(beginA, endA, beginB, endB);
+					return;
+				}
+				if (lcs.getType() == Edit.Type.EMPTY) {
+					// Nothing in common, the whole region was replaced.
+					add(new Edit(beginA, endA, beginB, endB));
+					return;
+				}
+
+				// Recurse into the region before the common section,
+				// and loop around for the region after it.
+				//
+				diffRegion(beginA, lcs.beginA, beginB, lcs.beginB);
+				beginA = lcs.endA;
+				beginB = lcs.endB;
+			}
+		}
+
+		void fallback(int beginA, int endA, int beginB, int endB) {
+			if (fallback == null) {
+				add(new Edit(beginA, endA, beginB, endB));
+				return;
+			}
+
+			final Subsequence as = new Subsequence(a, beginA, endA);
+			final Subsequence bs = new Subsequence(b, beginB, endB);
+			for (Edit e : fallback.diff(as, bs))
+				add(new Edit(beginA + e.beginA, beginA + e.endA, //
+						beginB + e.beginB, beginB + e.endB));
+		}
+
+		private void add(Edit e) {
+			edits.add(edits.size(), e);
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+/**
+ * Support {@link HistogramDiff} by computing occurrence counts of elements.
+ * <p>
+ * Each element in the range being considered is put into a hash table, tracking
+ * the number of times that distinct element appears in the sequence. Once all
+ * elements have been inserted from sequence A, each element of sequence B is
+ * probed in the hash table and the longest common subsequence with the lowest
+ * occurrence count in A is used as the result.
+ */
+final class HistogramDiffIndex {
+	/** Sentinel returned when the two regions have nothing in common. */
+	private static final Edit NO_COMMON = new Edit(0, 0);
+
+	private final int maxChainLength;
+
+	private final Sequence a;
+
+	private final Sequence b;
+
+	private final int beginA;
+
+	private final int endA;
+
+	private final int beginB;
+
+	private final int endB;
+
+	/** Shift to apply to a mixed hash to select a {@link #table} bucket. */
+	private final int keyShift;
+
+	/**
+	 * Head of the record chain of each hash bucket.
+	 * <p>
+	 * Values are record indexes plus 1, 0 marks an empty bucket.
+	 */
+	private final int[] table;
+
+	/** Next record (plus 1) in the same bucket; 0 ends the chain. */
+	private final int[] recNext;
+
+	/** Lowest position in A of each distinct element. */
+	private final int[] recFirst;
+
+	/** Number of times each distinct element occurs, capped past the limit. */
+	private final int[] recCnt;
+
+	/** Number of distinct elements recorded. */
+	private int recCount;
+
+	/** For each position of A, the next position of the same element, or -1. */
+	private final int[] nextOccurrence;
+
+	/** For each position of A, the record of its element. */
+	private final int[] recOfPosition;
+
+	HistogramDiffIndex(int maxChainLength, Sequence a, Sequence b, int beginA,
+			int endA, int beginB, int endB) {
+		this.maxChainLength = maxChainLength;
+		this.a = a;
+		this.b = b;
+		this.beginA = beginA;
+		this.endA = endA;
+		this.beginB = beginB;
+		this.endB = endB;
+
+		final int sz = endA - beginA;
+		final int bits = tableBits(sz);
+		keyShift = 32 - bits;
+		table = new int[1 << bits];
+		recNext = new int[sz];
+		recFirst = new int[sz];
+		recCnt = new int[sz];
+		nextOccurrence = new int[sz];
+		recOfPosition = new int[sz];
+	}
+
+	/**
+	 * Find the longest common sequence with the lowest occurrence count.
+	 *
+	 * @return the common region; an empty edit if there is none; null if the
+	 *         region must be compared by the fallback algorithm instead.
+	 */
+	Edit findLongestCommonSequence() {
+		if (!scanA())
+			return null;
+
+		Edit lcs = null;
+		int lowCount = maxChainLength;
+		boolean hasCommon = false;
+
+		for (int bPtr = beginB; bPtr < endB;) {
+			final int r = find(b, bPtr);
+			if (r < 0 || lowCount < recCnt[r]) {
+				hasCommon |= 0 <= r;
+				bPtr++;
+				continue;
+			}
+			hasCommon = true;
+
+			int bNext = bPtr + 1;
+			for (int occ = recFirst[r]; occ >= 0; occ = nextOccurrence[occ
+					- beginA]) {
+				int as = occ;
+				int bs = bPtr;
+				int ae = as + 1;
+				int be = bs + 1;
+				int rc = recCnt[r];
+
+				while (beginA < as && beginB < bs && a.equals(as - 1, b, bs - 1)) {
+					as--;
+					bs--;
+					rc = Math.min(rc, recCnt[recOfPosition[as - beginA]]);
+				}
+				while (ae < endA && be < endB && a.equals(ae, b, be)) {
+					rc = Math.min(rc, recCnt[recOfPosition[ae - beginA]]);
+					ae++;
+					be++;
+				}
+
+				if (bNext < be)
+					bNext = be;
+				if (lcs == null || lcs.endA - lcs.beginA < ae - as
+						|| rc < lowCount) {
+					lcs = new Edit(as, ae, bs, be);
+					lowCount = rc;
+				}
+			}
+			bPtr = bNext;
+		}
+
+		if (lcs != null)
+			return lcs;
+		return hasCommon ? null : NO_COMMON;
+	}
+
+	/**
+	 * Insert every element of the A region into the histogram.
+	 *
+	 * @return false if a bucket exceeded {@link #maxChainLength}.
+	 */
+	private boolean scanA() {
+		// Scan backwards, so each element's chain of positions is built
+		// in increasing order by pushing onto its front.
+		//
+		for (int ptr = endA - 1; beginA <= ptr; ptr--) {
+			final int key = bucket(a, ptr);
+			int chainLen = 0;
+			int r = table[key] - 1;
+			for (; 0 <= r; r = recNext[r] - 1) {
+				if (a.equals(recFirst[r], a, ptr))
+					break;
+				if (++chainLen == maxChainLength)
+					return false;
+			}
+
+			if (r < 0) {
+				r = recCount++;
+				recNext[r] = table[key];
+				recFirst[r] = ptr;
+				recCnt[r] = 1;
+				nextOccurrence[ptr - beginA] = -1;
+				table[key] = r + 1;
+			} else {
+				nextOccurrence[ptr - beginA] = recFirst[r];
+				recFirst[r] = ptr;
+				if (recCnt[r] <= maxChainLength)
+					recCnt[r]++;
+			}
+			recOfPosition[ptr - beginA] = r;
+		}
+		return true;
+	}
+
+	private int find(final Sequence seq, final int ptr) {
+		for (int r = table[bucket(seq, ptr)] - 1; 0 <= r; r = recNext[r] - 1) {
+			if (a.equals(recFirst[r], seq, ptr))
+				return r;
+		}
+		return -1;
+	}
+
+	private int bucket(final Sequence seq, final int ptr) {
+		return (hash(seq, ptr) * 0x9e370001) >>> keyShift;
+	}
+
+	/**
+	 * @param seq
+	 *            a sequence.
+	 * @return true if the sequence has element hashes this index can use.
+	 */
+	static boolean isHashed(final Sequence seq) {
+		return seq instanceof RawText || seq instanceof InternedText;
+	}
+
+	private static int hash(final Sequence seq, final int ptr) {
+		if (seq instanceof InternedText)
+			return ((InternedText) seq).getLineId(ptr);
+		return ((RawText) seq).hash(ptr);
+	}
+
+	private static int tableBits(final int sz) {
+		int bits = 31 - Integer.numberOfLeadingZeros(sz);
+		if (bits == 0)
+			bits = 1;
+		if (1 << bits < sz)
+			bits++;
+		return bits;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+/**
+ * A {@link RawText} whose lines have been replaced by ids from a
+ * {@link LineTable}.
+ * <p>
+ * Two lines are equal if and only if they have the same id, so comparing
+ * elements is a single integer comparison. Only texts interned into the same
+ * table may be compared with each other.
+ * <p>
+ * Edits computed on interned texts use the same line indexes as the texts they
+ * were created from, and can be applied to {@link #getRawText()} directly.
+ */
+public final class InternedText implements Sequence {
+	private final LineTable table;
+
+	private final RawText text;
+
+	private final int[] ids;
+
+	InternedText(final LineTable table, final RawText text, final int[] ids) {
+		this.table = table;
+		this.text = text;
+		this.ids = ids;
+	}
+
+	/** @return the table this text was interned into. */
+	public LineTable getLineTable() {
+		return table;
+	}
+
+	/** @return the text this sequence was created from. */
+	public RawText getRawText() {
+		return text;
+	}
+
+	/**
+	 * Get the id of a line.
+	 *
+	 * @param i
+	 *            index of the line, 0 based.
+	 * @return the id assigned to the line by the {@link LineTable}.
+	 */
+	public int getLineId(final int i) {
+		return ids[i];
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public boolean equals(final int i, final Sequence other, final int j) {
+		return ids[i] == ((InternedText) other).ids[j];
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+
+/**
+ * Assigns a dense integer id to every distinct line of one or more texts.
+ * <p>
+ * A table is intended to be used for a single diff or merge session. Each text
+ * interned into the table is converted into an {@link InternedText}, whose
+ * lines compare by id only. Lines from different texts that are equal
+ * according to {@link RawText#equals(int, Sequence, int)} receive the same id,
+ * so once interned, comparing lines never touches the content again.
+ * <p>
+ * All texts interned into the same table must be of the same RawText class, as
+ * the class defines what makes two lines equal (for example, whitespace may be
+ * ignored). The table keeps a reference to every text interned into it.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class LineTable {
+	private static final int INITIAL_SIZE = 512;
+
+	/** Class of the first text interned; all others must match. */
+	private Class<? extends RawText> textType;
+
+	/**
+	 * Open addressed hash table of line ids.
+	 * <p>
+	 * Values are the line id plus 1, 0 marks an empty slot.
+	 */
+	private int[] table;
+
+	/** Mask applied to a mixed hash to select a {@link #table} slot. */
+	private int tableMask;
+
+	/** Hash code of each distinct line, indexed by id. */
+	private int[] idHash;
+
+	/** Text the distinct line was first seen in, indexed by id. */
+	private RawText[] idText;
+
+	/** Index of the line within {@link #idText}, indexed by id. */
+	private int[] idLine;
+
+	/** Number of distinct lines in the table. */
+	private int size;
+
+	/** Create an empty table. */
+	public LineTable() {
+		table = new int[2 * INITIAL_SIZE];
+		tableMask = table.length - 1;
+		idHash = new int[INITIAL_SIZE];
+		idText = new RawText[INITIAL_SIZE];
+		idLine = new int[INITIAL_SIZE];
+	}
+
+	/** @return number of distinct lines interned so far. */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Assign ids to every line of a text.
+	 *
+	 * @param text
+	 *            the text to intern. Must be the same class as every other
+	 *            text already interned into this table.
+	 * @return the text as a sequence of line ids.
+	 * @throws IllegalArgumentException
+	 *             the text is not the same class as the previous texts.
+	 */
+	public InternedText intern(final RawText text) {
+		if (textType == null)
+			textType = text.getClass();
+		else if (textType != text.getClass())
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().cannotInternTextOfDifferentType, text
+							.getClass().getName(), textType.getName()));
+
+		final int cnt = text.size();
+		final int[] ids = new int[cnt];
+		for (int line = 0; line < cnt; line++)
+			ids[line] = intern(text, line);
+		return new InternedText(this, text, ids);
+	}
+
+	private int intern(final RawText text, final int line) {
+		final int hash = text.hash(line);
+		int slot = slot(hash);
+		for (int e; (e = table[slot]) != 0; slot = (slot + 1) & tableMask) {
+			final int id = e - 1;
+			if (idHash[id] == hash && text.equals(line, idText[id], idLine[id]))
+				return id;
+		}
+
+		if (size == idHash.length)
+			growIds();
+
+		final int id = size++;
+		idHash[id] = hash;
+		idText[id] = text;
+		idLine[id] = line;
+		table[slot] = id + 1;
+
+		if (table.length < 2 * size)
+			growTable();
+		return id;
+	}
+
+	private int slot(final int hash) {
+		final int h = hash * 0x9e370001;
+		return (h ^ (h >>> 16)) & tableMask;
+	}
+
+	private void growIds() {
+		final int n = 2 * idHash.length;
+
+		final int[] newHash = new int[n];
+		System.arraycopy(idHash, 0, newHash, 0, size);
+		idHash = newHash;
+
+		final RawText[] newText = new RawText[n];
+		System.arraycopy(idText, 0, newText, 0, size);
+		idText = newText;
+
+		final int[] newLine = new int[n];
+		System.arraycopy(idLine, 0, newLine, 0, size);
+		idLine = newLine;
+	}
+
+	private void growTable() {
+		table = new int[2 * table.length];
+		tableMask = table.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = slot(idHash[id]);
+			while (table[slot] != 0)
+				slot = (slot + 1) & tableMask;
+			table[slot] = id + 1;
+		}
+	}
+}
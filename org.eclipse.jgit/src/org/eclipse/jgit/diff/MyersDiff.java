@@ -103,6 +103,13 @@
  * albeit with a larger constant factor.
  */
 public class MyersDiff {
+	/** Singleton instance of MyersDiff. */
+	public static final DiffAlgorithm INSTANCE = new DiffAlgorithm() {
+		public EditList diff(Sequence a, Sequence b) {
+			return new MyersDiff(a, b).getEdits();
+		}
+	};
+
 	/**
 	 * The list of edits found during the last call to {@link #calculateEdits()}
 	 */
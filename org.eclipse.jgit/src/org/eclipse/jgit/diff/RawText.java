@@ -132,6 +132,20 @@ public int size() {
 		return lines.size() - 2;
 	}
 
+	/**
+	 * Get the hash code of a line.
+	 * <p>
+	 * Lines that are equal according to {@link #equals(int, Sequence, int)}
+	 * always have the same hash code.
+	 *
+	 * @param i
+	 *            index of the line, 0 based.
+	 * @return the hash code computed for the line by {@link #hashLine}.
+	 */
+	public int hash(final int i) {
+		return hashes.get(i + 1);
+	}
+
 	public boolean equals(final int i, final Sequence other, final int j) {
 		return equals(this, i + 1, (RawText) other, j + 1);
 	}
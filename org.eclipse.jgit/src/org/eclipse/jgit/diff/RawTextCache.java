@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+
+/**
+ * Caches {@link RawText} instances by the id of the blob they were read from.
+ * <p>
+ * Creating a RawText splits the content into lines and hashes every line.
+ * Sharing a cache between the diffs and merges of a session avoids repeating
+ * that work when the same blob is compared more than once, such as a file
+ * that is the new side of one commit's diff and the old side of the next.
+ * <p>
+ * All texts in the cache are created by the same {@link RawText.Factory}. The
+ * cache holds at most {@link #setMaxBytes(long)} bytes of content; once that is
+ * exceeded it is emptied before adding more.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class RawTextCache {
+	private final RawText.Factory factory;
+
+	private final ObjectIdSubclassMap<Entry> entries = new ObjectIdSubclassMap<Entry>();
+
+	private long maxBytes = 16 * 1024 * 1024;
+
+	private long cachedBytes;
+
+	/**
+	 * Create an empty cache.
+	 *
+	 * @param factory
+	 *            factory used to create every text held by the cache.
+	 */
+	public RawTextCache(final RawText.Factory factory) {
+		this.factory = factory;
+	}
+
+	/** @return the factory used to create texts for this cache. */
+	public RawText.Factory getFactory() {
+		return factory;
+	}
+
+	/**
+	 * Set the maximum number of content bytes held by the cache.
+	 *
+	 * @param bytes
+	 *            total size of all cached texts; 0 disables caching.
+	 */
+	public void setMaxBytes(final long bytes) {
+		maxBytes = bytes;
+		if (maxBytes < cachedBytes)
+			clear();
+	}
+
+	/**
+	 * Get the text of a blob, if it is cached.
+	 *
+	 * @param blobId
+	 *            id of the blob.
+	 * @return the cached text; null if the blob is not in the cache.
+	 */
+	public RawText get(final AnyObjectId blobId) {
+		final Entry e = entries.get(blobId);
+		return e != null ? e.text : null;
+	}
+
+	/**
+	 * Create the text of a blob and add it to the cache.
+	 *
+	 * @param blobId
+	 *            id of the blob.
+	 * @param content
+	 *            the content of the blob. The array is held by the text and
+	 *            must not be modified.
+	 * @return the text created by the factory.
+	 */
+	public RawText put(final AnyObjectId blobId, final byte[] content) {
+		final Entry old = entries.get(blobId);
+		if (old != null)
+			return old.text;
+
+		final RawText text = factory.create(content);
+		if (content.length <= maxBytes) {
+			if (maxBytes < cachedBytes + content.length)
+				clear();
+			entries.add(new Entry(blobId, text));
+			cachedBytes += content.length;
+		}
+		return text;
+	}
+
+	/** Remove every text from the cache. */
+	public void clear() {
+		entries.clear();
+		cachedBytes = 0;
+	}
+
+	private static class Entry extends ObjectId {
+		final RawText text;
+
+		Entry(final AnyObjectId id, final RawText text) {
+			super(id);
+			this.text = text;
+		}
+	}
+}
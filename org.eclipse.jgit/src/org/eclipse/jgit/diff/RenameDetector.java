@@ -55,7 +55,6 @@
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
-import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectReader;
@@ -126,6 +125,15 @@ private int sortOf(ChangeType changeType) {
 	/** Set if the number of adds or deletes was over the limit. */
 	private boolean overRenameLimit;
 
+	/** Number of threads used to detect renames by content. */
+	private int threads = 1;
+
+	/** Number of file pairs above which inexact candidates are pruned. */
+	private long pruneThreshold = 1000000;
+
+	/** Indexes of blobs hashed during {@link #compute(ProgressMonitor)}. */
+	private SimilarityIndexCache indexCache;
+
 	/**
 	 * Create a new rename detector for the given repository
 	 *
@@ -190,6 +198,53 @@ public void setBreakScore(int breakScore) {
 		this.breakScore = breakScore;
 	}
 
+	/** @return number of threads used to detect renames by content. */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of threads used to detect renames by content.
+	 * <p>
+	 * Files are hashed, and each source file is scored against every
+	 * destination, on this many threads. Using more than one thread helps most
+	 * when many files were added and deleted, such as when a directory is
+	 * moved.
+	 *
+	 * @param threads
+	 *            number of threads; if &lt;= 0 one thread per available
+	 *            processor is used. The default is 1.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @return number of file pairs above which only pairs with similar content
+	 *         sketches are scored; negative if every pair is always scored.
+	 */
+	public long getPruneThreshold() {
+		return pruneThreshold;
+	}
+
+	/**
+	 * Set the number of file pairs above which inexact candidates are pruned.
+	 * <p>
+	 * When the number of deleted files times the number of added files exceeds
+	 * this threshold, each file is reduced to a small MinHash sketch of its
+	 * content, and only pairs whose sketches collide are fully scored. This
+	 * keeps detection close to linear in the number of files, allowing a much
+	 * larger rename limit, but may miss renames of files that were heavily
+	 * modified. The default is 1,000,000 pairs.
+	 *
+	 * @param pairs
+	 *            new threshold; 0 to always prune, negative to always score
+	 *            every pair.
+	 */
+	public void setPruneThreshold(long pairs) {
+		pruneThreshold = pairs;
+	}
+
 	/** @return limit on number of paths to perform inexact rename detection. */
 	public int getRenameLimit() {
 		return renameLimit;
@@ -310,12 +365,14 @@ public List<DiffEntry> compute(ProgressMonitor pm) throws IOException {
 			if (pm == null)
 				pm = NullProgressMonitor.INSTANCE;
 			ObjectReader reader = repo.newObjectReader();
+			indexCache = new SimilarityIndexCache();
 			try {
 				breakModifies(reader, pm);
 				findExactRenames(pm);
 				findContentRenames(reader, pm);
 				rejoinModifies(pm);
 			} finally {
+				indexCache = null;
 				reader.release();
 			}
 
@@ -395,13 +452,8 @@ private void rejoinModifies(ProgressMonitor pm) {
 
 	private int calculateModifyScore(ObjectReader reader, DiffEntry d)
 			throws IOException {
-		SimilarityIndex src = new SimilarityIndex();
-		src.hash(reader.open(d.oldId.toObjectId(), Constants.OBJ_BLOB));
-		src.sort();
-
-		SimilarityIndex dst = new SimilarityIndex();
-		dst.hash(reader.open(d.newId.toObjectId(), Constants.OBJ_BLOB));
-		dst.sort();
+		SimilarityIndex src = indexCache.hash(reader, d.oldId.toObjectId());
+		SimilarityIndex dst = indexCache.hash(reader, d.newId.toObjectId());
 		return src.score(dst, 100);
 	}
 
@@ -414,8 +466,11 @@ private void findContentRenames(ObjectReader reader, ProgressMonitor pm)
 		if (getRenameLimit() == 0 || cnt <= getRenameLimit()) {
 			SimilarityRenameDetector d;
 
-			d = new SimilarityRenameDetector(reader, deleted, added);
+			d = new SimilarityRenameDetector(reader, indexCache, deleted,
+					added);
 			d.setRenameScore(getRenameScore());
+			d.setThreads(getThreads());
+			d.setPruneThreshold(getPruneThreshold());
 			d.compute(pm);
 			deleted = d.getLeftOverSources();
 			added = d.getLeftOverDestinations();
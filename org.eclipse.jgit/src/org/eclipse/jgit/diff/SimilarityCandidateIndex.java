@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+import java.util.Arrays;
+
+import org.eclipse.jgit.util.IntList;
+
+/**
+ * Locality sensitive index of destination files, used to prune rename pairs.
+ * <p>
+ * Each destination's {@link SimilarityIndex} is reduced to a MinHash signature
+ * of {@link #BANDS} bands of {@link #ROWS} hashes each. A source is only
+ * scored against destinations that agree with it on every hash of at least
+ * one band. Pairs sharing about half of their lines collide with probability
+ * better than 99%, while unrelated files rarely collide, so the number of
+ * full {@link SimilarityIndex#score(SimilarityIndex, int)} calls grows with
+ * the number of likely renames instead of the product of both list sizes.
+ * <p>
+ * The filter is approximate; a pair with a low fraction of common lines may
+ * be missed even though its score would have passed the rename threshold.
+ */
+class SimilarityCandidateIndex {
+	/** Number of bands the signature is split into. */
+	static final int BANDS = 24;
+
+	/** Number of hashes that must all agree for a band to collide. */
+	static final int ROWS = 2;
+
+	private static final int[] SEEDS;
+
+	static {
+		SEEDS = new int[BANDS * ROWS];
+		int s = 0x9e3779b9;
+		for (int i = 0; i < SEEDS.length; i++) {
+			s = s * 0x01000193 + 0x7f4a7c15;
+			SEEDS[i] = s | 1;
+		}
+	}
+
+	/**
+	 * Sorted entries of each band.
+	 * <p>
+	 * The upper 32 bits of each entry hold the band hash, the lower 32 bits
+	 * the index of the destination in the list given to the constructor.
+	 */
+	private final long[][] bands;
+
+	/**
+	 * Build the index over all destinations.
+	 *
+	 * @param dstIndexes
+	 *            index of each destination; null entries are never returned
+	 *            as candidates.
+	 */
+	SimilarityCandidateIndex(SimilarityIndex[] dstIndexes) {
+		int cnt = 0;
+		for (SimilarityIndex d : dstIndexes) {
+			if (d != null)
+				cnt++;
+		}
+
+		bands = new long[BANDS][cnt];
+		int n = 0;
+		for (int dstIdx = 0; dstIdx < dstIndexes.length; dstIdx++) {
+			SimilarityIndex d = dstIndexes[dstIdx];
+			if (d == null)
+				continue;
+
+			int[] sig = d.minHash(SEEDS);
+			for (int b = 0; b < BANDS; b++)
+				bands[b][n] = (((long) bandHash(sig, b)) << 32) | dstIdx;
+			n++;
+		}
+		for (long[] band : bands)
+			Arrays.sort(band);
+	}
+
+	/**
+	 * Find the destinations likely to be similar to a source.
+	 *
+	 * @param src
+	 *            index of the source file.
+	 * @param seen
+	 *            scratch table with one slot per destination, owned by the
+	 *            calling thread. Slots equal to {@code stamp} are skipped.
+	 * @param stamp
+	 *            value unique to this call for the given {@code seen} table.
+	 * @param out
+	 *            receives the index of each candidate destination, once.
+	 */
+	void candidates(SimilarityIndex src, int[] seen, int stamp, IntList out) {
+		int[] sig = src.minHash(SEEDS);
+		for (int b = 0; b < BANDS; b++) {
+			long[] band = bands[b];
+			int h = bandHash(sig, b);
+			int i = Arrays.binarySearch(band, ((long) h) << 32);
+			if (i < 0)
+				i = -(i + 1);
+			for (; i < band.length && (int) (band[i] >>> 32) == h; i++) {
+				int dstIdx = (int) band[i];
+				if (seen[dstIdx] != stamp) {
+					seen[dstIdx] = stamp;
+					out.add(dstIdx);
+				}
+			}
+		}
+	}
+
+	private static int bandHash(int[] sig, int band) {
+		int h = band;
+		for (int r = band * ROWS; r < (band + 1) * ROWS; r++)
+			h = h * 31 + sig[r];
+		return h;
+	}
+}
@@ -244,6 +244,35 @@ private static int common(long[] srcHash, int srcIdx, //
 		return common;
 	}
 
+	/**
+	 * Compute a MinHash signature over the keys of this index.
+	 * <p>
+	 * Two indexes sharing a large fraction of their keys are likely to agree
+	 * on many elements of their signatures. The index must be sorted.
+	 *
+	 * @param seeds
+	 *            odd multiplier of each hash function; one signature element
+	 *            is computed per seed.
+	 * @return for each seed the smallest hash of any key in this index, or
+	 *         {@link Integer#MAX_VALUE} if the index is empty.
+	 */
+	int[] minHash(int[] seeds) {
+		int[] mins = new int[seeds.length];
+		Arrays.fill(mins, Integer.MAX_VALUE);
+		for (int i = packedIndex(0); i < idHash.length; i++) {
+			int key = keyOf(idHash[i]);
+			for (int s = 0; s < seeds.length; s++) {
+				int h = key * seeds[s];
+				h ^= h >>> 15;
+				h *= 0x2c1b3c6d;
+				h ^= h >>> 12;
+				if (h < mins[s])
+					mins[s] = h;
+			}
+		}
+		return mins;
+	}
+
 	// Testing only
 	int size() {
 		return idSize;
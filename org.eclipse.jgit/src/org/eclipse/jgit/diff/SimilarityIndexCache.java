@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Holds the {@link SimilarityIndex} of each blob examined by a rename search.
+ * <p>
+ * A blob may be compared many times during a single
+ * {@link RenameDetector#compute()}, first when deciding whether to break a
+ * modification, and then against every candidate while looking for renames.
+ * The cache ensures its content is only read and hashed once.
+ * <p>
+ * This class is not thread-safe. Indexes may be computed concurrently with
+ * {@link #compute(ObjectReader, AnyObjectId)}, but must be added to the cache
+ * from a single thread.
+ */
+class SimilarityIndexCache {
+	private final ObjectIdSubclassMap<Entry> entries = new ObjectIdSubclassMap<Entry>();
+
+	SimilarityIndex get(AnyObjectId blobId) {
+		final Entry e = entries.get(blobId);
+		return e != null ? e.index : null;
+	}
+
+	void put(AnyObjectId blobId, SimilarityIndex index) {
+		if (!entries.contains(blobId))
+			entries.add(new Entry(blobId, index));
+	}
+
+	SimilarityIndex hash(ObjectReader reader, AnyObjectId blobId)
+			throws IOException {
+		SimilarityIndex r = get(blobId);
+		if (r == null) {
+			r = compute(reader, blobId);
+			put(blobId, r);
+		}
+		return r;
+	}
+
+	static SimilarityIndex compute(ObjectReader reader, AnyObjectId blobId)
+			throws IOException {
+		SimilarityIndex r = new SimilarityIndex();
+		r.hash(reader.open(blobId, Constants.OBJ_BLOB));
+		r.sort();
+		return r;
+	}
+
+	private static class Entry extends ObjectId {
+		final SimilarityIndex index;
+
+		Entry(AnyObjectId id, SimilarityIndex index) {
+			super(id);
+			this.index = index;
+		}
+	}
+}
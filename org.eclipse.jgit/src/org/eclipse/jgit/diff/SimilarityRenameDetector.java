@@ -47,6 +47,9 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
@@ -54,8 +57,13 @@
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
+import org.eclipse.jgit.storage.pack.ParallelTasks;
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.LongList;
 
 class SimilarityRenameDetector {
 	/**
@@ -74,6 +82,8 @@ class SimilarityRenameDetector {
 
 	private ObjectReader reader;
 
+	private final SimilarityIndexCache indexCache;
+
 	/**
 	 * All sources to consider for copies or renames.
 	 * <p>
@@ -110,11 +120,43 @@ class SimilarityRenameDetector {
 	/** Score a pair must exceed to be considered a rename. */
 	private int renameScore = 60;
 
+	/** Number of threads to hash and score with; 0 for one per processor. */
+	private int threads = 1;
+
+	/**
+	 * Number of file pairs above which candidates are pruned by sketch.
+	 * <p>
+	 * Negative to always score every pair.
+	 */
+	private long pruneThreshold = -1;
+
+	/** Destinations bucketed by sketch; null if every pair is scored. */
+	private SimilarityCandidateIndex candidates;
+
+	/** Size of each source, -1 if the source cannot be paired. */
+	private long[] srcSizes;
+
+	/** Size of each destination, -1 if the destination cannot be paired. */
+	private long[] dstSizes;
+
+	/** Index of each source, null until the source is first scored. */
+	private SimilarityIndex[] srcIndexes;
+
+	/** Index of each destination, null until it is first scored. */
+	private SimilarityIndex[] dstIndexes;
+
 	private List<DiffEntry> out;
 
 	SimilarityRenameDetector(ObjectReader reader, List<DiffEntry> srcs,
 			List<DiffEntry> dsts) {
+		this(reader, new SimilarityIndexCache(), srcs, dsts);
+	}
+
+	SimilarityRenameDetector(ObjectReader reader,
+			SimilarityIndexCache indexCache, List<DiffEntry> srcs,
+			List<DiffEntry> dsts) {
 		this.reader = reader;
+		this.indexCache = indexCache;
 		this.srcs = srcs;
 		this.dsts = dsts;
 	}
@@ -123,12 +165,30 @@ void setRenameScore(int score) {
 		renameScore = score;
 	}
 
+	/**
+	 * @param threads
+	 *            number of threads to hash files and score pairs with. If
+	 *            &lt;= 0 the number of available processors is used.
+	 */
+	void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @param pairs
+	 *            number of source and destination pairs above which only
+	 *            pairs with similar sketches are scored. If negative every
+	 *            pair is always scored.
+	 */
+	void setPruneThreshold(long pairs) {
+		pruneThreshold = pairs;
+	}
+
 	void compute(ProgressMonitor pm) throws IOException {
 		if (pm == null)
 			pm = NullProgressMonitor.INSTANCE;
 
-		pm.beginTask(JGitText.get().renamesFindingByContent, //
-				2 * srcs.size() * dsts.size());
+		pm.beginTask(JGitText.get().renamesFindingByContent, srcs.size());
 
 		int mNext = buildMatrix(pm);
 		out = new ArrayList<DiffEntry>(Math.min(mNext, dsts.size()));
@@ -143,10 +203,8 @@ void compute(ProgressMonitor pm) throws IOException {
 			DiffEntry s = srcs.get(sIdx);
 			DiffEntry d = dsts.get(dIdx);
 
-			if (d == null) {
-				pm.update(1);
+			if (d == null)
 				continue; // was already matched earlier
-			}
 
 			ChangeType type;
 			if (s.changeType == ChangeType.DELETE) {
@@ -162,7 +220,6 @@ void compute(ProgressMonitor pm) throws IOException {
 
 			out.add(DiffEntry.pair(type, s, d, score(ent)));
 			dsts.set(dIdx, null); // Claim the destination was matched.
-			pm.update(1);
 		}
 
 		srcs = compactSrcList(srcs);
@@ -201,91 +258,327 @@ private static List<DiffEntry> compactDstList(List<DiffEntry> in) {
 	}
 
 	private int buildMatrix(ProgressMonitor pm) throws IOException {
-		// Allocate for the worst-case scenario where every pair has a
-		// score that we need to consider. We might not need that many.
-		//
-		matrix = new long[srcs.size() * dsts.size()];
-
-		long[] srcSizes = new long[srcs.size()];
-		long[] dstSizes = new long[dsts.size()];
-
-		// Init the size arrays to some value that indicates that we haven't
-		// calculated the size yet. Since sizes cannot be negative, -1 will work
-		Arrays.fill(srcSizes, -1);
-		Arrays.fill(dstSizes, -1);
+		int n = threads;
+		if (n <= 0)
+			n = Runtime.getRuntime().availableProcessors();
+		boolean parallel = n > 1 && srcs.size() > 1;
+
+		sizeAll();
+
+		long pairs = ((long) srcs.size()) * dsts.size();
+		boolean prune = 0 <= pruneThreshold && pruneThreshold < pairs;
+		if (parallel || prune) {
+			// Workers share the index cache, and the candidate index needs
+			// every destination's sketch, so hash the files up front. Only
+			// files that survived the size filter are read.
+			//
+			hashAll(n);
+			if (prune)
+				candidates = new SimilarityCandidateIndex(dstIndexes);
+		}
 
 		// Consider each pair of files, if the score is above the minimum
 		// threshold we need record that scoring in the matrix so we can
 		// later find the best matches.
 		//
+		final LongList[] found;
+		if (!parallel) {
+			found = new LongList[] { new LongList() };
+			Row row = new Row();
+			for (int srcIdx = 0; srcIdx < srcs.size(); srcIdx++)
+				scoreRow(srcIdx, row, found[0], pm);
+		} else {
+			found = scoreInParallel(n, pm);
+		}
+
 		int mNext = 0;
-		for (int srcIdx = 0; srcIdx < srcs.size(); srcIdx++) {
-			DiffEntry srcEnt = srcs.get(srcIdx);
-			if (!isFile(srcEnt.oldMode)) {
-				pm.update(dsts.size());
-				continue;
-			}
+		for (LongList f : found)
+			mNext += f.size();
+		matrix = new long[mNext];
+		mNext = 0;
+		for (LongList f : found) {
+			for (int i = 0; i < f.size(); i++)
+				matrix[mNext++] = f.get(i);
+		}
 
-			SimilarityIndex s = hash(srcEnt.oldId.toObjectId());
-			for (int dstIdx = 0; dstIdx < dsts.size(); dstIdx++) {
-				DiffEntry dstEnt = dsts.get(dstIdx);
+		// Sort everything in the range we populated, which might be the
+		// entire matrix, or just a smaller slice if we had some bad low
+		// scoring pairs.
+		//
+		Arrays.sort(matrix, 0, mNext);
+		return mNext;
+	}
 
-				if (!isFile(dstEnt.newMode)) {
-					pm.update(1);
-					continue;
-				}
+	/** Scratch space of one thread scoring rows. */
+	private class Row {
+		final IntList dsts = new IntList();
 
-				if (!RenameDetector.sameType(srcEnt.oldMode, dstEnt.newMode)) {
-					pm.update(1);
-					continue;
-				}
+		int[] seen;
+	}
 
-				long srcSize = srcSizes[srcIdx];
-				if (srcSize < 0) {
-					srcSize = size(srcEnt.oldId.toObjectId());
-					srcSizes[srcIdx] = srcSize;
-				}
+	/** Record every scoring pair of one source, appending to {@code found}. */
+	private void scoreRow(int srcIdx, Row row, LongList found,
+			ProgressMonitor pm) throws IOException {
+		if (srcSizes[srcIdx] < 0) {
+			pm.update(1);
+			return;
+		}
 
-				long dstSize = dstSizes[dstIdx];
-				if (dstSize < 0) {
-					dstSize = size(dstEnt.newId.toObjectId());
-					dstSizes[dstIdx] = dstSize;
-				}
+		if (candidates == null) {
+			for (int dstIdx = 0; dstIdx < dsts.size(); dstIdx++)
+				scorePair(srcIdx, dstIdx, found);
+		} else {
+			// Only look at destinations sharing a sketch band with this
+			// source; the others are unlikely to score high enough.
+			//
+			if (row.seen == null)
+				row.seen = new int[dsts.size()];
+			row.dsts.clear();
+			candidates.candidates(srcIndexes[srcIdx], row.seen, srcIdx + 1,
+					row.dsts);
+			for (int i = 0; i < row.dsts.size(); i++)
+				scorePair(srcIdx, row.dsts.get(i), found);
+		}
+		pm.update(1);
+	}
 
-				long max = Math.max(srcSize, dstSize);
-				long min = Math.min(srcSize, dstSize);
-				if (min * 100 / max < renameScore) {
-					// Cannot possibly match, as the file sizes are so different
-					pm.update(1);
-					continue;
-				}
+	private void scorePair(int srcIdx, int dstIdx, LongList found)
+			throws IOException {
+		long dstSize = dstSizes[dstIdx];
+		if (dstSize < 0)
+			return;
 
-				SimilarityIndex d = hash(dstEnt.newId.toObjectId());
-				int contentScore = s.score(d, 10000);
+		DiffEntry srcEnt = srcs.get(srcIdx);
+		DiffEntry dstEnt = dsts.get(dstIdx);
+		if (!RenameDetector.sameType(srcEnt.oldMode, dstEnt.newMode))
+			return;
+
+		if (!sizeMatches(srcSizes[srcIdx], dstSize)) {
+			// Cannot possibly match, as the file sizes are so different
+			return;
+		}
 
-				// nameScore returns a value between 0 and 100, but we want it
-				// to be in the same range as the content score. This allows it
-				// to be dropped into the pretty formula for the final score.
-				int nameScore = nameScore(srcEnt.oldPath, dstEnt.newPath) * 100;
+		SimilarityIndex s = srcIndex(srcIdx);
+		SimilarityIndex d = dstIndex(dstIdx);
+		int contentScore = s.score(d, 10000);
 
-				int score = (contentScore * 99 + nameScore * 1) / 10000;
+		// nameScore returns a value between 0 and 100, but we want it
+		// to be in the same range as the content score. This allows it
+		// to be dropped into the pretty formula for the final score.
+		int nameScore = nameScore(srcEnt.oldPath, dstEnt.newPath) * 100;
 
-				if (score < renameScore) {
-					pm.update(1);
-					continue;
+		int score = (contentScore * 99 + nameScore * 1) / 10000;
+
+		if (score < renameScore)
+			return;
+
+		found.add(encode(score, srcIdx, dstIdx));
+	}
+
+	private SimilarityIndex srcIndex(int srcIdx) throws IOException {
+		SimilarityIndex r = srcIndexes[srcIdx];
+		if (r == null) {
+			r = indexCache.hash(reader, srcs.get(srcIdx).oldId.toObjectId());
+			srcIndexes[srcIdx] = r;
+		}
+		return r;
+	}
+
+	private SimilarityIndex dstIndex(int dstIdx) throws IOException {
+		SimilarityIndex r = dstIndexes[dstIdx];
+		if (r == null) {
+			r = indexCache.hash(reader, dsts.get(dstIdx).newId.toObjectId());
+			dstIndexes[dstIdx] = r;
+		}
+		return r;
+	}
+
+	private LongList[] scoreInParallel(final int n, ProgressMonitor progress)
+			throws IOException {
+		// Each worker claims the next whole row of the matrix, so the
+		// rows are spread evenly even when some sources are skipped.
+		// Every index was computed by hashAll, so the workers never
+		// modify the shared cache.
+		//
+		final ProgressMonitor pm = new ThreadSafeProgressMonitor(progress);
+		final int last = srcs.size();
+		final AtomicInteger next = new AtomicInteger();
+		final LongList[] found = new LongList[n];
+		final List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>(
+				n);
+		for (int t = 0; t < n; t++) {
+			final LongList f = new LongList();
+			found[t] = f;
+			tasks.add(new FutureTask<Object>(new Callable<Object>() {
+				public Object call() throws IOException {
+					final Row row = new Row();
+					int i;
+					while ((i = next.getAndIncrement()) < last)
+						scoreRow(i, row, f, pm);
+					return null;
 				}
+			}));
+		}
+		run(n, tasks, next, last);
+		return found;
+	}
 
-				matrix[mNext++] = encode(score, srcIdx, dstIdx);
-				pm.update(1);
-			}
+	/**
+	 * Look up the size of every file, discarding those which are too small
+	 * or too large to pair with any file on the other side.
+	 * <p>
+	 * Sizes come from the object headers, so files rejected here are never
+	 * read or hashed.
+	 */
+	private void sizeAll() throws IOException {
+		srcSizes = new long[srcs.size()];
+		for (int i = 0; i < srcSizes.length; i++) {
+			DiffEntry e = srcs.get(i);
+			srcSizes[i] = isFile(e.oldMode) ? size(e.oldId.toObjectId()) : -1;
 		}
 
-		// Sort everything in the range we populated, which might be the
-		// entire matrix, or just a smaller slice if we had some bad low
-		// scoring pairs.
+		dstSizes = new long[dsts.size()];
+		for (int i = 0; i < dstSizes.length; i++) {
+			DiffEntry e = dsts.get(i);
+			dstSizes[i] = isFile(e.newMode) ? size(e.newId.toObjectId()) : -1;
+		}
+
+		final long[] srcSorted = sorted(srcSizes);
+		final long[] dstSorted = sorted(dstSizes);
+		for (int i = 0; i < srcSizes.length; i++) {
+			if (0 <= srcSizes[i] && !hasPartner(srcSizes[i], dstSorted))
+				srcSizes[i] = -1;
+		}
+		for (int i = 0; i < dstSizes.length; i++) {
+			if (0 <= dstSizes[i] && !hasPartner(dstSizes[i], srcSorted))
+				dstSizes[i] = -1;
+		}
+
+		srcIndexes = new SimilarityIndex[srcSizes.length];
+		dstIndexes = new SimilarityIndex[dstSizes.length];
+	}
+
+	private long size(ObjectId id) throws IOException {
+		SimilarityIndex idx = indexCache.get(id);
+		if (idx != null)
+			return idx.getFileSize();
+		return reader.getObjectSize(id, Constants.OBJ_BLOB);
+	}
+
+	private static long[] sorted(long[] sizes) {
+		int cnt = 0;
+		for (long s : sizes) {
+			if (0 <= s)
+				cnt++;
+		}
+		long[] r = new long[cnt];
+		cnt = 0;
+		for (long s : sizes) {
+			if (0 <= s)
+				r[cnt++] = s;
+		}
+		Arrays.sort(r);
+		return r;
+	}
+
+	private boolean hasPartner(long size, long[] sorted) {
+		// The nearest sizes on either side are the most likely to match.
+		// If neither of them does, nothing further away can.
 		//
-		Arrays.sort(matrix, 0, mNext);
-		return mNext;
+		int p = Arrays.binarySearch(sorted, size);
+		if (0 <= p)
+			return true;
+		p = -(p + 1);
+		return (0 < p && sizeMatches(sorted[p - 1], size))
+				|| (p < sorted.length && sizeMatches(size, sorted[p]));
+	}
+
+	private boolean sizeMatches(long a, long b) {
+		long max = Math.max(a, b);
+		long min = Math.min(a, b);
+		return max == 0 || renameScore <= min * 100 / max;
+	}
+
+	/** Compute the index of every file that survived the size filter. */
+	private void hashAll(final int n) throws IOException {
+		final ObjectIdSubclassMap<ObjectId> seen = new ObjectIdSubclassMap<ObjectId>();
+		final List<ObjectId> todo = new ArrayList<ObjectId>();
+		for (int i = 0; i < srcSizes.length; i++) {
+			if (0 <= srcSizes[i])
+				addToHash(srcs.get(i).oldId.toObjectId(), seen, todo);
+		}
+		for (int i = 0; i < dstSizes.length; i++) {
+			if (0 <= dstSizes[i])
+				addToHash(dsts.get(i).newId.toObjectId(), seen, todo);
+		}
+
+		if (n == 1 || todo.size() <= 1) {
+			for (ObjectId id : todo)
+				indexCache.hash(reader, id);
+		} else {
+			final SimilarityIndex[] r = hashInParallel(todo, n);
+			for (int i = 0; i < r.length; i++)
+				indexCache.put(todo.get(i), r[i]);
+		}
+
+		for (int i = 0; i < srcSizes.length; i++) {
+			if (0 <= srcSizes[i])
+				srcIndexes[i] = indexCache.get(srcs.get(i).oldId.toObjectId());
+		}
+		for (int i = 0; i < dstSizes.length; i++) {
+			if (0 <= dstSizes[i])
+				dstIndexes[i] = indexCache.get(dsts.get(i).newId.toObjectId());
+		}
+	}
+
+	private void addToHash(ObjectId id, ObjectIdSubclassMap<ObjectId> seen,
+			List<ObjectId> todo) {
+		if (!seen.contains(id) && indexCache.get(id) == null) {
+			seen.add(id);
+			todo.add(id);
+		}
+	}
+
+	private SimilarityIndex[] hashInParallel(final List<ObjectId> todo,
+			final int n) throws IOException {
+		final int last = todo.size();
+		final AtomicInteger next = new AtomicInteger();
+		final SimilarityIndex[] r = new SimilarityIndex[last];
+		final List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>(
+				n);
+		for (int t = 0; t < n; t++) {
+			tasks.add(new FutureTask<Object>(new Callable<Object>() {
+				public Object call() throws IOException {
+					final ObjectReader or = reader.newReader();
+					boolean ok = false;
+					try {
+						int i;
+						while ((i = next.getAndIncrement()) < last)
+							r[i] = SimilarityIndexCache.compute(or, todo
+									.get(i));
+						ok = true;
+					} finally {
+						if (!ok)
+							next.set(last);
+						or.release();
+					}
+					return null;
+				}
+			}));
+		}
+		run(n, tasks, next, last);
+		return r;
+	}
+
+	private static void run(int n, List<FutureTask<Object>> tasks,
+			AtomicInteger next, int last) throws IOException {
+		try {
+			ParallelTasks.run(null, n, tasks,
+					JGitText.get().renamesInterrupted);
+		} finally {
+			// Stop workers still claiming entries if we were interrupted.
+			next.set(last);
+		}
 	}
 
 	static int nameScore(String a, String b) {
@@ -335,17 +628,6 @@ static int nameScore(String a, String b) {
 		return (((dirScoreLtr + dirScoreRtl) * 25) + (fileScore * 50)) / 100;
 	}
 
-	private SimilarityIndex hash(ObjectId objectId) throws IOException {
-		SimilarityIndex r = new SimilarityIndex();
-		r.hash(reader.open(objectId));
-		r.sort();
-		return r;
-	}
-
-	private long size(ObjectId objectId) throws IOException {
-		return reader.getObjectSize(objectId, Constants.OBJ_BLOB);
-	}
-
 	private static int score(long value) {
 		return (int) (value >>> SCORE_SHIFT);
 	}
@@ -208,6 +208,40 @@ public int compareTo(final int[] bs, final int p) {
 		return NB.compareUInt32(w5, bs[p + 4]);
 	}
 
+	/**
+	 * Compare this ObjectId to a network-byte-order ObjectId.
+	 *
+	 * @param bb
+	 *            buffer containing the other ObjectId in network byte order.
+	 *            The buffer's position is not changed.
+	 * @param p
+	 *            position within {@code bb} to start the compare at. At least
+	 *            20 bytes, starting at this position are required.
+	 * @return a negative integer, zero, or a positive integer as this object is
+	 *         less than, equal to, or greater than the specified object.
+	 */
+	public int compareTo(final ByteBuffer bb, final int p) {
+		int cmp;
+
+		cmp = NB.compareUInt32(w1, bb.getInt(p));
+		if (cmp != 0)
+			return cmp;
+
+		cmp = NB.compareUInt32(w2, bb.getInt(p + 4));
+		if (cmp != 0)
+			return cmp;
+
+		cmp = NB.compareUInt32(w3, bb.getInt(p + 8));
+		if (cmp != 0)
+			return cmp;
+
+		cmp = NB.compareUInt32(w4, bb.getInt(p + 12));
+		if (cmp != 0)
+			return cmp;
+
+		return NB.compareUInt32(w5, bb.getInt(p + 16));
+	}
+
 	/**
 	 * Tests if this ObjectId starts with the given abbreviation.
 	 *
@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+/**
+ * Batch of reference updates to be applied to a repository.
+ * <p>
+ * The default implementation applies each command through its own
+ * {@link RefUpdate}. A {@link RefDatabase} may override
+ * {@link RefDatabase#newBatchUpdate()} to lock all references at once and
+ * store every change with a single write.
+ * <p>
+ * If the batch is atomic, either every command succeeds or none of them are
+ * applied. Databases that cannot honor this (see
+ * {@link RefDatabase#performsAtomicTransactions()}) reject every command of an
+ * atomic batch.
+ */
+public class BatchRefUpdate {
+	private final RefDatabase refdb;
+
+	/** Commands to apply during this batch. */
+	private final List<ReceiveCommand> commands;
+
+	/** Does the caller permit a forced update on a reference? */
+	private boolean allowNonFastForwards;
+
+	/** Must all commands succeed for any of them to be applied? */
+	private boolean atomic;
+
+	/** Identity to record action as within the reflog. */
+	private PersonIdent refLogIdent;
+
+	/** Message the caller wants included in the reflog. */
+	private String refLogMessage;
+
+	/** Should the result value be appended to {@link #refLogMessage}. */
+	private boolean refLogIncludeResult;
+
+	/**
+	 * Initialize a new batch update.
+	 *
+	 * @param refdb
+	 *            the reference database of the repository to be updated.
+	 */
+	protected BatchRefUpdate(RefDatabase refdb) {
+		this.refdb = refdb;
+		this.commands = new ArrayList<ReceiveCommand>();
+		this.refLogMessage = "";
+	}
+
+	/** @return the reference database this batch updates. */
+	protected RefDatabase getRefDatabase() {
+		return refdb;
+	}
+
+	/**
+	 * @return true if the batch update will permit a non-fast-forward update
+	 *         to an existing reference.
+	 */
+	public boolean isAllowNonFastForwards() {
+		return allowNonFastForwards;
+	}
+
+	/**
+	 * Set if this update wants to permit a forced update.
+	 *
+	 * @param allow
+	 *            true if this update batch should ignore merge tests.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate setAllowNonFastForwards(boolean allow) {
+		allowNonFastForwards = allow;
+		return this;
+	}
+
+	/** @return true if no command is applied unless all of them succeed. */
+	public boolean isAtomic() {
+		return atomic;
+	}
+
+	/**
+	 * Request all-or-nothing semantics for this batch.
+	 *
+	 * @param atomic
+	 *            true if a failure of any command must leave every reference
+	 *            unmodified.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate setAtomic(boolean atomic) {
+		this.atomic = atomic;
+		return this;
+	}
+
+	/** @return identity of the user making the change in the reflog. */
+	public PersonIdent getRefLogIdent() {
+		return refLogIdent;
+	}
+
+	/**
+	 * Set the identity of the user appearing in the reflog.
+	 * <p>
+	 * The timestamp portion of the identity is ignored. A new identity with the
+	 * current timestamp will be created automatically when the update occurs
+	 * and the log record is written.
+	 *
+	 * @param pi
+	 *            identity of the user. If null the identity will be
+	 *            automatically determined based on the repository
+	 *            configuration.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate setRefLogIdent(final PersonIdent pi) {
+		refLogIdent = pi;
+		return this;
+	}
+
+	/**
+	 * Get the message to include in the reflog.
+	 *
+	 * @return message the caller wants to include in the reflog; null if the
+	 *         update should not be logged.
+	 */
+	public String getRefLogMessage() {
+		return refLogMessage;
+	}
+
+	/** @return {@code true} if the ref log message should show the result. */
+	public boolean isRefLogIncludingResult() {
+		return refLogIncludeResult;
+	}
+
+	/**
+	 * Set the message to include in the reflog.
+	 *
+	 * @param msg
+	 *            the message to describe this change. It may be null if
+	 *            appendStatus is null in order not to append to the reflog
+	 * @param appendStatus
+	 *            true if the status of the ref change (fast-forward or
+	 *            forced-update) should be appended to the user supplied
+	 *            message.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate setRefLogMessage(String msg, boolean appendStatus) {
+		if (msg == null && !appendStatus)
+			disableRefLog();
+		else if (msg == null && appendStatus) {
+			refLogMessage = "";
+			refLogIncludeResult = true;
+		} else {
+			refLogMessage = msg;
+			refLogIncludeResult = appendStatus;
+		}
+		return this;
+	}
+
+	/**
+	 * Don't record this update in the ref's associated reflog.
+	 *
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate disableRefLog() {
+		refLogMessage = null;
+		refLogIncludeResult = false;
+		return this;
+	}
+
+	/** @return true if log has been disabled by {@link #disableRefLog()}. */
+	public boolean isRefLogDisabled() {
+		return refLogMessage == null;
+	}
+
+	/** @return commands this update will process. */
+	public List<ReceiveCommand> getCommands() {
+		return Collections.unmodifiableList(commands);
+	}
+
+	/**
+	 * Add a single command to this batch update.
+	 *
+	 * @param cmd
+	 *            the command to add, must not be null.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate addCommand(ReceiveCommand cmd) {
+		commands.add(cmd);
+		return this;
+	}
+
+	/**
+	 * Add commands to this batch update.
+	 *
+	 * @param cmd
+	 *            the commands to add, must not be null.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate addCommand(ReceiveCommand... cmd) {
+		return addCommand(Arrays.asList(cmd));
+	}
+
+	/**
+	 * Add commands to this batch update.
+	 *
+	 * @param cmd
+	 *            the commands to add, must not be null.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate addCommand(Collection<ReceiveCommand> cmd) {
+		commands.addAll(cmd);
+		return this;
+	}
+
+	/**
+	 * Execute this batch update.
+	 * <p>
+	 * Only commands whose result is still
+	 * {@link ReceiveCommand.Result#NOT_ATTEMPTED} are processed. The result of
+	 * each command is set on the command as it completes.
+	 *
+	 * @param walk
+	 *            a RevWalk to parse tags in case the storage system wants to
+	 *            store them pre-peeled, and to perform the fast-forward tests.
+	 *            The walk will be reset.
+	 * @param monitor
+	 *            progress monitor to receive update status on.
+	 * @throws IOException
+	 *             the database is unable to accept the update. Individual
+	 *             command status must be tested to determine if there is a
+	 *             partial failure, or a total failure.
+	 */
+	public void execute(RevWalk walk, ProgressMonitor monitor)
+			throws IOException {
+		final List<ReceiveCommand> pending = getPending();
+		if (pending.isEmpty())
+			return;
+		if (atomic && !refdb.performsAtomicTransactions()) {
+			for (final ReceiveCommand cmd : pending)
+				cmd.setResult(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+						JGitText.get().atomicRefUpdatesNotSupported);
+			return;
+		}
+
+		monitor.beginTask(JGitText.get().updatingReferences, pending.size());
+		for (final ReceiveCommand cmd : pending) {
+			try {
+				final RefUpdate ru = newUpdate(cmd);
+				if (cmd.getType() == ReceiveCommand.Type.DELETE)
+					cmd.setResult(ru.delete(walk));
+				else
+					cmd.setResult(ru.update(walk));
+			} catch (IOException err) {
+				cmd.setResult(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+						MessageFormat.format(JGitText.get().lockError, err
+								.getMessage()));
+			}
+			monitor.update(1);
+		}
+		monitor.endTask();
+	}
+
+	/** @return commands that have not yet been attempted, in order. */
+	protected List<ReceiveCommand> getPending() {
+		final List<ReceiveCommand> r = new ArrayList<ReceiveCommand>(
+				commands.size());
+		for (final ReceiveCommand cmd : commands) {
+			if (cmd.getResult() == ReceiveCommand.Result.NOT_ATTEMPTED)
+				r.add(cmd);
+		}
+		return r;
+	}
+
+	/**
+	 * Create a new RefUpdate copying the batch settings.
+	 *
+	 * @param cmd
+	 *            specific command the update should be created to copy.
+	 * @return a single reference update command.
+	 * @throws IOException
+	 *             the reference database cannot make a new update object for
+	 *             the given reference.
+	 */
+	protected RefUpdate newUpdate(ReceiveCommand cmd) throws IOException {
+		final RefUpdate ru = refdb.newUpdate(cmd.getRefName(), false);
+		if (isRefLogDisabled())
+			ru.disableRefLog();
+		else {
+			ru.setRefLogIdent(refLogIdent);
+			ru.setRefLogMessage(refLogMessage, refLogIncludeResult);
+		}
+		switch (cmd.getType()) {
+		case DELETE:
+			if (!ObjectId.zeroId().equals(cmd.getOldId())) {
+				// A zero old id on a delete means the caller does not
+				// care what the current value is.
+				ru.setExpectedOldObjectId(cmd.getOldId());
+			}
+			ru.setForceUpdate(true);
+			return ru;
+
+		case CREATE:
+		case UPDATE:
+		case UPDATE_NONFASTFORWARD:
+		default:
+			ru.setForceUpdate(isAllowNonFastForwards());
+			ru.setExpectedOldObjectId(cmd.getOldId());
+			ru.setNewObjectId(cmd.getNewId());
+			return ru;
+		}
+	}
+
+	/**
+	 * Get the name of the branch {@code HEAD} currently points to.
+	 * <p>
+	 * Implementations that bypass {@link RefUpdate} use this to refuse
+	 * deleting the current branch.
+	 *
+	 * @return name of the branch, or null if {@code HEAD} is detached or
+	 *         missing.
+	 * @throws IOException
+	 *             the reference space cannot be accessed.
+	 */
+	protected String getCurrentBranch() throws IOException {
+		Ref head = refdb.getRef(Constants.HEAD);
+		if (head == null || !head.isSymbolic())
+			return null;
+		return head.getLeaf().getName();
+	}
+
+	/**
+	 * Decide how a command applies to the current value of its reference.
+	 * <p>
+	 * This performs the same tests {@link RefUpdate} would while holding the
+	 * reference's lock, for implementations that lock and store references
+	 * themselves.
+	 *
+	 * @param cmd
+	 *            the command to test.
+	 * @param current
+	 *            current value of the reference, read while locked; null if
+	 *            the reference does not exist.
+	 * @param currentBranch
+	 *            result of {@link #getCurrentBranch()}.
+	 * @param walk
+	 *            walk to parse objects and perform the fast-forward test.
+	 * @return {@link RefUpdate.Result#NEW}, {@code FAST_FORWARD},
+	 *         {@code FORCED} or {@code NO_CHANGE} if the command should be
+	 *         stored; otherwise the reason it cannot be.
+	 * @throws IOException
+	 *             the objects could not be read.
+	 */
+	protected RefUpdate.Result check(ReceiveCommand cmd, ObjectId current,
+			String currentBranch, RevWalk walk) throws IOException {
+		final ObjectId expected = cmd.getOldId();
+		if (cmd.getType() == ReceiveCommand.Type.DELETE) {
+			if (cmd.getRefName().equals(currentBranch))
+				return RefUpdate.Result.REJECTED_CURRENT_BRANCH;
+			if (!ObjectId.zeroId().equals(expected)
+					&& (current == null || !AnyObjectId.equals(expected,
+							current)))
+				return RefUpdate.Result.LOCK_FAILURE;
+			if (current == null)
+				return RefUpdate.Result.NEW;
+			return RefUpdate.Result.FORCED;
+		}
+
+		if (!AnyObjectId.equals(expected, current != null ? current
+				: ObjectId.zeroId()))
+			return RefUpdate.Result.LOCK_FAILURE;
+		if (current == null)
+			return RefUpdate.Result.NEW;
+		if (AnyObjectId.equals(current, cmd.getNewId()))
+			return RefUpdate.Result.NO_CHANGE;
+
+		final RevObject newObj = safeParse(walk, cmd.getNewId());
+		final RevObject oldObj = safeParse(walk, current);
+		if (newObj instanceof RevCommit && oldObj instanceof RevCommit) {
+			if (walk.isMergedInto((RevCommit) oldObj, (RevCommit) newObj))
+				return RefUpdate.Result.FAST_FORWARD;
+		}
+		if (isAllowNonFastForwards())
+			return RefUpdate.Result.FORCED;
+		return RefUpdate.Result.REJECTED;
+	}
+
+	/**
+	 * Test the pending commands against the current reference names.
+	 * <p>
+	 * Implementations that store all commands at once use this before taking
+	 * their locks. A command creating a name nested within, or containing,
+	 * another reference (including one created earlier in this batch) fails
+	 * with {@link ReceiveCommand.Result#LOCK_FAILURE}, as {@link RefUpdate}
+	 * would.
+	 * References deleted by this batch do not conflict.
+	 *
+	 * @param pending
+	 *            commands to test.
+	 * @return false if a command names a symbolic reference, in which case no
+	 *         command was tested; such a batch can only be applied through
+	 *         {@link RefUpdate}.
+	 * @throws IOException
+	 *             the reference space cannot be accessed.
+	 */
+	protected boolean checkRefNames(List<ReceiveCommand> pending)
+			throws IOException {
+		final Map<String, Ref> refs = refdb.getRefs(RefDatabase.ALL);
+		for (final ReceiveCommand cmd : pending) {
+			final Ref ref = refs.get(cmd.getRefName());
+			if (ref != null && ref.isSymbolic())
+				return false;
+		}
+
+		final TreeSet<String> names = new TreeSet<String>(refs.keySet());
+		for (final ReceiveCommand cmd : pending) {
+			if (cmd.getType() == ReceiveCommand.Type.DELETE)
+				names.remove(cmd.getRefName());
+		}
+		for (final ReceiveCommand cmd : pending) {
+			if (cmd.getType() != ReceiveCommand.Type.CREATE)
+				continue;
+			if (isNameConflicting(names, cmd.getRefName()))
+				cmd.setResult(ReceiveCommand.Result.LOCK_FAILURE);
+			else
+				names.add(cmd.getRefName());
+		}
+		return true;
+	}
+
+	private static boolean isNameConflicting(final TreeSet<String> names,
+			final String name) {
+		// Cannot be nested within an existing reference.
+		int lastSlash = name.lastIndexOf('/');
+		while (0 < lastSlash) {
+			if (names.contains(name.substring(0, lastSlash)))
+				return true;
+			lastSlash = name.lastIndexOf('/', lastSlash - 1);
+		}
+
+		// Cannot be the container of an existing reference.
+		final String prefix = name + '/';
+		final SortedSet<String> after = names.tailSet(prefix);
+		return !after.isEmpty() && after.first().startsWith(prefix);
+	}
+
+	/**
+	 * Reject every command not yet processed because an atomic batch failed.
+	 *
+	 * @param commandList
+	 *            commands of the batch.
+	 */
+	protected static void abort(Collection<ReceiveCommand> commandList) {
+		for (final ReceiveCommand cmd : commandList) {
+			if (cmd.getResult() == ReceiveCommand.Result.NOT_ATTEMPTED)
+				cmd.setResult(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+						JGitText.get().transactionAborted);
+		}
+	}
+
+	private static RevObject safeParse(final RevWalk rw, final AnyObjectId id)
+			throws IOException {
+		try {
+			return rw.parseAny(id);
+		} catch (MissingObjectException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder r = new StringBuilder();
+		r.append(getClass().getSimpleName()).append('[');
+		if (commands.isEmpty())
+			return r.append(']').toString();
+
+		r.append('\n');
+		for (ReceiveCommand cmd : commands) {
+			r.append("  ");
+			r.append(cmd);
+			r.append("  (").append(cmd.getResult()).append(")\n");
+		}
+		return r.append(']').toString();
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+/**
+ * Precomputed parent, date and generation data for a set of commits.
+ * <p>
+ * A commit graph allows {@link org.eclipse.jgit.revwalk.RevWalk} to traverse
+ * history without inflating and parsing each commit object. Commits are
+ * identified by their position within the graph, from 0 to
+ * {@link #getCommitCount()} - 1. Every parent of a commit in the graph is also
+ * in the graph.
+ * <p>
+ * The generation number of a commit without parents is 1, and the generation
+ * number of any other commit is one more than the largest generation number
+ * of its parents. A commit can therefore only reach commits with a smaller
+ * generation number.
+ *
+ * @see ObjectReader#getCommitGraph()
+ */
+public abstract class CommitGraph {
+	/** @return number of commits described by this graph. */
+	public abstract int getCommitCount();
+
+	/**
+	 * Locate a commit in the graph.
+	 *
+	 * @param commit
+	 *            the commit to find.
+	 * @return position of the commit; -1 if the commit is not in the graph.
+	 */
+	public abstract int findPosition(AnyObjectId commit);
+
+	/**
+	 * @param position
+	 *            position of a commit in the graph.
+	 * @return name of the commit.
+	 */
+	public abstract ObjectId getObjectId(int position);
+
+	/**
+	 * @param position
+	 *            position of a commit in the graph.
+	 * @return name of the commit's root tree.
+	 */
+	public abstract ObjectId getTree(int position);
+
+	/**
+	 * @param position
+	 *            position of a commit in the graph.
+	 * @return positions of the commit's parents, in commit order. The array
+	 *         must not be modified by the caller.
+	 */
+	public abstract int[] getParents(int position);
+
+	/**
+	 * @param position
+	 *            position of a commit in the graph.
+	 * @return the committer time of the commit, in seconds since the epoch.
+	 */
+	public abstract int getCommitTime(int position);
+
+	/**
+	 * @param position
+	 *            position of a commit in the graph.
+	 * @return generation number of the commit, at least 1.
+	 */
+	public abstract int getGeneration(int position);
+}
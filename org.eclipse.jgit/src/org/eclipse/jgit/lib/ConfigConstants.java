@@ -50,6 +50,9 @@ public class ConfigConstants {
 	/** The "core" section */
 	public static final String CONFIG_CORE_SECTION = "core";
 
+	/** The "extensions" section */
+	public static final String CONFIG_EXTENSIONS_SECTION = "extensions";
+
 	/** The "autocrlf" key */
 	public static final String CONFIG_KEY_AUTOCRLF = "autocrlf";
 
@@ -62,9 +65,18 @@ public class ConfigConstants {
 	/** The "logallrefupdates" key */
 	public static final String CONFIG_KEY_LOGALLREFUPDATES = "logallrefupdates";
 
+	/** The "refstorage" key */
+	public static final String CONFIG_KEY_REF_STORAGE = "refstorage";
+
 	/** The "repositoryformatversion" key */
 	public static final String CONFIG_KEY_REPO_FORMAT_VERSION = "repositoryformatversion";
 
 	/** The "worktree" key */
 	public static final String CONFIG_KEY_WORKTREE = "worktree";
+
+	/** The "files" value of the "refstorage" key */
+	public static final String CONFIG_REF_STORAGE_FILES = "files";
+
+	/** The "reftable" value of the "refstorage" key */
+	public static final String CONFIG_REF_STORAGE_REFTABLE = "reftable";
 }
@@ -56,6 +56,7 @@
 import java.text.MessageFormat;
 
 import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.ObjectWritingException;
 
 /**
@@ -89,6 +90,29 @@ public ObjectId insert(int objectType, long length, InputStream in)
 			throw new UnsupportedOperationException();
 		}
 
+		/**
+		 * The formatter does not store objects, so the returned reader never
+		 * finds any.
+		 */
+		@Override
+		public ObjectReader newReader() {
+			return new ObjectReader() {
+				@Override
+				public ObjectReader newReader() {
+					return this;
+				}
+
+				@Override
+				public ObjectLoader open(AnyObjectId objectId, int typeHint)
+						throws MissingObjectException {
+					if (typeHint == OBJ_ANY)
+						throw new MissingObjectException(objectId.copy(),
+								"unknown");
+					throw new MissingObjectException(objectId.copy(), typeHint);
+				}
+			};
+		}
+
 		@Override
 		public void flush() throws IOException {
 			// Do nothing.
@@ -246,6 +270,22 @@ public ObjectId insert(int type, byte[] data, int off, int len)
 	public abstract ObjectId insert(int objectType, long length, InputStream in)
 			throws IOException;
 
+	/**
+	 * Open a reader for the objects written by this inserter.
+	 * <p>
+	 * Unlike a reader obtained from the database, the returned reader can also
+	 * see objects inserted but not yet flushed. It must be released by the
+	 * caller.
+	 * <p>
+	 * The default implementation throws {@link UnsupportedOperationException};
+	 * inserters able to read back their objects should override it.
+	 *
+	 * @return a new reader.
+	 */
+	public ObjectReader newReader() {
+		throw new UnsupportedOperationException();
+	}
+
 	/**
 	 * Make all inserted objects visible.
 	 * <p>
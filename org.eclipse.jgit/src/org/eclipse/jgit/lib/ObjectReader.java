@@ -44,6 +44,9 @@
 package org.eclipse.jgit.lib;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
@@ -145,6 +148,73 @@ public abstract ObjectLoader open(AnyObjectId objectId, int typeHint)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException;
 
+	/**
+	 * Asynchronous object opening.
+	 * <p>
+	 * The default implementation opens each object in turn, in the order the
+	 * iteration supplies them. Databases are encouraged to override this if
+	 * they can read the objects in a more efficient order, and results may
+	 * then be returned in any order.
+	 *
+	 * @param <T>
+	 *            type of identifier being supplied.
+	 * @param objectIds
+	 *            objects to open from the object store. The supplied collection
+	 *            must not be modified until the queue has finished.
+	 * @param reportMissing
+	 *            if true missing objects are reported by throwing
+	 *            MissingObjectException from the queue's next method. If false
+	 *            missing objects are silently skipped over, so the caller can
+	 *            tell which objects exist by the results it receives.
+	 * @return queue to read the objects from.
+	 */
+	public <T extends ObjectId> AsyncObjectLoaderQueue<T> open(
+			Iterable<T> objectIds, final boolean reportMissing) {
+		final Iterator<T> idItr = objectIds.iterator();
+		return new AsyncObjectLoaderQueue<T>() {
+			private T cur;
+
+			private ObjectLoader ldr;
+
+			public boolean next() throws MissingObjectException, IOException {
+				while (idItr.hasNext()) {
+					cur = idItr.next();
+					try {
+						ldr = ObjectReader.this.open(cur);
+						return true;
+					} catch (MissingObjectException notFound) {
+						if (reportMissing)
+							throw notFound;
+					}
+				}
+				cur = null;
+				ldr = null;
+				return false;
+			}
+
+			public T getCurrent() {
+				return cur;
+			}
+
+			public ObjectId getObjectId() {
+				return cur;
+			}
+
+			public ObjectLoader open() throws IOException {
+				return ldr;
+			}
+
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				return true;
+			}
+
+			public void release() {
+				// Since we are sequential by default, we don't
+				// have any state to clean up if we terminate early.
+			}
+		};
+	}
+
 	/**
 	 * Get only the size of an object.
 	 * <p>
@@ -173,6 +243,35 @@ public long getObjectSize(AnyObjectId objectId, int typeHint)
 		return open(objectId, typeHint).getSize();
 	}
 
+	/**
+	 * Get the commit graph of this database, if one is available.
+	 * <p>
+	 * The default implementation returns null. Databases that store a commit
+	 * graph should override this, so revision walks can avoid parsing commits.
+	 *
+	 * @return the commit graph, or null if the database has none.
+	 * @throws IOException
+	 *             the commit graph exists but could not be read.
+	 */
+	public CommitGraph getCommitGraph() throws IOException {
+		return null;
+	}
+
+	/**
+	 * Get the commits at the boundary of a shallow repository.
+	 * <p>
+	 * The parents of these commits are not available in the repository, and
+	 * revision walks must treat the commits as though they had no parents.
+	 * The default implementation returns an empty set.
+	 *
+	 * @return the shallow commits; empty if the repository is complete.
+	 * @throws IOException
+	 *             the list of shallow commits could not be read.
+	 */
+	public Set<ObjectId> getShallowCommits() throws IOException {
+		return Collections.emptySet();
+	}
+
 	/**
 	 * Release any resources used by this reader.
 	 * <p>
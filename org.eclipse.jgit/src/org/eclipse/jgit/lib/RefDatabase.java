@@ -145,6 +145,25 @@ public abstract RefUpdate newUpdate(String name, boolean detach)
 	public abstract RefRename newRename(String fromName, String toName)
 			throws IOException;
 
+	/**
+	 * Create a new batch update to attempt on this database.
+	 * <p>
+	 * The default implementation performs a sequential update of each command.
+	 *
+	 * @return a new batch update object.
+	 */
+	public BatchRefUpdate newBatchUpdate() {
+		return new BatchRefUpdate(this);
+	}
+
+	/**
+	 * @return true if {@link #newBatchUpdate()} can apply a batch atomically,
+	 *         making either all or none of its changes.
+	 */
+	public boolean performsAtomicTransactions() {
+		return false;
+	}
+
 	/**
 	 * Read a single reference.
 	 * <p>
@@ -146,11 +146,17 @@ public void writeInfoRefs() throws IOException {
 	 *             failed, possibly due to permissions or remote disk full, etc.
 	 */
 	public void writePackedRefs() throws IOException {
+		// Readers trust the peeled trait for every entry of the file, so
+		// it may only be claimed if every packed reference is peeled.
+		//
 		boolean peeled = false;
 		for (final Ref r : refs) {
-			if (r.getStorage().isPacked() && r.isPeeled()) {
+			if (r.getStorage().isPacked()) {
+				if (!r.isPeeled()) {
+					peeled = false;
+					break;
+				}
 				peeled = true;
-				break;
 			}
 		}
 
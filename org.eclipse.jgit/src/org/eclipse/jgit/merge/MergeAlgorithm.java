@@ -47,15 +47,19 @@
 import java.util.Iterator;
 import java.util.List;
 
+import org.eclipse.jgit.diff.DiffAlgorithm;
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.LineTable;
 import org.eclipse.jgit.diff.MyersDiff;
+import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.Sequence;
 import org.eclipse.jgit.merge.MergeChunk.ConflictState;
 
 /**
  * Provides the merge algorithm which does a three-way merge on content provided
- * as RawText. Makes use of {@link MyersDiff} to compute the diffs.
+ * as RawText. Makes use of {@link MyersDiff} to compute the diffs, unless
+ * another {@link DiffAlgorithm} is supplied.
  */
 public final class MergeAlgorithm {
 
@@ -81,14 +85,42 @@ private MergeAlgorithm() {
 	 */
 	public static MergeResult merge(Sequence base, Sequence ours,
 			Sequence theirs) {
+		return merge(MyersDiff.INSTANCE, base, ours, theirs);
+	}
+
+	/**
+	 * Does the three way merge between a common base and two sequences.
+	 *
+	 * @param diffAlg the algorithm used to compare base with each side
+	 * @param base the common base sequence
+	 * @param ours the first sequence to be merged
+	 * @param theirs the second sequence to be merged
+	 * @return the resulting content
+	 */
+	public static MergeResult merge(DiffAlgorithm diffAlg, Sequence base,
+			Sequence ours, Sequence theirs) {
 		List<Sequence> sequences = new ArrayList<Sequence>(3);
 		sequences.add(base);
 		sequences.add(ours);
 		sequences.add(theirs);
 		MergeResult result = new MergeResult(sequences);
-		EditList oursEdits = new MyersDiff(base, ours).getEdits();
+
+		// Intern the lines of texts, so the two diffs compare every line by
+		// id rather than by content. The edits refer to the same indexes.
+		Sequence cmpBase = base;
+		Sequence cmpOurs = ours;
+		Sequence cmpTheirs = theirs;
+		if (base instanceof RawText && ours.getClass() == base.getClass()
+				&& theirs.getClass() == base.getClass()) {
+			LineTable lines = new LineTable();
+			cmpBase = lines.intern((RawText) base);
+			cmpOurs = lines.intern((RawText) ours);
+			cmpTheirs = lines.intern((RawText) theirs);
+		}
+
+		EditList oursEdits = diffAlg.diff(cmpBase, cmpOurs);
 		Iterator<Edit> baseToOurs = oursEdits.iterator();
-		EditList theirsEdits = new MyersDiff(base, theirs).getEdits();
+		EditList theirsEdits = diffAlg.diff(cmpBase, cmpTheirs);
 		Iterator<Edit> baseToTheirs = theirsEdits.iterator();
 		int current = 0; // points to the next line (first line is 0) of base
 		                 // which was not handled yet
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.merge;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextCache;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.UnmergedPathException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.NameConflictTreeWalk;
+import org.eclipse.jgit.util.TemporaryBuffer;
+
+/**
+ * A three-way merger that merges the content of files modified on both sides.
+ * <p>
+ * The merge runs entirely in memory: blobs are read through the merger's
+ * {@link org.eclipse.jgit.lib.ObjectReader}, and merged blobs and the result
+ * tree are written through its {@link ObjectInserter}. No working directory or
+ * index file is read or modified.
+ * <p>
+ * A path is resolved without looking at its content if only one side changed
+ * it, or both sides made the same change. If both sides changed a regular file
+ * differently, the three versions are merged with {@link MergeAlgorithm}. A
+ * clean result is stored as a new blob. Otherwise the path is unmerged, and
+ * the {@link MergeResult} describing the conflicting regions is available
+ * from {@link #getMergeResults()}.
+ * <p>
+ * Binary files, files larger than {@code core.streamFileThreshold}, symbolic
+ * links, gitlinks, and paths deleted on one side but modified on the other
+ * are never merged by content and always conflict.
+ */
+public class ResolveMerger extends ThreeWayMerger {
+	private static final int T_BASE = 0;
+
+	private static final int T_OURS = 1;
+
+	private static final int T_THEIRS = 2;
+
+	private final NameConflictTreeWalk tw;
+
+	private final DirCache cache;
+
+	private DirCacheBuilder builder;
+
+	private DiffAlgorithm diffAlgorithm;
+
+	private RawTextCache textCache;
+
+	private final int streamFileThreshold;
+
+	private final Map<String, MergeResult> mergeResults = new HashMap<String, MergeResult>();
+
+	private final List<String> unmergedPaths = new ArrayList<String>();
+
+	private ObjectId resultTree;
+
+	/**
+	 * Create a new merge instance for a repository.
+	 *
+	 * @param local
+	 *            the repository this merger will read and write data on.
+	 */
+	protected ResolveMerger(final Repository local) {
+		super(local);
+		tw = new NameConflictTreeWalk(reader);
+		cache = DirCache.newInCore();
+
+		DiffConfig dc = local.getConfig().get(DiffConfig.KEY);
+		diffAlgorithm = DiffAlgorithm.getAlgorithm(dc.getDiffAlgorithm());
+
+		CoreConfig cc = local.getConfig().get(CoreConfig.KEY);
+		streamFileThreshold = cc.getStreamFileThreshold();
+	}
+
+	/**
+	 * Set the algorithm used to compare each side with the base.
+	 *
+	 * @param alg
+	 *            the algorithm; by default the one selected by
+	 *            {@code diff.algorithm}.
+	 */
+	public void setDiffAlgorithm(final DiffAlgorithm alg) {
+		diffAlgorithm = alg;
+	}
+
+	/**
+	 * Set the cache holding the text of blobs being merged.
+	 * <p>
+	 * Sharing one cache between many merges of related trees avoids splitting
+	 * the same blob into lines more than once.
+	 *
+	 * @param cache
+	 *            the cache to use.
+	 */
+	public void setRawTextCache(final RawTextCache cache) {
+		textCache = cache;
+	}
+
+	@Override
+	protected boolean mergeImpl() throws IOException {
+		tw.reset();
+		tw.addTree(mergeBase());
+		tw.addTree(sourceTrees[0]);
+		tw.addTree(sourceTrees[1]);
+
+		if (textCache == null)
+			textCache = new RawTextCache(RawText.FACTORY);
+
+		builder = cache.builder();
+		while (tw.next()) {
+			final int modeO = tw.getRawMode(T_OURS);
+			final int modeT = tw.getRawMode(T_THEIRS);
+			if (modeO == modeT && tw.idEqual(T_OURS, T_THEIRS)) {
+				add(T_OURS, DirCacheEntry.STAGE_0);
+				continue;
+			}
+
+			final int modeB = tw.getRawMode(T_BASE);
+			if (modeB == modeO && tw.idEqual(T_BASE, T_OURS))
+				add(T_THEIRS, DirCacheEntry.STAGE_0);
+			else if (modeB == modeT && tw.idEqual(T_BASE, T_THEIRS))
+				add(T_OURS, DirCacheEntry.STAGE_0);
+			else if (tw.isSubtree()) {
+				boolean conflict = false;
+				if (nonTree(modeB)) {
+					add(T_BASE, DirCacheEntry.STAGE_1);
+					conflict = true;
+				}
+				if (nonTree(modeO)) {
+					add(T_OURS, DirCacheEntry.STAGE_2);
+					conflict = true;
+				}
+				if (nonTree(modeT)) {
+					add(T_THEIRS, DirCacheEntry.STAGE_3);
+					conflict = true;
+				}
+				if (conflict)
+					unmergedPaths.add(tw.getPathString());
+				tw.enterSubtree();
+			} else if (!mergeContent(modeB, modeO, modeT)) {
+				add(T_BASE, DirCacheEntry.STAGE_1);
+				add(T_OURS, DirCacheEntry.STAGE_2);
+				add(T_THEIRS, DirCacheEntry.STAGE_3);
+				unmergedPaths.add(tw.getPathString());
+			}
+		}
+		builder.finish();
+		builder = null;
+
+		// Files merged cleanly are named by the result index even if the
+		// merge failed, so their blobs must be flushed in either case.
+		ObjectInserter odi = getObjectInserter();
+		if (!unmergedPaths.isEmpty()) {
+			odi.flush();
+			return false;
+		}
+		try {
+			resultTree = cache.writeTree(odi);
+			odi.flush();
+			return true;
+		} catch (UnmergedPathException upe) {
+			resultTree = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Merge the content of a file modified differently by both sides.
+	 *
+	 * @return true if the merged file was added to the result; false if the
+	 *         path is in conflict.
+	 */
+	private boolean mergeContent(final int modeB, final int modeO,
+			final int modeT) throws IOException {
+		if (!isFile(modeO) || !isFile(modeT))
+			return false;
+		if (modeB != 0 && !isFile(modeB))
+			return false;
+
+		final int mode = mergeFileModes(modeB, modeO, modeT);
+		if (mode == 0)
+			return false;
+
+		final RawText base = modeB != 0 ? text(T_BASE) : emptyText();
+		final RawText ours = text(T_OURS);
+		final RawText theirs = text(T_THEIRS);
+		if (base == null || ours == null || theirs == null)
+			return false;
+
+		final MergeResult result = MergeAlgorithm.merge(diffAlgorithm, base,
+				ours, theirs);
+		if (result.containsConflicts()) {
+			mergeResults.put(tw.getPathString(), result);
+			return false;
+		}
+
+		final byte[] merged = format(result);
+		int len = merged.length;
+		if (0 < len && endsWithoutNewline(result))
+			len--;
+
+		final ObjectInserter odi = getObjectInserter();
+		final DirCacheEntry e = new DirCacheEntry(tw.getRawPath());
+		e.setFileMode(FileMode.fromBits(mode));
+		e.setObjectId(odi.insert(Constants.OBJ_BLOB, merged, 0, len));
+		builder.add(e);
+		return true;
+	}
+
+	private static byte[] format(final MergeResult result) throws IOException {
+		final TemporaryBuffer.Heap buf = new TemporaryBuffer.Heap(
+				Integer.MAX_VALUE);
+		new MergeFormatter().formatMerge(buf, result, "BASE", "OURS",
+				"THEIRS", Constants.CHARACTER_ENCODING);
+		buf.close();
+		return buf.toByteArray();
+	}
+
+	/**
+	 * @return true if the last line of the merge came from the end of a text
+	 *         that has no trailing newline. MergeFormatter always adds one.
+	 */
+	private static boolean endsWithoutNewline(final MergeResult result) {
+		MergeChunk last = null;
+		for (MergeChunk chunk : result)
+			if (chunk.getBegin() < chunk.getEnd())
+				last = chunk;
+		if (last == null)
+			return false;
+		final RawText seq = (RawText) result.getSequences().get(
+				last.getSequenceIndex());
+		return last.getEnd() == seq.size() && seq.isMissingNewlineAtEnd();
+	}
+
+	private static int mergeFileModes(final int modeB, final int modeO,
+			final int modeT) {
+		if (modeO == modeT)
+			return modeO;
+		if (modeB == modeO)
+			return modeT;
+		if (modeB == modeT)
+			return modeO;
+		return 0;
+	}
+
+	/** @return the text of the file; null if it cannot be merged by line. */
+	private RawText text(final int tree) throws IOException {
+		final ObjectId id = tw.getObjectId(tree);
+		RawText text = textCache.get(id);
+		if (text != null)
+			return text;
+
+		final ObjectLoader ldr = reader.open(id, Constants.OBJ_BLOB);
+		if (ldr.isLarge() || streamFileThreshold < ldr.getSize())
+			return null;
+		final byte[] raw = ldr.getCachedBytes();
+		if (RawText.isBinary(raw))
+			return null;
+		return textCache.put(id, raw);
+	}
+
+	private RawText emptyText() {
+		return textCache.getFactory().create(new byte[0]);
+	}
+
+	private static boolean isFile(final int mode) {
+		return FileMode.REGULAR_FILE.equals(mode)
+				|| FileMode.EXECUTABLE_FILE.equals(mode);
+	}
+
+	private static boolean nonTree(final int mode) {
+		return mode != 0 && !FileMode.TREE.equals(mode);
+	}
+
+	private void add(final int tree, final int stage) throws IOException {
+		final AbstractTreeIterator i = getTree(tree);
+		if (i != null) {
+			if (FileMode.TREE.equals(tw.getRawMode(tree))) {
+				builder.addTree(tw.getRawPath(), stage, reader, tw
+						.getObjectId(tree));
+			} else {
+				final DirCacheEntry e;
+
+				e = new DirCacheEntry(tw.getRawPath(), stage);
+				e.setObjectIdFromRaw(i.idBuffer(), i.idOffset());
+				e.setFileMode(tw.getFileMode(tree));
+				builder.add(e);
+			}
+		}
+	}
+
+	private AbstractTreeIterator getTree(final int tree) {
+		return tw.getTree(tree, AbstractTreeIterator.class);
+	}
+
+	@Override
+	public ObjectId getResultTreeId() {
+		return resultTree;
+	}
+
+	/**
+	 * Get the paths that could not be merged.
+	 *
+	 * @return paths left in conflict by the last merge, in tree order. Empty
+	 *         if the merge was clean.
+	 */
+	public List<String> getUnmergedPaths() {
+		return Collections.unmodifiableList(unmergedPaths);
+	}
+
+	/**
+	 * Get the content merges that resulted in conflicts.
+	 * <p>
+	 * Only paths whose content was merged by line are present. Other unmerged
+	 * paths, such as binary files or paths deleted on one side, are only
+	 * listed by {@link #getUnmergedPaths()}.
+	 *
+	 * @return map of path to the result of merging its content. The sequences
+	 *         of each result are the {@link RawText} of the base, ours and
+	 *         theirs versions, in that order.
+	 */
+	public Map<String, MergeResult> getMergeResults() {
+		return Collections.unmodifiableMap(mergeResults);
+	}
+
+	/**
+	 * Get the index built by the last merge.
+	 * <p>
+	 * Cleanly merged paths are at stage 0. Unmerged paths have an entry for
+	 * each of the base, ours and theirs versions that exist, at stages 1, 2
+	 * and 3 respectively.
+	 *
+	 * @return the in-core index holding the merge result.
+	 */
+	public DirCache getResultIndex() {
+		return cache;
+	}
+}
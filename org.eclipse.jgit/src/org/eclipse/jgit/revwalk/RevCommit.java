@@ -54,6 +54,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Commit;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
@@ -86,6 +87,17 @@ protected RevCommit(final AnyObjectId id) {
 	@Override
 	void parseHeaders(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		walk.initializeShallowCommits();
+		if (!walk.isRetainBody()) {
+			final CommitGraph graph = walk.getCommitGraph();
+			if (graph != null) {
+				final int pos = graph.findPosition(this);
+				if (0 <= pos) {
+					parseCommitGraph(walk, graph, pos);
+					return;
+				}
+			}
+		}
 		parseCanonical(walk, loadCanonical(walk));
 	}
 
@@ -94,8 +106,10 @@ void parseBody(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
 		if (buffer == null) {
 			buffer = loadCanonical(walk);
-			if ((flags & PARSED) == 0)
+			if ((flags & PARSED) == 0) {
+				walk.initializeShallowCommits();
 				parseCanonical(walk, buffer);
+			}
 		}
 	}
 
@@ -150,6 +164,24 @@ else if (nParents == 1) {
 		flags |= PARSED;
 	}
 
+	void parseCommitGraph(final RevWalk walk, final CommitGraph graph,
+			final int pos) {
+		tree = walk.lookupTree(graph.getTree(pos));
+		if (parents == null) {
+			final int[] p = graph.getParents(pos);
+			if (p.length == 0)
+				parents = NO_PARENTS;
+			else {
+				final RevCommit[] pList = new RevCommit[p.length];
+				for (int i = 0; i < p.length; i++)
+					pList[i] = walk.lookupCommit(graph.getObjectId(p[i]));
+				parents = pList;
+			}
+		}
+		commitTime = graph.getCommitTime(pos);
+		flags |= PARSED;
+	}
+
 	@Override
 	public final int getType() {
 		return Constants.OBJ_COMMIT;
@@ -47,15 +47,19 @@
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevWalkException;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
@@ -65,6 +69,7 @@
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.IntList;
 
 /**
  * Walks a commit graph and produces the matching commits in order.
@@ -186,6 +191,12 @@ public class RevWalk implements Iterable<RevCommit> {
 
 	private boolean retainBody;
 
+	private CommitGraph commitGraph;
+
+	private boolean commitGraphLoaded;
+
+	private boolean shallowCommitsInitialized;
+
 	/**
 	 * Create a new revision walker for a given repository.
 	 *
@@ -357,6 +368,11 @@ public void markUninteresting(final RevCommit c)
 	 * commits, and then executes a walk until an answer can be obtained.
 	 * Currently allocated RevFlags that have been added to RevCommit instances
 	 * will be retained through the reset.
+	 * <p>
+	 * If both commits are described by the repository's commit graph the
+	 * answer is computed from the graph alone, without parsing any commit,
+	 * and the search skips every commit whose generation number shows it
+	 * cannot reach <code>base</code>.
 	 *
 	 * @param base
 	 *            commit the caller thinks is reachable from <code>tip</code>.
@@ -379,6 +395,17 @@ public void markUninteresting(final RevCommit c)
 	public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
+		final CommitGraph graph = getCommitGraph();
+		if (graph != null) {
+			final int b = graph.findPosition(base);
+			final int t = b < 0 ? -1 : graph.findPosition(tip);
+			if (0 <= t) {
+				finishDelayedFreeFlags();
+				reset(~freeFlags & APP_FLAGS);
+				return isMergedInto(graph, b, t);
+			}
+		}
+
 		final RevFilter oldRF = filter;
 		final TreeFilter oldTF = treeFilter;
 		try {
@@ -395,6 +422,35 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		}
 	}
 
+	private static boolean isMergedInto(final CommitGraph graph,
+			final int base, final int tip) {
+		if (base == tip)
+			return true;
+
+		// Only commits with a larger generation than base can reach it.
+		//
+		final int floor = graph.getGeneration(base);
+		if (graph.getGeneration(tip) <= floor)
+			return false;
+
+		final BitSet seen = new BitSet(graph.getCommitCount());
+		final IntList todo = new IntList();
+		todo.add(tip);
+		seen.set(tip);
+		for (int i = 0; i < todo.size(); i++) {
+			for (final int p : graph.getParents(todo.get(i))) {
+				if (p == base)
+					return true;
+				if (seen.get(p))
+					continue;
+				seen.set(p);
+				if (floor < graph.getGeneration(p))
+					todo.add(p);
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Pop the next most recent commit.
 	 *
@@ -564,6 +620,9 @@ public boolean isRetainBody() {
 	 * If a body of a commit or tag is not retained, the application must
 	 * call {@link #parseBody(RevObject)} before the body can be safely
 	 * accessed through the type specific access methods.
+	 * <p>
+	 * Walkers that do not retain bodies parse commits from the repository's
+	 * commit graph, if it has one, instead of reading the commit objects.
 	 *
 	 * @param retain true to retain bodies; false to discard them early.
 	 */
@@ -788,40 +847,167 @@ public RevTag parseTag(final AnyObjectId id) throws MissingObjectException,
 	 */
 	public RevObject parseAny(final AnyObjectId id)
 			throws MissingObjectException, IOException {
+		initializeShallowCommits();
 		RevObject r = objects.get(id);
-		if (r == null) {
-			final ObjectLoader ldr = reader.open(id);
-			final int type = ldr.getType();
-			switch (type) {
-			case Constants.OBJ_COMMIT: {
+		if (r == null && !retainBody) {
+			final CommitGraph graph = getCommitGraph();
+			final int pos = graph != null ? graph.findPosition(id) : -1;
+			if (0 <= pos) {
 				final RevCommit c = createCommit(id);
-				c.parseCanonical(this, ldr.getCachedBytes());
-				r = c;
-				break;
+				c.parseCommitGraph(this, graph, pos);
+				objects.add(c);
+				return c;
 			}
-			case Constants.OBJ_TREE: {
-				r = new RevTree(id);
-				r.flags |= PARSED;
-				break;
-			}
-			case Constants.OBJ_BLOB: {
-				r = new RevBlob(id);
-				r.flags |= PARSED;
-				break;
+		}
+		if (r == null)
+			r = parseNew(id, reader.open(id));
+		else
+			parseHeaders(r);
+		return r;
+	}
+
+	private RevObject parseNew(AnyObjectId id, ObjectLoader ldr)
+			throws IOException {
+		final RevObject r;
+		final int type = ldr.getType();
+		switch (type) {
+		case Constants.OBJ_COMMIT: {
+			final RevCommit c = createCommit(id);
+			c.parseCanonical(this, ldr.getCachedBytes());
+			r = c;
+			break;
+		}
+		case Constants.OBJ_TREE: {
+			r = new RevTree(id);
+			r.flags |= PARSED;
+			break;
+		}
+		case Constants.OBJ_BLOB: {
+			r = new RevBlob(id);
+			r.flags |= PARSED;
+			break;
+		}
+		case Constants.OBJ_TAG: {
+			final RevTag t = new RevTag(id);
+			t.parseCanonical(this, ldr.getCachedBytes());
+			r = t;
+			break;
+		}
+		default:
+			throw new IllegalArgumentException(MessageFormat.format(JGitText.get().badObjectType, type));
+		}
+		objects.add(r);
+		return r;
+	}
+
+	/**
+	 * Asynchronous object parsing.
+	 * <p>
+	 * Objects which are already parsed are returned first. The remaining
+	 * objects are read through {@link ObjectReader#open(Iterable, boolean)}
+	 * as a single batch, and may be returned in any order.
+	 *
+	 * @param <T>
+	 *            any ObjectId type.
+	 * @param objectIds
+	 *            objects to open from the object store. The supplied collection
+	 *            must not be modified until the queue has finished.
+	 * @param reportMissing
+	 *            if true missing objects are reported by throwing
+	 *            MissingObjectException from the queue. If false missing
+	 *            objects are silently skipped.
+	 * @return queue to read the objects from.
+	 */
+	public <T extends ObjectId> AsyncRevObjectQueue parseAny(
+			Iterable<T> objectIds, boolean reportMissing) {
+		final List<T> need = new ArrayList<T>();
+		final List<RevObject> have = new ArrayList<RevObject>();
+		for (T id : objectIds) {
+			final RevObject r = objects.get(id);
+			if (r != null && (r.flags & PARSED) != 0)
+				have.add(r);
+			else
+				need.add(id);
+		}
+
+		final Iterator<RevObject> objItr = have.iterator();
+		final AsyncObjectLoaderQueue<T> lItr = need.isEmpty() ? null : reader
+				.open(need, reportMissing);
+		return new AsyncRevObjectQueue() {
+			public RevObject next() throws MissingObjectException,
+					IOException {
+				if (objItr.hasNext())
+					return objItr.next();
+				if (lItr == null || !lItr.next())
+					return null;
+
+				initializeShallowCommits();
+				final ObjectId id = lItr.getObjectId();
+				RevObject r = objects.get(id);
+				if (r == null)
+					return parseNew(id, lItr.open());
+				if ((r.flags & PARSED) != 0)
+					return r;
+
+				final ObjectLoader ldr = lItr.open();
+				if (r.getType() != ldr.getType())
+					throw new IncorrectObjectTypeException(id.copy(), r
+							.getType());
+				if (r instanceof RevCommit)
+					((RevCommit) r).parseCanonical(RevWalk.this, ldr
+							.getCachedBytes());
+				else if (r instanceof RevTag)
+					((RevTag) r).parseCanonical(RevWalk.this, ldr
+							.getCachedBytes());
+				else
+					r.flags |= PARSED;
+				return r;
 			}
-			case Constants.OBJ_TAG: {
-				final RevTag t = new RevTag(id);
-				t.parseCanonical(this, ldr.getCachedBytes());
-				r = t;
-				break;
+
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				return lItr == null || lItr.cancel(mayInterruptIfRunning);
 			}
-			default:
-				throw new IllegalArgumentException(MessageFormat.format(JGitText.get().badObjectType, type));
+
+			public void release() {
+				if (lItr != null)
+					lItr.release();
 			}
-			objects.add(r);
-		} else
-			parseHeaders(r);
-		return r;
+		};
+	}
+
+	/**
+	 * Treat the named commits as though they had no parents.
+	 * <p>
+	 * Shallow commits listed by the repository are assumed automatically.
+	 * This method adds further commits, for example to stop a traversal at
+	 * the boundary of a shallow history being sent to another repository.
+	 *
+	 * @param ids
+	 *            commits whose parents should be ignored.
+	 */
+	public void assumeShallow(final Collection<? extends ObjectId> ids) {
+		for (final ObjectId id : ids)
+			lookupCommit(id).parents = RevCommit.NO_PARENTS;
+	}
+
+	void initializeShallowCommits() throws IOException {
+		if (!shallowCommitsInitialized) {
+			shallowCommitsInitialized = true;
+			assumeShallow(reader.getShallowCommits());
+		}
+	}
+
+	/**
+	 * @return the commit graph of the repository; null if it has none.
+	 * @throws IOException
+	 *             the commit graph could not be read.
+	 */
+	CommitGraph getCommitGraph() throws IOException {
+		if (!commitGraphLoaded) {
+			commitGraph = reader.getCommitGraph();
+			commitGraphLoaded = true;
+		}
+		return commitGraph;
 	}
 
 	/**
@@ -1079,6 +1265,9 @@ public void dispose() {
 		freeFlags = APP_FLAGS;
 		delayFreeFlags = 0;
 		carryFlags = UNINTERESTING;
+		commitGraph = null;
+		commitGraphLoaded = false;
+		shallowCommitsInitialized = false;
 		objects.clear();
 		reader.release();
 		roots.clear();
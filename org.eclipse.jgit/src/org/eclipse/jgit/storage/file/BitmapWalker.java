@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+/**
+ * Computes the set of objects reachable from a starting point as a bitmap.
+ * <p>
+ * Objects are identified by their position in a single pack. Whenever the
+ * walk reaches a commit with a stored bitmap, that bitmap is merged into the
+ * result and the commit's history is not walked any further. Likewise a tree
+ * already present in the result is not parsed again, as everything reachable
+ * from it is already in the result.
+ */
+abstract class BitmapWalker {
+	private final RevWalk walk;
+
+	private final CanonicalTreeParser treeParser;
+
+	private final ArrayList<RevObject> commits;
+
+	private final ArrayList<RevObject> objects;
+
+	/**
+	 * @param walk
+	 *            walker used to parse commits, tags and trees.
+	 */
+	BitmapWalker(final RevWalk walk) {
+		this.walk = walk;
+		this.treeParser = new CanonicalTreeParser();
+		this.commits = new ArrayList<RevObject>();
+		this.objects = new ArrayList<RevObject>();
+	}
+
+	/**
+	 * Locate an object in the pack the bitmaps describe.
+	 *
+	 * @param id
+	 *            the object.
+	 * @return position of the object in the pack; -1 if it is not in the pack.
+	 * @throws IOException
+	 *             the pack index could not be read.
+	 */
+	abstract int findPosition(AnyObjectId id) throws IOException;
+
+	/**
+	 * Get the stored reachability bitmap of a commit.
+	 *
+	 * @param id
+	 *            the commit.
+	 * @return the bitmap, or null if none is available.
+	 */
+	abstract EWAHBitmap getBitmap(AnyObjectId id);
+
+	/**
+	 * Add all objects reachable from {@code start} to {@code result}.
+	 * <p>
+	 * If the walk fails the result is left partially updated.
+	 *
+	 * @param result
+	 *            bitmap to update. Bits already set are assumed to be closed
+	 *            under reachability; their objects are not walked.
+	 * @param start
+	 *            object to begin walking from.
+	 * @return true if every reachable object is in the pack and was added;
+	 *         false if an object outside of the pack was found.
+	 * @throws MissingObjectException
+	 *             an object is missing from the repository.
+	 * @throws IncorrectObjectTypeException
+	 *             an object has an unexpected type.
+	 * @throws IOException
+	 *             the repository could not be read.
+	 */
+	boolean addReachable(final BitSet result, final RevObject start)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		commits.clear();
+		objects.clear();
+		push(start);
+		try {
+			// Walk all commits first. Bitmaps merged from history can
+			// then prune the tree walk of more recent commits.
+			//
+			while (!commits.isEmpty()) {
+				if (!visit(result, commits.remove(commits.size() - 1)))
+					return false;
+			}
+			while (!objects.isEmpty()) {
+				if (!visit(result, objects.remove(objects.size() - 1)))
+					return false;
+			}
+			return true;
+		} finally {
+			commits.clear();
+			objects.clear();
+		}
+	}
+
+	private void push(final RevObject o) {
+		if (o.getType() == Constants.OBJ_COMMIT)
+			commits.add(o);
+		else
+			objects.add(o);
+	}
+
+	private boolean visit(final BitSet result, final RevObject o)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final int pos = findPosition(o);
+		if (pos < 0)
+			return false;
+		if (result.get(pos))
+			return true;
+
+		final EWAHBitmap bitmap = getBitmap(o);
+		if (bitmap != null) {
+			bitmap.orInto(result);
+			return true;
+		}
+		result.set(pos);
+
+		switch (o.getType()) {
+		case Constants.OBJ_COMMIT: {
+			final RevCommit c = (RevCommit) o;
+			walk.parseHeaders(c);
+			objects.add(c.getTree());
+			for (final RevCommit p : c.getParents())
+				commits.add(p);
+			break;
+		}
+		case Constants.OBJ_TAG: {
+			final RevTag t = (RevTag) o;
+			walk.parseHeaders(t);
+			push(t.getObject());
+			break;
+		}
+		case Constants.OBJ_TREE:
+			treeParser.reset(walk.getObjectReader(), o);
+			for (; !treeParser.eof(); treeParser.next(1)) {
+				final int mode = treeParser.getEntryRawMode();
+				switch (mode & FileMode.TYPE_MASK) {
+				case FileMode.TYPE_TREE: {
+					final RevTree t = walk.lookupTree(treeParser
+							.getEntryObjectId());
+					objects.add(t);
+					break;
+				}
+				case FileMode.TYPE_FILE:
+				case FileMode.TYPE_SYMLINK:
+					objects.add(walk.lookupBlob(treeParser.getEntryObjectId()));
+					break;
+				default:
+					// Gitlinks are not reachable objects of this repository.
+					break;
+				}
+			}
+			break;
+		default:
+			break;
+		}
+		return true;
+	}
+}
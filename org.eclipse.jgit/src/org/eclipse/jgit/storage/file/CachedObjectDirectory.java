@@ -46,8 +46,11 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
 
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
@@ -173,6 +176,13 @@ ObjectLoader openObject1(WindowCursor curs, AnyObjectId objectId)
 		return wrapped.openObject1(curs, objectId);
 	}
 
+	@Override
+	boolean findPacked1(AnyObjectId objectId, PackedObjectLocation loc) {
+		if (unpackedObjects.contains(objectId))
+			return false;
+		return wrapped.findPacked1(objectId, loc);
+	}
+
 	@Override
 	boolean hasObject2(String objectId) {
 		// This method should never be invoked.
@@ -206,6 +216,21 @@ void selectObjectRepresentation(PackWriter packer, ObjectToPack otp,
 		wrapped.selectObjectRepresentation(packer, otp, curs);
 	}
 
+	@Override
+	Collection<PackFile> getPacks() {
+		return wrapped.getPacks();
+	}
+
+	@Override
+	CommitGraph getCommitGraph() {
+		return wrapped.getCommitGraph();
+	}
+
+	@Override
+	Set<ObjectId> getShallowCommits() throws IOException {
+		return wrapped.getShallowCommits();
+	}
+
 	@Override
 	int getStreamFileThreshold() {
 		return wrapped.getStreamFileThreshold();
@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.JGitText;
+
+/**
+ * {@link WindowCache} built for many concurrent readers.
+ * <p>
+ * The hash table is split into independent segments, each an array of
+ * copy-on-write bucket chains updated only by compare-and-swap. Readers of a
+ * cached window never take a lock.
+ * <p>
+ * A miss inserts a placeholder for its <code>(PackFile,position)</code> tuple
+ * into the bucket before calling {@link #load(PackFile, long)}. Threads that
+ * want the same window wait on that placeholder; threads that want any other
+ * window, even one hashing to the same bucket, proceed without waiting.
+ * <p>
+ * Eviction uses the CLOCK algorithm. A hit sets a reference bit on the entry,
+ * and the single thread elected to evict sweeps a hand over the segments,
+ * clearing set bits and evicting the first entry found with its bit clear.
+ * Unlike the sampled LRU of {@link LruWindowCache} no access clock is shared
+ * between threads, so hits do not contend on a common counter.
+ */
+class ClockWindowCache extends WindowCache {
+	/** Segments of the hash table; length is a power of 2. */
+	private final Segment[] segments;
+
+	/** Mask to select a segment from a hash code. */
+	private final int segmentMask;
+
+	/** Number of bits of the hash code consumed by {@link #segmentMask}. */
+	private final int segmentShift;
+
+	/** Number of buckets in each segment. */
+	private final int segmentSize;
+
+	/** Lock to elect the eviction thread after a load occurs. */
+	private final ReentrantLock evictLock;
+
+	/** Segment the clock hand is in; guarded by {@link #evictLock}. */
+	private int handSegment;
+
+	/** Bucket the clock hand is on; guarded by {@link #evictLock}. */
+	private int handSlot;
+
+	ClockWindowCache(final WindowCacheConfig cfg) {
+		super(cfg);
+
+		final int tableSize = tableSize(cfg);
+		if (tableSize < 1)
+			throw new IllegalArgumentException(JGitText.get().tSizeMustBeGreaterOrEqual1);
+
+		int cnt = segmentCount(tableSize);
+		segments = new Segment[cnt];
+		segmentMask = cnt - 1;
+		segmentShift = Integer.numberOfTrailingZeros(cnt);
+		segmentSize = (tableSize + cnt - 1) / cnt;
+		for (int i = 0; i < cnt; i++)
+			segments[i] = new Segment(segmentSize);
+		evictLock = new ReentrantLock();
+	}
+
+	private static int tableSize(final WindowCacheConfig cfg) {
+		final int wsz = cfg.getPackedGitWindowSize();
+		final long limit = cfg.getPackedGitLimit();
+		if (wsz <= 0)
+			throw new IllegalArgumentException(JGitText.get().invalidWindowSize);
+		if (limit < wsz)
+			throw new IllegalArgumentException(JGitText.get().windowSizeMustBeLesserThanLimit);
+		return (int) Math.min(5 * (limit / wsz) / 2, 2000000000);
+	}
+
+	private static int segmentCount(final int tableSize) {
+		int cnt = Integer.highestOneBit(4 * Runtime.getRuntime()
+				.availableProcessors());
+		if (cnt < 16)
+			cnt = 16;
+		while (1 < cnt && tableSize / cnt < 4)
+			cnt >>>= 1;
+		return cnt;
+	}
+
+	@Override
+	ByteWindow getOrLoad(final PackFile pack, final long position)
+			throws IOException {
+		final int h = hash(pack.hash, position) >>> 1;
+		final Segment seg = segments[h & segmentMask];
+		final int slot = (h >>> segmentShift) % segmentSize;
+
+		for (;;) {
+			final Entry e1 = seg.table.get(slot);
+			Load pending = null;
+			for (Entry n = e1; n != null; n = n.next) {
+				if (n.pack == pack && n.position == position) {
+					if (n.load != null) {
+						pending = n.load;
+						break;
+					}
+					final ByteWindow v = n.ref.get();
+					if (v != null) {
+						hit(n.ref);
+						return v;
+					}
+					n.kill();
+					break;
+				}
+			}
+
+			if (pending != null) {
+				// Another thread is reading this window. Wait for it to
+				// finish; if it failed, retry the lookup and maybe the load.
+				//
+				final ByteWindow v = pending.await();
+				if (v != null)
+					return v;
+				continue;
+			}
+
+			final Load ld = new Load();
+			final Entry n = new Entry(clean(e1), pack, position, null, ld);
+			if (seg.table.compareAndSet(slot, e1, n))
+				return loadAndPublish(seg, slot, pack, position, ld);
+		}
+	}
+
+	private ByteWindow loadAndPublish(final Segment seg, final int slot,
+			final PackFile pack, final long position, final Load ld)
+			throws IOException {
+		final ByteWindow v;
+		try {
+			v = load(pack, position);
+		} catch (IOException e) {
+			unpublish(seg, slot, ld);
+			throw e;
+		} catch (RuntimeException e) {
+			unpublish(seg, slot, ld);
+			throw e;
+		} catch (Error e) {
+			unpublish(seg, slot, ld);
+			throw e;
+		}
+
+		final Ref ref = createRef(new Ref(pack, position, v, queue));
+		if (!replace(seg, slot, ld, new Entry(null, pack, position, ref, null))) {
+			// The placeholder was dropped by removeAll() while we were
+			// loading. Don't cache the window, but release its resources.
+			//
+			ref.enqueue();
+		}
+		ld.complete(v);
+
+		if (evictLock.tryLock()) {
+			try {
+				gc();
+				evict();
+			} finally {
+				evictLock.unlock();
+			}
+		}
+		return v;
+	}
+
+	private void unpublish(final Segment seg, final int slot, final Load ld) {
+		replace(seg, slot, ld, null);
+		ld.complete(null);
+	}
+
+	/**
+	 * Replace the placeholder for a load in its bucket.
+	 *
+	 * @param seg
+	 *            segment holding the bucket.
+	 * @param slot
+	 *            bucket index within the segment.
+	 * @param ld
+	 *            the load whose placeholder should be replaced.
+	 * @param entry
+	 *            replacement entry, its next pointer is ignored. If null the
+	 *            placeholder is removed from the chain.
+	 * @return true if the placeholder was found and replaced.
+	 */
+	private static boolean replace(final Segment seg, final int slot,
+			final Load ld, final Entry entry) {
+		for (;;) {
+			final Entry e1 = seg.table.get(slot);
+			boolean found = false;
+			for (Entry n = e1; n != null; n = n.next) {
+				if (n.load == ld) {
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+				return false;
+			final Entry n1 = replace(e1, ld, entry);
+			if (seg.table.compareAndSet(slot, e1, n1)) {
+				// An entry may have been killed after it was copied into
+				// the new chain; make sure its copy is not live.
+				//
+				for (Entry n = e1; n != null; n = n.next) {
+					if (n.dead)
+						markDead(n1, n.ref);
+				}
+				return true;
+			}
+		}
+	}
+
+	private static void markDead(final Entry top, final Ref ref) {
+		for (Entry n = top; n != null; n = n.next) {
+			if (n.ref == ref) {
+				n.dead = true;
+				return;
+			}
+		}
+	}
+
+	private static Entry replace(final Entry top, final Load ld,
+			final Entry entry) {
+		if (top.load == ld) {
+			if (entry == null)
+				return top.next;
+			return new Entry(top.next, entry.pack, entry.position, entry.ref,
+					null);
+		}
+		return copy(top, replace(top.next, ld, entry));
+	}
+
+	private static Entry copy(final Entry e, final Entry next) {
+		final Entry n = new Entry(next, e.pack, e.position, e.ref, e.load);
+		n.dead = e.dead;
+		return n;
+	}
+
+	private static void hit(final Ref r) {
+		// Avoid dirtying the cache line on every hit; the bit only needs
+		// to be set once per sweep of the clock hand.
+		//
+		if (!r.hot)
+			r.hot = true;
+	}
+
+	private void evict() {
+		// Each bucket needs at most two visits from the hand to clear its
+		// reference bits and then evict. If nothing can be evicted after
+		// that many steps, all remaining space is held by loads in progress.
+		//
+		long steps = 2L * segments.length * segmentSize + 1;
+		while (isFull() && 0 < steps--) {
+			final Segment seg = segments[handSegment];
+			final int slot = handSlot;
+			if (++handSlot == segmentSize) {
+				handSlot = 0;
+				handSegment = (handSegment + 1) & segmentMask;
+			}
+
+			boolean evicted = false;
+			for (Entry e = seg.table.get(slot); e != null; e = e.next) {
+				if (e.ref == null || e.dead)
+					continue;
+				if (e.ref.hot)
+					e.ref.hot = false;
+				else {
+					e.kill();
+					evicted = true;
+				}
+			}
+			if (evicted) {
+				gc();
+				final Entry e1 = seg.table.get(slot);
+				seg.table.compareAndSet(slot, e1, clean(e1));
+			}
+		}
+	}
+
+	@Override
+	void removeAll() {
+		for (final Segment seg : segments) {
+			for (int s = 0; s < segmentSize; s++) {
+				Entry e1;
+				do {
+					e1 = seg.table.get(s);
+					for (Entry e = e1; e != null; e = e.next) {
+						if (e.ref != null)
+							e.kill();
+					}
+				} while (!seg.table.compareAndSet(s, e1, null));
+			}
+		}
+		gc();
+	}
+
+	@Override
+	void removeAll(final PackFile pack) {
+		for (final Segment seg : segments) {
+			for (int s = 0; s < segmentSize; s++) {
+				final Entry e1 = seg.table.get(s);
+				boolean hasDead = false;
+				for (Entry e = e1; e != null; e = e.next) {
+					if (e.ref == null)
+						continue;
+					if (e.pack == pack) {
+						e.kill();
+						hasDead = true;
+					} else if (e.dead)
+						hasDead = true;
+				}
+				if (hasDead)
+					seg.table.compareAndSet(s, e1, clean(e1));
+			}
+		}
+		gc();
+	}
+
+	private void gc() {
+		Ref r;
+		while ((r = (Ref) queue.poll()) != null) {
+			// See LruWindowCache.gc(); a Reference may be dequeued twice on
+			// some JREs, and must only be cleared once.
+			//
+			if (r.canClear()) {
+				clear(r);
+
+				final int h = hash(r.pack.hash, r.position) >>> 1;
+				final Segment seg = segments[h & segmentMask];
+				final int s = (h >>> segmentShift) % segmentSize;
+				boolean found = false;
+				final Entry e1 = seg.table.get(s);
+				for (Entry n = e1; n != null; n = n.next) {
+					if (n.ref == r) {
+						n.dead = true;
+						found = true;
+						break;
+					}
+				}
+				if (found)
+					seg.table.compareAndSet(s, e1, clean(e1));
+			}
+		}
+	}
+
+	private static Entry clean(Entry top) {
+		while (top != null && top.dead) {
+			top.ref.enqueue();
+			top = top.next;
+		}
+		if (top == null)
+			return null;
+		final Entry n = clean(top.next);
+		if (n == top.next)
+			return top;
+		return copy(top, n);
+	}
+
+	private static final class Segment {
+		/** Hash bucket directory; entries are chained below. */
+		final AtomicReferenceArray<Entry> table;
+
+		Segment(final int size) {
+			table = new AtomicReferenceArray<Entry>(size);
+		}
+	}
+
+	private static class Entry {
+		/** Next entry in the hash table's chain list. */
+		final Entry next;
+
+		final PackFile pack;
+
+		final long position;
+
+		/** The referenced object; null while {@link #load} is running. */
+		final Ref ref;
+
+		/** Placeholder for a window being loaded; null once cached. */
+		final Load load;
+
+		/**
+		 * Marked true when ref.get() returns null and the ref is dead.
+		 * <p>
+		 * A true here indicates that the ref is no longer accessible, and that
+		 * we therefore need to eventually purge this Entry object out of the
+		 * bucket's chain.
+		 */
+		volatile boolean dead;
+
+		Entry(final Entry n, final PackFile p, final long o, final Ref r,
+				final Load l) {
+			next = n;
+			pack = p;
+			position = o;
+			ref = r;
+			load = l;
+		}
+
+		final void kill() {
+			dead = true;
+			ref.enqueue();
+		}
+	}
+
+	/** A soft reference carrying the CLOCK reference bit. */
+	private static class Ref extends WindowCache.Ref {
+		volatile boolean hot = true;
+
+		Ref(final PackFile pack, final long position, final ByteWindow v,
+				final ReferenceQueue<ByteWindow> queue) {
+			super(pack, position, v, queue);
+		}
+	}
+
+	/** Gate for threads waiting on another thread's load of a window. */
+	private static final class Load {
+		private boolean done;
+
+		private ByteWindow window;
+
+		synchronized void complete(final ByteWindow v) {
+			window = v;
+			done = true;
+			notifyAll();
+		}
+
+		/** @return the loaded window; null if the load failed. */
+		synchronized ByteWindow await() {
+			boolean interrupted = false;
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			return window;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * A commit graph stored in {@code objects/info/commit-graph}.
+ * <p>
+ * The file starts with the signature {@code CGPH}, a version number and the
+ * number of commits. A 256 entry fan-out table of cumulative commit counts by
+ * first byte precedes the sorted commit names. Each commit then has one fixed
+ * width record holding its tree name, two parent positions, its commit time
+ * and its generation number. Commits with more than two parents store the
+ * index of their remaining parents within a trailing extra edge list. The
+ * file ends with a SHA-1 checksum of all preceding bytes.
+ * <p>
+ * The whole file is held in memory once loaded.
+ */
+class CommitGraphFile extends CommitGraph {
+	static final byte[] SIGNATURE = { 'C', 'G', 'P', 'H' };
+
+	static final int VERSION = 1;
+
+	/** Parent position marking the absence of a parent. */
+	static final int NO_PARENT = 0x70000000;
+
+	/** Set on the second parent to index the extra edge list instead. */
+	static final int EXTRA_EDGES = 0x80000000;
+
+	/** Set on the last parent within the extra edge list. */
+	static final int LAST_EDGE = 0x80000000;
+
+	static final int RECORD_LENGTH = Constants.OBJECT_ID_LENGTH + 16;
+
+	private static final int HEADER_LENGTH = 12;
+
+	private static final int FANOUT_LENGTH = 256 * 4;
+
+	private static final int[] NO_PARENTS = {};
+
+	/**
+	 * Read a commit graph file.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @return the graph.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file could not be read, or is corrupt.
+	 */
+	static CommitGraphFile open(final File file) throws IOException {
+		final byte[] buf = IO.readFully(file);
+		try {
+			return new CommitGraphFile(buf);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			final IOException err = new IOException(MessageFormat.format(
+					JGitText.get().corruptCommitGraph, file.getPath()));
+			err.initCause(e);
+			throw err;
+		} catch (IllegalArgumentException e) {
+			final IOException err = new IOException(MessageFormat.format(
+					JGitText.get().corruptCommitGraph, file.getPath()));
+			err.initCause(e);
+			throw err;
+		}
+	}
+
+	private final byte[] buf;
+
+	private final int count;
+
+	private final int idOffset;
+
+	private final int recordOffset;
+
+	private final int extraOffset;
+
+	private CommitGraphFile(final byte[] buf) throws IOException {
+		this.buf = buf;
+
+		final int end = buf.length - Constants.OBJECT_ID_LENGTH;
+		if (end < HEADER_LENGTH + FANOUT_LENGTH + 4)
+			throw new IllegalArgumentException();
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (buf[i] != SIGNATURE[i])
+				throw new IllegalArgumentException();
+		}
+		final int version = NB.decodeInt32(buf, 4);
+		if (version != VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphVersion, version));
+
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(buf, 0, end);
+		final byte[] expected = new byte[Constants.OBJECT_ID_LENGTH];
+		System.arraycopy(buf, end, expected, 0, expected.length);
+		if (!Arrays.equals(md.digest(), expected))
+			throw new IllegalArgumentException();
+
+		count = NB.decodeInt32(buf, 8);
+		if (count < 0 || NB.decodeInt32(buf, HEADER_LENGTH + 255 * 4) != count)
+			throw new IllegalArgumentException();
+		idOffset = HEADER_LENGTH + FANOUT_LENGTH;
+		recordOffset = idOffset + count * Constants.OBJECT_ID_LENGTH;
+		extraOffset = recordOffset + count * RECORD_LENGTH + 4;
+		final int extraCount = NB.decodeInt32(buf, extraOffset - 4);
+		if (extraCount < 0 || extraOffset + extraCount * 4 != end)
+			throw new IllegalArgumentException();
+	}
+
+	@Override
+	public int getCommitCount() {
+		return count;
+	}
+
+	@Override
+	public int findPosition(final AnyObjectId commit) {
+		final int first = commit.getFirstByte();
+		int low = first == 0 ? 0 : fanout(first - 1);
+		int high = fanout(first);
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = commit.compareTo(buf, idOffset + mid
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	@Override
+	public ObjectId getObjectId(final int position) {
+		return ObjectId.fromRaw(buf, idOffset + position
+				* Constants.OBJECT_ID_LENGTH);
+	}
+
+	@Override
+	public ObjectId getTree(final int position) {
+		return ObjectId.fromRaw(buf, record(position));
+	}
+
+	@Override
+	public int[] getParents(final int position) {
+		final int r = record(position) + Constants.OBJECT_ID_LENGTH;
+		final int p1 = NB.decodeInt32(buf, r);
+		if (p1 == NO_PARENT)
+			return NO_PARENTS;
+		final int p2 = NB.decodeInt32(buf, r + 4);
+		if (p2 == NO_PARENT)
+			return new int[] { p1 };
+		if ((p2 & EXTRA_EDGES) == 0)
+			return new int[] { p1, p2 };
+
+		final int start = extraOffset + (p2 & ~EXTRA_EDGES) * 4;
+		int end = start;
+		while ((NB.decodeInt32(buf, end) & LAST_EDGE) == 0)
+			end += 4;
+		final int[] r2 = new int[2 + (end - start) / 4];
+		r2[0] = p1;
+		for (int i = 1, p = start; p <= end; i++, p += 4)
+			r2[i] = NB.decodeInt32(buf, p) & ~LAST_EDGE;
+		return r2;
+	}
+
+	@Override
+	public int getCommitTime(final int position) {
+		return NB.decodeInt32(buf, record(position)
+				+ Constants.OBJECT_ID_LENGTH + 8);
+	}
+
+	@Override
+	public int getGeneration(final int position) {
+		return NB.decodeInt32(buf, record(position)
+				+ Constants.OBJECT_ID_LENGTH + 12);
+	}
+
+	private int fanout(final int firstByte) {
+		return NB.decodeInt32(buf, HEADER_LENGTH + firstByte * 4);
+	}
+
+	private int record(final int position) {
+		return recordOffset + position * RECORD_LENGTH;
+	}
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates a commit graph file.
+ * <p>
+ * The graph describes every commit reachable from the supplied tips. If an
+ * existing graph is supplied through {@link #setBase(CommitGraph)} all of its
+ * commits are copied into the new file, and only commits not already in the
+ * base are parsed, making it cheap to extend a graph after new commits were
+ * added to the repository.
+ */
+public class CommitGraphWriter {
+	private final ObjectReader reader;
+
+	private CommitGraph base;
+
+	/**
+	 * Create a new writer.
+	 *
+	 * @param reader
+	 *            reader to parse commits from.
+	 */
+	public CommitGraphWriter(final ObjectReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @param base
+	 *            existing graph whose commits are included without being
+	 *            parsed again; null to parse every commit.
+	 */
+	public void setBase(final CommitGraph base) {
+		this.base = base;
+	}
+
+	/**
+	 * Compute the graph and write it.
+	 *
+	 * @param dst
+	 *            stream to write the graph to. The caller is responsible for
+	 *            closing the stream.
+	 * @param tips
+	 *            commits to describe, along with all of their ancestors.
+	 *            Annotated tags are peeled; tips that are not commits are
+	 *            ignored.
+	 * @param pm
+	 *            progress of the commit enumeration, may be null.
+	 * @return number of commits written.
+	 * @throws IOException
+	 *             a commit could not be read, or the stream could not be
+	 *             written.
+	 */
+	public int write(final OutputStream dst,
+			final Collection<? extends ObjectId> tips, ProgressMonitor pm)
+			throws IOException {
+		if (pm == null)
+			pm = NullProgressMonitor.INSTANCE;
+
+		pm.beginTask(JGitText.get().writingCommitGraph,
+				ProgressMonitor.UNKNOWN);
+		final ObjectIdSubclassMap<Node> nodes = new ObjectIdSubclassMap<Node>();
+		if (base != null)
+			copyBase(nodes);
+		final List<Node> added = addCommits(nodes, tips, pm);
+		computeGenerations(added);
+		pm.endTask();
+
+		final List<Node> sorted = new ArrayList<Node>(nodes.size());
+		for (final Node n : nodes)
+			sorted.add(n);
+		Collections.sort(sorted);
+		for (int i = 0; i < sorted.size(); i++)
+			sorted.get(i).position = i;
+
+		writeGraph(dst, sorted);
+		return sorted.size();
+	}
+
+	private void copyBase(final ObjectIdSubclassMap<Node> nodes) {
+		final int cnt = base.getCommitCount();
+		final Node[] byPosition = new Node[cnt];
+		for (int pos = 0; pos < cnt; pos++) {
+			final Node n = new Node(base.getObjectId(pos));
+			n.tree = base.getTree(pos);
+			n.commitTime = base.getCommitTime(pos);
+			n.generation = base.getGeneration(pos);
+			byPosition[pos] = n;
+			nodes.add(n);
+		}
+		for (int pos = 0; pos < cnt; pos++) {
+			final int[] p = base.getParents(pos);
+			final Node[] parents = new Node[p.length];
+			for (int i = 0; i < p.length; i++)
+				parents[i] = byPosition[p[i]];
+			byPosition[pos].parents = parents;
+		}
+	}
+
+	private List<Node> addCommits(final ObjectIdSubclassMap<Node> nodes,
+			final Collection<? extends ObjectId> tips, final ProgressMonitor pm)
+			throws IOException {
+		final RevWalk rw = new RevWalk(reader);
+		rw.setRetainBody(false);
+
+		final List<RevCommit> todo = new ArrayList<RevCommit>();
+		for (final ObjectId id : tips) {
+			final RevObject o;
+			try {
+				o = rw.peel(rw.parseAny(id));
+			} catch (MissingObjectException notFound) {
+				continue;
+			}
+			if (o instanceof RevCommit && nodes.get(o) == null)
+				todo.add((RevCommit) o);
+		}
+
+		final List<Node> added = new ArrayList<Node>();
+		while (!todo.isEmpty()) {
+			final RevCommit c = todo.remove(todo.size() - 1);
+			if (nodes.get(c) != null)
+				continue;
+			rw.parseHeaders(c);
+
+			final Node n = new Node(c);
+			n.tree = c.getTree().copy();
+			n.commitTime = c.getCommitTime();
+			n.parentIds = c.getParents();
+			nodes.add(n);
+			added.add(n);
+			pm.update(1);
+
+			for (final RevCommit p : c.getParents()) {
+				if (nodes.get(p) == null)
+					todo.add(p);
+			}
+		}
+
+		for (final Node n : added) {
+			n.parents = new Node[n.parentIds.length];
+			for (int i = 0; i < n.parentIds.length; i++)
+				n.parents[i] = nodes.get(n.parentIds[i]);
+			n.parentIds = null;
+		}
+		return added;
+	}
+
+	private static void computeGenerations(final List<Node> added) {
+		final List<Node> stack = new ArrayList<Node>();
+		for (final Node start : added) {
+			if (start.generation != 0)
+				continue;
+			stack.add(start);
+			while (!stack.isEmpty()) {
+				final Node n = stack.get(stack.size() - 1);
+				int max = 0;
+				boolean ready = true;
+				for (final Node p : n.parents) {
+					if (p.generation == 0) {
+						stack.add(p);
+						ready = false;
+					} else
+						max = Math.max(max, p.generation);
+				}
+				if (ready) {
+					n.generation = max + 1;
+					stack.remove(stack.size() - 1);
+				}
+			}
+		}
+	}
+
+	private static void writeGraph(final OutputStream dst,
+			final List<Node> sorted) throws IOException {
+		final MessageDigest md = Constants.newMessageDigest();
+		final DigestOutputStream out = new DigestOutputStream(
+				new BufferedOutputStream(dst), md);
+		final byte[] buf = new byte[CommitGraphFile.RECORD_LENGTH];
+
+		out.write(CommitGraphFile.SIGNATURE);
+		NB.encodeInt32(buf, 0, CommitGraphFile.VERSION);
+		NB.encodeInt32(buf, 4, sorted.size());
+		out.write(buf, 0, 8);
+
+		final int[] fanout = new int[256];
+		for (final Node n : sorted)
+			fanout[n.getFirstByte()]++;
+		for (int i = 1; i < 256; i++)
+			fanout[i] += fanout[i - 1];
+		for (int i = 0; i < 256; i++) {
+			NB.encodeInt32(buf, 0, fanout[i]);
+			out.write(buf, 0, 4);
+		}
+
+		for (final Node n : sorted) {
+			n.copyRawTo(buf, 0);
+			out.write(buf, 0, Constants.OBJECT_ID_LENGTH);
+		}
+
+		final List<Integer> extra = new ArrayList<Integer>();
+		final int p1 = Constants.OBJECT_ID_LENGTH;
+		final int p2 = p1 + 4;
+		for (final Node n : sorted) {
+			n.tree.copyRawTo(buf, 0);
+			final Node[] parents = n.parents;
+			NB.encodeInt32(buf, p1, parents.length > 0 ? parents[0].position
+					: CommitGraphFile.NO_PARENT);
+			if (parents.length <= 1)
+				NB.encodeInt32(buf, p2, CommitGraphFile.NO_PARENT);
+			else if (parents.length == 2)
+				NB.encodeInt32(buf, p2, parents[1].position);
+			else {
+				NB.encodeInt32(buf, p2, CommitGraphFile.EXTRA_EDGES
+						| extra.size());
+				for (int i = 1; i < parents.length - 1; i++)
+					extra.add(Integer.valueOf(parents[i].position));
+				extra.add(Integer.valueOf(CommitGraphFile.LAST_EDGE
+						| parents[parents.length - 1].position));
+			}
+			NB.encodeInt32(buf, p2 + 4, n.commitTime);
+			NB.encodeInt32(buf, p2 + 8, n.generation);
+			out.write(buf, 0, CommitGraphFile.RECORD_LENGTH);
+		}
+
+		NB.encodeInt32(buf, 0, extra.size());
+		out.write(buf, 0, 4);
+		for (final Integer e : extra) {
+			NB.encodeInt32(buf, 0, e.intValue());
+			out.write(buf, 0, 4);
+		}
+
+		out.on(false);
+		out.write(md.digest());
+		out.flush();
+	}
+
+	private static final class Node extends ObjectId {
+		ObjectId tree;
+
+		int commitTime;
+
+		int generation;
+
+		AnyObjectId[] parentIds;
+
+		Node[] parents;
+
+		int position;
+
+		Node(final AnyObjectId id) {
+			super(id);
+		}
+	}
+}
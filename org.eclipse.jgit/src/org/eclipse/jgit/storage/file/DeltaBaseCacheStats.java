@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+/**
+ * Snapshot of the delta base cache's counters.
+ *
+ * @see WindowCache#getDeltaBaseCacheStats()
+ */
+public class DeltaBaseCacheStats {
+	private final long hitCount;
+
+	private final long missCount;
+
+	private final long evictionCount;
+
+	private final long openByteCount;
+
+	private final long maxByteCount;
+
+	DeltaBaseCacheStats(final long hits, final long misses,
+			final long evictions, final long openBytes, final long maxBytes) {
+		hitCount = hits;
+		missCount = misses;
+		evictionCount = evictions;
+		openByteCount = openBytes;
+		maxByteCount = maxBytes;
+	}
+
+	/** @return number of lookups that found their object in the cache. */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/** @return number of lookups that did not find their object. */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return fraction of lookups that were hits, between 0 and 1; 0 if there
+	 *         were no lookups yet.
+	 */
+	public double getHitRatio() {
+		final long total = hitCount + missCount;
+		return total != 0 ? (double) hitCount / total : 0;
+	}
+
+	/**
+	 * @return number of entries dropped to stay within the byte limit, or
+	 *         replaced by another object hashing to the same slot.
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/** @return number of bytes currently held by the cache. */
+	public long getOpenByteCount() {
+		return openByteCount;
+	}
+
+	/** @return maximum number of bytes the cache may hold. */
+	public long getMaxByteCount() {
+		return maxByteCount;
+	}
+
+	@Override
+	public String toString() {
+		return "DeltaBaseCacheStats[hits=" + hitCount + ", misses="
+				+ missCount + ", evictions=" + evictionCount + ", bytes="
+				+ openByteCount + "/" + maxByteCount + "]";
+	}
+}
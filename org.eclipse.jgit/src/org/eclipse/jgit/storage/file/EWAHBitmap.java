@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * An immutable, Enhanced Word-Aligned Hybrid (EWAH) compressed bitmap.
+ * <p>
+ * The bitmap is stored as a sequence of 64 bit words. Each marker word
+ * describes a run of identical words (all 0 or all 1), followed by a count of
+ * literal words which are copied verbatim after the marker:
+ *
+ * <pre>
+ * bit  0      : value of the run
+ * bits 1..32  : number of words in the run
+ * bits 33..63 : number of literal words following the marker
+ * </pre>
+ *
+ * Reachability bitmaps are dominated by long runs of set or clear bits, so
+ * this encoding is usually a small fraction of the uncompressed size. Bitwise
+ * operations are performed on uncompressed {@link BitSet}s, into which a
+ * compressed bitmap can be expanded with {@link #orInto(BitSet)}.
+ */
+final class EWAHBitmap {
+	private static final long MAX_RUN = 0xffffffffL;
+
+	private static final int MAX_LITERALS = 0x7fffffff;
+
+	/**
+	 * Compress a bitmap.
+	 *
+	 * @param bits
+	 *            the bits to compress.
+	 * @return the compressed form of {@code bits}.
+	 */
+	static EWAHBitmap compress(final BitSet bits) {
+		final int bitLength = bits.length();
+		final int wordLength = (bitLength + 63) >>> 6;
+		final Builder b = new Builder(Math.max(wordLength / 8, 4));
+
+		int w = 0;
+		int i = bits.nextSetBit(0);
+		while (w < wordLength) {
+			final int setWord = i < 0 ? wordLength : i >>> 6;
+			if (w < setWord) {
+				b.fill(false, setWord - w);
+				w = setWord;
+				continue;
+			}
+
+			final int fullWords = (bits.nextClearBit(w << 6) >>> 6) - w;
+			if (0 < fullWords) {
+				b.fill(true, fullWords);
+				w += fullWords;
+				i = bits.nextSetBit(w << 6);
+				continue;
+			}
+
+			final int end = (w + 1) << 6;
+			long word = 0;
+			for (; 0 <= i && i < end; i = bits.nextSetBit(i + 1))
+				word |= 1L << i;
+			b.literal(word);
+			w++;
+		}
+		return new EWAHBitmap(b.buf, b.size, bitLength);
+	}
+
+	/**
+	 * Read a bitmap previously written by {@link #writeTo(DataOutput)}.
+	 *
+	 * @param in
+	 *            stream to read the bitmap from.
+	 * @return the bitmap.
+	 * @throws IOException
+	 *             the stream could not be read.
+	 */
+	static EWAHBitmap read(final DataInput in) throws IOException {
+		final int bitLength = in.readInt();
+		final int wordCount = in.readInt();
+		final long[] words = new long[wordCount];
+		for (int i = 0; i < wordCount; i++)
+			words[i] = in.readLong();
+		return new EWAHBitmap(words, wordCount, bitLength);
+	}
+
+	private final long[] words;
+
+	private final int wordCount;
+
+	private final int bitLength;
+
+	private EWAHBitmap(final long[] words, final int wordCount,
+			final int bitLength) {
+		this.words = words;
+		this.wordCount = wordCount;
+		this.bitLength = bitLength;
+	}
+
+	/** @return one more than the highest set bit, or 0 if no bits are set. */
+	int length() {
+		return bitLength;
+	}
+
+	/** @return number of 64 bit words used by the compressed form. */
+	int getWordCount() {
+		return wordCount;
+	}
+
+	/**
+	 * Set every bit of this bitmap in another bitmap.
+	 *
+	 * @param dst
+	 *            the bitmap to update.
+	 */
+	void orInto(final BitSet dst) {
+		int pos = 0;
+		int i = 0;
+		while (i < wordCount) {
+			final long marker = words[i++];
+			final int run = (int) runLength(marker);
+			if (runBit(marker) && 0 < run)
+				dst.set(pos << 6, (pos + run) << 6);
+			pos += run;
+
+			final int literals = literalCount(marker);
+			for (int k = 0; k < literals; k++, pos++) {
+				long w = words[i++];
+				final int base = pos << 6;
+				while (w != 0) {
+					dst.set(base + Long.numberOfTrailingZeros(w));
+					w &= w - 1;
+				}
+			}
+		}
+	}
+
+	/** @return a new, uncompressed copy of this bitmap. */
+	BitSet toBitSet() {
+		final BitSet r = new BitSet(bitLength);
+		orInto(r);
+		return r;
+	}
+
+	/**
+	 * Write this bitmap to a stream.
+	 *
+	 * @param out
+	 *            stream to write the bitmap to.
+	 * @throws IOException
+	 *             the stream could not be written.
+	 */
+	void writeTo(final DataOutput out) throws IOException {
+		out.writeInt(bitLength);
+		out.writeInt(wordCount);
+		for (int i = 0; i < wordCount; i++)
+			out.writeLong(words[i]);
+	}
+
+	private static boolean runBit(final long marker) {
+		return (marker & 1) != 0;
+	}
+
+	private static long runLength(final long marker) {
+		return (marker >>> 1) & MAX_RUN;
+	}
+
+	private static int literalCount(final long marker) {
+		return (int) (marker >>> 33);
+	}
+
+	private static long marker(final boolean bit, final long run,
+			final int literals) {
+		return (bit ? 1L : 0L) | (run << 1) | (((long) literals) << 33);
+	}
+
+	private static final class Builder {
+		long[] buf;
+
+		int size;
+
+		/** Index of the marker word currently being extended. */
+		private int marker;
+
+		Builder(final int capacity) {
+			buf = new long[capacity];
+			size = 1;
+		}
+
+		void fill(final boolean bit, int count) {
+			while (0 < count) {
+				final long m = buf[marker];
+				final long run = runLength(m);
+				if (literalCount(m) == 0 && (run == 0 || runBit(m) == bit)
+						&& run < MAX_RUN) {
+					final int n = (int) Math.min(count, MAX_RUN - run);
+					buf[marker] = marker(bit, run + n, 0);
+					count -= n;
+				} else
+					newMarker();
+			}
+		}
+
+		void literal(final long word) {
+			if (word == 0)
+				fill(false, 1);
+			else if (word == ~0L)
+				fill(true, 1);
+			else {
+				if (literalCount(buf[marker]) == MAX_LITERALS)
+					newMarker();
+				append(word);
+				buf[marker] += 1L << 33;
+			}
+		}
+
+		private void newMarker() {
+			append(0);
+			marker = size - 1;
+		}
+
+		private void append(final long word) {
+			if (size == buf.length) {
+				final long[] n = new long[buf.length * 2];
+				System.arraycopy(buf, 0, n, 0, size);
+				buf = n;
+			}
+			buf[size++] = word;
+		}
+	}
+}
@@ -45,9 +45,13 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
 
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
@@ -97,6 +101,31 @@ final boolean hasObjectImpl2(final String objectId) {
 		return false;
 	}
 
+	/**
+	 * Locate an object in the pack files of this database, without reading it.
+	 * <p>
+	 * Alternates (if present) are searched automatically. Loose objects are
+	 * not considered.
+	 *
+	 * @param objectId
+	 *            identity of the object to locate.
+	 * @param loc
+	 *            updated with the pack and offset of the object, if found.
+	 * @return true if the object was found in a pack.
+	 */
+	final boolean findPackedImpl1(final AnyObjectId objectId,
+			final PackedObjectLocation loc) {
+		if (findPacked1(objectId, loc))
+			return true;
+
+		for (final AlternateHandle alt : myAlternates()) {
+			if (alt.db.findPackedImpl1(objectId, loc))
+				return true;
+		}
+
+		return false;
+	}
+
 	/**
 	 * Open an object from this database.
 	 * <p>
@@ -220,6 +249,12 @@ abstract void selectObjectRepresentation(PackWriter packer,
 
 	abstract File getDirectory();
 
+	abstract Collection<PackFile> getPacks();
+
+	abstract CommitGraph getCommitGraph();
+
+	abstract Set<ObjectId> getShallowCommits() throws IOException;
+
 	abstract AlternateHandle[] myAlternates();
 
 	abstract boolean tryAgain1();
@@ -231,6 +266,8 @@ abstract void selectObjectRepresentation(PackWriter packer,
 	abstract ObjectLoader openObject1(WindowCursor curs, AnyObjectId objectId)
 			throws IOException;
 
+	abstract boolean findPacked1(AnyObjectId objectId, PackedObjectLocation loc);
+
 	abstract ObjectLoader openObject2(WindowCursor curs, String objectName,
 			AnyObjectId objectId) throws IOException;
 
@@ -96,7 +96,7 @@ public class FileRepository extends Repository {
 
 	private final FileBasedConfig repoConfig;
 
-	private final RefDatabase refs;
+	private volatile RefDatabase refs;
 
 	private final ObjectDirectory objectDatabase;
 
@@ -143,23 +143,39 @@ public FileRepository(final BaseRepositoryBuilder options) throws IOException {
 		loadUserConfig();
 		loadRepoConfig();
 
-		refs = new RefDirectory(this);
 		objectDatabase = new ObjectDirectory(repoConfig, //
 				options.getObjectDirectory(), //
 				options.getAlternateObjectDirectories(), //
-				getFS());
+				getFS(), //
+				new File(getDirectory(), "shallow"));
 		getListenerList().addConfigChangedListener(objectDatabase);
 
 		if (objectDatabase.exists()) {
 			final String repositoryFormatVersion = getConfig().getString(
 					ConfigConstants.CONFIG_CORE_SECTION, null,
 					ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION);
-			if (!"0".equals(repositoryFormatVersion)) {
+			final Set<String> extensions = getConfig().getNames(
+					ConfigConstants.CONFIG_EXTENSIONS_SECTION);
+			if ("0".equals(repositoryFormatVersion)) {
+				if (!extensions.isEmpty())
+					throw new IOException(
+							JGitText.get().repositoryExtensionsNeedFormat1);
+			} else if ("1".equals(repositoryFormatVersion)) {
+				for (final String name : extensions) {
+					if (!ConfigConstants.CONFIG_KEY_REF_STORAGE
+							.equalsIgnoreCase(name))
+						throw new IOException(MessageFormat.format(
+								JGitText.get().unknownRepositoryExtension,
+								name));
+				}
+			} else {
 				throw new IOException(MessageFormat.format(
 						JGitText.get().unknownRepositoryFormat2,
 						repositoryFormatVersion));
 			}
 		}
+
+		refs = openRefDatabase();
 	}
 
 	private void loadUserConfig() throws IOException {
@@ -187,6 +203,14 @@ private void loadRepoConfig() throws IOException {
 	/**
 	 * Create a new Git repository initializing the necessary files and
 	 * directories.
+	 * <p>
+	 * References are stored in loose files and {@code packed-refs}, unless
+	 * {@code core.refStorage} was set to {@code reftable} in this repository's
+	 * configuration before calling this method, in which case they are stored
+	 * by a {@link ReftableDatabase}. Such a repository is recorded with
+	 * {@code core.repositoryFormatVersion = 1} and
+	 * {@code extensions.refStorage = reftable}, so that tools which do not
+	 * know the extension refuse to work on it.
 	 *
 	 * @param bare
 	 *            if true, a bare repository is created.
@@ -201,6 +225,14 @@ public void create(boolean bare) throws IOException {
 					JGitText.get().repositoryAlreadyExists, getDirectory()));
 		}
 		getDirectory().mkdirs();
+		final boolean reftable = ConfigConstants.CONFIG_REF_STORAGE_REFTABLE
+				.equalsIgnoreCase(cfg.getString(
+						ConfigConstants.CONFIG_CORE_SECTION, null,
+						ConfigConstants.CONFIG_KEY_REF_STORAGE));
+		if (reftable)
+			refs = new ReftableDatabase(this);
+		else
+			refs = new RefDirectory(this);
 		refs.create();
 		objectDatabase.create();
 
@@ -211,7 +243,11 @@ public void create(boolean bare) throws IOException {
 		head.link(Constants.R_HEADS + Constants.MASTER);
 
 		cfg.setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
-				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 0);
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, reftable ? 1 : 0);
+		if (reftable)
+			cfg.setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+					ConfigConstants.CONFIG_KEY_REF_STORAGE,
+					ConfigConstants.CONFIG_REF_STORAGE_REFTABLE);
 		cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
 				ConfigConstants.CONFIG_KEY_FILEMODE, true);
 		if (bare)
@@ -224,6 +260,40 @@ public void create(boolean bare) throws IOException {
 		cfg.save();
 	}
 
+	private RefDatabase openRefDatabase() throws IOException {
+		// Only the extension recorded when the repository was created
+		// selects reftables; core.refStorage just asks create() for them.
+		// The tables must exist exactly when the extension says so, or
+		// references could silently appear to be missing.
+		//
+		final String storage = repoConfig.getString(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REF_STORAGE);
+		final File tables = new File(new File(getDirectory(),
+				ReftableDatabase.REFTABLE), ReftableStack.TABLES_LIST);
+		final boolean reftable;
+		if (storage == null
+				|| ConfigConstants.CONFIG_REF_STORAGE_FILES
+						.equalsIgnoreCase(storage))
+			reftable = false;
+		else if (ConfigConstants.CONFIG_REF_STORAGE_REFTABLE
+				.equalsIgnoreCase(storage))
+			reftable = true;
+		else
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unknownRefStorage, storage));
+
+		if (reftable != tables.exists())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().refStorageDoesNotMatch,
+					reftable ? ConfigConstants.CONFIG_REF_STORAGE_REFTABLE
+							: ConfigConstants.CONFIG_REF_STORAGE_FILES,
+					getDirectory()));
+		if (reftable)
+			return new ReftableDatabase(this);
+		return new RefDirectory(this);
+	}
+
 	/**
 	 * @return the directory containing the objects owned by this repository.
 	 */
@@ -0,0 +1,912 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Garbage collector for a {@link FileRepository}.
+ * <p>
+ * {@link #gc()} packs loose references into <code>packed-refs</code>, expires
+ * old reflog entries, and then repacks every object reachable from a
+ * reference, a remaining reflog entry or the index into a single new pack.
+ * Deltas and compressed data of the existing packs are reused where possible.
+ * <p>
+ * The new pack is completely in place before any old pack is deleted, so
+ * concurrent readers always find every reachable object. Unreachable objects
+ * that are younger than the expiration date survive: those held in an old
+ * pack are written out as loose objects carrying the pack's modification
+ * time, and unreachable loose objects are only deleted once they are older
+ * than the expiration date. Packs with a <code>.keep</code> file are left
+ * alone.
+ * <p>
+ * {@link #repackGeometric()} is a cheaper alternative for large repositories.
+ * It only combines the smallest packs and the loose objects, leaving the
+ * packs alone whose object counts already form a geometric progression.
+ */
+public class GC {
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	/** Default age of unreachable objects before they are deleted. */
+	public static final long DEFAULT_EXPIRE_AGE = 14 * DAY;
+
+	/** Default age of reflog entries before they are deleted. */
+	public static final long DEFAULT_REFLOG_EXPIRE_AGE = 90 * DAY;
+
+	/** Default ratio between the object counts of two neighbouring packs. */
+	public static final int DEFAULT_GEOMETRIC_FACTOR = 2;
+
+	private final FileRepository repo;
+
+	private final ObjectDirectory odb;
+
+	private ProgressMonitor pm = NullProgressMonitor.INSTANCE;
+
+	private PackConfig packConfig;
+
+	private Date expire;
+
+	private Date reflogExpire;
+
+	private int geometricFactor = DEFAULT_GEOMETRIC_FACTOR;
+
+	private long timeBudget;
+
+	/**
+	 * Create a garbage collector for a repository.
+	 *
+	 * @param repo
+	 *            the repository to clean up.
+	 */
+	public GC(final FileRepository repo) {
+		this.repo = repo;
+		this.odb = repo.getObjectDatabase();
+	}
+
+	/**
+	 * @param monitor
+	 *            receives progress of the collection; null to report nothing.
+	 */
+	public void setProgressMonitor(final ProgressMonitor monitor) {
+		pm = monitor != null ? monitor : NullProgressMonitor.INSTANCE;
+	}
+
+	/**
+	 * @param pc
+	 *            configuration for writing the new pack. If null the
+	 *            repository's own settings are used.
+	 */
+	public void setPackConfig(final PackConfig pc) {
+		packConfig = pc;
+	}
+
+	/**
+	 * Set the date before which unreachable objects are deleted.
+	 * <p>
+	 * Unreachable objects modified after this date are kept. Defaults to
+	 * {@link #DEFAULT_EXPIRE_AGE} before the collection starts.
+	 *
+	 * @param date
+	 *            the expiration date; null to use the default.
+	 */
+	public void setExpire(final Date date) {
+		expire = date;
+	}
+
+	/**
+	 * Set the date before which reflog entries are deleted.
+	 * <p>
+	 * Defaults to {@link #DEFAULT_REFLOG_EXPIRE_AGE} before the collection
+	 * starts.
+	 *
+	 * @param date
+	 *            the expiration date; null to use the default.
+	 */
+	public void setReflogExpire(final Date date) {
+		reflogExpire = date;
+	}
+
+	/**
+	 * Set the progression factor used by {@link #repackGeometric()}.
+	 * <p>
+	 * Starting from the largest, packs are left alone as long as each holds at
+	 * least <code>factor</code> times as many objects as the next smaller
+	 * pack. The packs below are combined, and a larger pack joins them unless
+	 * it holds at least <code>factor</code> times as many objects as the
+	 * combined result. Larger factors combine packs more often, keeping fewer
+	 * packs around.
+	 *
+	 * @param factor
+	 *            the factor, at least 2.
+	 */
+	public void setGeometricFactor(final int factor) {
+		if (factor < 2)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().geometricFactorMustBeAtLeast2,
+					Integer.valueOf(factor)));
+		geometricFactor = factor;
+	}
+
+	/**
+	 * Limit the time {@link #repackGeometric()} may spend.
+	 * <p>
+	 * If the limit is exceeded the repack is abandoned, its temporary files
+	 * are deleted and the repository is left unchanged.
+	 *
+	 * @param millis
+	 *            the budget in milliseconds; 0 for no limit.
+	 */
+	public void setTimeBudget(final long millis) {
+		timeBudget = millis;
+	}
+
+	/**
+	 * Run a complete garbage collection.
+	 *
+	 * @return the pack written; null if the repository has no reachable
+	 *         objects.
+	 * @throws IOException
+	 *             the repository could not be read, or a new file could not
+	 *             be written. The repository is left in a consistent state.
+	 */
+	public PackFile gc() throws IOException {
+		packRefs();
+		final Set<ObjectId> reflogIds = expireReflogs();
+		return repack(reflogIds);
+	}
+
+	/**
+	 * Move all loose, non-symbolic references into <code>packed-refs</code>.
+	 * <p>
+	 * A repository storing its references in reftables has its tables
+	 * compacted into one instead.
+	 *
+	 * @throws IOException
+	 *             the references could not be read or packed.
+	 */
+	public void packRefs() throws IOException {
+		if (repo.getRefDatabase() instanceof ReftableDatabase) {
+			pm.beginTask(JGitText.get().packRefs, ProgressMonitor.UNKNOWN);
+			((ReftableDatabase) repo.getRefDatabase()).compact();
+			pm.endTask();
+			return;
+		}
+
+		final Collection<Ref> refs = repo.getRefDatabase().getRefs(
+				Constants.R_REFS).values();
+		final List<String> names = new ArrayList<String>(refs.size());
+		for (final Ref r : refs) {
+			if (!r.isSymbolic() && r.getStorage().isLoose())
+				names.add(r.getName());
+		}
+		pm.beginTask(JGitText.get().packRefs, names.size());
+		((RefDirectory) repo.getRefDatabase()).pack(names);
+		pm.update(names.size());
+		pm.endTask();
+	}
+
+	/**
+	 * Delete reflog entries older than the reflog expiration date.
+	 *
+	 * @return objects named by the remaining reflog entries.
+	 * @throws IOException
+	 *             a reflog could not be read or rewritten.
+	 */
+	public Set<ObjectId> expireReflogs() throws IOException {
+		final long cutoff = cutoff(reflogExpire, DEFAULT_REFLOG_EXPIRE_AGE);
+		final Set<ObjectId> ids = new HashSet<ObjectId>();
+		final List<File> logs = new ArrayList<File>();
+		listFiles(new File(repo.getDirectory(), Constants.LOGS), logs);
+
+		pm.beginTask(JGitText.get().expireReflogs, logs.size());
+		for (final File log : logs) {
+			expireReflog(log, cutoff, ids);
+			pm.update(1);
+		}
+		pm.endTask();
+		return ids;
+	}
+
+	private void expireReflog(final File log, final long cutoff,
+			final Set<ObjectId> ids) throws IOException {
+		final LockFile lck = new LockFile(log, repo.getFS());
+		if (!lck.lock()) {
+			// Someone else is rewriting it; try again next time. Until
+			// then every object it names must still be kept.
+			//
+			final byte[] buf;
+			try {
+				buf = IO.readFully(log);
+			} catch (FileNotFoundException gone) {
+				return;
+			}
+			int ptr = 0;
+			while (ptr < buf.length) {
+				final int end = RawParseUtils.nextLF(buf, ptr);
+				addIds(ids, buf, ptr);
+				ptr = end;
+			}
+			return;
+		}
+		try {
+			final byte[] buf = IO.readFully(log);
+			final ByteArrayOutputStream keep = new ByteArrayOutputStream(
+					buf.length);
+			boolean dropped = false;
+			int ptr = 0;
+			while (ptr < buf.length) {
+				final int end = RawParseUtils.nextLF(buf, ptr);
+				if (whenOf(buf, ptr, end) < cutoff) {
+					dropped = true;
+				} else {
+					keep.write(buf, ptr, end - ptr);
+					addIds(ids, buf, ptr);
+				}
+				ptr = end;
+			}
+			if (!dropped)
+				return;
+
+			lck.write(keep.toByteArray());
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, log));
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	private static long whenOf(final byte[] buf, final int ptr, final int end) {
+		// <old> SP <new> SP <name> SP <email> SP <when> SP <tz> TAB <msg>
+		int tab = ptr;
+		while (tab < end && buf[tab] != '\t' && buf[tab] != '\n')
+			tab++;
+		final int gt = RawParseUtils.prev(buf, tab - 1, '>');
+		if (gt < ptr)
+			return Long.MAX_VALUE; // Unparsable; keep it.
+		return RawParseUtils.parseLongBase10(buf, gt + 3, null) * 1000L;
+	}
+
+	private static void addIds(final Set<ObjectId> ids, final byte[] buf,
+			final int ptr) {
+		// <old> SP <new> SP ...
+		addId(ids, buf, ptr);
+		addId(ids, buf, ptr + Constants.OBJECT_ID_STRING_LENGTH + 1);
+	}
+
+	private static void addId(final Set<ObjectId> ids, final byte[] buf,
+			final int ptr) {
+		if (buf.length < ptr + Constants.OBJECT_ID_STRING_LENGTH)
+			return;
+		try {
+			final ObjectId id = ObjectId.fromString(buf, ptr);
+			if (!ObjectId.zeroId().equals(id))
+				ids.add(id);
+		} catch (IllegalArgumentException notAnId) {
+			// Ignore corrupt entries.
+		}
+	}
+
+	/**
+	 * Write all reachable objects into one pack, and delete the old packs and
+	 * loose objects.
+	 *
+	 * @param extraTips
+	 *            additional objects to keep, such as those named by reflogs.
+	 * @return the pack written; null if there were no objects to pack.
+	 * @throws IOException
+	 *             the pack could not be written, or objects could not be read.
+	 */
+	public PackFile repack(final Collection<? extends ObjectId> extraTips)
+			throws IOException {
+		final long cutoff = cutoff(expire, DEFAULT_EXPIRE_AGE);
+		final Set<ObjectId> tips = new HashSet<ObjectId>();
+		for (final Ref r : repo.getAllRefs().values()) {
+			if (r.getObjectId() != null)
+				tips.add(r.getObjectId());
+		}
+		tips.addAll(extraTips);
+		if (!repo.isBare())
+			addIndexObjects(tips);
+		for (final Iterator<ObjectId> i = tips.iterator(); i.hasNext();) {
+			if (!odb.has(i.next()))
+				i.remove(); // Broken reference; nothing we can keep.
+		}
+
+		final List<PackFile> oldPacks = new ArrayList<PackFile>();
+		for (final PackFile p : odb.getPacks()) {
+			if (!isKept(p))
+				oldPacks.add(p);
+		}
+
+		final PackFile pack = tips.isEmpty() ? null : writePack(tips);
+		loosenUnreachable(pack, oldPacks, cutoff);
+		for (final PackFile p : oldPacks) {
+			if (pack == null
+					|| !p.getPackFile().equals(pack.getPackFile()))
+				deletePack(p);
+		}
+		pruneLoose(pack, cutoff);
+
+		if (odb.hasMultiPackIndex())
+			odb.updateMultiPackIndex(pm);
+		if (odb.hasCommitGraph())
+			odb.writeCommitGraph(tips, pm, false);
+		return pack;
+	}
+
+	/**
+	 * Combine the smallest packs and all loose objects into one new pack.
+	 * <p>
+	 * The packs without a <code>.keep</code> file are sorted by object count.
+	 * Starting from the largest, packs are left alone as long as each holds at
+	 * least {@link #setGeometricFactor(int)} times as many objects as the
+	 * next smaller one. The remaining packs are combined, together with any
+	 * larger pack that is not at least factor times the size of the combined
+	 * result. A large base pack is therefore only rewritten once enough new
+	 * objects have accumulated to make it the smaller side. If no pack needs
+	 * to be combined, loose objects are written to a new pack of their own.
+	 * <p>
+	 * Every object of the combined packs is copied, reachable or not, reusing
+	 * its existing delta or compressed form. Nothing is pruned; use
+	 * {@link #gc()} for that.
+	 *
+	 * @return the pack written; null if there are no loose objects and the
+	 *         packs already form a geometric progression, or if the time
+	 *         budget ran out.
+	 * @throws IOException
+	 *             the pack could not be written, or objects could not be read.
+	 */
+	public PackFile repackGeometric() throws IOException {
+		final ProgressMonitor monitor;
+		if (0 < timeBudget)
+			monitor = new DeadlineMonitor(pm, System.currentTimeMillis()
+					+ timeBudget);
+		else
+			monitor = pm;
+
+		final List<ObjectId> loose = listLooseObjects();
+		final List<PackFile> packs = new ArrayList<PackFile>();
+		for (final PackFile p : odb.getPacks()) {
+			if (!isKept(p))
+				packs.add(p);
+		}
+		final long[] counts = new long[packs.size()];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = packs.get(i).getObjectCount();
+		sortByCount(packs, counts);
+
+		// If the packs already form a progression, loose objects are still
+		// written as a new smallest pack; otherwise they would never be.
+		//
+		final int split = geometricSplit(counts, loose.size(), geometricFactor);
+		if (loose.isEmpty() && split < 2)
+			return null; // Already a geometric progression.
+		final List<PackFile> rollUp = packs.subList(0, split);
+
+		final PackWriter pw = newPackWriter();
+		final PackFile pack;
+		try {
+			if (!addObjects(pw, rollUp, loose, monitor))
+				return null;
+			pack = writePack(pw, monitor, false);
+		} catch (IOException err) {
+			if (monitor.isCancelled())
+				return null;
+			throw err;
+		} finally {
+			pw.release();
+		}
+
+		for (final PackFile p : rollUp) {
+			if (pack == null || !p.getPackFile().equals(pack.getPackFile()))
+				deletePack(p);
+		}
+		pruneLoose(pack, 0);
+		if (odb.hasMultiPackIndex())
+			odb.updateMultiPackIndex(pm);
+		return pack;
+	}
+
+	/**
+	 * Compute how many of the smallest packs a geometric repack combines.
+	 *
+	 * @param counts
+	 *            object counts of the packs, in ascending order.
+	 * @param loose
+	 *            number of loose objects, which are always combined.
+	 * @param factor
+	 *            the progression factor.
+	 * @return number of packs, taken from the start of <code>counts</code>,
+	 *         that must be combined to restore the progression.
+	 */
+	static int geometricSplit(final long[] counts, final long loose,
+			final int factor) {
+		// Find the smallest pack above which the counts already grow by
+		// the factor from one pack to the next.
+		//
+		int split = Math.max(counts.length - 1, 0);
+		while (0 < split && counts[split - 1] * factor <= counts[split])
+			split--;
+
+		// Everything below that pack is combined. Larger packs join the
+		// combined pack until one is big enough to stay on its own.
+		//
+		long total = loose;
+		for (int i = 0; i < split; i++)
+			total += counts[i];
+		while (split < counts.length && counts[split] < total * factor)
+			total += counts[split++];
+		return split;
+	}
+
+	private static void sortByCount(final List<PackFile> packs,
+			final long[] counts) {
+		// Insertion sort; repositories have few enough packs.
+		for (int i = 1; i < counts.length; i++) {
+			final long c = counts[i];
+			final PackFile p = packs.get(i);
+			int j = i - 1;
+			for (; 0 <= j && c < counts[j]; j--) {
+				counts[j + 1] = counts[j];
+				packs.set(j + 1, packs.get(j));
+			}
+			counts[j + 1] = c;
+			packs.set(j + 1, p);
+		}
+	}
+
+	private boolean addObjects(final PackWriter pw,
+			final List<PackFile> rollUp, final List<ObjectId> loose,
+			final ProgressMonitor monitor) throws IOException {
+		final WindowCursor curs = new WindowCursor(odb);
+		final RevWalk rw = new RevWalk(curs);
+		final Set<ObjectId> seen = new HashSet<ObjectId>();
+		final List<RevObject> objects = new ArrayList<RevObject>();
+		try {
+			monitor.beginTask(JGitText.get().countingObjects,
+					ProgressMonitor.UNKNOWN);
+			for (final PackFile p : rollUp) {
+				for (final PackIndex.MutableEntry e : p) {
+					final ObjectId id = e.toObjectId();
+					if (seen.add(id)) {
+						final int type = p.getObjectType(curs, e.getOffset());
+						objects.add(rw.lookupAny(id, type));
+						monitor.update(1);
+					}
+				}
+				if (monitor.isCancelled())
+					return false;
+			}
+			for (final ObjectId id : loose) {
+				if (seen.add(id)) {
+					final int type = curs.open(id).getType();
+					objects.add(rw.lookupAny(id, type));
+					monitor.update(1);
+				}
+			}
+			monitor.endTask();
+			if (monitor.isCancelled())
+				return false;
+
+			pw.preparePack(objects.iterator());
+			return true;
+		} finally {
+			rw.release();
+		}
+	}
+
+	private List<ObjectId> listLooseObjects() {
+		final List<ObjectId> ids = new ArrayList<ObjectId>();
+		final File[] fanout = odb.getDirectory().listFiles();
+		if (fanout == null)
+			return ids;
+		for (final File dir : fanout) {
+			final String d = dir.getName();
+			if (d.length() != 2 || !dir.isDirectory())
+				continue;
+			final String[] names = dir.list();
+			if (names == null)
+				continue;
+			for (final String n : names) {
+				if (n.length() != Constants.OBJECT_ID_STRING_LENGTH - 2)
+					continue;
+				try {
+					ids.add(ObjectId.fromString(d + n));
+				} catch (IllegalArgumentException notAnObject) {
+					continue;
+				}
+			}
+		}
+		return ids;
+	}
+
+	private void addIndexObjects(final Set<ObjectId> tips) throws IOException {
+		final DirCache dc = DirCache.read(repo.getIndexFile(), repo.getFS());
+		for (int i = 0; i < dc.getEntryCount(); i++) {
+			final DirCacheEntry e = dc.getEntry(i);
+			if (e.getRawMode() != FileMode.GITLINK.getBits())
+				tips.add(e.getObjectId());
+		}
+	}
+
+	private PackFile writePack(final Set<ObjectId> tips) throws IOException {
+		final PackWriter pw = newPackWriter();
+		try {
+			pw.preparePack(pm, tips, Collections.<ObjectId> emptySet());
+			return writePack(pw, pm, packConfig().isUseBitmaps());
+		} finally {
+			pw.release();
+		}
+	}
+
+	private PackConfig packConfig() {
+		return packConfig != null ? packConfig : new PackConfig(repo);
+	}
+
+	private PackWriter newPackWriter() {
+		final PackWriter pw = new PackWriter(packConfig(), repo
+				.newObjectReader());
+		pw.setDeltaBaseAsOffset(true);
+		return pw;
+	}
+
+	private PackFile writePack(final PackWriter pw,
+			final ProgressMonitor monitor, final boolean bitmaps)
+			throws IOException {
+		if (pw.getObjectsNumber() == 0)
+			return null;
+
+		final File packDir = new File(odb.getDirectory(), "pack");
+		File tmpPack = null, tmpIdx = null, tmpBitmap = null;
+		try {
+
+			final String name = "pack-" + pw.computeName().name();
+			final File finalPack = new File(packDir, name + ".pack");
+			final File finalIdx = new File(packDir, name + ".idx");
+			final File finalBitmap = new File(packDir, name + ".bitmap");
+			if (finalIdx.exists()) {
+				// The same set of objects is already packed.
+				for (final PackFile p : odb.getPacks())
+					if (p.getPackFile().equals(finalPack))
+						return p;
+			}
+
+			tmpPack = File.createTempFile("gc_", ".pack_tmp", packDir);
+			tmpIdx = new File(packDir, tmpPack.getName() + ".idx_tmp");
+			write(tmpPack, new Writer() {
+				public void write(OutputStream out) throws IOException {
+					pw.writePack(monitor, monitor, out);
+				}
+			});
+			write(tmpIdx, new Writer() {
+				public void write(OutputStream out) throws IOException {
+					pw.writeIndex(out);
+				}
+			});
+			if (bitmaps) {
+				tmpBitmap = new File(packDir, tmpPack.getName()
+						+ ".bitmap_tmp");
+				write(tmpBitmap, new Writer() {
+					public void write(OutputStream out) throws IOException {
+						pw.writeBitmapIndex(monitor, out);
+					}
+				});
+			}
+
+			// Readers only consider a pack once its index exists, so the
+			// index is moved in last to publish the pack atomically.
+			//
+			rename(tmpPack, finalPack, JGitText.get().cannotMovePackTo);
+			if (tmpBitmap != null)
+				rename(tmpBitmap, finalBitmap, JGitText.get().cannotMovePackTo);
+			rename(tmpIdx, finalIdx, JGitText.get().cannotMoveIndexTo);
+			odb.openPack(finalPack, finalIdx);
+
+			for (final PackFile p : odb.getPacks())
+				if (p.getPackFile().equals(finalPack))
+					return p;
+			return null;
+		} finally {
+			for (final File f : new File[] { tmpPack, tmpIdx, tmpBitmap })
+				if (f != null && f.exists() && !f.delete())
+					f.deleteOnExit();
+		}
+	}
+
+	private interface Writer {
+		void write(OutputStream out) throws IOException;
+	}
+
+	private static void write(final File file, final Writer w)
+			throws IOException {
+		final FileOutputStream fd = new FileOutputStream(file);
+		try {
+			final OutputStream out = new BufferedOutputStream(fd);
+			w.write(out);
+			out.flush();
+			fd.getChannel().force(true);
+		} finally {
+			fd.close();
+		}
+		file.setReadOnly();
+	}
+
+	private static void rename(final File src, final File dst,
+			final String errorMessage) throws IOException {
+		if (!src.renameTo(dst))
+			throw new IOException(MessageFormat.format(errorMessage, dst));
+	}
+
+	private void loosenUnreachable(final PackFile pack,
+			final List<PackFile> oldPacks, final long cutoff)
+			throws IOException {
+		final ObjectDirectoryInserter ins = (ObjectDirectoryInserter) odb
+				.newInserter();
+		final WindowCursor curs = new WindowCursor(odb);
+		try {
+			for (final PackFile p : oldPacks) {
+				final long mtime = p.getPackFile().lastModified();
+				if (mtime < cutoff)
+					continue;
+				if (pack != null && p.getPackFile().equals(pack.getPackFile()))
+					continue;
+
+				pm.beginTask(JGitText.get().loosenUnreachableObjects,
+						(int) p.getObjectCount());
+				for (final PackIndex.MutableEntry e : p) {
+					final ObjectId id = e.toObjectId();
+					if ((pack == null || !pack.hasObject(id))
+							&& !odb.fileFor(id).exists())
+						loosen(ins, curs, p, e.getOffset(), id, mtime);
+					pm.update(1);
+				}
+				pm.endTask();
+			}
+		} finally {
+			curs.release();
+			ins.release();
+		}
+	}
+
+	private void loosen(final ObjectDirectoryInserter ins,
+			final WindowCursor curs, final PackFile p, final long offset,
+			final AnyObjectId id, final long mtime) throws IOException {
+		final ObjectLoader ldr = p.get(curs, offset);
+		if (ldr == null)
+			return; // Corrupt in the old pack; nothing can be saved.
+		final ObjectStream in = ldr.openStream();
+		try {
+			ins.insert(ldr.getType(), ldr.getSize(), in, true);
+		} finally {
+			in.close();
+		}
+		odb.fileFor(id).setLastModified(mtime);
+	}
+
+	private void deletePack(final PackFile p) {
+		odb.removePack(p);
+		final File packFile = p.getPackFile();
+		final String base = packFile.getName().substring(0,
+				packFile.getName().length() - ".pack".length());
+		final File dir = packFile.getParentFile();
+
+		// Remove the index first so the pack stops being visible.
+		//
+		for (final String ext : new String[] { ".idx", ".pack", ".bitmap" }) {
+			final File f = new File(dir, base + ext);
+			if (f.exists() && !f.delete())
+				f.deleteOnExit();
+		}
+	}
+
+	private void pruneLoose(final PackFile pack, final long cutoff)
+			throws IOException {
+		final List<ObjectId> loose = listLooseObjects();
+		pm.beginTask(JGitText.get().pruneLooseObjects, loose.size());
+		for (final ObjectId id : loose) {
+			final File f = odb.fileFor(id);
+			if ((pack != null && pack.hasObject(id))
+					|| f.lastModified() < cutoff) {
+				f.delete();
+				f.getParentFile().delete(); // Only succeeds if now empty.
+			}
+			pm.update(1);
+		}
+		pm.endTask();
+	}
+
+	private boolean isKept(final PackFile p) {
+		final File packFile = p.getPackFile();
+		final String n = packFile.getName();
+		return new File(packFile.getParentFile(), n.substring(0,
+				n.length() - ".pack".length())
+				+ ".keep").exists();
+	}
+
+	private static long cutoff(final Date date, final long defaultAge) {
+		if (date != null)
+			return date.getTime();
+		return System.currentTimeMillis() - defaultAge;
+	}
+
+	private static void listFiles(final File dir, final List<File> out) {
+		final File[] entries = dir.listFiles();
+		if (entries == null)
+			return;
+		for (final File f : entries) {
+			if (f.isDirectory())
+				listFiles(f, out);
+			else if (f.isFile() && !f.getName().endsWith(LockFile.SUFFIX))
+				out.add(f);
+		}
+	}
+
+	/**
+	 * Count the objects and references of the repository.
+	 *
+	 * @return the current statistics.
+	 * @throws IOException
+	 *             a pack index or the references could not be read.
+	 */
+	public RepoStatistics getStatistics() throws IOException {
+		final RepoStatistics s = new RepoStatistics();
+		for (final PackFile p : odb.getPacks()) {
+			s.numberOfPackFiles++;
+			s.numberOfPackedObjects += p.getObjectCount();
+		}
+
+		final File[] fanout = odb.getDirectory().listFiles();
+		if (fanout != null) {
+			for (final File dir : fanout) {
+				if (dir.getName().length() != 2 || !dir.isDirectory())
+					continue;
+				final String[] names = dir.list();
+				if (names != null)
+					s.numberOfLooseObjects += names.length;
+			}
+		}
+
+		for (final Ref r : repo.getRefDatabase().getRefs(Constants.R_REFS)
+				.values()) {
+			if (r.getStorage() == Ref.Storage.PACKED)
+				s.numberOfPackedRefs++;
+			else if (r.getStorage().isLoose())
+				s.numberOfLooseRefs++;
+		}
+		return s;
+	}
+
+	private static class DeadlineMonitor implements ProgressMonitor {
+		private final ProgressMonitor pm;
+
+		private final long deadline;
+
+		DeadlineMonitor(final ProgressMonitor pm, final long deadline) {
+			this.pm = pm;
+			this.deadline = deadline;
+		}
+
+		public void start(int totalTasks) {
+			pm.start(totalTasks);
+		}
+
+		public void beginTask(String title, int totalWork) {
+			pm.beginTask(title, totalWork);
+		}
+
+		public void update(int completed) {
+			pm.update(completed);
+		}
+
+		public void endTask() {
+			pm.endTask();
+		}
+
+		public boolean isCancelled() {
+			return pm.isCancelled() || deadline < System.currentTimeMillis();
+		}
+	}
+
+	/** Counts of objects and references in a repository. */
+	public static class RepoStatistics {
+		/** Number of pack files. */
+		public int numberOfPackFiles;
+
+		/** Number of objects stored in pack files, counting duplicates. */
+		public long numberOfPackedObjects;
+
+		/** Number of loose objects. */
+		public long numberOfLooseObjects;
+
+		/** Number of references stored in <code>packed-refs</code> only. */
+		public int numberOfPackedRefs;
+
+		/** Number of references stored as loose files. */
+		public int numberOfLooseRefs;
+
+		@Override
+		public String toString() {
+			return "RepoStatistics[packs=" + numberOfPackFiles
+					+ ", packedObjects=" + numberOfPackedObjects
+					+ ", looseObjects=" + numberOfLooseObjects
+					+ ", packedRefs=" + numberOfPackedRefs + ", looseRefs="
+					+ numberOfLooseRefs + "]";
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * An index of the objects in several packs, in {@code objects/pack/multi-pack-index}.
+ * <p>
+ * The file uses the same layout as C Git. A header holding the signature
+ * {@code MIDX}, the version, the hash version, the number of chunks and the
+ * number of packs is followed by a table of chunk identifiers and offsets.
+ * The chunks hold the sorted names of the covered pack indexes, a 256 entry
+ * fan-out table of cumulative object counts by first byte, the sorted object
+ * names, and for each object the position of its pack within the name list
+ * and its offset within that pack. Offsets which do not fit in 31 bits refer
+ * to an optional table of 64 bit offsets. Each object is listed only once,
+ * even if several packs contain it. The file ends with a SHA-1 checksum of
+ * all preceding bytes, which like C Git is not verified when reading.
+ * <p>
+ * The whole file is held in memory once loaded.
+ */
+class MultiPackIndex {
+	static final byte[] SIGNATURE = { 'M', 'I', 'D', 'X' };
+
+	static final int VERSION = 1;
+
+	static final int OID_VERSION_SHA1 = 1;
+
+	static final int CHUNK_PACK_NAMES = 0x504e414d; // "PNAM"
+
+	static final int CHUNK_OID_FANOUT = 0x4f494446; // "OIDF"
+
+	static final int CHUNK_OID_LOOKUP = 0x4f49444c; // "OIDL"
+
+	static final int CHUNK_OBJECT_OFFSETS = 0x4f4f4646; // "OOFF"
+
+	static final int CHUNK_LARGE_OFFSETS = 0x4c4f4646; // "LOFF"
+
+	/** Set on a 32 bit offset to index the large offset table instead. */
+	static final long LARGE_OFFSET_NEEDED = 0x80000000L;
+
+	static final int HEADER_LENGTH = 12;
+
+	static final int CHUNK_LOOKUP_WIDTH = 12;
+
+	static final int FANOUT_LENGTH = 256 * 4;
+
+	/**
+	 * Read a multi-pack index file.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @return the index.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file could not be read, or is corrupt.
+	 */
+	static MultiPackIndex open(final File file) throws IOException {
+		final byte[] buf = IO.readFully(file);
+		try {
+			return new MultiPackIndex(buf);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			final IOException err = new IOException(MessageFormat.format(
+					JGitText.get().corruptMultiPackIndex, file.getPath()));
+			err.initCause(e);
+			throw err;
+		} catch (IllegalArgumentException e) {
+			final IOException err = new IOException(MessageFormat.format(
+					JGitText.get().corruptMultiPackIndex, file.getPath()));
+			err.initCause(e);
+			throw err;
+		}
+	}
+
+	private final byte[] buf;
+
+	private final String[] packNames;
+
+	private final int count;
+
+	private final int fanoutOffset;
+
+	private final int idOffset;
+
+	private final int objectOffset;
+
+	private final int largeOffset;
+
+	private MultiPackIndex(final byte[] buf) throws IOException {
+		this.buf = buf;
+
+		final int end = buf.length - Constants.OBJECT_ID_LENGTH;
+		if (end < HEADER_LENGTH)
+			throw new IllegalArgumentException();
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (buf[i] != SIGNATURE[i])
+				throw new IllegalArgumentException();
+		}
+		if (buf[4] != VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedMultiPackIndexVersion,
+					Integer.valueOf(buf[4] & 0xff)));
+		if (buf[5] != OID_VERSION_SHA1)
+			throw new IllegalArgumentException();
+		final int chunks = buf[6] & 0xff;
+		if (buf[7] != 0)
+			throw new IllegalArgumentException(); // no base indexes
+		final int packCount = NB.decodeInt32(buf, 8);
+		if (packCount < 0)
+			throw new IllegalArgumentException();
+
+		int names = -1, fanout = -1, ids = -1, offsets = -1, large = -1;
+		for (int i = 0; i < chunks; i++) {
+			final int p = HEADER_LENGTH + i * CHUNK_LOOKUP_WIDTH;
+			final long start = NB.decodeUInt64(buf, p + 4);
+			if (start < 0 || end < start)
+				throw new IllegalArgumentException();
+			switch (NB.decodeInt32(buf, p)) {
+			case CHUNK_PACK_NAMES:
+				names = (int) start;
+				break;
+			case CHUNK_OID_FANOUT:
+				fanout = (int) start;
+				break;
+			case CHUNK_OID_LOOKUP:
+				ids = (int) start;
+				break;
+			case CHUNK_OBJECT_OFFSETS:
+				offsets = (int) start;
+				break;
+			case CHUNK_LARGE_OFFSETS:
+				large = (int) start;
+				break;
+			default:
+				// Chunks we do not understand are optional.
+			}
+		}
+		if (names < 0 || fanout < 0 || ids < 0 || offsets < 0)
+			throw new IllegalArgumentException();
+
+		packNames = new String[packCount];
+		int ptr = names;
+		for (int i = 0; i < packCount; i++) {
+			final int nul = RawParseUtils.next(buf, ptr, '\0');
+			if (end < nul)
+				throw new IllegalArgumentException();
+			packNames[i] = RawParseUtils.decode(Constants.CHARSET, buf, ptr,
+					nul - 1);
+			ptr = nul;
+		}
+
+		fanoutOffset = fanout;
+		idOffset = ids;
+		objectOffset = offsets;
+		largeOffset = large;
+		count = NB.decodeInt32(buf, fanoutOffset + 255 * 4);
+		if (count < 0
+				|| end < fanoutOffset + FANOUT_LENGTH
+				|| end < idOffset + (long) count * Constants.OBJECT_ID_LENGTH
+				|| end < objectOffset + (long) count * 8)
+			throw new IllegalArgumentException();
+	}
+
+	/** @return number of packs covered by this index. */
+	int getPackCount() {
+		return packNames.length;
+	}
+
+	/**
+	 * @param packId
+	 *            position of the pack, as returned by {@link #getPackId(int)}.
+	 * @return file name of the pack's index, for example
+	 *         {@code pack-1234...abcd.idx}.
+	 */
+	String getPackName(final int packId) {
+		return packNames[packId];
+	}
+
+	/** @return number of distinct objects in this index. */
+	int getObjectCount() {
+		return count;
+	}
+
+	/**
+	 * Locate an object.
+	 *
+	 * @param id
+	 *            the object to find.
+	 * @return position of the object; -1 if the index does not contain it.
+	 */
+	int find(final AnyObjectId id) {
+		final int levelOne = id.getFirstByte();
+		int low = levelOne > 0 ? fanout(levelOne - 1) : 0;
+		int high = fanout(levelOne);
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = id.compareTo(buf, idOffset + mid
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param pos
+	 *            position of the object.
+	 * @return name of the object.
+	 */
+	ObjectId getObjectId(final int pos) {
+		return ObjectId.fromRaw(buf, idOffset + pos * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * @param pos
+	 *            position of the object.
+	 * @return position of the pack holding the object, in the pack name list.
+	 */
+	int getPackId(final int pos) {
+		return NB.decodeInt32(buf, objectOffset + pos * 8);
+	}
+
+	/**
+	 * @param pos
+	 *            position of the object.
+	 * @return offset of the object within its pack.
+	 */
+	long getOffset(final int pos) {
+		final long ofs = NB.decodeUInt32(buf, objectOffset + pos * 8 + 4);
+		if (0 <= largeOffset && (ofs & LARGE_OFFSET_NEEDED) != 0) {
+			final int i = (int) (ofs & ~LARGE_OFFSET_NEEDED);
+			return NB.decodeUInt64(buf, largeOffset + i * 8);
+		}
+		return ofs;
+	}
+
+	private int fanout(final int levelOne) {
+		return NB.decodeInt32(buf, fanoutOffset + levelOne * 4);
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates a {@link MultiPackIndex} covering a set of packs.
+ * <p>
+ * Objects stored in more than one pack are recorded against the first pack
+ * supplied that contains them, so callers should list the preferred (usually
+ * the newest) packs first.
+ */
+class MultiPackIndexWriter {
+	private final PackFile[] packs;
+
+	/**
+	 * Create a new writer.
+	 *
+	 * @param packs
+	 *            packs to cover, in order of preference.
+	 */
+	MultiPackIndexWriter(final PackFile[] packs) {
+		this.packs = packs;
+	}
+
+	/**
+	 * Compute the index and write it.
+	 *
+	 * @param dst
+	 *            stream to write the index to. The caller is responsible for
+	 *            closing the stream.
+	 * @param pm
+	 *            progress of the object enumeration, may be null.
+	 * @return number of objects written.
+	 * @throws IOException
+	 *             a pack index could not be read, or the stream could not be
+	 *             written.
+	 */
+	int write(final OutputStream dst, ProgressMonitor pm) throws IOException {
+		if (pm == null)
+			pm = NullProgressMonitor.INSTANCE;
+
+		// Pack identifiers are positions in the sorted list of names.
+		final String[] names = new String[packs.length];
+		for (int i = 0; i < packs.length; i++)
+			names[i] = indexName(packs[i]);
+		final String[] sortedNames = names.clone();
+		Arrays.sort(sortedNames);
+		final int[] packId = new int[packs.length];
+		for (int i = 0; i < packs.length; i++)
+			packId[i] = Arrays.binarySearch(sortedNames, names[i]);
+
+		pm.beginTask(JGitText.get().writingMultiPackIndex, packs.length);
+		final ObjectIdSubclassMap<Entry> objects = new ObjectIdSubclassMap<Entry>();
+		for (int i = 0; i < packs.length; i++) {
+			for (final PackIndex.MutableEntry me : packs[i]) {
+				me.ensureId();
+				if (!objects.contains(me.idBuffer))
+					objects.add(new Entry(me.idBuffer, packId[i], me.offset));
+			}
+			pm.update(1);
+		}
+		pm.endTask();
+
+		final List<Entry> sorted = new ArrayList<Entry>(objects.size());
+		for (final Entry e : objects)
+			sorted.add(e);
+		Collections.sort(sorted);
+
+		writeIndex(dst, sortedNames, sorted);
+		return sorted.size();
+	}
+
+	private static String indexName(final PackFile pack) {
+		final String name = pack.getPackFile().getName();
+		return name.substring(0, name.length() - ".pack".length()) + ".idx";
+	}
+
+	private static void writeIndex(final OutputStream dst,
+			final String[] names, final List<Entry> sorted) throws IOException {
+		final byte[] nameChunk = encodeNames(names);
+
+		int largeCount = 0;
+		for (final Entry e : sorted) {
+			if (needsLargeOffset(e.offset))
+				largeCount++;
+		}
+
+		final int chunks = largeCount > 0 ? 5 : 4;
+		final int[] chunkIds = new int[chunks];
+		final long[] chunkSizes = new long[chunks];
+		chunkIds[0] = MultiPackIndex.CHUNK_PACK_NAMES;
+		chunkSizes[0] = nameChunk.length;
+		chunkIds[1] = MultiPackIndex.CHUNK_OID_FANOUT;
+		chunkSizes[1] = MultiPackIndex.FANOUT_LENGTH;
+		chunkIds[2] = MultiPackIndex.CHUNK_OID_LOOKUP;
+		chunkSizes[2] = (long) sorted.size() * Constants.OBJECT_ID_LENGTH;
+		chunkIds[3] = MultiPackIndex.CHUNK_OBJECT_OFFSETS;
+		chunkSizes[3] = (long) sorted.size() * 8;
+		if (largeCount > 0) {
+			chunkIds[4] = MultiPackIndex.CHUNK_LARGE_OFFSETS;
+			chunkSizes[4] = (long) largeCount * 8;
+		}
+
+		final MessageDigest md = Constants.newMessageDigest();
+		final DigestOutputStream out = new DigestOutputStream(
+				new BufferedOutputStream(dst), md);
+		final byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+
+		out.write(MultiPackIndex.SIGNATURE);
+		buf[0] = MultiPackIndex.VERSION;
+		buf[1] = MultiPackIndex.OID_VERSION_SHA1;
+		buf[2] = (byte) chunks;
+		buf[3] = 0; // no base indexes
+		NB.encodeInt32(buf, 4, names.length);
+		out.write(buf, 0, 8);
+
+		long pos = MultiPackIndex.HEADER_LENGTH + (chunks + 1)
+				* MultiPackIndex.CHUNK_LOOKUP_WIDTH;
+		for (int i = 0; i <= chunks; i++) {
+			NB.encodeInt32(buf, 0, i < chunks ? chunkIds[i] : 0);
+			NB.encodeInt64(buf, 4, pos);
+			out.write(buf, 0, MultiPackIndex.CHUNK_LOOKUP_WIDTH);
+			if (i < chunks)
+				pos += chunkSizes[i];
+		}
+
+		out.write(nameChunk);
+
+		final int[] fanout = new int[256];
+		for (final Entry e : sorted)
+			fanout[e.getFirstByte()]++;
+		for (int i = 1; i < 256; i++)
+			fanout[i] += fanout[i - 1];
+		for (int i = 0; i < 256; i++) {
+			NB.encodeInt32(buf, 0, fanout[i]);
+			out.write(buf, 0, 4);
+		}
+
+		for (final Entry e : sorted) {
+			e.copyRawTo(buf, 0);
+			out.write(buf, 0, Constants.OBJECT_ID_LENGTH);
+		}
+
+		int large = 0;
+		for (final Entry e : sorted) {
+			NB.encodeInt32(buf, 0, e.packId);
+			if (needsLargeOffset(e.offset))
+				NB.encodeInt32(buf, 4,
+						(int) (MultiPackIndex.LARGE_OFFSET_NEEDED | large++));
+			else
+				NB.encodeInt32(buf, 4, (int) e.offset);
+			out.write(buf, 0, 8);
+		}
+
+		for (final Entry e : sorted) {
+			if (needsLargeOffset(e.offset)) {
+				NB.encodeInt64(buf, 0, e.offset);
+				out.write(buf, 0, 8);
+			}
+		}
+
+		out.on(false);
+		out.write(md.digest());
+		out.flush();
+	}
+
+	private static byte[] encodeNames(final String[] names) {
+		int len = 0;
+		final byte[][] raw = new byte[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			raw[i] = Constants.encode(names[i]);
+			len += raw[i].length + 1;
+		}
+		final byte[] r = new byte[(len + 3) & ~3];
+		int ptr = 0;
+		for (final byte[] n : raw) {
+			System.arraycopy(n, 0, r, ptr, n.length);
+			ptr += n.length + 1;
+		}
+		return r;
+	}
+
+	private static boolean needsLargeOffset(final long offset) {
+		return (offset & ~0x7fffffffL) != 0;
+	}
+
+	private static final class Entry extends ObjectId {
+		final int packId;
+
+		final long offset;
+
+		Entry(final AnyObjectId id, final int packId, final long offset) {
+			super(id);
+			this.packId = packId;
+			this.offset = offset;
+		}
+	}
+}
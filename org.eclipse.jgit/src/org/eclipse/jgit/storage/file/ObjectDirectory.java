@@ -43,12 +43,14 @@
 
 package org.eclipse.jgit.storage.file;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -66,17 +68,22 @@
 import org.eclipse.jgit.events.ConfigChangedEvent;
 import org.eclipse.jgit.events.ConfigChangedListener;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.lib.RepositoryCache.FileKey;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackWriter;
 import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
 
 /**
  * Traditional file system based {@link ObjectDatabase}.
@@ -100,6 +107,15 @@ public class ObjectDirectory extends FileObjectDatabase implements
 		ConfigChangedListener {
 	private static final PackList NO_PACKS = new PackList(-1, -1, new PackFile[0]);
 
+	private static final CommitGraphSnapshot NO_COMMIT_GRAPH = new CommitGraphSnapshot(
+			null, 0, 0);
+
+	private static final ShallowSnapshot NO_SHALLOW = new ShallowSnapshot(
+			Collections.<ObjectId> emptySet(), 0, 0);
+
+	private static final MultiPackIndexSnapshot NO_MULTI_PACK_INDEX = new MultiPackIndexSnapshot(
+			null, null, 0, 0);
+
 	private final Config config;
 
 	private final File objects;
@@ -110,8 +126,20 @@ public class ObjectDirectory extends FileObjectDatabase implements
 
 	private final File alternatesFile;
 
+	private final File commitGraphFile;
+
+	private final File multiPackIndexFile;
+
 	private final AtomicReference<PackList> packList;
 
+	private final AtomicReference<CommitGraphSnapshot> commitGraph;
+
+	private final AtomicReference<MultiPackIndexSnapshot> multiPackIndex;
+
+	private final File shallowFile;
+
+	private final AtomicReference<ShallowSnapshot> shallowCommits;
+
 	private final FS fs;
 
 	private final AtomicReference<AlternateHandle[]> alternates;
@@ -135,12 +163,43 @@ public class ObjectDirectory extends FileObjectDatabase implements
 	 */
 	public ObjectDirectory(final Config cfg, final File dir,
 			File[] alternatePaths, FS fs) throws IOException {
+		this(cfg, dir, alternatePaths, fs, null);
+	}
+
+	/**
+	 * Initialize a reference to an on-disk object directory.
+	 *
+	 * @param cfg
+	 *            configuration this directory consults for write settings.
+	 * @param dir
+	 *            the location of the <code>objects</code> directory.
+	 * @param alternatePaths
+	 *            a list of alternate object directories
+	 * @param fs
+	 *            the file system abstraction which will be necessary to perform
+	 *            certain file system operations.
+	 * @param shallowFile
+	 *            file listing the shallow commits of the repository, usually
+	 *            {@code $GIT_DIR/shallow}. May be null if the directory is
+	 *            never shallow.
+	 * @throws IOException
+	 *             an alternate object cannot be opened.
+	 */
+	public ObjectDirectory(final Config cfg, final File dir,
+			File[] alternatePaths, FS fs, File shallowFile) throws IOException {
 		config = cfg;
 		objects = dir;
 		infoDirectory = new File(objects, "info");
 		packDirectory = new File(objects, "pack");
 		alternatesFile = new File(infoDirectory, "alternates");
+		commitGraphFile = new File(infoDirectory, "commit-graph");
 		packList = new AtomicReference<PackList>(NO_PACKS);
+		multiPackIndexFile = new File(packDirectory, "multi-pack-index");
+		commitGraph = new AtomicReference<CommitGraphSnapshot>(NO_COMMIT_GRAPH);
+		multiPackIndex = new AtomicReference<MultiPackIndexSnapshot>(
+				NO_MULTI_PACK_INDEX);
+		this.shallowFile = shallowFile;
+		shallowCommits = new AtomicReference<ShallowSnapshot>(NO_SHALLOW);
 		this.fs = fs;
 
 		alternates = new AtomicReference<AlternateHandle[]>();
@@ -185,6 +244,19 @@ public ObjectInserter newInserter() {
 		return new ObjectDirectoryInserter(this, config);
 	}
 
+	/**
+	 * Create an inserter that writes all of its objects into one new pack.
+	 * <p>
+	 * This is more efficient than {@link #newInserter()} when many objects are
+	 * inserted at once, such as during an import, as it avoids creating a loose
+	 * file per object.
+	 *
+	 * @return a new pack inserter.
+	 */
+	public PackInserter newPackInserter() {
+		return new PackInserter(this, config);
+	}
+
 	@Override
 	public void close() {
 		final PackList packs = packList.get();
@@ -230,6 +302,229 @@ public Collection<PackFile> getPacks() {
 		return Collections.unmodifiableCollection(Arrays.asList(packs));
 	}
 
+	@Override
+	CommitGraph getCommitGraph() {
+		final long size = commitGraphFile.length();
+		final long mtime = size != 0 ? commitGraphFile.lastModified() : 0;
+
+		final CommitGraphSnapshot cur = commitGraph.get();
+		if (size == cur.lastSize && mtime == cur.lastModified)
+			return cur.graph;
+
+		CommitGraphFile graph = null;
+		if (size != 0) {
+			try {
+				graph = CommitGraphFile.open(commitGraphFile);
+			} catch (IOException e) {
+				// A damaged graph only costs us the fast path, commits
+				// are parsed from their objects instead.
+			}
+		}
+		commitGraph.compareAndSet(cur, new CommitGraphSnapshot(graph, size,
+				mtime));
+		return graph;
+	}
+
+	/**
+	 * Write the commit graph, extending the existing graph if there is one.
+	 * <p>
+	 * Commits already described by the current commit graph are kept, and
+	 * commits reachable from {@code tips} are added to it. The new graph
+	 * atomically replaces the old one.
+	 *
+	 * @param tips
+	 *            commits to include, along with all of their ancestors.
+	 * @param monitor
+	 *            progress of the commit enumeration, may be null.
+	 * @throws IOException
+	 *             a commit could not be read, or the graph could not be
+	 *             written.
+	 */
+	public void updateCommitGraph(final Collection<? extends ObjectId> tips,
+			final ProgressMonitor monitor) throws IOException {
+		writeCommitGraph(tips, monitor, true);
+	}
+
+	/** @return true if a multi-pack index file is present. */
+	boolean hasMultiPackIndex() {
+		return multiPackIndexFile.exists();
+	}
+
+	/** @return true if a commit graph file is present. */
+	boolean hasCommitGraph() {
+		return commitGraphFile.exists();
+	}
+
+	void writeCommitGraph(final Collection<? extends ObjectId> tips,
+			final ProgressMonitor monitor, final boolean keepExisting)
+			throws IOException {
+		final LockFile lck = new LockFile(commitGraphFile, fs);
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, commitGraphFile));
+		final WindowCursor curs = new WindowCursor(this);
+		try {
+			final CommitGraphWriter w = new CommitGraphWriter(curs);
+			if (keepExisting)
+				w.setBase(getCommitGraph());
+			final OutputStream out = lck.getOutputStream();
+			try {
+				w.write(out, tips, monitor);
+			} finally {
+				out.close();
+			}
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, commitGraphFile));
+		} finally {
+			curs.release();
+			lck.unlock();
+		}
+	}
+
+	@Override
+	Set<ObjectId> getShallowCommits() throws IOException {
+		if (shallowFile == null)
+			return NO_SHALLOW.commits;
+
+		final long size = shallowFile.length();
+		final long mtime = size != 0 ? shallowFile.lastModified() : 0;
+
+		final ShallowSnapshot cur = shallowCommits.get();
+		if (size == cur.lastSize && mtime == cur.lastModified)
+			return cur.commits;
+
+		final Set<ObjectId> commits = size != 0 ? readShallowFile()
+				: NO_SHALLOW.commits;
+		shallowCommits.compareAndSet(cur, new ShallowSnapshot(commits, size,
+				mtime));
+		return commits;
+	}
+
+	private Set<ObjectId> readShallowFile() throws IOException {
+		final byte[] buf;
+		try {
+			buf = IO.readFully(shallowFile);
+		} catch (FileNotFoundException noFile) {
+			return NO_SHALLOW.commits;
+		}
+
+		final Set<ObjectId> commits = new HashSet<ObjectId>();
+		for (int ptr = 0; ptr < buf.length;) {
+			final int end = RawParseUtils.nextLF(buf, ptr);
+			final int eol = buf[end - 1] == '\n' ? end - 1 : end;
+			if (eol - ptr != Constants.OBJECT_ID_STRING_LENGTH)
+				throw new IOException(MessageFormat.format(
+						JGitText.get().badShallowLine, RawParseUtils.decode(
+								buf, ptr, eol)));
+			try {
+				commits.add(ObjectId.fromString(buf, ptr));
+			} catch (IllegalArgumentException notHex) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().badShallowLine, RawParseUtils.decode(
+								buf, ptr, eol)));
+			}
+			ptr = end;
+		}
+		return Collections.unmodifiableSet(commits);
+	}
+
+	/**
+	 * Replace the list of shallow commits.
+	 * <p>
+	 * Shallow commits are the boundary of a history obtained with a limited
+	 * depth; their parents are not present in the repository. An empty
+	 * collection makes the repository complete again by removing the list.
+	 *
+	 * @param commits
+	 *            the new shallow commits.
+	 * @throws IOException
+	 *             the list could not be written.
+	 */
+	public void setShallowCommits(final Collection<? extends ObjectId> commits)
+			throws IOException {
+		if (shallowFile == null)
+			throw new IllegalStateException(
+					JGitText.get().repositoryIsRequired);
+
+		final LockFile lck = new LockFile(shallowFile, fs);
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, shallowFile));
+		try {
+			if (commits.isEmpty()) {
+				if (!shallowFile.delete() && shallowFile.exists())
+					throw new IOException(MessageFormat.format(
+							JGitText.get().cannotDeleteFile, shallowFile));
+			} else {
+				final List<ObjectId> sorted = new ArrayList<ObjectId>(commits);
+				Collections.sort(sorted);
+				final OutputStream out = new BufferedOutputStream(lck
+						.getOutputStream());
+				try {
+					for (final ObjectId id : sorted) {
+						id.copyTo(out);
+						out.write('\n');
+					}
+				} finally {
+					out.close();
+				}
+				if (!lck.commit())
+					throw new IOException(MessageFormat.format(
+							JGitText.get().cannotCommitWriteTo, shallowFile));
+			}
+		} finally {
+			lck.unlock();
+		}
+
+		// A rewrite of the same length may keep the modification time.
+		shallowCommits.set(NO_SHALLOW);
+	}
+
+	/**
+	 * Write a multi-pack index covering every pack in this directory.
+	 * <p>
+	 * The index maps each object to the pack and offset it is stored at, so
+	 * objects can be located with a single search no matter how many packs
+	 * exist. Packs added after the index was written are still searched
+	 * individually until the index is updated again. The new index atomically
+	 * replaces the old one.
+	 *
+	 * @param monitor
+	 *            progress of the pack enumeration, may be null.
+	 * @throws IOException
+	 *             a pack index could not be read, or the multi-pack index
+	 *             could not be written.
+	 */
+	public void updateMultiPackIndex(final ProgressMonitor monitor)
+			throws IOException {
+		final PackList pList = scanPacks(packList.get());
+		final LockFile lck = new LockFile(multiPackIndexFile, fs);
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, multiPackIndexFile));
+		try {
+			final MultiPackIndexWriter w = new MultiPackIndexWriter(
+					pList.packs);
+			final OutputStream out = lck.getOutputStream();
+			try {
+				w.write(out, monitor);
+			} finally {
+				out.close();
+			}
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo,
+						multiPackIndexFile));
+		} finally {
+			lck.unlock();
+		}
+
+		// The new file may have the same size and modification time as
+		// the one it replaced, so don't trust the cached snapshot.
+		multiPackIndex.set(NO_MULTI_PACK_INDEX);
+	}
+
 	/**
 	 * Add a single existing pack to the list of available pack files.
 	 *
@@ -263,7 +558,17 @@ public String toString() {
 	}
 
 	boolean hasObject1(final AnyObjectId objectId) {
-		for (final PackFile p : packList.get().packs) {
+		final PackList pList = packList.get();
+		final MultiPackIndexSnapshot midx = getMultiPackIndex(pList);
+		PackFile[] search = midx.uncovered;
+		final int pos = midx.find(objectId);
+		if (0 <= pos) {
+			if (!midx.pack(pos).isCorrupt(midx.offset(pos)))
+				return true;
+			search = pList.packs;
+		}
+
+		for (final PackFile p : search) {
 			try {
 				if (p.hasObject(objectId)) {
 					return true;
@@ -284,7 +589,29 @@ ObjectLoader openObject1(final WindowCursor curs,
 			final AnyObjectId objectId) throws IOException {
 		PackList pList = packList.get();
 		SEARCH: for (;;) {
-			for (final PackFile p : pList.packs) {
+			final MultiPackIndexSnapshot midx = getMultiPackIndex(pList);
+			PackFile[] search = midx.uncovered;
+			final int pos = midx.find(objectId);
+			if (0 <= pos) {
+				final PackFile p = midx.pack(pos);
+				try {
+					final ObjectLoader ldr = p.get(curs, midx.offset(pos));
+					if (ldr != null)
+						return ldr;
+				} catch (PackMismatchException e) {
+					// Pack was modified; refresh the entire pack list.
+					//
+					pList = scanPacks(pList);
+					continue SEARCH;
+				} catch (IOException e) {
+					// Assume the pack is corrupted.
+					//
+					removePack(p);
+				}
+				search = pList.packs;
+			}
+
+			for (final PackFile p : search) {
 				try {
 					final ObjectLoader ldr = p.get(curs, objectId);
 					if (ldr != null)
@@ -304,11 +631,68 @@ ObjectLoader openObject1(final WindowCursor curs,
 		}
 	}
 
+	boolean findPacked1(final AnyObjectId objectId,
+			final PackedObjectLocation loc) {
+		final PackList pList = packList.get();
+		final MultiPackIndexSnapshot midx = getMultiPackIndex(pList);
+		PackFile[] search = midx.uncovered;
+		final int pos = midx.find(objectId);
+		if (0 <= pos) {
+			final PackFile p = midx.pack(pos);
+			final long offset = midx.offset(pos);
+			if (!p.isCorrupt(offset)) {
+				loc.pack = p;
+				loc.offset = offset;
+				return true;
+			}
+			search = pList.packs;
+		}
+
+		for (final PackFile p : search) {
+			try {
+				final long offset = p.findOffset(objectId);
+				if (0 < offset && !p.isCorrupt(offset)) {
+					loc.pack = p;
+					loc.offset = offset;
+					return true;
+				}
+			} catch (IOException e) {
+				// Only the index was read, so it is unreadable by this
+				// process and the pack is likewise not readable.
+				//
+				removePack(p);
+			}
+		}
+		return false;
+	}
+
 	long getObjectSize1(final WindowCursor curs, final AnyObjectId objectId)
 			throws IOException {
 		PackList pList = packList.get();
 		SEARCH: for (;;) {
-			for (final PackFile p : pList.packs) {
+			final MultiPackIndexSnapshot midx = getMultiPackIndex(pList);
+			PackFile[] search = midx.uncovered;
+			final int pos = midx.find(objectId);
+			if (0 <= pos) {
+				final PackFile p = midx.pack(pos);
+				final long offset = midx.offset(pos);
+				try {
+					if (!p.isCorrupt(offset))
+						return p.getObjectSize(curs, offset);
+				} catch (PackMismatchException e) {
+					// Pack was modified; refresh the entire pack list.
+					//
+					pList = scanPacks(pList);
+					continue SEARCH;
+				} catch (IOException e) {
+					// Assume the pack is corrupted.
+					//
+					removePack(p);
+				}
+				search = pList.packs;
+			}
+
+			for (final PackFile p : search) {
 				try {
 					long sz = p.getObjectSize(curs, objectId);
 					if (0 <= sz)
@@ -392,6 +776,30 @@ ObjectLoader openObject2(final WindowCursor curs,
 		}
 	}
 
+	private MultiPackIndexSnapshot getMultiPackIndex(final PackList pList) {
+		final MultiPackIndexSnapshot cur = multiPackIndex.get();
+		if (cur.packList == pList)
+			return cur;
+
+		final long size = multiPackIndexFile.length();
+		final long mtime = size != 0 ? multiPackIndexFile.lastModified() : 0;
+		MultiPackIndex index = null;
+		if (size == cur.lastSize && mtime == cur.lastModified)
+			index = cur.index;
+		else if (size != 0) {
+			try {
+				index = MultiPackIndex.open(multiPackIndexFile);
+			} catch (IOException e) {
+				// A damaged index only costs us the fast path, each
+				// pack's own index is searched instead.
+			}
+		}
+		final MultiPackIndexSnapshot n = new MultiPackIndexSnapshot(pList,
+				index, size, mtime);
+		multiPackIndex.compareAndSet(cur, n);
+		return n;
+	}
+
 	boolean tryAgain1() {
 		final PackList old = packList.get();
 		if (old.tryAgain(packDirectory.lastModified()))
@@ -424,7 +832,7 @@ private void insertPack(final PackFile pf) {
 		} while (!packList.compareAndSet(o, n));
 	}
 
-	private void removePack(final PackFile deadPack) {
+	void removePack(final PackFile deadPack) {
 		PackList o, n;
 		do {
 			o = packList.get();
@@ -690,4 +1098,107 @@ FileObjectDatabase newCachedFileObjectDatabase() {
 	int getStreamFileThreshold() {
 		return streamFileThreshold;
 	}
+
+	private static final class MultiPackIndexSnapshot {
+		final PackList packList;
+
+		/** The index, null if it is missing or does not match the packs. */
+		final MultiPackIndex index;
+
+		final long lastSize;
+
+		final long lastModified;
+
+		/** Packs of {@link #packList}, indexed by the index's pack ids. */
+		final PackFile[] packs;
+
+		/** Packs of {@link #packList} which the index does not cover. */
+		final PackFile[] uncovered;
+
+		MultiPackIndexSnapshot(final PackList pList, MultiPackIndex index,
+				final long size, final long mtime) {
+			final PackFile[] all = pList != null ? pList.packs : NO_PACKS.packs;
+			PackFile[] covered = null;
+			if (index != null) {
+				final Map<String, PackFile> byName = new HashMap<String, PackFile>();
+				for (final PackFile p : all)
+					byName.put(indexName(p), p);
+				covered = new PackFile[index.getPackCount()];
+				for (int i = 0; i < covered.length; i++) {
+					covered[i] = byName.remove(index.getPackName(i));
+					if (covered[i] == null) {
+						// A pack the index refers to is gone, the
+						// offsets of the others can't be trusted
+						// either.
+						index = null;
+						break;
+					}
+				}
+				if (index != null) {
+					final List<PackFile> rest = new ArrayList<PackFile>();
+					for (final PackFile p : all) {
+						if (byName.containsKey(indexName(p)))
+							rest.add(p);
+					}
+					this.uncovered = rest.toArray(new PackFile[rest.size()]);
+				} else
+					this.uncovered = all;
+			} else
+				this.uncovered = all;
+
+			this.packList = pList;
+			this.index = index;
+			this.lastSize = size;
+			this.lastModified = mtime;
+			this.packs = index != null ? covered : null;
+		}
+
+		private static String indexName(final PackFile p) {
+			final String name = p.getPackFile().getName();
+			return name.substring(0, name.length() - ".pack".length())
+					+ ".idx";
+		}
+
+		int find(final AnyObjectId id) {
+			return index != null ? index.find(id) : -1;
+		}
+
+		PackFile pack(final int pos) {
+			return packs[index.getPackId(pos)];
+		}
+
+		long offset(final int pos) {
+			return index.getOffset(pos);
+		}
+	}
+
+	private static final class ShallowSnapshot {
+		final Set<ObjectId> commits;
+
+		final long lastSize;
+
+		final long lastModified;
+
+		ShallowSnapshot(final Set<ObjectId> commits, final long size,
+				final long mtime) {
+			this.commits = commits;
+			this.lastSize = size;
+			this.lastModified = mtime;
+		}
+	}
+
+	private static final class CommitGraphSnapshot {
+		final CommitGraphFile graph;
+
+		final long lastSize;
+
+		final long lastModified;
+
+		CommitGraphSnapshot(final CommitGraphFile graph, final long size,
+				final long mtime) {
+			this.graph = graph;
+			this.lastSize = size;
+			this.lastModified = mtime;
+		}
+	}
 }
@@ -63,6 +63,7 @@
 import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 
 /** Creates loose objects in a {@link ObjectDirectory}. */
 class ObjectDirectoryInserter extends ObjectInserter {
@@ -80,10 +81,15 @@ class ObjectDirectoryInserter extends ObjectInserter {
 	@Override
 	public ObjectId insert(final int type, long len, final InputStream is)
 			throws IOException {
+		return insert(type, len, is, false);
+	}
+
+	ObjectId insert(final int type, long len, final InputStream is,
+			final boolean createDuplicate) throws IOException {
 		final MessageDigest md = digest();
 		final File tmp = toTemp(md, type, len, is);
 		final ObjectId id = ObjectId.fromRaw(md.digest());
-		if (db.has(id)) {
+		if (!createDuplicate && db.has(id)) {
 			// Object is already in the repository, remove temporary file.
 			//
 			tmp.delete();
@@ -116,6 +122,11 @@ public ObjectId insert(final int type, long len, final InputStream is)
 		throw new ObjectWritingException("Unable to create new object: " + dst);
 	}
 
+	@Override
+	public ObjectReader newReader() {
+		return db.newReader();
+	}
+
 	@Override
 	public void flush() throws IOException {
 		// Do nothing. Objects are immediately visible.
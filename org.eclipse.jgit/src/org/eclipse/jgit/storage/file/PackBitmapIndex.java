@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+
+/**
+ * Reachability bitmaps stored alongside a pack, in a <code>.bitmap</code> file.
+ * <p>
+ * Bit <i>n</i> of every bitmap in the index refers to the <i>n</i>th object of
+ * the pack in offset order. A commit's bitmap has a bit set for each object
+ * reachable from that commit, including the commit itself. In addition the
+ * index holds one bitmap per object type, so the type of any object can be
+ * determined without reading it from the pack.
+ * <p>
+ * The file format is:
+ *
+ * <pre>
+ * 'BITM'                 4 byte signature
+ * version                4 byte network order integer, currently 1
+ * pack checksum          20 bytes, trailer of the matching pack
+ * object count           4 byte network order integer
+ * type bitmaps           commits, trees, blobs, tags
+ * bitmap count           4 byte network order integer
+ * entries                20 byte commit id followed by its bitmap
+ * checksum               20 byte SHA-1 of all preceding data
+ * </pre>
+ *
+ * Each bitmap is written by {@link EWAHBitmap#writeTo(java.io.DataOutput)}.
+ *
+ * @see PackBitmapIndexWriter
+ */
+class PackBitmapIndex {
+	/** Magic signature at the start of every bitmap index file. */
+	static final byte[] SIGNATURE = { 'B', 'I', 'T', 'M' };
+
+	/** Version of the file format this implementation reads and writes. */
+	static final int VERSION = 1;
+
+	/**
+	 * Read an existing bitmap index file.
+	 *
+	 * @param file
+	 *            the <code>.bitmap</code> file to read.
+	 * @return the loaded index.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file could not be read, or is corrupt.
+	 */
+	static PackBitmapIndex open(final File file) throws IOException {
+		final FileInputStream fd = new FileInputStream(file);
+		try {
+			return new PackBitmapIndex(fd);
+		} catch (EOFException eof) {
+			final IOException err = new IOException(MessageFormat.format(
+					JGitText.get().corruptPackBitmapIndex, file.getPath()));
+			err.initCause(eof);
+			throw err;
+		} finally {
+			try {
+				fd.close();
+			} catch (IOException err2) {
+				// ignore
+			}
+		}
+	}
+
+	/** Checksum of the pack these bitmaps describe. */
+	final byte[] packChecksum;
+
+	private final int objectCount;
+
+	private final EWAHBitmap commits;
+
+	private final EWAHBitmap trees;
+
+	private final EWAHBitmap blobs;
+
+	private final EWAHBitmap tags;
+
+	private final ObjectIdSubclassMap<StoredBitmap> bitmaps;
+
+	private PackBitmapIndex(final FileInputStream fd) throws IOException {
+		final MessageDigest md = Constants.newMessageDigest();
+		final DataInputStream in = new DataInputStream(new DigestInputStream(
+				new BufferedInputStream(fd), md));
+
+		final byte[] sig = new byte[SIGNATURE.length];
+		in.readFully(sig);
+		if (!Arrays.equals(sig, SIGNATURE))
+			throw new IOException(MessageFormat.format(
+					JGitText.get().corruptPackBitmapIndex, ""));
+		final int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedPackBitmapIndexVersion, version));
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		in.readFully(packChecksum);
+		objectCount = in.readInt();
+
+		commits = EWAHBitmap.read(in);
+		trees = EWAHBitmap.read(in);
+		blobs = EWAHBitmap.read(in);
+		tags = EWAHBitmap.read(in);
+
+		final int cnt = in.readInt();
+		final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		bitmaps = new ObjectIdSubclassMap<StoredBitmap>();
+		for (int i = 0; i < cnt; i++) {
+			in.readFully(raw);
+			bitmaps.add(new StoredBitmap(ObjectId.fromRaw(raw), EWAHBitmap
+					.read(in)));
+		}
+
+		final byte[] actual = md.digest();
+		final byte[] expected = new byte[actual.length];
+		in.readFully(expected);
+		if (!Arrays.equals(actual, expected))
+			throw new IOException(MessageFormat.format(
+					JGitText.get().corruptPackBitmapIndex, ""));
+	}
+
+	/** @return number of objects in the pack the bitmaps describe. */
+	int getObjectCount() {
+		return objectCount;
+	}
+
+	/** @return number of commits with a stored bitmap. */
+	int getBitmapCount() {
+		return bitmaps.size();
+	}
+
+	/**
+	 * Get the reachability bitmap of a commit.
+	 *
+	 * @param id
+	 *            the commit.
+	 * @return the objects reachable from {@code id}; null if no bitmap was
+	 *         stored for it.
+	 */
+	EWAHBitmap getBitmap(final AnyObjectId id) {
+		final StoredBitmap b = bitmaps.get(id);
+		return b != null ? b.bitmap : null;
+	}
+
+	/**
+	 * Get the bitmap of all objects of one type.
+	 *
+	 * @param type
+	 *            one of the {@code Constants.OBJ_} object types.
+	 * @return bitmap of objects of {@code type}; null if the type is not valid
+	 *         in a pack.
+	 */
+	EWAHBitmap getTypeBitmap(final int type) {
+		switch (type) {
+		case Constants.OBJ_COMMIT:
+			return commits;
+		case Constants.OBJ_TREE:
+			return trees;
+		case Constants.OBJ_BLOB:
+			return blobs;
+		case Constants.OBJ_TAG:
+			return tags;
+		default:
+			return null;
+		}
+	}
+
+	private static final class StoredBitmap extends ObjectId {
+		final EWAHBitmap bitmap;
+
+		StoredBitmap(final AnyObjectId id, final EWAHBitmap bitmap) {
+			super(id);
+			this.bitmap = bitmap;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.ObjectToPack;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+/**
+ * Creates the reachability bitmaps read by {@link PackBitmapIndex}.
+ * <p>
+ * Bitmaps are stored for every commit named as a tip, and for every
+ * {@link #setCommitInterval(int) n-th} commit of the pack. Commits are
+ * processed oldest first, so the walk for each commit stops as soon as it
+ * reaches a previously selected commit and can reuse that commit's bitmap.
+ * <p>
+ * The writer can only be used once the pack has been written, as it needs the
+ * final offset of every object.
+ */
+public class PackBitmapIndexWriter {
+	private final ObjectReader reader;
+
+	private final List<ObjectToPack> objects;
+
+	private final byte[] packChecksum;
+
+	private int commitInterval = PackConfig.DEFAULT_BITMAP_COMMIT_INTERVAL;
+
+	/**
+	 * Create a new writer.
+	 *
+	 * @param reader
+	 *            reader to parse commits and trees from.
+	 * @param objects
+	 *            every object of the pack, with its offset set.
+	 * @param packChecksum
+	 *            checksum of the pack the objects were written to.
+	 */
+	public PackBitmapIndexWriter(final ObjectReader reader,
+			final List<ObjectToPack> objects, final byte[] packChecksum) {
+		this.reader = reader;
+		this.objects = new ArrayList<ObjectToPack>(objects);
+		this.packChecksum = packChecksum;
+
+		Collections.sort(this.objects, new Comparator<ObjectToPack>() {
+			public int compare(final ObjectToPack a, final ObjectToPack b) {
+				final long d = a.getOffset() - b.getOffset();
+				return d < 0 ? -1 : (d == 0 ? 0 : 1);
+			}
+		});
+	}
+
+	/**
+	 * @param interval
+	 *            number of commits between two commits with a stored bitmap,
+	 *            in addition to the tips. Must be at least 1.
+	 */
+	public void setCommitInterval(final int interval) {
+		commitInterval = Math.max(1, interval);
+	}
+
+	/**
+	 * Compute the bitmaps and write the index.
+	 *
+	 * @param dst
+	 *            stream to write the index to. The caller is responsible for
+	 *            closing the stream.
+	 * @param tips
+	 *            objects the pack was built from. Annotated tags are peeled to
+	 *            their commit. Tips not in the pack are ignored.
+	 * @param pm
+	 *            progress of the bitmap computation, may be null.
+	 * @throws IOException
+	 *             an object could not be read, or the stream could not be
+	 *             written.
+	 */
+	public void write(final OutputStream dst,
+			final Collection<? extends ObjectId> tips, ProgressMonitor pm)
+			throws IOException {
+		if (pm == null)
+			pm = NullProgressMonitor.INSTANCE;
+
+		final int cnt = objects.size();
+		final ObjectIdSubclassMap<Position> positions = new ObjectIdSubclassMap<Position>();
+		final BitSet[] types = new BitSet[Constants.OBJ_TAG + 1];
+		for (int t = Constants.OBJ_COMMIT; t <= Constants.OBJ_TAG; t++)
+			types[t] = new BitSet(cnt);
+		for (int pos = 0; pos < cnt; pos++) {
+			final ObjectToPack otp = objects.get(pos);
+			positions.add(new Position(otp, pos));
+			types[otp.getType()].set(pos);
+		}
+
+		final RevWalk rw = new RevWalk(reader);
+		final List<RevCommit> selected = select(rw, positions, types, tips);
+		final ObjectIdSubclassMap<Selected> bitmaps = new ObjectIdSubclassMap<Selected>();
+		final List<Selected> written = new ArrayList<Selected>(selected.size());
+		final BitmapWalker walker = new BitmapWalker(rw) {
+			@Override
+			int findPosition(final AnyObjectId id) {
+				final Position p = positions.get(id);
+				return p != null ? p.position : -1;
+			}
+
+			@Override
+			EWAHBitmap getBitmap(final AnyObjectId id) {
+				final Selected s = bitmaps.get(id);
+				return s != null ? s.bitmap : null;
+			}
+		};
+
+		pm.beginTask(JGitText.get().buildingBitmaps, selected.size());
+		for (final RevCommit c : selected) {
+			final BitSet reach = new BitSet(cnt);
+			if (walker.addReachable(reach, c)) {
+				final Selected s = new Selected(c, EWAHBitmap.compress(reach));
+				bitmaps.add(s);
+				written.add(s);
+			}
+			pm.update(1);
+		}
+		pm.endTask();
+
+		final MessageDigest md = Constants.newMessageDigest();
+		final DigestOutputStream digest = new DigestOutputStream(
+				new BufferedOutputStream(dst), md);
+		final DataOutputStream out = new DataOutputStream(digest);
+		out.write(PackBitmapIndex.SIGNATURE);
+		out.writeInt(PackBitmapIndex.VERSION);
+		out.write(packChecksum, 0, Constants.OBJECT_ID_LENGTH);
+		out.writeInt(cnt);
+		for (int t = Constants.OBJ_COMMIT; t <= Constants.OBJ_TAG; t++)
+			EWAHBitmap.compress(types[t]).writeTo(out);
+
+		final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		out.writeInt(written.size());
+		for (final Selected s : written) {
+			s.copyRawTo(raw, 0);
+			out.write(raw);
+			s.bitmap.writeTo(out);
+		}
+
+		digest.on(false);
+		out.write(md.digest());
+		out.flush();
+	}
+
+	private List<RevCommit> select(final RevWalk rw,
+			final ObjectIdSubclassMap<Position> positions,
+			final BitSet[] types, final Collection<? extends ObjectId> tips)
+			throws IOException {
+		final BitSet want = new BitSet(objects.size());
+		if (tips != null) {
+			for (final ObjectId id : tips) {
+				RevObject o;
+				try {
+					o = rw.peel(rw.parseAny(id));
+				} catch (MissingObjectException notFound) {
+					continue;
+				}
+				final Position p = positions.get(o);
+				if (p != null && o instanceof RevCommit)
+					want.set(p.position);
+			}
+		}
+
+		// PackWriter writes commits most recent first. Walk them backwards
+		// so ancestors are usually processed before their descendants.
+		//
+		final BitSet commits = types[Constants.OBJ_COMMIT];
+		final List<RevCommit> r = new ArrayList<RevCommit>();
+		int n = 0;
+		for (int pos = commits.length() - 1; 0 <= pos; pos--) {
+			if (!commits.get(pos))
+				continue;
+			if (want.get(pos) || n++ % commitInterval == 0)
+				r.add(rw.lookupCommit(objects.get(pos)));
+		}
+		return r;
+	}
+
+	private static final class Position extends ObjectId {
+		final int position;
+
+		Position(final AnyObjectId id, final int position) {
+			super(id);
+			this.position = position;
+		}
+	}
+
+	private static final class Selected extends ObjectId {
+		final EWAHBitmap bitmap;
+
+		Selected(final AnyObjectId id, final EWAHBitmap bitmap) {
+			super(id);
+			this.bitmap = bitmap;
+		}
+	}
+}
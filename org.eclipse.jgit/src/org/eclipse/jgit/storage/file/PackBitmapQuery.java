@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/** Answers reachability queries from the bitmaps of a single pack. */
+class PackBitmapQuery {
+	private final PackFile pack;
+
+	private final PackBitmapIndex index;
+
+	private final RevWalk walk;
+
+	private final BitmapWalker walker;
+
+	PackBitmapQuery(final PackFile pack, final PackBitmapIndex index,
+			final WindowCursor curs) {
+		this.pack = pack;
+		this.index = index;
+		this.walk = new RevWalk(curs);
+		this.walker = new BitmapWalker(walk) {
+			@Override
+			int findPosition(final AnyObjectId id) throws IOException {
+				return pack.findBitmapPosition(id);
+			}
+
+			@Override
+			EWAHBitmap getBitmap(final AnyObjectId id) {
+				return index.getBitmap(id);
+			}
+		};
+	}
+
+	/**
+	 * Find the objects reachable from one set of objects but not another.
+	 *
+	 * @param monitor
+	 *            progress monitor, updated once per object found.
+	 * @param want
+	 *            objects to include.
+	 * @param have
+	 *            objects to exclude, may be null. Objects outside of the pack
+	 *            are ignored, which may include more objects in the result
+	 *            than strictly necessary.
+	 * @return objects of the pack reachable from {@code want} but not
+	 *         {@code have}, grouped by type; null if an object reachable from
+	 *         {@code want} is not in this pack.
+	 * @throws IOException
+	 *             the repository could not be read.
+	 */
+	List<RevObject> find(final ProgressMonitor monitor,
+			final Collection<? extends ObjectId> want,
+			final Collection<? extends ObjectId> have) throws IOException {
+		final int cnt = index.getObjectCount();
+		final BitSet result = new BitSet(cnt);
+		for (final ObjectId id : want) {
+			if (!walker.addReachable(result, walk.parseAny(id)))
+				return null;
+		}
+
+		if (have != null) {
+			// Bits of a failed walk are still reachable from the have, so
+			// they can remain in the exclusion set. Objects not reached
+			// because of the failure will simply be sent.
+			//
+			final BitSet exclude = new BitSet(cnt);
+			for (final ObjectId id : have) {
+				try {
+					walker.addReachable(exclude, walk.parseAny(id));
+				} catch (MissingObjectException notFound) {
+					continue;
+				}
+			}
+			result.andNot(exclude);
+		}
+
+		final List<RevObject> r = new ArrayList<RevObject>(result
+				.cardinality());
+		for (int type = Constants.OBJ_COMMIT; type <= Constants.OBJ_TAG; type++) {
+			final BitSet ofType = index.getTypeBitmap(type).toBitSet();
+			ofType.and(result);
+			for (int i = ofType.nextSetBit(0); 0 <= i; i = ofType
+					.nextSetBit(i + 1)) {
+				r.add(walk.lookupAny(pack.findObjectForBitmapPosition(i), type));
+				monitor.update(1);
+			}
+		}
+		return r;
+	}
+}
@@ -117,6 +117,12 @@ public int compare(final PackFile a, final PackFile b) {
 
 	private PackReverseIndex reverseIdx;
 
+	/** Reachability bitmaps, if {@link #bitmapIdxLoaded} found any. */
+	private PackBitmapIndex bitmapIdx;
+
+	/** True once we have tried to load {@link #bitmapIdx}. */
+	private boolean bitmapIdxLoaded;
+
 	/**
 	 * Objects we have tried to read, and discovered to be corrupt.
 	 * <p>
@@ -152,7 +158,8 @@ private synchronized PackIndex idx() throws IOException {
 				throw new PackInvalidException(packFile);
 
 			try {
-				final PackIndex idx = PackIndex.open(idxFile);
+				final PackIndex idx = PackIndex.open(idxFile, WindowCache
+						.isIndexMMAP());
 
 				if (packChecksum == null)
 					packChecksum = idx.packChecksum;
@@ -191,6 +198,19 @@ public boolean hasObject(final AnyObjectId id) throws IOException {
 		return 0 < offset && !isCorrupt(offset);
 	}
 
+	/**
+	 * Find the position of an object in this pack, using only the index.
+	 *
+	 * @param id
+	 *            the object to look for. Must not be null.
+	 * @return offset of the object's header; -1 if it is not in this pack.
+	 * @throws IOException
+	 *             the index file cannot be loaded into memory.
+	 */
+	long findOffset(final AnyObjectId id) throws IOException {
+		return idx().findOffset(id);
+	}
+
 	/**
 	 * Get an object from this pack.
 	 *
@@ -209,15 +229,33 @@ ObjectLoader get(final WindowCursor curs, final AnyObjectId id)
 		return 0 < offset && !isCorrupt(offset) ? load(curs, offset) : null;
 	}
 
+	/**
+	 * Get an object from this pack by its offset.
+	 *
+	 * @param curs
+	 *            temporary working space associated with the calling thread.
+	 * @param offset
+	 *            position of the object's header, as recorded by an index.
+	 * @return the object loader; null if the object is known to be corrupt.
+	 * @throws IOException
+	 *             the pack file could not be read.
+	 */
+	ObjectLoader get(final WindowCursor curs, final long offset)
+			throws IOException {
+		return isCorrupt(offset) ? null : load(curs, offset);
+	}
+
 	/**
 	 * Close the resources utilized by this repository
 	 */
 	public void close() {
-		UnpackedObjectCache.purge(this);
+		UnpackedObjectCache.getInstance().purge(this);
 		WindowCache.purge(this);
 		synchronized (this) {
 			loadedIdx = null;
 			reverseIdx = null;
+			bitmapIdx = null;
+			bitmapIdxLoaded = false;
 		}
 	}
 
@@ -267,12 +305,73 @@ ObjectId findObjectForOffset(final long offset) throws IOException {
 		return getReverseIdx().findObject(offset);
 	}
 
+	/**
+	 * Get the reachability bitmaps stored next to this pack.
+	 *
+	 * @return the bitmap index; null if the pack has no usable
+	 *         <code>.bitmap</code> file.
+	 * @throws IOException
+	 *             the pack index or the bitmap index cannot be read.
+	 */
+	synchronized PackBitmapIndex getBitmapIndex() throws IOException {
+		if (!bitmapIdxLoaded) {
+			final PackIndex idx = idx();
+			final String n = idxFile.getName();
+			final File f = new File(idxFile.getParentFile(), n.substring(0,
+					n.length() - ".idx".length())
+					+ ".bitmap");
+			bitmapIdxLoaded = true;
+			if (f.isFile()) {
+				// A bitmap left over from an earlier pack of the same name
+				// is useless to us, but not an error for the pack itself.
+				//
+				final PackBitmapIndex b = PackBitmapIndex.open(f);
+				if (Arrays.equals(b.packChecksum, idx.packChecksum)
+						&& b.getObjectCount() == idx.getObjectCount())
+					bitmapIdx = b;
+			}
+		}
+		return bitmapIdx;
+	}
+
+	/**
+	 * Find the position of an object in this pack, in offset order.
+	 *
+	 * @param id
+	 *            the object to locate.
+	 * @return position of the object, as used by the bits of the bitmap
+	 *         index; -1 if the object is not in this pack.
+	 * @throws IOException
+	 *             the index file cannot be loaded into memory.
+	 */
+	int findBitmapPosition(final AnyObjectId id) throws IOException {
+		final long offset = idx().findOffset(id);
+		if (offset <= 0 || isCorrupt(offset))
+			return -1;
+		return getReverseIdx().findPosition(offset);
+	}
+
+	/**
+	 * Get the object at a position of this pack, in offset order.
+	 *
+	 * @param position
+	 *            position of the object, as used by the bits of the bitmap
+	 *            index.
+	 * @return the object at that position.
+	 * @throws IOException
+	 *             the index file cannot be loaded into memory.
+	 */
+	ObjectId findObjectForBitmapPosition(final int position)
+			throws IOException {
+		return getReverseIdx().findObjectByPosition(position);
+	}
+
 	private final UnpackedObjectCache.Entry readCache(final long position) {
-		return UnpackedObjectCache.get(this, position);
+		return UnpackedObjectCache.getInstance().get(this, position);
 	}
 
 	private final void saveCache(final long position, final byte[] data, final int type) {
-		UnpackedObjectCache.store(this, position, data, type);
+		UnpackedObjectCache.getInstance().store(this, position, data, type);
 	}
 
 	private final byte[] decompress(final long position, final long totalSize,
@@ -893,7 +992,7 @@ private synchronized PackReverseIndex getReverseIdx() throws IOException {
 		return reverseIdx;
 	}
 
-	private boolean isCorrupt(long offset) {
+	boolean isCorrupt(long offset) {
 		LongList list = corruptObjects;
 		if (list == null)
 			return false;
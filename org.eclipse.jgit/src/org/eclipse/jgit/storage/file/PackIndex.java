@@ -87,6 +87,32 @@ public abstract class PackIndex implements Iterable<PackIndex.MutableEntry> {
 	 *             unrecognized data version, or unexpected data corruption.
 	 */
 	public static PackIndex open(final File idxFile) throws IOException {
+		return open(idxFile, false);
+	}
+
+	/**
+	 * Open an existing pack <code>.idx</code> file for reading.
+	 * <p>
+	 * The format of the file will be automatically detected and a proper access
+	 * implementation for that format will be constructed and returned to the
+	 * caller. If requested, a version 2 index is memory mapped and searched in
+	 * place, rather than being copied onto the Java heap. Version 1 indexes are
+	 * always loaded onto the heap.
+	 * </p>
+	 *
+	 * @param idxFile
+	 *            existing pack .idx to read.
+	 * @param mmap
+	 *            true to memory map a version 2 index instead of reading it.
+	 * @return access implementation for the requested file.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read due to security errors,
+	 *             unrecognized data version, or unexpected data corruption.
+	 */
+	public static PackIndex open(final File idxFile, final boolean mmap)
+			throws IOException {
 		final FileInputStream fd = new FileInputStream(idxFile);
 		try {
 			final byte[] hdr = new byte[8];
@@ -95,6 +121,8 @@ public static PackIndex open(final File idxFile) throws IOException {
 				final int v = NB.decodeInt32(hdr, 4);
 				switch (v) {
 				case 2:
+					if (mmap)
+						return new PackIndexV2Mapped(fd.getChannel());
 					return new PackIndexV2(fd);
 				default:
 					throw new IOException(MessageFormat.format(JGitText.get().unsupportedPackIndexVersion, v));
@@ -135,7 +163,12 @@ private static boolean isTOC(final byte[] h) {
 	 * @return true if the object is listed in this index; false otherwise.
 	 */
 	public boolean hasObject(final AnyObjectId id) {
-		return findOffset(id) != -1;
+		try {
+			return findOffset(id) != -1;
+		} catch (IOException corrupt) {
+			// The entry cannot be used, so the object is not available.
+			return false;
+		}
 	}
 
 	/**
@@ -224,8 +257,10 @@ final ObjectId getObjectId(final int nthPosition) {
 	 * @return offset of the object's header and compressed content; -1 if the
 	 *         object does not exist in this index and is thus not stored in the
 	 *         associated pack.
+	 * @throws IOException
+	 *             the index entry of the object is corrupt.
 	 */
-	abstract long findOffset(AnyObjectId objId);
+	abstract long findOffset(AnyObjectId objId) throws IOException;
 
 	/**
 	 * Retrieve stored CRC32 checksum of the requested object raw-data
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Support for the pack index v2 format, searched through a memory mapping.
+ * <p>
+ * Unlike {@link PackIndexV2} nothing but the file mapping is retained. The
+ * fan-out table, object names, CRC and offset tables are all read directly
+ * from the mapped buffer when needed, so opening an index costs no heap and
+ * the pages are shared by all readers through the operating system's cache.
+ */
+class PackIndexV2Mapped extends PackIndex {
+	private static final long IS_O64 = 1L << 31;
+
+	private static final int FANOUT = 256;
+
+	private static final int FANOUT_OFFSET = 8;
+
+	private static final int NAMES_OFFSET = FANOUT_OFFSET + 4 * FANOUT;
+
+	private final ByteBuffer buf;
+
+	private final int objectCnt;
+
+	private final int crc32Offset;
+
+	private final int offset32Offset;
+
+	private final int offset64Offset;
+
+	private final int offset64Cnt;
+
+	PackIndexV2Mapped(final FileChannel fc) throws IOException {
+		final long size = fc.size();
+		if (size > Integer.MAX_VALUE)
+			throw new IOException(JGitText.get().indexFileIsTooLargeForJgit);
+		if (size < NAMES_OFFSET + 2 * Constants.OBJECT_ID_LENGTH)
+			throw new IOException(JGitText.get().packIndexIsTruncated);
+		buf = fc.map(MapMode.READ_ONLY, 0, size);
+
+		final long cnt = fanout(FANOUT - 1) & 0xffffffffL;
+		final long tables = NAMES_OFFSET + cnt
+				* (Constants.OBJECT_ID_LENGTH + 4 + 4);
+		final long trailer = size - 2 * Constants.OBJECT_ID_LENGTH;
+		if (trailer < tables)
+			throw new IOException(JGitText.get().packIndexIsTruncated);
+
+		objectCnt = (int) cnt;
+		crc32Offset = NAMES_OFFSET + objectCnt * Constants.OBJECT_ID_LENGTH;
+		offset32Offset = crc32Offset + objectCnt * 4;
+		offset64Offset = offset32Offset + objectCnt * 4;
+		offset64Cnt = (int) ((trailer - offset64Offset) / 8);
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		for (int i = 0; i < packChecksum.length; i++)
+			packChecksum[i] = buf.get((int) trailer + i);
+	}
+
+	private int fanout(final int k) {
+		return buf.getInt(FANOUT_OFFSET + 4 * k);
+	}
+
+	@Override
+	long getObjectCount() {
+		return objectCnt;
+	}
+
+	@Override
+	long getOffset64Count() {
+		return offset64Cnt;
+	}
+
+	@Override
+	ObjectId getObjectId(final long nthPosition) {
+		return ObjectId.fromRaw(readName((int) nthPosition, new int[5]));
+	}
+
+	@Override
+	public boolean hasObject(final AnyObjectId id) {
+		return find(id) >= 0;
+	}
+
+	@Override
+	long findOffset(final AnyObjectId objId) throws IOException {
+		final int pos = find(objId);
+		if (pos < 0)
+			return -1;
+		return offsetAt(pos);
+	}
+
+	@Override
+	long findCRC32(AnyObjectId objId) throws MissingObjectException {
+		final int pos = find(objId);
+		if (pos < 0)
+			throw new MissingObjectException(objId.copy(), "unknown");
+		return buf.getInt(crc32Offset + pos * 4) & 0xffffffffL;
+	}
+
+	@Override
+	boolean hasCRC32Support() {
+		return true;
+	}
+
+	public Iterator<MutableEntry> iterator() {
+		return new EntriesIteratorV2Mapped();
+	}
+
+	private long offsetAt(final int pos) throws CorruptObjectException {
+		final long p = buf.getInt(offset32Offset + pos * 4) & 0xffffffffL;
+		if ((p & IS_O64) != 0) {
+			final long idx = p & ~IS_O64;
+			if (offset64Cnt <= idx)
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().packIndexOffsetOutOfRange, Long
+								.valueOf(idx), Integer.valueOf(offset64Cnt)));
+			return buf.getLong(offset64Offset + 8 * (int) idx);
+		}
+		return p;
+	}
+
+	private int[] readName(final int pos, final int[] dst) {
+		final int p = NAMES_OFFSET + pos * Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < 5; i++)
+			dst[i] = buf.getInt(p + i * 4);
+		return dst;
+	}
+
+	private int find(final AnyObjectId objId) {
+		final int levelOne = objId.getFirstByte();
+		int low = levelOne > 0 ? fanout(levelOne - 1) : 0;
+		int high = fanout(levelOne);
+		if (low >= high)
+			return -1;
+
+		do {
+			final int mid = (low + high) >>> 1;
+			final int cmp = objId.compareTo(buf, NAMES_OFFSET + mid
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		} while (low < high);
+		return -1;
+	}
+
+	private class EntriesIteratorV2Mapped extends EntriesIterator {
+		private final int[] name = new int[5];
+
+		private int current;
+
+		@Override
+		protected MutableEntry initEntry() {
+			return new MutableEntry() {
+				protected void ensureId() {
+					idBuffer.fromRaw(readName(current, name));
+				}
+			};
+		}
+
+		public MutableEntry next() {
+			if (objectCnt <= returnedNumber)
+				throw new NoSuchElementException();
+			current = (int) returnedNumber++;
+			try {
+				entry.offset = offsetAt(current);
+			} catch (CorruptObjectException err) {
+				// Iterator cannot throw a checked exception.
+				throw new IllegalStateException(err.getMessage(), err);
+			}
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,598 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates a single pack file in an {@link ObjectDirectory}.
+ * <p>
+ * Unlike the default inserter, which writes every object as its own loose
+ * file, this inserter appends each object (deflated, never as a delta) to one
+ * temporary pack, and keeps the index of that pack in memory. This makes bulk
+ * imports of many objects much cheaper on the filesystem.
+ * <p>
+ * Inserted objects are not visible to other readers of the repository until
+ * {@link #flush()} completes, which writes the matching index and moves the
+ * pack and index into <code>objects/pack</code>. The pack becomes visible
+ * only once its index is in place. Before that, the objects can be read
+ * through {@link #newReader()}.
+ * <p>
+ * {@link #release()} discards any objects not yet flushed.
+ */
+public class PackInserter extends ObjectInserter {
+	private final ObjectDirectory db;
+
+	private final Config config;
+
+	private final int streamFileThreshold;
+
+	private Deflater deflate;
+
+	private ObjectIdSubclassMap<PackedObject> objectMap;
+
+	private List<PackedObject> objectList;
+
+	private File tmpPack;
+
+	private FileOutputStream packFd;
+
+	private PackStream packOut;
+
+	PackInserter(final ObjectDirectory dest, final Config cfg) {
+		db = dest;
+		config = cfg;
+		streamFileThreshold = cfg.get(CoreConfig.KEY).getStreamFileThreshold();
+	}
+
+	/** @return number of objects waiting to be flushed. */
+	public int getObjectCount() {
+		return objectList != null ? objectList.size() : 0;
+	}
+
+	@Override
+	public ObjectId insert(int type, byte[] data, int off, int len)
+			throws IOException {
+		final ObjectId id = idFor(type, data, off, len);
+		if (isKnown(id))
+			return id;
+
+		final long start = beginObject(type, len);
+		final DeflaterOutputStream out = compress();
+		out.write(data, off, len);
+		out.finish();
+		endObject(id, type, len, start);
+		return id;
+	}
+
+	@Override
+	public ObjectId insert(final int type, final long len,
+			final InputStream is) throws IOException {
+		if (len <= buffer().length) {
+			final byte[] buf = buffer();
+			IO.readFully(is, buf, 0, (int) len);
+			return insert(type, buf, 0, (int) len);
+		}
+
+		// The name is not known until the content has been read, so the
+		// object is written first and dropped again if it turns out to
+		// be a duplicate.
+		//
+		final long start = beginObject(type, len);
+		final MessageDigest md = digest();
+		md.update(Constants.encodedTypeString(type));
+		md.update((byte) ' ');
+		md.update(Constants.encodeASCII(len));
+		md.update((byte) 0);
+
+		final DeflaterOutputStream out = compress();
+		final byte[] buf = buffer();
+		long remaining = len;
+		while (remaining > 0) {
+			int n = is.read(buf, 0, (int) Math.min(remaining, buf.length));
+			if (n <= 0)
+				throw shortInput(remaining);
+			md.update(buf, 0, n);
+			out.write(buf, 0, n);
+			remaining -= n;
+		}
+		out.finish();
+
+		final ObjectId id = ObjectId.fromRaw(md.digest());
+		if (isKnown(id))
+			truncate(start);
+		else
+			endObject(id, type, len, start);
+		return id;
+	}
+
+	private boolean isKnown(final ObjectId id) {
+		return (objectMap != null && objectMap.contains(id)) || db.has(id);
+	}
+
+	private long beginObject(final int type, final long len)
+			throws IOException {
+		if (packOut == null)
+			beginPack();
+
+		final long start = packOut.position;
+		packOut.crc.reset();
+		packOut.writeHeader(type, len);
+		return start;
+	}
+
+	private void endObject(final ObjectId id, final int type, final long len,
+			final long start) {
+		final PackedObject obj = new PackedObject(id, type, len);
+		obj.setOffset(start);
+		obj.setCRC((int) packOut.crc.getValue());
+		objectList.add(obj);
+		objectMap.add(obj);
+	}
+
+	private void beginPack() throws IOException {
+		objectMap = new ObjectIdSubclassMap<PackedObject>();
+		objectList = new ArrayList<PackedObject>();
+
+		tmpPack = File.createTempFile("insert_", ".pack", db.getDirectory());
+		packFd = new FileOutputStream(tmpPack);
+		packOut = new PackStream(new BufferedOutputStream(packFd));
+
+		final byte[] hdr = new byte[12];
+		System.arraycopy(Constants.PACK_SIGNATURE, 0, hdr, 0, 4);
+		NB.encodeInt32(hdr, 4, 2); // Pack version.
+		NB.encodeInt32(hdr, 8, 0); // Object count, updated by flush.
+		packOut.write(hdr, 0, hdr.length);
+	}
+
+	private void truncate(final long start) throws IOException {
+		packOut.flush();
+		packFd.getChannel().truncate(start);
+		packOut.position = start;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (packOut == null)
+			return;
+		try {
+			if (objectList.isEmpty())
+				return;
+
+			final byte[] packHash = finishPack();
+			Collections.sort(objectList);
+
+			final File tmpIdx = new File(db.getDirectory(), tmpPack.getName()
+					.replace(".pack", ".idx"));
+			try {
+				writeIndex(tmpIdx, packHash);
+				publish(tmpIdx);
+			} finally {
+				if (tmpIdx.exists() && !tmpIdx.delete())
+					tmpIdx.deleteOnExit();
+			}
+		} finally {
+			reset();
+		}
+	}
+
+	private byte[] finishPack() throws IOException {
+		packOut.flush();
+
+		// The object count is only known now. Fix it in the header and
+		// then hash the complete pack to produce its trailer.
+		//
+		final RandomAccessFile raf = new RandomAccessFile(tmpPack, "rw");
+		try {
+			raf.seek(8);
+			raf.writeInt(objectList.size());
+			raf.seek(0);
+
+			final MessageDigest md = Constants.newMessageDigest();
+			final byte[] buf = buffer();
+			int n;
+			while ((n = raf.read(buf)) > 0)
+				md.update(buf, 0, n);
+			final byte[] packHash = md.digest();
+			raf.write(packHash);
+			raf.getChannel().force(true);
+			return packHash;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void writeIndex(final File tmpIdx, final byte[] packHash)
+			throws IOException {
+		final FileOutputStream fd = new FileOutputStream(tmpIdx);
+		try {
+			final OutputStream out = new BufferedOutputStream(fd);
+			PackIndexWriter.createOldestPossible(out, objectList).write(
+					objectList, packHash);
+			out.flush();
+			fd.getChannel().force(true);
+		} finally {
+			fd.close();
+		}
+	}
+
+	private void publish(final File tmpIdx) throws IOException {
+		final MessageDigest md = digest();
+		final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (final PackedObject obj : objectList) {
+			obj.copyRawTo(raw, 0);
+			md.update(raw);
+		}
+
+		final String name = ObjectId.fromRaw(md.digest()).name();
+		final File packDir = new File(db.getDirectory(), "pack");
+		final File finalPack = new File(packDir, "pack-" + name + ".pack");
+		final File finalIdx = new File(packDir, "pack-" + name + ".idx");
+
+		if (!packDir.exists() && !packDir.mkdir() && !packDir.exists())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotCreateDirectory, packDir
+							.getAbsolutePath()));
+		if (finalPack.exists())
+			return; // The same objects were already published.
+
+		// Readers only consider a pack once its index exists, so moving
+		// the index in last makes both files visible at the same time.
+		//
+		if (!tmpPack.renameTo(finalPack))
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotMovePackTo, finalPack));
+		if (!tmpIdx.renameTo(finalIdx)) {
+			if (!finalPack.delete())
+				finalPack.deleteOnExit();
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotMoveIndexTo, finalIdx));
+		}
+		db.openPack(finalPack, finalIdx);
+	}
+
+	@Override
+	public void release() {
+		try {
+			reset();
+		} finally {
+			if (deflate != null) {
+				try {
+					deflate.end();
+				} finally {
+					deflate = null;
+				}
+			}
+		}
+	}
+
+	private void reset() {
+		objectMap = null;
+		objectList = null;
+		if (packOut != null) {
+			try {
+				packOut.close();
+			} catch (IOException err) {
+				// Ignore close failures, the file is discarded anyway.
+			}
+			packOut = null;
+			packFd = null;
+		}
+		if (tmpPack != null) {
+			if (tmpPack.exists() && !tmpPack.delete())
+				tmpPack.deleteOnExit();
+			tmpPack = null;
+		}
+	}
+
+	/**
+	 * Open a reader that can see objects inserted through this inserter.
+	 * <p>
+	 * The reader checks the pack being written before the repository. It is
+	 * no more thread-safe than the inserter itself, and should only be used by
+	 * the thread also inserting objects.
+	 *
+	 * @return a new reader.
+	 */
+	@Override
+	public ObjectReader newReader() {
+		return new Reader();
+	}
+
+	private ObjectLoader openObject(final PackedObject obj,
+			final ObjectReader ctx) throws IOException {
+		packOut.flush();
+		if (obj.size <= streamFileThreshold) {
+			final byte[] data = new byte[(int) obj.size];
+			final InputStream in = openData(obj);
+			try {
+				IO.readFully(in, data, 0, data.length);
+			} finally {
+				in.close();
+			}
+			return new ObjectLoader.SmallObject(obj.type, data);
+		}
+
+		final File pack = tmpPack;
+		return new ObjectLoader() {
+			@Override
+			public int getType() {
+				return obj.type;
+			}
+
+			@Override
+			public long getSize() {
+				return obj.size;
+			}
+
+			@Override
+			public boolean isLarge() {
+				return true;
+			}
+
+			@Override
+			public byte[] getCachedBytes() throws LargeObjectException {
+				throw new LargeObjectException(obj.copy());
+			}
+
+			@Override
+			public ObjectStream openStream() throws IOException {
+				// After flush() the temporary pack was moved or deleted;
+				// a flushed object can still be found in the repository.
+				if (pack != tmpPack)
+					return ctx.open(obj, obj.type).openStream();
+				return new ObjectStream.Filter(obj.type, obj.size,
+						new BufferedInputStream(openData(pack, obj), 8192));
+			}
+		};
+	}
+
+	private InputStream openData(final PackedObject obj) throws IOException {
+		return openData(tmpPack, obj);
+	}
+
+	private static InputStream openData(final File pack,
+			final PackedObject obj) throws IOException {
+		final FileInputStream fd = new FileInputStream(pack);
+		try {
+			fd.getChannel().position(obj.getOffset() + obj.headerLength);
+			return new InflaterInputStream(new BufferedInputStream(fd, 8192));
+		} catch (IOException err) {
+			fd.close();
+			throw err;
+		}
+	}
+
+	private DeflaterOutputStream compress() {
+		if (deflate == null)
+			deflate = new Deflater(config.get(CoreConfig.KEY).getCompression());
+		else
+			deflate.reset();
+		return new DeflaterOutputStream(packOut, deflate, 8192);
+	}
+
+	private static EOFException shortInput(long missing) {
+		return new EOFException("Input did not match supplied length. "
+				+ missing + " bytes are missing.");
+	}
+
+	private static class PackedObject extends PackedObjectInfo {
+		final int type;
+
+		final long size;
+
+		final int headerLength;
+
+		PackedObject(final AnyObjectId id, final int type, final long size) {
+			super(id);
+			this.type = type;
+			this.size = size;
+			this.headerLength = PackStream.headerLength(size);
+		}
+	}
+
+	/** Reads the pack being written, then the repository. */
+	private class Reader extends ObjectReader {
+		private final ObjectReader ctx = db.newReader();
+
+		@Override
+		public ObjectReader newReader() {
+			return new Reader();
+		}
+
+		@Override
+		public boolean has(final AnyObjectId objectId, final int typeHint)
+				throws IOException {
+			final PackedObject obj = find(objectId);
+			if (obj == null)
+				return ctx.has(objectId, typeHint);
+			if (typeHint != OBJ_ANY && obj.type != typeHint)
+				throw new IncorrectObjectTypeException(objectId.copy(),
+						typeHint);
+			return true;
+		}
+
+		@Override
+		public ObjectLoader open(final AnyObjectId objectId, final int typeHint)
+				throws MissingObjectException, IncorrectObjectTypeException,
+				IOException {
+			final PackedObject obj = find(objectId);
+			if (obj == null)
+				return ctx.open(objectId, typeHint);
+			if (typeHint != OBJ_ANY && obj.type != typeHint)
+				throw new IncorrectObjectTypeException(objectId.copy(),
+						typeHint);
+			return openObject(obj, ctx);
+		}
+
+		@Override
+		public long getObjectSize(final AnyObjectId objectId,
+				final int typeHint) throws MissingObjectException,
+				IncorrectObjectTypeException, IOException {
+			final PackedObject obj = find(objectId);
+			if (obj == null)
+				return ctx.getObjectSize(objectId, typeHint);
+			if (typeHint != OBJ_ANY && obj.type != typeHint)
+				throw new IncorrectObjectTypeException(objectId.copy(),
+						typeHint);
+			return obj.size;
+		}
+
+		@Override
+		public CommitGraph getCommitGraph() throws IOException {
+			return ctx.getCommitGraph();
+		}
+
+		@Override
+		public Set<ObjectId> getShallowCommits() throws IOException {
+			return ctx.getShallowCommits();
+		}
+
+		@Override
+		public void release() {
+			ctx.release();
+		}
+
+		private PackedObject find(final AnyObjectId objectId) {
+			return objectMap != null ? objectMap.get(objectId) : null;
+		}
+	}
+
+	/** Output stream tracking the pack position and the entry's CRC. */
+	private static class PackStream extends OutputStream {
+		static int headerLength(long len) {
+			int n = 1;
+			for (len >>>= 4; len > 0; len >>>= 7)
+				n++;
+			return n;
+		}
+
+		private final OutputStream out;
+
+		final CRC32 crc = new CRC32();
+
+		long position;
+
+		PackStream(final OutputStream out) {
+			this.out = out;
+		}
+
+		void writeHeader(final int type, long len) throws IOException {
+			final byte[] hdr = new byte[16];
+			int n = 0;
+			int c = (type << 4) | (int) (len & 0x0f);
+			len >>>= 4;
+			while (len > 0) {
+				hdr[n++] = (byte) (c | 0x80);
+				c = (int) (len & 0x7f);
+				len >>>= 7;
+			}
+			hdr[n++] = (byte) c;
+			write(hdr, 0, n);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			crc.update(b);
+			position++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+				throws IOException {
+			out.write(b, off, len);
+			crc.update(b, off, len);
+			position += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -149,6 +149,38 @@ ObjectId findObject(final long offset) {
 		}
 	}
 
+	/**
+	 * Find the position of an object within the pack, in offset order.
+	 *
+	 * @param offset
+	 *            start offset of the object.
+	 * @return position of the object, where 0 is the first object in the pack
+	 *         file; -1 if no object starts at this offset.
+	 */
+	int findPosition(final long offset) {
+		if (offset <= Integer.MAX_VALUE) {
+			final int i32 = Arrays.binarySearch(offsets32, (int) offset);
+			return i32 < 0 ? -1 : i32;
+		} else {
+			final int i64 = Arrays.binarySearch(offsets64, offset);
+			return i64 < 0 ? -1 : offsets32.length + i64;
+		}
+	}
+
+	/**
+	 * Get the object at a position within the pack, in offset order.
+	 *
+	 * @param position
+	 *            position of the object, as returned by
+	 *            {@link #findPosition(long)}.
+	 * @return object id at that position.
+	 */
+	ObjectId findObjectByPosition(final int position) {
+		if (position < offsets32.length)
+			return index.getObjectId(nth32[position]);
+		return index.getObjectId(nth64[position - offsets32.length]);
+	}
+
 	/**
 	 * Search for the next offset to the specified offset in this pack (reverse)
 	 * index.
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.RefDirectory.PackedRefList;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.RefList;
+
+/**
+ * Batch update of a {@link RefDirectory}, stored by one rewrite of
+ * {@code packed-refs}.
+ * <p>
+ * The packed-refs file and every affected loose reference are locked, the
+ * current values are verified, and all accepted commands are written into a
+ * single new packed-refs file. Loose files of the updated references are then
+ * removed while still locked, so the packed value becomes visible. The
+ * reflogs are appended once the new values are committed.
+ * <p>
+ * A batch naming a symbolic reference is applied through {@link RefUpdate},
+ * as symbolic references cannot be stored in packed-refs.
+ */
+class PackedBatchRefUpdate extends BatchRefUpdate {
+	private final RefDirectory refdb;
+
+	PackedBatchRefUpdate(final RefDirectory refdb) {
+		super(refdb);
+		this.refdb = refdb;
+	}
+
+	@Override
+	public void execute(RevWalk walk, ProgressMonitor monitor)
+			throws IOException {
+		final List<ReceiveCommand> pending = getPending();
+		if (pending.size() <= 1) {
+			// A single loose file is cheaper than rewriting packed-refs.
+			super.execute(walk, monitor);
+			return;
+		}
+		if (!checkRefNames(pending)) {
+			if (isAtomic())
+				rejectSymbolic(pending);
+			else
+				super.execute(walk, monitor);
+			return;
+		}
+		if (isAtomic() && !allPending(pending)) {
+			abort(pending);
+			return;
+		}
+
+		monitor.beginTask(JGitText.get().updatingReferences, pending.size());
+		final String currentBranch = getCurrentBranch();
+		final LockFile packedLock = refdb.lockPackedRefs();
+		if (packedLock == null) {
+			for (final ReceiveCommand cmd : pending)
+				if (cmd.getResult() == ReceiveCommand.Result.NOT_ATTEMPTED)
+					cmd.setResult(ReceiveCommand.Result.LOCK_FAILURE);
+			monitor.endTask();
+			return;
+		}
+
+		final List<LockFile> locks = new ArrayList<LockFile>(pending.size());
+		try {
+			for (final ReceiveCommand cmd : pending) {
+				if (cmd.getResult() != ReceiveCommand.Result.NOT_ATTEMPTED)
+					continue;
+				final LockFile lck = new LockFile(refdb.fileFor(cmd
+						.getRefName()), refdb.getRepository().getFS());
+				boolean locked;
+				try {
+					locked = lck.lock();
+				} catch (IOException err) {
+					// A file is in the way of the lock's directory.
+					locked = false;
+				}
+				if (locked)
+					locks.add(lck);
+				else
+					cmd.setResult(ReceiveCommand.Result.LOCK_FAILURE);
+			}
+			if (isAtomic() && !allPending(pending)) {
+				abort(pending);
+				return;
+			}
+
+			final PackedRefList oldPacked = refdb.getPackedRefs();
+			final PackedRefList onDisk = refdb.readPackedRefs(0, 0);
+			final List<ReceiveCommand> toStore = new ArrayList<ReceiveCommand>();
+			final List<RefUpdate.Result> status = new ArrayList<RefUpdate.Result>();
+			final List<ObjectId> oldIds = new ArrayList<ObjectId>();
+			final Set<String> loose = new HashSet<String>();
+			for (final ReceiveCommand cmd : pending) {
+				if (cmd.getResult() != ReceiveCommand.Result.NOT_ATTEMPTED)
+					continue;
+				final String name = cmd.getRefName();
+				final Ref cur = refdb.readRef(name, onDisk);
+				final RefUpdate.Result r;
+				if (cur != null && cur.isSymbolic())
+					r = RefUpdate.Result.LOCK_FAILURE; // Changed since checked.
+				else
+					r = check(cmd, cur != null ? cur.getObjectId() : null,
+							currentBranch, walk);
+				switch (r) {
+				case NEW:
+				case FAST_FORWARD:
+				case FORCED:
+				case NO_CHANGE:
+					toStore.add(cmd);
+					status.add(r);
+					oldIds.add(cur != null ? cur.getObjectId() : null);
+					if (cur != null && cur.getStorage().isLoose())
+						loose.add(name);
+					break;
+				default:
+					cmd.setResult(r);
+					break;
+				}
+				monitor.update(1);
+			}
+			if (isAtomic() && !allPending(pending)) {
+				abort(pending);
+				return;
+			}
+			if (toStore.isEmpty())
+				return;
+
+			final RefList<Ref> packed = apply(onDisk.toRefList(), toStore, walk);
+			refdb.commitPackedRefs(packedLock, packed, oldPacked);
+			refdb.deleteLoose(loose);
+			for (int i = 0; i < toStore.size(); i++)
+				toStore.get(i).setResult(status.get(i));
+			log(toStore, status, oldIds);
+		} finally {
+			for (final LockFile lck : locks)
+				lck.unlock();
+			packedLock.unlock();
+			monitor.endTask();
+		}
+	}
+
+	private RefList<Ref> apply(final RefList<Ref> onDisk,
+			final List<ReceiveCommand> toStore, final RevWalk walk)
+			throws IOException {
+		// Merge the sorted changes into the sorted file in one pass; a null
+		// value deletes the reference.
+		final TreeMap<String, Ref> changes = new TreeMap<String, Ref>();
+		for (final ReceiveCommand cmd : toStore) {
+			final String name = cmd.getRefName();
+			if (cmd.getType() == ReceiveCommand.Type.DELETE)
+				changes.put(name, null);
+			else
+				changes.put(name, peel(walk, new ObjectIdRef.Unpeeled(PACKED,
+						name, cmd.getNewId().copy())));
+		}
+
+		// Entries not named by the batch are copied as they are. If any of
+		// them is unpeeled the file is written without the peeled trait,
+		// which is cheaper than parsing every packed object on each push.
+		final RefList.Builder<Ref> b = new RefList.Builder<Ref>(onDisk.size()
+				+ changes.size());
+		int idx = 0;
+		for (final Map.Entry<String, Ref> e : changes.entrySet()) {
+			final String name = e.getKey();
+			for (; idx < onDisk.size(); idx++) {
+				final Ref r = onDisk.get(idx);
+				final int cmp = r.getName().compareTo(name);
+				if (0 < cmp)
+					break;
+				if (cmp < 0)
+					b.add(r);
+			}
+			if (e.getValue() != null)
+				b.add(e.getValue());
+		}
+		for (; idx < onDisk.size(); idx++)
+			b.add(onDisk.get(idx));
+		return b.toRefList();
+	}
+
+	private static Ref peel(final RevWalk walk, final Ref ref)
+			throws IOException {
+		try {
+			return RefDirectory.peelPacked(walk, ref);
+		} catch (MissingObjectException notFound) {
+			// Store it unpeeled; readers will peel it on demand.
+			return ref;
+		}
+	}
+
+	private void log(final List<ReceiveCommand> stored,
+			final List<RefUpdate.Result> status, final List<ObjectId> oldIds)
+			throws IOException {
+		PersonIdent ident = null;
+		for (int i = 0; i < stored.size(); i++) {
+			final ReceiveCommand cmd = stored.get(i);
+			final String name = cmd.getRefName();
+			if (cmd.getType() == ReceiveCommand.Type.DELETE) {
+				RefDirectory.delete(refdb.logFor(name), RefDirectory
+						.levelsIn(name) - 2);
+			} else if (!isRefLogDisabled()) {
+				if (ident == null)
+					ident = getRefLogIdent() != null ? getRefLogIdent()
+							: new PersonIdent(refdb.getRepository());
+				refdb.log(name, oldIds.get(i), cmd.getNewId(), ident,
+						refLogMessage(this, status.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * @param batch
+	 *            the batch being stored.
+	 * @param status
+	 *            how a command of the batch changed its reference.
+	 * @return message to record in the reference's log.
+	 */
+	static String refLogMessage(final BatchRefUpdate batch,
+			final RefUpdate.Result status) {
+		String msg = batch.getRefLogMessage();
+		if (batch.isRefLogIncludingResult()) {
+			String strResult = RefDirectoryUpdate.toResultString(status);
+			if (strResult != null) {
+				if (msg.length() > 0)
+					msg = msg + ": " + strResult;
+				else
+					msg = strResult;
+			}
+		}
+		return msg;
+	}
+
+	static boolean allPending(final List<ReceiveCommand> commands) {
+		for (final ReceiveCommand cmd : commands)
+			if (cmd.getResult() != ReceiveCommand.Result.NOT_ATTEMPTED)
+				return false;
+		return true;
+	}
+
+	static void rejectSymbolic(final List<ReceiveCommand> commands) {
+		for (final ReceiveCommand cmd : commands)
+			cmd.setResult(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+					JGitText.get().atomicSymbolicRefNotSupported);
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+
+/**
+ * Opens a batch of objects in the order they are stored on disk.
+ * <p>
+ * Every requested object is first located through the pack indexes only.
+ * Packed objects are then returned grouped by pack, in increasing offset
+ * order, so the windows of each pack are read sequentially through the
+ * {@link WindowCache}, instead of jumping back and forth between packs as a
+ * caller's (often hash ordered) iteration would. Objects that are not in any
+ * pack, such as loose objects, are returned last.
+ *
+ * @param <T>
+ *            type of identifier supplied by the caller.
+ */
+class PackedObjectQueue<T extends ObjectId> implements
+		AsyncObjectLoaderQueue<T> {
+	/** Compares requests by pack, then by offset within the pack. */
+	private static final Comparator<Request<?>> BY_POSITION = new Comparator<Request<?>>() {
+		public int compare(final Request<?> a, final Request<?> b) {
+			if (a.packRank != b.packRank)
+				return a.packRank < b.packRank ? -1 : 1;
+			if (a.offset != b.offset)
+				return a.offset < b.offset ? -1 : 1;
+			return 0;
+		}
+	};
+
+	private final WindowCursor curs;
+
+	private final boolean reportMissing;
+
+	private final List<Request<T>> requests;
+
+	private int next;
+
+	private Request<T> cur;
+
+	private ObjectLoader ldr;
+
+	PackedObjectQueue(final WindowCursor curs, final Iterable<T> objectIds,
+			final boolean reportMissing) {
+		this.curs = curs;
+		this.reportMissing = reportMissing;
+
+		final Map<PackFile, Integer> ranks = new IdentityHashMap<PackFile, Integer>();
+		final List<Request<T>> packed = new ArrayList<Request<T>>();
+		final List<Request<T>> other = new ArrayList<Request<T>>();
+		for (final T id : objectIds) {
+			final Request<T> r = new Request<T>(id);
+			if (curs.db.findPackedImpl1(id, r)) {
+				Integer rank = ranks.get(r.pack);
+				if (rank == null) {
+					rank = Integer.valueOf(ranks.size());
+					ranks.put(r.pack, rank);
+				}
+				r.packRank = rank.intValue();
+				packed.add(r);
+			} else {
+				other.add(r);
+			}
+		}
+		Collections.sort(packed, BY_POSITION);
+		packed.addAll(other);
+		requests = packed;
+	}
+
+	public boolean next() throws MissingObjectException, IOException {
+		ldr = null;
+		while (next < requests.size()) {
+			cur = requests.get(next++);
+			if (cur.pack != null)
+				return true;
+
+			// Not in a pack when the queue was created. The object may be
+			// loose, or may have been packed since; take the slow path.
+			//
+			ldr = curs.db.openObject(curs, cur.id);
+			if (ldr != null)
+				return true;
+			if (reportMissing)
+				throw new MissingObjectException(cur.id.copy(), "unknown");
+		}
+		cur = null;
+		return false;
+	}
+
+	public T getCurrent() {
+		return cur != null ? cur.id : null;
+	}
+
+	public ObjectId getObjectId() {
+		return cur != null ? cur.id : null;
+	}
+
+	public ObjectLoader open() throws IOException {
+		if (ldr != null)
+			return ldr;
+
+		try {
+			ldr = cur.pack.get(curs, cur.offset);
+		} catch (IOException e) {
+			// The pack may have been replaced since its index was read,
+			// or be corrupt. Leave it to the regular search to recover.
+			ldr = null;
+		}
+		if (ldr == null)
+			ldr = curs.db.openObject(curs, cur.id);
+		if (ldr == null)
+			throw new MissingObjectException(cur.id.copy(), "unknown");
+		return ldr;
+	}
+
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		next = requests.size();
+		return true;
+	}
+
+	public void release() {
+		cur = null;
+		ldr = null;
+	}
+
+	private static class Request<T extends ObjectId> extends
+			PackedObjectLocation {
+		final T id;
+
+		int packRank;
+
+		Request(final T id) {
+			this.id = id;
+		}
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_STRING_LENGTH;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.RefList;
+
+/**
+ * A sorted {@code packed-refs} file, searched in place.
+ * <p>
+ * The file content is held as raw bytes, memory mapped if the file is large
+ * enough. Opening it costs a single pass over the bytes to record where each
+ * reference line starts; lookups then binary search those lines by comparing
+ * the encoded name directly against the file content. A {@link Ref} is only
+ * created for an entry when a caller asks for it, and is then remembered.
+ * <p>
+ * Files the search cannot handle (unsorted entries, carriage returns,
+ * non-ASCII names or malformed lines) are rejected by {@link #open}, so the
+ * caller can fall back to a full parse.
+ */
+class PackedRefsBuffer {
+	/** Files at least this large are mapped rather than read. */
+	private static final int MAP_THRESHOLD = 1024 * 1024;
+
+	/** Length of {@code "<40 hex> "} before the name of a reference. */
+	private static final int NAME_OFFSET = OBJECT_ID_STRING_LENGTH + 1;
+
+	private static final byte[] HEADER = Constants
+			.encode(RefDirectory.PACKED_REFS_HEADER);
+
+	private static final byte[] PEELED = Constants
+			.encode(RefDirectory.PACKED_REFS_PEELED);
+
+	/**
+	 * Open a packed-refs file for searching.
+	 *
+	 * @param fc
+	 *            channel of the packed-refs file, positioned at the start.
+	 *            The caller may close it once this method returns.
+	 * @return the searchable file; null if the file cannot be searched in
+	 *         place and must be parsed instead.
+	 * @throws IOException
+	 *             the file could not be read, or is corrupt.
+	 */
+	static PackedRefsBuffer open(final FileChannel fc) throws IOException {
+		final long size = fc.size();
+		if (size > Integer.MAX_VALUE)
+			return null;
+
+		final ByteBuffer buf;
+		if (MAP_THRESHOLD <= size && File.separatorChar == '/') {
+			// Windows cannot replace a file that is still mapped, and the
+			// mapping is only released once the buffer is collected.
+			buf = fc.map(MapMode.READ_ONLY, 0, size);
+		} else {
+			final byte[] raw = new byte[(int) size];
+			final ByteBuffer dst = ByteBuffer.wrap(raw);
+			while (dst.hasRemaining())
+				if (fc.read(dst) < 0)
+					throw new IOException(JGitText.get().shortReadOfBlock);
+			buf = ByteBuffer.wrap(raw);
+		}
+		return new PackedRefsBuffer(buf).index();
+	}
+
+	private final ByteBuffer buf;
+
+	private final int end;
+
+	/** Position of the first byte of each reference line. */
+	private int[] lines;
+
+	private int cnt;
+
+	private boolean peeled;
+
+	/** References already created from {@link #lines}, by index. */
+	private Ref[] refs;
+
+	private PackedRefsBuffer(final ByteBuffer buf) {
+		this.buf = buf;
+		this.end = buf.limit();
+	}
+
+	private PackedRefsBuffer index() throws IOException {
+		lines = new int[Math.max(16, end / 64)];
+		int prior = -1;
+		int ptr = 0;
+		while (ptr < end) {
+			final int eol = endOfLine(ptr);
+			if (eol < 0)
+				return null;
+
+			final byte c = buf.get(ptr);
+			if (c == '#') {
+				if (startsWith(ptr, eol, HEADER))
+					peeled = contains(ptr + HEADER.length, eol, PEELED);
+
+			} else if (c == '^') {
+				if (prior < 0)
+					throw new IOException(JGitText.get().peeledLineBeforeRef);
+				if (eol - ptr != 1 + OBJECT_ID_STRING_LENGTH)
+					return null;
+
+			} else {
+				if (eol - ptr <= NAME_OFFSET
+						|| buf.get(ptr + OBJECT_ID_STRING_LENGTH) != ' ')
+					return null;
+				if (0 <= prior && compareNames(prior, ptr) >= 0)
+					return null;
+				if (cnt == lines.length) {
+					final int[] n = new int[lines.length * 2];
+					System.arraycopy(lines, 0, n, 0, cnt);
+					lines = n;
+				}
+				lines[cnt++] = ptr;
+				prior = ptr;
+			}
+			ptr = eol + 1;
+		}
+		refs = new Ref[cnt];
+		return this;
+	}
+
+	/**
+	 * @return position of the LF ending the line; {@code end} if the file
+	 *         ends without one; -1 if the line contains bytes that prevent
+	 *         searching it in place.
+	 */
+	private int endOfLine(int ptr) {
+		for (; ptr < end; ptr++) {
+			final byte c = buf.get(ptr);
+			if (c == '\n')
+				return ptr;
+			if (c == '\r' || c < 0)
+				return -1;
+		}
+		return end;
+	}
+
+	private boolean startsWith(final int ptr, final int eol, final byte[] s) {
+		if (eol - ptr < s.length)
+			return false;
+		for (int i = 0; i < s.length; i++)
+			if (buf.get(ptr + i) != s[i])
+				return false;
+		return true;
+	}
+
+	private boolean contains(final int ptr, final int eol, final byte[] s) {
+		for (int p = ptr; p + s.length <= eol; p++)
+			if (startsWith(p, eol, s))
+				return true;
+		return false;
+	}
+
+	private int compareNames(final int a, final int b) {
+		int pa = a + NAME_OFFSET;
+		int pb = b + NAME_OFFSET;
+		for (;;) {
+			final int ca = pa < end ? buf.get(pa++) : '\n';
+			final int cb = pb < end ? buf.get(pb++) : '\n';
+			if (ca != cb)
+				return ca == '\n' ? -1 : cb == '\n' ? 1 : ca - cb;
+			if (ca == '\n')
+				return 0;
+		}
+	}
+
+	/**
+	 * Compare the name on a reference line with (a prefix of) a name.
+	 *
+	 * @param ptr
+	 *            start of the reference line.
+	 * @param name
+	 *            encoded name to compare against.
+	 * @param prefix
+	 *            if true, a line whose name starts with {@code name} is
+	 *            considered to match.
+	 * @return &lt;0, 0 or &gt;0 as the line's name sorts before, matches, or
+	 *         sorts after {@code name}.
+	 */
+	private int compareName(final int ptr, final byte[] name,
+			final boolean prefix) {
+		int p = ptr + NAME_OFFSET;
+		for (int i = 0; i < name.length; i++, p++) {
+			final int c = p < end ? buf.get(p) : '\n';
+			if (c == '\n')
+				return -1;
+			if (c != name[i])
+				return c - (name[i] & 0xff);
+		}
+		if (prefix || p == end || buf.get(p) == '\n')
+			return 0;
+		return 1;
+	}
+
+	/** @return number of references in the file. */
+	int size() {
+		return cnt;
+	}
+
+	/**
+	 * Locate a reference by name.
+	 *
+	 * @param name
+	 *            the complete name of the reference.
+	 * @return index of the reference, if found; otherwise
+	 *         {@code -(insertionPoint + 1)}, as in {@link RefList#find(String)}.
+	 */
+	int find(final String name) {
+		final byte[] needle = Constants.encode(name);
+		int low = 0;
+		int high = cnt;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = compareName(lines[mid], needle, false);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp == 0)
+				return mid;
+			else
+				high = mid;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Get the reference at an index, creating it if necessary.
+	 *
+	 * @param idx
+	 *            index of the reference, {@code 0 <= idx < size()}.
+	 * @return the reference.
+	 */
+	Ref get(final int idx) {
+		Ref r = refs[idx];
+		if (r == null) {
+			r = parse(lines[idx]);
+			refs[idx] = r;
+		}
+		return r;
+	}
+
+	/**
+	 * Get all references whose names begin with a prefix.
+	 *
+	 * @param prefix
+	 *            the name prefix; the empty string selects every reference.
+	 * @return the matching references, in sorted order.
+	 */
+	RefList<Ref> getRefs(final String prefix) {
+		final byte[] p = Constants.encode(prefix);
+		int low = 0;
+		int high = cnt;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (compareName(lines[mid], p, true) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		int last = low;
+		while (last < cnt && compareName(lines[last], p, true) == 0)
+			last++;
+
+		final RefList.Builder<Ref> b = new RefList.Builder<Ref>(last - low);
+		for (int i = low; i < last; i++)
+			b.add(get(i));
+		return b.toRefList();
+	}
+
+	private Ref parse(final int ptr) {
+		final int eol = endOfLine(ptr);
+		final byte[] line = new byte[eol - ptr];
+		read(ptr, line);
+		final ObjectId id = ObjectId.fromString(line, 0);
+		final String name = RawParseUtils.decode(Constants.CHARSET, line,
+				NAME_OFFSET, line.length);
+
+		final int next = eol + 1;
+		if (next < end && buf.get(next) == '^') {
+			final byte[] tag = new byte[OBJECT_ID_STRING_LENGTH];
+			read(next + 1, tag);
+			return new ObjectIdRef.PeeledTag(PACKED, name, id, ObjectId
+					.fromString(tag, 0));
+		}
+		if (peeled)
+			return new ObjectIdRef.PeeledNonTag(PACKED, name, id);
+		return new ObjectIdRef.Unpeeled(PACKED, name, id);
+	}
+
+	private void read(final int ptr, final byte[] dst) {
+		final ByteBuffer b = buf.duplicate();
+		b.position(ptr);
+		b.get(dst);
+	}
+}
@@ -48,14 +48,11 @@
 
 import static org.eclipse.jgit.lib.Constants.CHARSET;
 import static org.eclipse.jgit.lib.Constants.HEAD;
-import static org.eclipse.jgit.lib.Constants.LOGS;
 import static org.eclipse.jgit.lib.Constants.OBJECT_ID_STRING_LENGTH;
 import static org.eclipse.jgit.lib.Constants.PACKED_REFS;
 import static org.eclipse.jgit.lib.Constants.R_HEADS;
 import static org.eclipse.jgit.lib.Constants.R_REFS;
-import static org.eclipse.jgit.lib.Constants.R_REMOTES;
 import static org.eclipse.jgit.lib.Constants.R_TAGS;
-import static org.eclipse.jgit.lib.Constants.encode;
 import static org.eclipse.jgit.lib.Ref.Storage.LOOSE;
 import static org.eclipse.jgit.lib.Ref.Storage.NEW;
 import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
@@ -64,12 +61,14 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -78,7 +77,6 @@
 import org.eclipse.jgit.errors.ObjectWritingException;
 import org.eclipse.jgit.events.RefsChangedEvent;
 import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.PersonIdent;
@@ -129,9 +127,7 @@ public class RefDirectory extends RefDatabase {
 
 	private final File refsDir;
 
-	private final File logsDir;
-
-	private final File logsRefsDir;
+	private final ReflogWriter logWriter;
 
 	private final File packedRefsFile;
 
@@ -169,8 +165,7 @@ public class RefDirectory extends RefDatabase {
 		parent = db;
 		gitDir = db.getDirectory();
 		refsDir = fs.resolve(gitDir, R_REFS);
-		logsDir = fs.resolve(gitDir, LOGS);
-		logsRefsDir = fs.resolve(gitDir, LOGS + '/' + R_REFS);
+		logWriter = new ReflogWriter(db);
 		packedRefsFile = fs.resolve(gitDir, PACKED_REFS);
 
 		looseRefs.set(RefList.<LooseRef> emptyList());
@@ -181,14 +176,26 @@ Repository getRepository() {
 		return parent;
 	}
 
+	/**
+	 * Get the number of changes made to or noticed in the references.
+	 * <p>
+	 * The count increases whenever a reference is updated through this
+	 * database, or a read finds a reference was changed on disk by another
+	 * process. Values computed from the references can be reused as long as
+	 * the count read before computing them is unchanged after the next read
+	 * of the references.
+	 *
+	 * @return the current modification count.
+	 */
+	public int getModificationCount() {
+		return modCnt.get();
+	}
+
 	public void create() throws IOException {
 		refsDir.mkdir();
-		logsDir.mkdir();
-		logsRefsDir.mkdir();
-
 		new File(refsDir, R_HEADS.substring(R_REFS.length())).mkdir();
 		new File(refsDir, R_TAGS.substring(R_REFS.length())).mkdir();
-		new File(logsRefsDir, R_HEADS.substring(R_REFS.length())).mkdir();
+		logWriter.create();
 	}
 
 	@Override
@@ -203,7 +210,7 @@ void rescan() {
 
 	@Override
 	public boolean isNameConflicting(String name) throws IOException {
-		RefList<Ref> packed = getPackedRefs();
+		PackedRefList packed = getPackedRefs();
 		RefList<LooseRef> loose = getLooseRefs();
 
 		// Cannot be nested within an existing reference.
@@ -248,7 +255,7 @@ private RefList<LooseRef> getLooseRefs() {
 
 	@Override
 	public Ref getRef(final String needle) throws IOException {
-		final RefList<Ref> packed = getPackedRefs();
+		final PackedRefList packed = getPackedRefs();
 		Ref ref = null;
 		for (String prefix : SEARCH_PATH) {
 			ref = readRef(prefix + needle, packed);
@@ -263,7 +270,7 @@ public Ref getRef(final String needle) throws IOException {
 
 	@Override
 	public Map<String, Ref> getRefs(String prefix) throws IOException {
-		final RefList<Ref> packed = getPackedRefs();
+		final PackedRefList packed = getPackedRefs();
 		final RefList<LooseRef> oldLoose = looseRefs.get();
 
 		LooseScanner scan = new LooseScanner(oldLoose);
@@ -294,7 +301,8 @@ public Map<String, Ref> getRefs(String prefix) throws IOException {
 			}
 		}
 
-		return new RefMap(prefix, packed, upcast(loose), symbolic.toRefList());
+		return new RefMap(prefix, packed.getRefs(prefix), upcast(loose),
+				symbolic.toRefList());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -468,7 +476,7 @@ void storedSymbolicRef(RefDirectoryUpdate u, long modified, String target) {
 
 	public RefDirectoryUpdate newUpdate(String name, boolean detach)
 			throws IOException {
-		final RefList<Ref> packed = getPackedRefs();
+		final PackedRefList packed = getPackedRefs();
 		Ref ref = readRef(name, packed);
 		if (ref != null)
 			ref = resolve(ref, 0, null, null, packed);
@@ -521,7 +529,7 @@ void delete(RefDirectoryUpdate update) throws IOException {
 				PackedRefList cur = readPackedRefs(0, 0);
 				int idx = cur.find(name);
 				if (0 <= idx)
-					commitPackedRefs(lck, cur.remove(idx), packed);
+					commitPackedRefs(lck, cur.toRefList().remove(idx), packed);
 			} finally {
 				lck.unlock();
 			}
@@ -547,79 +555,189 @@ void delete(RefDirectoryUpdate update) throws IOException {
 		fireRefsChanged();
 	}
 
-	void log(final RefUpdate update, final String msg, final boolean deref)
-			throws IOException {
-		final ObjectId oldId = update.getOldObjectId();
-		final ObjectId newId = update.getNewObjectId();
-		final Ref ref = update.getRef();
-
-		PersonIdent ident = update.getRefLogIdent();
-		if (ident == null)
-			ident = new PersonIdent(parent);
-		else
-			ident = new PersonIdent(ident);
-
-		final StringBuilder r = new StringBuilder();
-		r.append(ObjectId.toString(oldId));
-		r.append(' ');
-		r.append(ObjectId.toString(newId));
-		r.append(' ');
-		r.append(ident.toExternalString());
-		r.append('\t');
-		r.append(msg);
-		r.append('\n');
-		final byte[] rec = encode(r.toString());
-
-		if (deref && ref.isSymbolic()) {
-			log(ref.getName(), rec);
-			log(ref.getLeaf().getName(), rec);
-		} else {
-			log(ref.getName(), rec);
-		}
+	@Override
+	public PackedBatchRefUpdate newBatchUpdate() {
+		return new PackedBatchRefUpdate(this);
 	}
 
-	private void log(final String refName, final byte[] rec) throws IOException {
-		final File log = logFor(refName);
-		final boolean write;
-		if (isLogAllRefUpdates() && shouldAutoCreateLog(refName))
-			write = true;
-		else if (log.isFile())
-			write = true;
-		else
-			write = false;
-
-		if (write) {
-			FileOutputStream out;
-			try {
-				out = new FileOutputStream(log, true);
-			} catch (FileNotFoundException err) {
-				final File dir = log.getParentFile();
-				if (dir.exists())
-					throw err;
-				if (!dir.mkdirs() && !dir.isDirectory())
-					throw new IOException(MessageFormat.format(JGitText.get().cannotCreateDirectory, dir));
-				out = new FileOutputStream(log, true);
+	@Override
+	public boolean performsAtomicTransactions() {
+		return true;
+	}
+
+	/**
+	 * Lock the packed-refs file for a rewrite.
+	 *
+	 * @return the lock, or null if another process holds it.
+	 * @throws IOException
+	 *             the lock file could not be created.
+	 */
+	LockFile lockPackedRefs() throws IOException {
+		final LockFile lck = new LockFile(packedRefsFile, parent.getFS());
+		return lck.lock() ? lck : null;
+	}
+
+	/**
+	 * Delete loose files whose values were moved into packed-refs.
+	 * <p>
+	 * The caller must hold the lock of every named reference.
+	 *
+	 * @param names
+	 *            references whose loose file should be removed.
+	 * @throws IOException
+	 *             a loose file exists but could not be deleted.
+	 */
+	void deleteLoose(final Set<String> names) throws IOException {
+		for (final String name : names)
+			delete(fileFor(name), 0);
+
+		RefList<LooseRef> curLoose, newLoose;
+		do {
+			curLoose = looseRefs.get();
+			RefList.Builder<LooseRef> b = new RefList.Builder<LooseRef>(
+					curLoose.size());
+			for (int i = 0; i < curLoose.size(); i++) {
+				final LooseRef r = curLoose.get(i);
+				if (!names.contains(r.getName()))
+					b.add(r);
+			}
+			newLoose = b.toRefList();
+		} while (!looseRefs.compareAndSet(curLoose, newLoose));
+
+		modCnt.incrementAndGet();
+		fireRefsChanged();
+	}
+
+	/**
+	 * Move loose references into the packed-refs file.
+	 * <p>
+	 * Every reference in the packed-refs file is peeled as it is rewritten.
+	 * A reference whose object cannot be read is left loose, or unpeeled if it
+	 * was already packed. A loose file is only deleted if it still holds the value that was
+	 * packed, and is left alone if another update currently holds its lock.
+	 * Symbolic references are never packed.
+	 *
+	 * @param refs
+	 *            names of the references to pack.
+	 * @throws IOException
+	 *             the packed-refs file could not be locked or written.
+	 */
+	void pack(final List<String> refs) throws IOException {
+		if (refs.isEmpty())
+			return;
+
+		final FS fs = parent.getFS();
+		final LockFile lck = new LockFile(packedRefsFile, fs);
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, packedRefsFile));
+
+		final Map<String, ObjectId> packed = new HashMap<String, ObjectId>();
+		final RevWalk rw = new RevWalk(getRepository());
+		try {
+			final PackedRefList oldPacked = getPackedRefs();
+			final PackedRefList onDisk = readPackedRefs(0, 0);
+			RefList<Ref> cur = onDisk.toRefList();
+			for (final String name : refs) {
+				final Ref ref = readRef(name, onDisk);
+				if (ref == null || ref.isSymbolic()
+						|| !ref.getStorage().isLoose())
+					continue;
+				final Ref p = tryPeelPacked(rw, ref);
+				if (p == null)
+					continue; // Broken ref; leave it loose.
+				final int idx = cur.find(name);
+				if (0 <= idx)
+					cur = cur.set(idx, p);
+				else
+					cur = cur.add(-(idx + 1), p);
+				packed.put(name, ref.getObjectId());
 			}
+
+			// The file can only claim to be peeled if all of its entries
+			// are, so try to peel entries packed earlier without peeling.
+			// Those that cannot be read are kept unpeeled.
+			//
+			for (int i = 0; i < cur.size(); i++) {
+				final Ref r = cur.get(i);
+				if (!r.isPeeled()) {
+					final Ref p = tryPeelPacked(rw, r);
+					if (p != null)
+						cur = cur.set(i, p);
+				}
+			}
+			commitPackedRefs(lck, cur, oldPacked);
+		} finally {
+			rw.release();
+			lck.unlock();
+		}
+
+		for (final Map.Entry<String, ObjectId> e : packed.entrySet()) {
+			final String name = e.getKey();
+			final LockFile rLck = new LockFile(fileFor(name), fs);
+			if (!rLck.lock())
+				continue; // Being updated; the loose value wins anyway.
 			try {
-				out.write(rec);
+				final LooseRef now = scanRef(null, name);
+				if (now == null || now.isSymbolic()
+						|| !e.getValue().equals(now.getObjectId()))
+					continue;
+				delete(fileFor(name), levelsIn(name) - 2);
+
+				RefList<LooseRef> curLoose, newLoose;
+				do {
+					curLoose = looseRefs.get();
+					final int idx = curLoose.find(name);
+					if (idx < 0)
+						break;
+					newLoose = curLoose.remove(idx);
+				} while (!looseRefs.compareAndSet(curLoose, newLoose));
 			} finally {
-				out.close();
+				rLck.unlock();
 			}
 		}
+
+		modCnt.incrementAndGet();
+		fireRefsChanged();
 	}
 
-	private boolean isLogAllRefUpdates() {
-		return parent.getConfig().get(CoreConfig.KEY).isLogAllRefUpdates();
+	private static Ref tryPeelPacked(final RevWalk rw, final Ref ref) {
+		try {
+			return peelPacked(rw, ref);
+		} catch (IOException err) {
+			// Missing or corrupt object; the caller decides what to keep.
+			return null;
+		}
+	}
+
+	static Ref peelPacked(final RevWalk rw, final Ref ref)
+			throws IOException {
+		final ObjectId id = ref.getObjectId();
+		final ObjectId peeled;
+		if (ref.isPeeled())
+			peeled = ref.getPeeledObjectId();
+		else {
+			final RevObject obj = rw.parseAny(id);
+			peeled = obj instanceof RevTag ? rw.peel(obj).copy() : null;
+		}
+		if (peeled != null)
+			return new ObjectIdRef.PeeledTag(PACKED, ref.getName(), id, peeled);
+		return new ObjectIdRef.PeeledNonTag(PACKED, ref.getName(), id);
+	}
+
+	void log(final RefUpdate update, final String msg, final boolean deref)
+			throws IOException {
+		logWriter.log(update, msg, deref);
 	}
 
-	private boolean shouldAutoCreateLog(final String refName) {
-		return refName.equals(HEAD) //
-				|| refName.startsWith(R_HEADS) //
-				|| refName.startsWith(R_REMOTES);
+	void log(final String refName, final ObjectId oldId,
+			final ObjectId newId, final PersonIdent ident, final String msg)
+			throws IOException {
+		logWriter.log(refName, oldId, newId, ident, msg);
 	}
 
 	private Ref resolve(final Ref ref, int depth, String prefix,
-			RefList<LooseRef> loose, RefList<Ref> packed) throws IOException {
+			RefList<LooseRef> loose, PackedRefList packed) throws IOException {
 		if (ref.isSymbolic()) {
 			Ref dst = ref.getTarget();
 
@@ -650,7 +768,7 @@ else if (0 <= (idx = packed.find(dst.getName())))
 		return ref;
 	}
 
-	private PackedRefList getPackedRefs() throws IOException {
+	PackedRefList getPackedRefs() throws IOException {
 		long size = packedRefsFile.length();
 		long mtime = size != 0 ? packedRefsFile.lastModified() : 0;
 
@@ -664,20 +782,29 @@ private PackedRefList getPackedRefs() throws IOException {
 		return newList;
 	}
 
-	private PackedRefList readPackedRefs(long size, long mtime)
+	PackedRefList readPackedRefs(long size, long mtime)
 			throws IOException {
-		final BufferedReader br;
+		final FileInputStream in;
 		try {
-			br = new BufferedReader(new InputStreamReader(new FileInputStream(
-					packedRefsFile), CHARSET));
+			in = new FileInputStream(packedRefsFile);
 		} catch (FileNotFoundException noPackedRefs) {
 			// Ignore it and leave the new list empty.
 			return PackedRefList.NO_PACKED_REFS;
 		}
 		try {
+			final PackedRefsBuffer buf = PackedRefsBuffer.open(in.getChannel());
+			if (buf != null)
+				return new PackedRefList(buf, size, mtime);
+
+			// The file cannot be searched in place, usually because it
+			// was not written in sorted order. Parse it completely.
+			//
+			in.getChannel().position(0);
+			final BufferedReader br = new BufferedReader(
+					new InputStreamReader(in, CHARSET));
 			return new PackedRefList(parsePackedRefs(br), size, mtime);
 		} finally {
-			br.close();
+			in.close();
 		}
 	}
 
@@ -734,7 +861,7 @@ private static String copy(final String src, final int off, final int end) {
 		return new StringBuilder(end - off).append(src, off, end).toString();
 	}
 
-	private void commitPackedRefs(final LockFile lck, final RefList<Ref> refs,
+	void commitPackedRefs(final LockFile lck, final RefList<Ref> refs,
 			final PackedRefList oldPackedList) throws IOException {
 		new RefWriter(refs) {
 			@Override
@@ -761,7 +888,7 @@ protected void writeFile(String name, byte[] content)
 		}.writePackedRefs();
 	}
 
-	private Ref readRef(String name, RefList<Ref> packed) throws IOException {
+	Ref readRef(String name, PackedRefList packed) throws IOException {
 		final RefList<LooseRef> curList = looseRefs.get();
 		final int idx = curList.find(name);
 		if (0 <= idx) {
@@ -894,11 +1021,7 @@ File fileFor(String name) {
 	 * @return the log file location.
 	 */
 	File logFor(String name) {
-		if (name.startsWith(R_REFS)) {
-			name = name.substring(R_REFS.length());
-			return new File(logsRefsDir, name);
-		}
-		return new File(logsDir, name);
+		return logWriter.logFor(name);
 	}
 
 	static int levelsIn(final String name) {
@@ -920,9 +1043,13 @@ static void delete(final File file, final int depth) throws IOException {
 		}
 	}
 
-	private static class PackedRefList extends RefList<Ref> {
+	/**
+	 * Sorted packed references, either parsed into a {@link RefList} or
+	 * searched directly in the file's {@link PackedRefsBuffer}.
+	 */
+	static class PackedRefList {
 		static final PackedRefList NO_PACKED_REFS = new PackedRefList(RefList
-				.emptyList(), 0, 0);
+				.<Ref> emptyList(), 0, 0);
 
 		/** Last length of the packed-refs file when we read it. */
 		final long lastSize;
@@ -930,11 +1057,60 @@ private static class PackedRefList extends RefList<Ref> {
 		/** Last modified time of the packed-refs file when we read it. */
 		final long lastModified;
 
+		/** Parsed references; null if {@link #buf} is searched instead. */
+		private final RefList<Ref> list;
+
+		private final PackedRefsBuffer buf;
+
 		PackedRefList(RefList<Ref> src, long size, long mtime) {
-			super(src);
+			list = src;
+			buf = null;
 			lastSize = size;
 			lastModified = mtime;
 		}
+
+		PackedRefList(PackedRefsBuffer src, long size, long mtime) {
+			list = null;
+			buf = src;
+			lastSize = size;
+			lastModified = mtime;
+		}
+
+		int size() {
+			return list != null ? list.size() : buf.size();
+		}
+
+		int find(String name) {
+			return list != null ? list.find(name) : buf.find(name);
+		}
+
+		Ref get(int idx) {
+			return list != null ? list.get(idx) : buf.get(idx);
+		}
+
+		Ref get(String name) {
+			final int idx = find(name);
+			return 0 <= idx ? get(idx) : null;
+		}
+
+		boolean contains(String name) {
+			return 0 <= find(name);
+		}
+
+		/**
+		 * @param prefix
+		 *            name prefix; the empty string selects all references.
+		 * @return references starting with {@code prefix}. Others may also
+		 *         be included if they were already parsed.
+		 */
+		RefList<Ref> getRefs(String prefix) {
+			return list != null ? list : buf.getRefs(prefix);
+		}
+
+		/** @return every reference, for modification by the caller. */
+		RefList<Ref> toRefList() {
+			return list != null ? list : buf.getRefs("");
+		}
 	}
 
 	private static LooseSymbolicRef newSymbolicRef(long lastModified,
@@ -121,7 +121,7 @@ protected Result doUpdate(final Result status) throws IOException {
 		return status;
 	}
 
-	private String toResultString(final Result status) {
+	static String toResultString(final Result status) {
 		switch (status) {
 		case FORCED:
 			return "forced-update";
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.LOGS;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_REFS;
+import static org.eclipse.jgit.lib.Constants.R_REMOTES;
+import static org.eclipse.jgit.lib.Constants.encode;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Appends records to the reflog files under {@code $GIT_DIR/logs}.
+ * <p>
+ * Shared by the reference databases of a {@link FileRepository}, which all
+ * keep their logs in the traditional one-file-per-reference layout.
+ */
+class ReflogWriter {
+	private final Repository parent;
+
+	private final File logsDir;
+
+	private final File logsRefsDir;
+
+	ReflogWriter(final Repository db) {
+		final FS fs = db.getFS();
+		parent = db;
+		logsDir = fs.resolve(db.getDirectory(), LOGS);
+		logsRefsDir = fs.resolve(db.getDirectory(), LOGS + '/' + R_REFS);
+	}
+
+	/** Create the log directories of a new repository. */
+	void create() {
+		logsDir.mkdir();
+		logsRefsDir.mkdir();
+		new File(logsRefsDir, R_HEADS.substring(R_REFS.length())).mkdir();
+	}
+
+	/**
+	 * Locate the log file on disk for a single reference name.
+	 *
+	 * @param name
+	 *            name of the ref, relative to the Git repository top level
+	 *            directory (so typically starts with refs/).
+	 * @return the log file location.
+	 */
+	File logFor(String name) {
+		if (name.startsWith(R_REFS)) {
+			name = name.substring(R_REFS.length());
+			return new File(logsRefsDir, name);
+		}
+		return new File(logsDir, name);
+	}
+
+	/**
+	 * Record the result of an update in the reference's log.
+	 *
+	 * @param update
+	 *            the update that was made.
+	 * @param msg
+	 *            message describing the update.
+	 * @param deref
+	 *            true if the leaf of a symbolic reference was updated, and
+	 *            should be logged in addition to the reference itself.
+	 * @throws IOException
+	 *             the log could not be written.
+	 */
+	void log(final RefUpdate update, final String msg, final boolean deref)
+			throws IOException {
+		final Ref ref = update.getRef();
+		final PersonIdent ident = update.getRefLogIdent();
+		final ObjectId oldId = update.getOldObjectId();
+		final ObjectId newId = update.getNewObjectId();
+
+		if (deref && ref.isSymbolic()) {
+			log(ref.getName(), oldId, newId, ident, msg);
+			log(ref.getLeaf().getName(), oldId, newId, ident, msg);
+		} else {
+			log(ref.getName(), oldId, newId, ident, msg);
+		}
+	}
+
+	/**
+	 * Append one record to a reference's log.
+	 *
+	 * @param refName
+	 *            name of the reference.
+	 * @param oldId
+	 *            previous value; null if the reference did not exist.
+	 * @param newId
+	 *            new value; null if the reference was deleted.
+	 * @param ident
+	 *            who made the change; null to use the repository's default.
+	 * @param msg
+	 *            message describing the change.
+	 * @throws IOException
+	 *             the log could not be written.
+	 */
+	void log(final String refName, final ObjectId oldId,
+			final ObjectId newId, PersonIdent ident, final String msg)
+			throws IOException {
+		if (ident == null)
+			ident = new PersonIdent(parent);
+		else
+			ident = new PersonIdent(ident);
+
+		final StringBuilder r = new StringBuilder();
+		r.append(ObjectId.toString(oldId));
+		r.append(' ');
+		r.append(ObjectId.toString(newId));
+		r.append(' ');
+		r.append(ident.toExternalString());
+		r.append('\t');
+		r.append(msg);
+		r.append('\n');
+		append(refName, encode(r.toString()));
+	}
+
+	private void append(final String refName, final byte[] rec)
+			throws IOException {
+		final File log = logFor(refName);
+		final boolean write;
+		if (isLogAllRefUpdates() && shouldAutoCreateLog(refName))
+			write = true;
+		else if (log.isFile())
+			write = true;
+		else
+			write = false;
+
+		if (write) {
+			FileOutputStream out;
+			try {
+				out = new FileOutputStream(log, true);
+			} catch (FileNotFoundException err) {
+				final File dir = log.getParentFile();
+				if (dir.exists())
+					throw err;
+				if (!dir.mkdirs() && !dir.isDirectory())
+					throw new IOException(MessageFormat.format(JGitText.get().cannotCreateDirectory, dir));
+				out = new FileOutputStream(log, true);
+			}
+			try {
+				out.write(rec);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	private boolean isLogAllRefUpdates() {
+		return parent.getConfig().get(CoreConfig.KEY).isLogAllRefUpdates();
+	}
+
+	private boolean shouldAutoCreateLog(final String refName) {
+		return refName.equals(HEAD) //
+				|| refName.startsWith(R_HEADS) //
+				|| refName.startsWith(R_REMOTES);
+	}
+}
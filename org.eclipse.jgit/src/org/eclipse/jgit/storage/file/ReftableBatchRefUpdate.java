@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+import static org.eclipse.jgit.storage.file.PackedBatchRefUpdate.allPending;
+import static org.eclipse.jgit.storage.file.PackedBatchRefUpdate.refLogMessage;
+import static org.eclipse.jgit.storage.file.PackedBatchRefUpdate.rejectSymbolic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+/**
+ * Batch update of a {@link ReftableDatabase}, stored as one new table.
+ * <p>
+ * The stack is locked once, the current values are verified, and every
+ * accepted command is committed by a single table append.
+ */
+class ReftableBatchRefUpdate extends BatchRefUpdate {
+	private final ReftableDatabase refdb;
+
+	ReftableBatchRefUpdate(final ReftableDatabase refdb) {
+		super(refdb);
+		this.refdb = refdb;
+	}
+
+	@Override
+	public void execute(RevWalk walk, ProgressMonitor monitor)
+			throws IOException {
+		final List<ReceiveCommand> pending = getPending();
+		if (pending.isEmpty())
+			return;
+		if (!checkRefNames(pending)) {
+			if (isAtomic())
+				rejectSymbolic(pending);
+			else
+				super.execute(walk, monitor);
+			return;
+		}
+		if (isAtomic() && !allPending(pending)) {
+			abort(pending);
+			return;
+		}
+
+		monitor.beginTask(JGitText.get().updatingReferences, pending.size());
+		final String currentBranch = getCurrentBranch();
+		final LockFile lck = refdb.lock();
+		if (lck == null) {
+			for (final ReceiveCommand cmd : pending)
+				if (cmd.getResult() == ReceiveCommand.Result.NOT_ATTEMPTED)
+					cmd.setResult(ReceiveCommand.Result.LOCK_FAILURE);
+			monitor.endTask();
+			return;
+		}
+
+		try {
+			final List<ReceiveCommand> toStore = new ArrayList<ReceiveCommand>();
+			final List<RefUpdate.Result> status = new ArrayList<RefUpdate.Result>();
+			final List<ObjectId> oldIds = new ArrayList<ObjectId>();
+			final List<Ref> changes = new ArrayList<Ref>();
+			for (final ReceiveCommand cmd : pending) {
+				if (cmd.getResult() != ReceiveCommand.Result.NOT_ATTEMPTED)
+					continue;
+				final String name = cmd.getRefName();
+				final Ref cur = refdb.exactRef(name);
+				final RefUpdate.Result r;
+				if (cur != null && cur.isSymbolic())
+					r = RefUpdate.Result.LOCK_FAILURE; // Changed since checked.
+				else
+					r = check(cmd, cur != null ? cur.getObjectId() : null,
+							currentBranch, walk);
+				switch (r) {
+				case NEW:
+				case FAST_FORWARD:
+				case FORCED:
+				case NO_CHANGE:
+					toStore.add(cmd);
+					status.add(r);
+					oldIds.add(cur != null ? cur.getObjectId() : null);
+					if (cmd.getType() == ReceiveCommand.Type.DELETE)
+						changes.add(ReftableDatabase.deletion(name));
+					else
+						changes.add(new ObjectIdRef.Unpeeled(PACKED, name, cmd
+								.getNewId().copy()));
+					break;
+				default:
+					cmd.setResult(r);
+					break;
+				}
+				monitor.update(1);
+			}
+			if (isAtomic() && !allPending(pending)) {
+				abort(pending);
+				return;
+			}
+			if (toStore.isEmpty())
+				return;
+
+			refdb.commit(lck, changes);
+			for (int i = 0; i < toStore.size(); i++)
+				toStore.get(i).setResult(status.get(i));
+			log(toStore, status, oldIds);
+		} finally {
+			lck.unlock();
+			monitor.endTask();
+		}
+	}
+
+	private void log(final List<ReceiveCommand> stored,
+			final List<RefUpdate.Result> status, final List<ObjectId> oldIds)
+			throws IOException {
+		PersonIdent ident = null;
+		for (int i = 0; i < stored.size(); i++) {
+			final ReceiveCommand cmd = stored.get(i);
+			final String name = cmd.getRefName();
+			if (cmd.getType() == ReceiveCommand.Type.DELETE) {
+				RefDirectory.delete(refdb.logFor(name), RefDirectory
+						.levelsIn(name) - 2);
+			} else if (!isRefLogDisabled()) {
+				if (ident == null)
+					ident = getRefLogIdent() != null ? getRefLogIdent()
+							: new PersonIdent(refdb.getRepository());
+				refdb.log(name, oldIds.get(i), cmd.getNewId(), ident,
+						refLogMessage(this, status.get(i)));
+			}
+		}
+	}
+}
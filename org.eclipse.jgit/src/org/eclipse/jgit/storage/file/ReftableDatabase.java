@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.R_REFS;
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.RefList;
+import org.eclipse.jgit.util.RefMap;
+
+/**
+ * Reference database storing all references in a stack of reftables.
+ * <p>
+ * Instead of one file per loose reference plus a {@code packed-refs} file,
+ * every reference (including {@code HEAD}) lives in the binary, sorted
+ * tables of a {@link ReftableStack} in {@code $GIT_DIR/reftable}. A lookup
+ * costs a binary search per table, {@link #getRefs(String)} seeks directly
+ * to the prefix, and an update of any number of references writes one
+ * small table instead of rewriting the whole database.
+ * <p>
+ * A repository uses this database when {@code core.refStorage} is set to
+ * {@code reftable} before it is created. Creation records the choice as
+ * {@code extensions.refStorage}, and only that entry selects this database
+ * when the repository is opened again. Reflogs are still kept in
+ * {@code $GIT_DIR/logs}.
+ */
+public class ReftableDatabase extends RefDatabase {
+	/** Name of the directory holding the reftables. */
+	public static final String REFTABLE = "reftable";
+
+	/** Target of the placeholder {@code HEAD} file, which is never used. */
+	private static final String INVALID_HEAD = R_REFS + "heads/.invalid";
+
+	private final FileRepository parent;
+
+	private final File refsDir;
+
+	private final ReftableStack stack;
+
+	private final ReflogWriter logWriter;
+
+	/** Last modification count of the stack that we sent to listeners. */
+	private final AtomicInteger lastNotifiedModCnt = new AtomicInteger();
+
+	ReftableDatabase(final FileRepository db) {
+		parent = db;
+		refsDir = db.getFS().resolve(db.getDirectory(), R_REFS);
+		stack = new ReftableStack(db.getFS().resolve(db.getDirectory(),
+				REFTABLE), db.getFS());
+		logWriter = new ReflogWriter(db);
+	}
+
+	Repository getRepository() {
+		return parent;
+	}
+
+	/**
+	 * Get the number of changes made to or noticed in the references.
+	 *
+	 * @return the current modification count.
+	 * @see RefDirectory#getModificationCount()
+	 */
+	public int getModificationCount() {
+		return stack.getModificationCount();
+	}
+
+	public void create() throws IOException {
+		stack.create();
+		logWriter.create();
+
+		// Tools expecting loose references find a repository that has
+		// a refs directory and a HEAD, but whose HEAD never resolves.
+		refsDir.mkdir();
+		final FileOutputStream out = new FileOutputStream(new File(parent
+				.getDirectory(), HEAD));
+		try {
+			out.write(Constants.encode(RefDirectory.SYMREF + INVALID_HEAD
+					+ '\n'));
+		} finally {
+			out.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		// We have no resources to close.
+	}
+
+	@Override
+	public boolean isNameConflicting(String name) throws IOException {
+		final ReftableStack.Snapshot snap = stack.read();
+
+		// Cannot be nested within an existing reference.
+		int lastSlash = name.lastIndexOf('/');
+		while (0 < lastSlash) {
+			if (snap.exactRef(name.substring(0, lastSlash)) != null)
+				return true;
+			lastSlash = name.lastIndexOf('/', lastSlash - 1);
+		}
+
+		// Cannot be the container of an existing reference.
+		return snap.scan(name + '/').next();
+	}
+
+	@Override
+	public Ref getRef(final String needle) throws IOException {
+		final ReftableStack.Snapshot snap = stack.read();
+		Ref ref = null;
+		for (String prefix : SEARCH_PATH) {
+			ref = snap.exactRef(prefix + needle);
+			if (ref != null) {
+				ref = resolve(ref, 0, snap);
+				break;
+			}
+		}
+		fireRefsChanged();
+		return ref;
+	}
+
+	/**
+	 * Read a reference by its exact name, without a search path.
+	 *
+	 * @param name
+	 *            complete name of the reference.
+	 * @return the resolved reference; null if it does not exist.
+	 * @throws IOException
+	 *             the tables could not be read.
+	 */
+	Ref exactRef(final String name) throws IOException {
+		final ReftableStack.Snapshot snap = stack.read();
+		final Ref ref = snap.exactRef(name);
+		return ref != null ? resolve(ref, 0, snap) : null;
+	}
+
+	@Override
+	public Map<String, Ref> getRefs(String prefix) throws IOException {
+		final ReftableStack.Snapshot snap = stack.read();
+		final ReftableStack.MergedCursor c = snap.scan(prefix);
+		final RefList.Builder<Ref> all = new RefList.Builder<Ref>();
+		while (c.next()) {
+			Ref ref = c.getRef();
+			if (ref.isSymbolic()) {
+				// Broken symbolic references are not returned, matching
+				// the loose reference directory.
+				ref = resolve(ref, 0, snap);
+				if (ref == null || ref.getObjectId() == null)
+					continue;
+			}
+			all.add(ref);
+		}
+		fireRefsChanged();
+		return new RefMap(prefix, all.toRefList(), RefList.<Ref> emptyList(),
+				RefList.<Ref> emptyList());
+	}
+
+	private Ref resolve(final Ref ref, final int depth,
+			final ReftableStack.Snapshot snap) throws IOException {
+		if (!ref.isSymbolic())
+			return ref;
+		if (MAX_SYMBOLIC_REF_DEPTH <= depth)
+			return null; // claim it doesn't exist
+
+		Ref dst = snap.exactRef(ref.getTarget().getName());
+		if (dst == null)
+			return ref;
+		dst = resolve(dst, depth + 1, snap);
+		if (dst == null)
+			return null;
+		return new SymbolicRef(ref.getName(), dst);
+	}
+
+	@Override
+	public Ref peel(final Ref ref) throws IOException {
+		final Ref leaf = ref.getLeaf();
+		if (leaf.isPeeled() || leaf.getObjectId() == null)
+			return ref;
+		return recreate(ref, doPeel(leaf));
+	}
+
+	private ObjectIdRef doPeel(final Ref leaf) throws MissingObjectException,
+			IOException {
+		RevWalk rw = new RevWalk(getRepository());
+		try {
+			RevObject obj = rw.parseAny(leaf.getObjectId());
+			if (obj instanceof RevTag) {
+				return new ObjectIdRef.PeeledTag(leaf.getStorage(), leaf
+						.getName(), leaf.getObjectId(), rw.peel(obj).copy());
+			} else {
+				return new ObjectIdRef.PeeledNonTag(leaf.getStorage(), leaf
+						.getName(), leaf.getObjectId());
+			}
+		} finally {
+			rw.release();
+		}
+	}
+
+	private static Ref recreate(final Ref old, final ObjectIdRef leaf) {
+		if (old.isSymbolic()) {
+			Ref dst = recreate(old.getTarget(), leaf);
+			return new SymbolicRef(old.getName(), dst);
+		}
+		return leaf;
+	}
+
+	@Override
+	public ReftableUpdate newUpdate(String name, boolean detach)
+			throws IOException {
+		Ref ref = exactRef(name);
+		if (ref == null)
+			ref = new ObjectIdRef.Unpeeled(NEW, name, null);
+		else if (detach && ref.isSymbolic())
+			ref = new ObjectIdRef.Unpeeled(PACKED, name, ref.getObjectId());
+		return new ReftableUpdate(this, ref);
+	}
+
+	@Override
+	public ReftableRename newRename(String fromName, String toName)
+			throws IOException {
+		ReftableUpdate from = newUpdate(fromName, false);
+		ReftableUpdate to = newUpdate(toName, false);
+		return new ReftableRename(from, to);
+	}
+
+	@Override
+	public ReftableBatchRefUpdate newBatchUpdate() {
+		return new ReftableBatchRefUpdate(this);
+	}
+
+	@Override
+	public boolean performsAtomicTransactions() {
+		return true;
+	}
+
+	/**
+	 * Compact all tables into a single table.
+	 * <p>
+	 * Updates compact the most recent tables automatically, keeping lookups
+	 * fast. A full compaction additionally drops the records of deleted
+	 * references, and is done by garbage collection.
+	 *
+	 * @throws IOException
+	 *             the stack could not be locked, or written.
+	 */
+	public void compact() throws IOException {
+		final LockFile lck = lock();
+		if (lck == null)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, new File(stack
+							.getDirectory(), ReftableStack.TABLES_LIST)));
+		try {
+			stack.compact(lck);
+		} finally {
+			lck.unlock();
+		}
+		fireRefsChanged();
+	}
+
+	/** @return number of tables currently in the stack. */
+	int getTableCount() throws IOException {
+		return stack.read().tables.length;
+	}
+
+	/**
+	 * Lock the database against other updates.
+	 *
+	 * @return the lock, or null if another update holds it.
+	 * @throws IOException
+	 *             the lock could not be created.
+	 */
+	LockFile lock() throws IOException {
+		return stack.lock();
+	}
+
+	/**
+	 * Atomically store a set of changes.
+	 *
+	 * @param lck
+	 *            lock obtained from {@link #lock()}, held since the current
+	 *            values were verified. The caller must still unlock it.
+	 * @param changes
+	 *            new values of the references; {@link #deletion(String)}
+	 *            removes a reference.
+	 * @throws IOException
+	 *             the changes could not be written. None of them were made.
+	 */
+	void commit(final LockFile lck, final Collection<Ref> changes)
+			throws IOException {
+		stack.append(lck, changes);
+		fireRefsChanged();
+	}
+
+	/**
+	 * @param name
+	 *            name of the reference to delete.
+	 * @return marker to pass to {@link #commit(LockFile, Collection)}.
+	 */
+	static Ref deletion(final String name) {
+		return new ObjectIdRef.Unpeeled(NEW, name, null);
+	}
+
+	static boolean isDeletion(final Ref ref) {
+		return !ref.isSymbolic() && ref.getObjectId() == null;
+	}
+
+	void log(final RefUpdate update, final String msg, final boolean deref)
+			throws IOException {
+		logWriter.log(update, msg, deref);
+	}
+
+	void log(final String refName, final ObjectId oldId,
+			final ObjectId newId, final PersonIdent ident, final String msg)
+			throws IOException {
+		logWriter.log(refName, oldId, newId, ident, msg);
+	}
+
+	File logFor(final String name) {
+		return logWriter.logFor(name);
+	}
+
+	private void fireRefsChanged() {
+		final int last = lastNotifiedModCnt.get();
+		final int curr = stack.getModificationCount();
+		if (last != curr && lastNotifiedModCnt.compareAndSet(last, curr))
+			parent.fireEvent(new RefsChangedEvent());
+	}
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+import static org.eclipse.jgit.storage.file.ReftableWriter.BLOCK_HEADER_SIZE;
+import static org.eclipse.jgit.storage.file.ReftableWriter.FOOTER_SIZE;
+import static org.eclipse.jgit.storage.file.ReftableWriter.HEADER_SIZE;
+import static org.eclipse.jgit.storage.file.ReftableWriter.INDEX_BLOCK;
+import static org.eclipse.jgit.storage.file.ReftableWriter.MAGIC;
+import static org.eclipse.jgit.storage.file.ReftableWriter.REF_BLOCK;
+import static org.eclipse.jgit.storage.file.ReftableWriter.VALUE_DELETION;
+import static org.eclipse.jgit.storage.file.ReftableWriter.VALUE_ID;
+import static org.eclipse.jgit.storage.file.ReftableWriter.VALUE_PEELED_NON_TAG;
+import static org.eclipse.jgit.storage.file.ReftableWriter.VALUE_PEELED_TAG;
+import static org.eclipse.jgit.storage.file.ReftableWriter.VALUE_SYMREF;
+import static org.eclipse.jgit.storage.file.ReftableWriter.VERSION;
+import static org.eclipse.jgit.storage.file.ReftableWriter.decodeUInt24;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.zip.CRC32;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Reads a single reftable file written by {@link ReftableWriter}.
+ * <p>
+ * The table is loaded into memory once and never changes afterwards, so a
+ * reader may be shared by any number of threads. Lookups use the index
+ * block (if any) to select one reference block, binary search the block's
+ * restart points, and then scan at most {@link ReftableWriter#RESTART_INTERVAL}
+ * records.
+ */
+class ReftableReader {
+	/**
+	 * Read a table from disk.
+	 *
+	 * @param file
+	 *            the table file.
+	 * @return the table.
+	 * @throws IOException
+	 *             the file cannot be read, or is not a valid table.
+	 */
+	static ReftableReader open(final File file) throws IOException {
+		return new ReftableReader(file.getName(), IO.readFully(file));
+	}
+
+	private final String name;
+
+	private final byte[] buf;
+
+	private final long minUpdateIndex;
+
+	private final long maxUpdateIndex;
+
+	/** Position of the index block; 0 if the table has none. */
+	private final int indexPosition;
+
+	/** End of the reference blocks. */
+	private final int refEnd;
+
+	private final int refCnt;
+
+	ReftableReader(final String name, final byte[] buf) throws IOException {
+		this.name = name;
+		this.buf = buf;
+
+		final int footer = buf.length - FOOTER_SIZE;
+		if (footer < HEADER_SIZE || !isHeader(0) || !isHeader(footer))
+			throw invalid();
+		final CRC32 crc = new CRC32();
+		crc.update(buf, footer, FOOTER_SIZE - 4);
+		if (NB.decodeInt32(buf, buf.length - 4) != (int) crc.getValue())
+			throw invalid();
+		for (int i = 0; i < HEADER_SIZE; i++)
+			if (buf[i] != buf[footer + i])
+				throw invalid();
+
+		minUpdateIndex = NB.decodeUInt64(buf, 8);
+		maxUpdateIndex = NB.decodeUInt64(buf, 16);
+		final long idx = NB.decodeUInt64(buf, footer + HEADER_SIZE);
+		if (idx != 0 && (idx < HEADER_SIZE || footer <= idx))
+			throw invalid();
+		indexPosition = (int) idx;
+		refEnd = indexPosition != 0 ? indexPosition : footer;
+		refCnt = NB.decodeInt32(buf, footer + HEADER_SIZE + 8);
+	}
+
+	private boolean isHeader(final int ptr) {
+		for (int i = 0; i < MAGIC.length; i++)
+			if (buf[ptr + i] != MAGIC[i])
+				return false;
+		return buf[ptr + 4] == VERSION;
+	}
+
+	private IOException invalid() {
+		return new IOException(MessageFormat.format(
+				JGitText.get().invalidReftable, name));
+	}
+
+	/** @return file name of the table. */
+	String getName() {
+		return name;
+	}
+
+	/** @return size of the table in bytes. */
+	int size() {
+		return buf.length;
+	}
+
+	/** @return number of records (references and deletions) in the table. */
+	int getRefCount() {
+		return refCnt;
+	}
+
+	/** @return first update index described by the table. */
+	long getMinUpdateIndex() {
+		return minUpdateIndex;
+	}
+
+	/** @return last update index described by the table. */
+	long getMaxUpdateIndex() {
+		return maxUpdateIndex;
+	}
+
+	/**
+	 * Position a cursor on the first record named {@code prefix} or later.
+	 *
+	 * @param prefix
+	 *            name, or name prefix, to seek to. The empty string starts
+	 *            at the first record of the table.
+	 * @return cursor; call {@link Cursor#next()} to read the first record.
+	 * @throws IOException
+	 *             the table is corrupt.
+	 */
+	Cursor seek(final String prefix) throws IOException {
+		final byte[] key = Constants.encode(prefix);
+		final Cursor c = new Cursor();
+		int blk = HEADER_SIZE;
+		if (indexPosition != 0) {
+			final Cursor idx = new Cursor();
+			idx.enter(indexPosition, INDEX_BLOCK);
+			idx.seekInBlock(key);
+			if (!idx.isPending())
+				return c; // past the last reference
+			blk = idx.getBlockPosition();
+		}
+		if (blk < refEnd) {
+			c.enter(blk, REF_BLOCK);
+			c.seekInBlock(key);
+		}
+		return c;
+	}
+
+	/**
+	 * Read one record.
+	 *
+	 * @param refName
+	 *            the exact name to look for.
+	 * @return cursor positioned on the record, or null if the table has no
+	 *         record of this name.
+	 * @throws IOException
+	 *             the table is corrupt.
+	 */
+	Cursor exact(final String refName) throws IOException {
+		final Cursor c = seek(refName);
+		if (c.next() && c.getName().equals(refName))
+			return c;
+		return null;
+	}
+
+	/** Iterates over the records of the table, in name order. */
+	class Cursor {
+		private int blockStart;
+
+		private int blockEnd;
+
+		private int recordEnd;
+
+		private int ptr;
+
+		private byte[] key = new byte[64];
+
+		private int keyLen;
+
+		private int valueType;
+
+		private int valuePtr;
+
+		/** True if the current record has not been returned by next(). */
+		private boolean pending;
+
+		private Ref ref;
+
+		private String refName;
+
+		void enter(final int pos, final byte type) throws IOException {
+			if (pos + BLOCK_HEADER_SIZE > buf.length || buf[pos] != type)
+				throw invalid();
+			final int len = decodeUInt24(buf, pos + 1);
+			if (len < BLOCK_HEADER_SIZE + 2 || pos + len > buf.length)
+				throw invalid();
+			final int restartCnt = NB.decodeUInt16(buf, pos + len - 2);
+			blockStart = pos;
+			blockEnd = pos + len;
+			recordEnd = blockEnd - 2 - 3 * restartCnt;
+			ptr = pos + BLOCK_HEADER_SIZE;
+			keyLen = 0;
+		}
+
+		/**
+		 * Position on the first record of the block at or after needle. If
+		 * there is one it is left pending, to be returned by {@link #next()}.
+		 */
+		void seekInBlock(final byte[] needle) throws IOException {
+			final int restartCnt = NB.decodeUInt16(buf, blockEnd - 2);
+			if (restartCnt == 0)
+				throw invalid();
+			int low = 0;
+			int high = restartCnt;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				ptr = restart(mid);
+				keyLen = 0;
+				readRecord();
+				if (compareKey(needle) < 0)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+
+			// Restart "low" is the first full key >= needle, so the record
+			// sought is in the run of records beginning one restart before.
+			ptr = restart(Math.max(low - 1, 0));
+			keyLen = 0;
+			while (ptr < recordEnd) {
+				readRecord();
+				if (compareKey(needle) >= 0) {
+					pending = true;
+					return;
+				}
+			}
+		}
+
+		private int restart(final int i) throws IOException {
+			final int p = blockStart + decodeUInt24(buf, recordEnd + 3 * i);
+			if (p < blockStart + BLOCK_HEADER_SIZE || recordEnd <= p)
+				throw invalid();
+			return p;
+		}
+
+		/** @return true if {@link #seekInBlock(byte[])} found a record. */
+		boolean isPending() {
+			return pending;
+		}
+
+		/** @return block position held by the current index record. */
+		int getBlockPosition() throws IOException {
+			final int save = ptr;
+			ptr = valuePtr;
+			final long pos = readVarint();
+			ptr = save;
+			if (pos < HEADER_SIZE || refEnd <= pos)
+				throw invalid();
+			return (int) pos;
+		}
+
+		private int compareKey(final byte[] needle) {
+			final int n = Math.min(keyLen, needle.length);
+			for (int i = 0; i < n; i++) {
+				final int c = (key[i] & 0xff) - (needle[i] & 0xff);
+				if (c != 0)
+					return c;
+			}
+			return keyLen - needle.length;
+		}
+
+		private void readRecord() throws IOException {
+			final int prefix = (int) readVarint();
+			final long v = readVarint();
+			final int suffix = (int) (v >>> 3);
+			valueType = (int) (v & 7);
+			if (prefix > keyLen || ptr + suffix > recordEnd)
+				throw invalid();
+			if (key.length < prefix + suffix) {
+				final byte[] n = new byte[Math.max(key.length * 2, prefix
+						+ suffix)];
+				System.arraycopy(key, 0, n, 0, prefix);
+				key = n;
+			}
+			System.arraycopy(buf, ptr, key, prefix, suffix);
+			keyLen = prefix + suffix;
+			ptr += suffix;
+			valuePtr = ptr;
+			skipValue();
+			ref = null;
+			refName = null;
+		}
+
+		private void skipValue() throws IOException {
+			if (buf[blockStart] == INDEX_BLOCK) {
+				readVarint();
+				return;
+			}
+			switch (valueType) {
+			case VALUE_DELETION:
+				break;
+			case VALUE_ID:
+			case VALUE_PEELED_NON_TAG:
+				ptr += OBJECT_ID_LENGTH;
+				break;
+			case VALUE_PEELED_TAG:
+				ptr += 2 * OBJECT_ID_LENGTH;
+				break;
+			case VALUE_SYMREF:
+				final int len = (int) readVarint();
+				ptr += len;
+				break;
+			default:
+				throw invalid();
+			}
+			if (ptr > recordEnd)
+				throw invalid();
+		}
+
+		private long readVarint() throws IOException {
+			long v = 0;
+			int shift = 0;
+			for (;;) {
+				if (ptr >= blockEnd || shift > 63)
+					throw invalid();
+				final int c = buf[ptr++] & 0xff;
+				v |= ((long) (c & 0x7f)) << shift;
+				if ((c & 0x80) == 0)
+					return v;
+				shift += 7;
+			}
+		}
+
+		/**
+		 * Advance to the next record.
+		 *
+		 * @return true if a record is available; false at the end of the
+		 *         table.
+		 * @throws IOException
+		 *             the table is corrupt.
+		 */
+		boolean next() throws IOException {
+			if (pending) {
+				pending = false;
+				return true;
+			}
+			if (blockEnd == 0)
+				return false;
+			while (ptr >= recordEnd) {
+				if (blockEnd >= refEnd) {
+					blockEnd = 0;
+					return false;
+				}
+				enter(blockEnd, REF_BLOCK);
+			}
+			readRecord();
+			return true;
+		}
+
+		/** @return name of the current record. */
+		String getName() {
+			if (refName == null)
+				refName = RawParseUtils.decode(Constants.CHARSET, key, 0,
+						keyLen);
+			return refName;
+		}
+
+		/** @return true if the current record records a deletion. */
+		boolean isDeletion() {
+			return valueType == VALUE_DELETION;
+		}
+
+		/**
+		 * @param prefix
+		 *            encoded name prefix.
+		 * @return true if the current record's name starts with prefix.
+		 */
+		boolean startsWith(final byte[] prefix) {
+			if (keyLen < prefix.length)
+				return false;
+			for (int i = 0; i < prefix.length; i++)
+				if (key[i] != prefix[i])
+					return false;
+			return true;
+		}
+
+		/**
+		 * @param other
+		 *            encoded name.
+		 * @return &lt;0, 0 or &gt;0 as the current name sorts before, equal
+		 *         to, or after {@code other}.
+		 */
+		int compareTo(final Cursor other) {
+			final int n = Math.min(keyLen, other.keyLen);
+			for (int i = 0; i < n; i++) {
+				final int c = (key[i] & 0xff) - (other.key[i] & 0xff);
+				if (c != 0)
+					return c;
+			}
+			return keyLen - other.keyLen;
+		}
+
+		/**
+		 * @return the reference stored by the current record; null if the
+		 *         record is a deletion. Symbolic references are returned
+		 *         unresolved.
+		 */
+		Ref getRef() {
+			if (ref != null || valueType == VALUE_DELETION)
+				return ref;
+			final String n = getName();
+			switch (valueType) {
+			case VALUE_ID:
+				ref = new ObjectIdRef.Unpeeled(PACKED, n, id(valuePtr));
+				break;
+			case VALUE_PEELED_NON_TAG:
+				ref = new ObjectIdRef.PeeledNonTag(PACKED, n, id(valuePtr));
+				break;
+			case VALUE_PEELED_TAG:
+				ref = new ObjectIdRef.PeeledTag(PACKED, n, id(valuePtr),
+						id(valuePtr + OBJECT_ID_LENGTH));
+				break;
+			case VALUE_SYMREF: {
+				int p = valuePtr;
+				int len = 0;
+				int shift = 0;
+				int c;
+				do {
+					c = buf[p++] & 0xff;
+					len |= (c & 0x7f) << shift;
+					shift += 7;
+				} while ((c & 0x80) != 0);
+				final String target = RawParseUtils.decode(Constants.CHARSET,
+						buf, p, p + len);
+				ref = new SymbolicRef(n, new ObjectIdRef.Unpeeled(NEW,
+						target, null));
+				break;
+			}
+			}
+			return ref;
+		}
+
+		private ObjectId id(final int p) {
+			return ObjectId.fromRaw(buf, p);
+		}
+	}
+}
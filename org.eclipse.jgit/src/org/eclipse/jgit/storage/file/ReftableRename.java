@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefRename;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.lib.SymbolicRef;
+
+/**
+ * Rename any reference stored by {@link ReftableDatabase}.
+ * <p>
+ * The source is deleted, the destination created and {@code HEAD} moved (if
+ * it pointed at the source) in a single atomic update of the stack, so
+ * unlike {@link RefDirectoryRename} no temporary reference is needed.
+ */
+class ReftableRename extends RefRename {
+	private final ReftableDatabase refdb;
+
+	ReftableRename(ReftableUpdate src, ReftableUpdate dst) {
+		super(src, dst);
+		refdb = src.getRefDatabase();
+	}
+
+	@Override
+	protected Result doRename() throws IOException {
+		if (source.getRef().isSymbolic())
+			return Result.IO_FAILURE; // not supported
+
+		final String srcName = source.getName();
+		final String dstName = destination.getName();
+		final ObjectId objId = source.getOldObjectId();
+		final boolean updateHEAD = needToUpdateHEAD();
+
+		final LockFile lck = refdb.lock();
+		if (lck == null)
+			return Result.LOCK_FAILURE;
+		try {
+			final Ref cur = refdb.exactRef(srcName);
+			if (cur == null || cur.isSymbolic()
+					|| !cur.getObjectId().equals(objId))
+				return Result.LOCK_FAILURE;
+			if (refdb.exactRef(dstName) != null)
+				return Result.LOCK_FAILURE;
+			if (refdb.isNameConflicting(dstName)
+					&& !dstName.startsWith(srcName + '/')
+					&& !srcName.startsWith(dstName + '/'))
+				return Result.LOCK_FAILURE;
+
+			final List<Ref> changes = new ArrayList<Ref>(3);
+			changes.add(ReftableDatabase.deletion(srcName));
+			changes.add(new ObjectIdRef.Unpeeled(PACKED, dstName, objId));
+			if (updateHEAD)
+				changes.add(new SymbolicRef(Constants.HEAD,
+						new ObjectIdRef.Unpeeled(NEW, dstName, null)));
+
+			final File srcLog = refdb.logFor(srcName);
+			final File dstLog = refdb.logFor(dstName);
+			if (!moveLog(srcLog, dstLog, srcName))
+				return Result.IO_FAILURE;
+			boolean ok = false;
+			try {
+				refdb.commit(lck, changes);
+				ok = true;
+			} finally {
+				if (!ok)
+					moveLog(dstLog, srcLog, dstName);
+			}
+
+			final String msg = getRefLogMessage();
+			if (msg != null && msg.length() > 0) {
+				refdb.log(dstName, objId, objId, getRefLogIdent(), msg);
+				if (updateHEAD)
+					refdb.log(Constants.HEAD, objId, objId,
+							getRefLogIdent(), msg);
+			}
+			return Result.RENAMED;
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	/**
+	 * Move a reflog, going through a temporary name as the destination may
+	 * be nested below the source's name (or the other way around).
+	 */
+	private boolean moveLog(File src, File dst, String srcName)
+			throws IOException {
+		if (!src.exists())
+			return true;
+		final File tmp = File.createTempFile("renamed_", "_log", refdb
+				.getRepository().getDirectory());
+		if (!tmp.delete() || !src.renameTo(tmp))
+			return false;
+		RefDirectory.delete(src, RefDirectory.levelsIn(srcName) - 2);
+
+		final File dir = dst.getParentFile();
+		if ((dir.exists() || !dir.mkdirs()) && !dir.isDirectory()) {
+			tmp.renameTo(src);
+			return false;
+		}
+		if (!tmp.renameTo(dst)) {
+			tmp.renameTo(src);
+			return false;
+		}
+		return true;
+	}
+}
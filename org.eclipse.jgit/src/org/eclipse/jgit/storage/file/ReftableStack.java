@@ -0,0 +1,565 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.ObjectWritingException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * An ordered stack of reftables, combined into one reference namespace.
+ * <p>
+ * The stack is described by {@code tables.list}, naming one table per line
+ * from oldest to newest. A name in a newer table hides the same name in all
+ * older tables, including when the newer record is a deletion.
+ * <p>
+ * Updates never modify an existing table. While holding the lock on
+ * {@code tables.list} a writer stores its changes as a new, small table and
+ * then atomically replaces the list with one naming that table last. In the
+ * same step the newest tables are compacted into one whenever they have
+ * grown close to the size of the table below them, keeping the stack at a
+ * logarithmic depth. Compacting the oldest table drops deletion records,
+ * as there is nothing left for them to hide.
+ */
+class ReftableStack {
+	/** Name of the file listing the tables of the stack. */
+	static final String TABLES_LIST = "tables.list";
+
+	private static final String SUFFIX = ".ref";
+
+	/** Attempts to read a consistent stack during concurrent compaction. */
+	private static final int MAX_READ_ATTEMPTS = 5;
+
+	private final File dir;
+
+	private final File listFile;
+
+	private final FS fs;
+
+	private final AtomicReference<Snapshot> current;
+
+	private final AtomicInteger modCnt = new AtomicInteger();
+
+	private int blockSize = ReftableWriter.DEFAULT_BLOCK_SIZE;
+
+	ReftableStack(final File dir, final FS fs) {
+		this.dir = dir;
+		this.listFile = new File(dir, TABLES_LIST);
+		this.fs = fs;
+		this.current = new AtomicReference<Snapshot>(Snapshot.EMPTY);
+	}
+
+	/**
+	 * @param size
+	 *            approximate number of bytes per block of new tables.
+	 */
+	void setBlockSize(final int size) {
+		blockSize = size;
+	}
+
+	/**
+	 * Create an empty stack.
+	 *
+	 * @throws IOException
+	 *             the directory or list could not be created.
+	 */
+	void create() throws IOException {
+		if (!dir.mkdirs() && !dir.isDirectory())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotCreateDirectory, dir));
+		new FileOutputStream(listFile).close();
+	}
+
+	/** @return the directory holding the tables. */
+	File getDirectory() {
+		return dir;
+	}
+
+	/** @return number of times the stack was changed or reloaded. */
+	int getModificationCount() {
+		return modCnt.get();
+	}
+
+	/**
+	 * Get the current tables, reloading them if another process changed the
+	 * stack.
+	 *
+	 * @return the current stack.
+	 * @throws IOException
+	 *             the list or a table could not be read.
+	 */
+	Snapshot read() throws IOException {
+		for (int attempt = 1;; attempt++) {
+			final long size = listFile.length();
+			final long mtime = size != 0 ? listFile.lastModified() : 0;
+			final Snapshot cur = current.get();
+			if (cur.listSize == size && cur.listModified == mtime)
+				return cur;
+
+			try {
+				final Snapshot n = load(cur, size, mtime);
+				if (current.compareAndSet(cur, n))
+					modCnt.incrementAndGet();
+				return n;
+			} catch (FileNotFoundException noTable) {
+				// A concurrent compaction removed a table after we read
+				// the list. Its replacement is named by the new list.
+				if (MAX_READ_ATTEMPTS <= attempt)
+					throw noTable;
+			}
+		}
+	}
+
+	private Snapshot load(final Snapshot old, final long size,
+			final long mtime) throws IOException {
+		final byte[] list;
+		try {
+			list = IO.readFully(listFile);
+		} catch (FileNotFoundException noList) {
+			return Snapshot.EMPTY;
+		}
+
+		final List<ReftableReader> tables = new ArrayList<ReftableReader>();
+		int ptr = 0;
+		while (ptr < list.length) {
+			final int eol = RawParseUtils.nextLF(list, ptr);
+			final int end = list[eol - 1] == '\n' ? eol - 1 : eol;
+			if (ptr < end) {
+				final String name = RawParseUtils.decode(list, ptr, end);
+				ReftableReader t = old.get(name);
+				if (t == null)
+					t = ReftableReader.open(new File(dir, name));
+				tables.add(t);
+			}
+			ptr = eol;
+		}
+		return new Snapshot(toArray(tables), size, mtime);
+	}
+
+	/**
+	 * Lock the stack for an update.
+	 *
+	 * @return the lock, or null if another writer holds it.
+	 * @throws IOException
+	 *             the lock file could not be created.
+	 */
+	LockFile lock() throws IOException {
+		final LockFile lck = new LockFile(listFile, fs);
+		if (lck.lock())
+			return lck;
+		return null;
+	}
+
+	/**
+	 * Append a table of changes to the stack.
+	 * <p>
+	 * The lock is committed (and therefore released) on success; on failure
+	 * the caller remains responsible for unlocking it.
+	 *
+	 * @param lck
+	 *            lock obtained from {@link #lock()}.
+	 * @param changes
+	 *            references to store; a {@link ReftableDatabase#isDeletion
+	 *            deletion} marker removes a name.
+	 * @throws IOException
+	 *             the table or list could not be written.
+	 */
+	void append(final LockFile lck, final Collection<Ref> changes)
+			throws IOException {
+		final Snapshot cur = read();
+		final long next = cur.getMaxUpdateIndex() + 1;
+
+		final Ref[] sorted = changes.toArray(new Ref[changes.size()]);
+		Arrays.sort(sorted, BY_ENCODED_NAME);
+
+		final List<ReftableReader> tables = new ArrayList<ReftableReader>(
+				Arrays.asList(cur.tables));
+		final List<ReftableReader> written = new ArrayList<ReftableReader>();
+		boolean ok = false;
+		try {
+			final ReftableWriter w = newWriter(next, next);
+			final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			w.begin(buf);
+			for (final Ref r : sorted) {
+				if (ReftableDatabase.isDeletion(r))
+					w.deleteRef(r.getName());
+				else
+					w.writeRef(r);
+			}
+			w.finish();
+			final ReftableReader added = store(next, next, buf.toByteArray());
+			written.add(added);
+			tables.add(added);
+
+			final int start = compactionStart(tables);
+			if (start < tables.size() - 1) {
+				final ReftableReader merged = merge(tables, start);
+				written.add(merged);
+				tables.subList(start, tables.size()).clear();
+				tables.add(merged);
+			}
+
+			commit(lck, cur, toArray(tables));
+			ok = true;
+		} finally {
+			if (!ok)
+				for (final ReftableReader t : written)
+					new File(dir, t.getName()).delete();
+		}
+	}
+
+	/**
+	 * Compact every table of the stack into one.
+	 *
+	 * @param lck
+	 *            lock obtained from {@link #lock()}. It is committed or
+	 *            released on success; on failure the caller must unlock it.
+	 * @throws IOException
+	 *             the table or list could not be written.
+	 */
+	void compact(final LockFile lck) throws IOException {
+		final Snapshot cur = read();
+		if (cur.tables.length <= 1) {
+			lck.unlock();
+			return;
+		}
+
+		final List<ReftableReader> tables = Arrays.asList(cur.tables);
+		final ReftableReader merged = merge(tables, 0);
+		boolean ok = false;
+		try {
+			commit(lck, cur, new ReftableReader[] { merged });
+			ok = true;
+		} finally {
+			if (!ok)
+				new File(dir, merged.getName()).delete();
+		}
+	}
+
+	/**
+	 * Select the tables to compact after an append.
+	 * <p>
+	 * Walking down from the newest table, a table is absorbed while it is
+	 * not at least twice the size of all the tables above it combined. The
+	 * sizes of the remaining tables then at least double at every level.
+	 *
+	 * @return index of the oldest table to compact; the index of the newest
+	 *         table if nothing should be compacted.
+	 */
+	static int compactionStart(final List<ReftableReader> tables) {
+		int start = tables.size() - 1;
+		long above = tables.get(start).size();
+		while (0 < start && tables.get(start - 1).size() < 2 * above) {
+			start--;
+			above += tables.get(start).size();
+		}
+		return start;
+	}
+
+	private ReftableReader merge(final List<ReftableReader> tables,
+			final int start) throws IOException {
+		final ReftableReader[] src = toArray(tables.subList(start, tables
+				.size()));
+		final long min = src[0].getMinUpdateIndex();
+		final long max = src[src.length - 1].getMaxUpdateIndex();
+
+		// Deletions need to be kept only while older tables remain.
+		final MergedCursor c = new MergedCursor(src, "", 0 < start);
+		final ReftableWriter w = newWriter(min, max);
+		final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		w.begin(buf);
+		while (c.next()) {
+			if (c.isDeletion())
+				w.deleteRef(c.getName());
+			else
+				w.writeRef(c.getRef());
+		}
+		w.finish();
+		return store(min, max, buf.toByteArray());
+	}
+
+	private ReftableWriter newWriter(final long min, final long max) {
+		final ReftableWriter w = new ReftableWriter();
+		w.setBlockSize(blockSize);
+		w.setUpdateIndex(min, max);
+		return w;
+	}
+
+	private ReftableReader store(final long min, final long max,
+			final byte[] table) throws IOException {
+		final String name = String.format("%016x-%016x%s", Long.valueOf(min),
+				Long.valueOf(max), SUFFIX);
+		final File tmp = File.createTempFile("table_", ".tmp", dir);
+		try {
+			final FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(table);
+				out.getChannel().force(true);
+			} finally {
+				out.close();
+			}
+			final File dst = new File(dir, name);
+			if (!tmp.renameTo(dst)) {
+				// A table of this name can only be left over from a failed
+				// update, as the list never names it.
+				dst.delete();
+				if (!tmp.renameTo(dst))
+					throw new ObjectWritingException(MessageFormat.format(
+							JGitText.get().unableToWrite, dst));
+			}
+		} finally {
+			tmp.delete();
+		}
+		return new ReftableReader(name, table);
+	}
+
+	private void commit(final LockFile lck, final Snapshot old,
+			final ReftableReader[] tables) throws IOException {
+		final StringBuilder list = new StringBuilder();
+		for (final ReftableReader t : tables)
+			list.append(t.getName()).append('\n');
+		final byte[] content = Constants.encode(list.toString());
+
+		lck.setNeedStatInformation(true);
+		lck.write(content);
+		try {
+			lck.waitForStatChange();
+		} catch (InterruptedException e) {
+			throw new ObjectWritingException(MessageFormat.format(
+					JGitText.get().interruptedWriting, listFile));
+		}
+		if (!lck.commit())
+			throw new ObjectWritingException(MessageFormat.format(
+					JGitText.get().unableToWrite, listFile));
+
+		current.set(new Snapshot(tables, content.length, lck
+				.getCommitLastModified()));
+		modCnt.incrementAndGet();
+
+		final Snapshot now = current.get();
+		for (final ReftableReader t : old.tables)
+			if (now.get(t.getName()) == null)
+				new File(dir, t.getName()).delete();
+	}
+
+	private static ReftableReader[] toArray(final List<ReftableReader> list) {
+		return list.toArray(new ReftableReader[list.size()]);
+	}
+
+	private static final Comparator<Ref> BY_ENCODED_NAME = new Comparator<Ref>() {
+		public int compare(final Ref a, final Ref b) {
+			return ReftableWriter.compare(Constants.encode(a.getName()),
+					Constants.encode(b.getName()));
+		}
+	};
+
+	/** The tables making up the stack at one point in time. */
+	static class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(new ReftableReader[0], 0,
+				0);
+
+		/** Tables, oldest first. */
+		final ReftableReader[] tables;
+
+		/** Length of {@code tables.list} when it was read. */
+		final long listSize;
+
+		/** Modification time of {@code tables.list} when it was read. */
+		final long listModified;
+
+		Snapshot(final ReftableReader[] tables, final long size,
+				final long mtime) {
+			this.tables = tables;
+			this.listSize = size;
+			this.listModified = mtime;
+		}
+
+		ReftableReader get(final String name) {
+			for (final ReftableReader t : tables)
+				if (t.getName().equals(name))
+					return t;
+			return null;
+		}
+
+		long getMaxUpdateIndex() {
+			if (tables.length == 0)
+				return 0;
+			return tables[tables.length - 1].getMaxUpdateIndex();
+		}
+
+		/**
+		 * Look up a single reference.
+		 *
+		 * @param name
+		 *            exact name of the reference.
+		 * @return the reference, unresolved if symbolic; null if it does
+		 *         not exist.
+		 * @throws IOException
+		 *             a table is corrupt.
+		 */
+		Ref exactRef(final String name) throws IOException {
+			for (int i = tables.length - 1; 0 <= i; i--) {
+				final ReftableReader.Cursor c = tables[i].exact(name);
+				if (c != null)
+					return c.getRef();
+			}
+			return null;
+		}
+
+		/**
+		 * Iterate over the current references starting with a prefix.
+		 *
+		 * @param prefix
+		 *            name prefix; the empty string selects all references.
+		 * @return cursor over the references, in name order.
+		 * @throws IOException
+		 *             a table is corrupt.
+		 */
+		MergedCursor scan(final String prefix) throws IOException {
+			return new MergedCursor(tables, prefix, false);
+		}
+	}
+
+	/** Merges the records of several tables, newer records winning. */
+	static class MergedCursor {
+		private final ReftableReader.Cursor[] cursors;
+
+		private final boolean[] valid;
+
+		private final byte[] prefix;
+
+		private final boolean includeDeletions;
+
+		private String name;
+
+		private Ref ref;
+
+		private boolean deletion;
+
+		MergedCursor(final ReftableReader[] tables, final String prefix,
+				final boolean includeDeletions) throws IOException {
+			this.cursors = new ReftableReader.Cursor[tables.length];
+			this.valid = new boolean[tables.length];
+			this.prefix = Constants.encode(prefix);
+			this.includeDeletions = includeDeletions;
+			for (int i = 0; i < tables.length; i++) {
+				cursors[i] = tables[i].seek(prefix);
+				valid[i] = advance(cursors[i]);
+			}
+		}
+
+		private boolean advance(final ReftableReader.Cursor c)
+				throws IOException {
+			return c.next() && c.startsWith(prefix);
+		}
+
+		/**
+		 * @return true if another record is available.
+		 * @throws IOException
+		 *             a table is corrupt.
+		 */
+		boolean next() throws IOException {
+			for (;;) {
+				int best = -1;
+				for (int i = cursors.length - 1; 0 <= i; i--) {
+					if (!valid[i])
+						continue;
+					if (best < 0 || cursors[i].compareTo(cursors[best]) < 0)
+						best = i;
+				}
+				if (best < 0)
+					return false;
+
+				final ReftableReader.Cursor c = cursors[best];
+				name = c.getName();
+				deletion = c.isDeletion();
+				ref = c.getRef();
+
+				// Skip the same name in older tables; it is hidden.
+				for (int i = 0; i < cursors.length; i++) {
+					if (i != best && valid[i]
+							&& cursors[i].compareTo(c) == 0)
+						valid[i] = advance(cursors[i]);
+				}
+				valid[best] = advance(c);
+
+				if (!deletion || includeDeletions)
+					return true;
+			}
+		}
+
+		/** @return name of the current record. */
+		String getName() {
+			return name;
+		}
+
+		/** @return true if the current record is a deletion. */
+		boolean isDeletion() {
+			return deletion;
+		}
+
+		/** @return the current reference; null for a deletion. */
+		Ref getRef() {
+			return ref;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.SymbolicRef;
+
+/** Updates a single reference of a {@link ReftableDatabase}. */
+class ReftableUpdate extends RefUpdate {
+	private final ReftableDatabase database;
+
+	private LockFile lock;
+
+	ReftableUpdate(final ReftableDatabase r, final Ref ref) {
+		super(ref);
+		database = r;
+	}
+
+	@Override
+	protected ReftableDatabase getRefDatabase() {
+		return database;
+	}
+
+	@Override
+	protected Repository getRepository() {
+		return database.getRepository();
+	}
+
+	@Override
+	protected boolean tryLock(boolean deref) throws IOException {
+		Ref dst = getRef();
+		if (deref)
+			dst = dst.getLeaf();
+		lock = database.lock();
+		if (lock == null)
+			return false;
+		dst = database.exactRef(dst.getName());
+		setOldObjectId(dst != null ? dst.getObjectId() : null);
+		return true;
+	}
+
+	@Override
+	protected void unlock() {
+		if (lock != null) {
+			lock.unlock();
+			lock = null;
+		}
+	}
+
+	@Override
+	protected Result doUpdate(final Result status) throws IOException {
+		String msg = getRefLogMessage();
+		if (msg != null) {
+			if (isRefLogIncludingResult()) {
+				String strResult = RefDirectoryUpdate.toResultString(status);
+				if (strResult != null) {
+					if (msg.length() > 0)
+						msg = msg + ": " + strResult;
+					else
+						msg = strResult;
+				}
+			}
+			database.log(this, msg, true);
+		}
+
+		final String name = getRef().getLeaf().getName();
+		database.commit(lock, Collections.<Ref> singleton(
+				new ObjectIdRef.Unpeeled(PACKED, name, getNewObjectId().copy())));
+		return status;
+	}
+
+	@Override
+	protected Result doDelete(final Result status) throws IOException {
+		final Ref dst = getRef().getLeaf();
+		if (dst.getStorage() != NEW) {
+			final String name = dst.getName();
+			database.commit(lock, Collections.singleton(ReftableDatabase
+					.deletion(name)));
+			RefDirectory.delete(database.logFor(name), RefDirectory
+					.levelsIn(name) - 2);
+		}
+		return status;
+	}
+
+	@Override
+	protected Result doLink(final String target) throws IOException {
+		String msg = getRefLogMessage();
+		if (msg != null)
+			database.log(this, msg, false);
+
+		final Ref dst = new ObjectIdRef.Unpeeled(NEW, target, null);
+		database.commit(lock, Collections.<Ref> singleton(new SymbolicRef(
+				getName(), dst)));
+
+		if (getRef().getStorage() == NEW)
+			return Result.NEW;
+		return Result.FORCED;
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Writes a single reftable file.
+ * <p>
+ * A reftable stores references sorted by name in a sequence of blocks:
+ *
+ * <pre>
+ * header:  'REFT' version:1 block_size:3 min_update_index:8 max_update_index:8
+ * block*:  type:1 length:3 record* restart_offset:3* restart_count:2
+ * footer:  header:24 index_position:8 ref_count:4 crc32:4
+ * </pre>
+ *
+ * Each record is {@code varint(prefix_length) varint(suffix_length << 3 |
+ * value_type) suffix value}, its name sharing {@code prefix_length} bytes
+ * with the name of the record before it. Every {@value #RESTART_INTERVAL}th
+ * record of a block stores its full name and is listed in the block's
+ * restart table, so a block can be binary searched.
+ * <p>
+ * Reference records ({@code 'r'} blocks) fill blocks of roughly the
+ * configured size. If there is more than one, an {@code 'i'} block follows
+ * holding the last name of every reference block and the block's position,
+ * letting a reader jump straight to the one block that can hold a name.
+ * <p>
+ * Values are one of:
+ * <ul>
+ * <li>{@link #VALUE_DELETION}: the reference was deleted; no value.</li>
+ * <li>{@link #VALUE_ID}: object id, not known to be peeled.</li>
+ * <li>{@link #VALUE_PEELED_TAG}: object id, followed by the peeled id.</li>
+ * <li>{@link #VALUE_SYMREF}: {@code varint(length)} and target name.</li>
+ * <li>{@link #VALUE_PEELED_NON_TAG}: object id, known not to be a tag.</li>
+ * </ul>
+ */
+class ReftableWriter {
+	static final byte[] MAGIC = { 'R', 'E', 'F', 'T' };
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 24;
+
+	static final int FOOTER_SIZE = HEADER_SIZE + 8 + 4 + 4;
+
+	static final int BLOCK_HEADER_SIZE = 4;
+
+	static final byte REF_BLOCK = 'r';
+
+	static final byte INDEX_BLOCK = 'i';
+
+	static final int RESTART_INTERVAL = 16;
+
+	static final int VALUE_DELETION = 0;
+
+	static final int VALUE_ID = 1;
+
+	static final int VALUE_PEELED_TAG = 2;
+
+	static final int VALUE_SYMREF = 3;
+
+	static final int VALUE_PEELED_NON_TAG = 4;
+
+	/** Default number of bytes per reference block. */
+	static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	private long minUpdateIndex;
+
+	private long maxUpdateIndex;
+
+	private OutputStream out;
+
+	private long position;
+
+	private BlockWriter block;
+
+	private final List<byte[]> indexKeys = new ArrayList<byte[]>();
+
+	private final List<Long> indexPositions = new ArrayList<Long>();
+
+	private byte[] lastName;
+
+	private int refCnt;
+
+	/**
+	 * @param size
+	 *            approximate size of each reference block in bytes.
+	 */
+	void setBlockSize(final int size) {
+		blockSize = size;
+	}
+
+	/**
+	 * @param min
+	 *            first update index described by the table.
+	 * @param max
+	 *            last update index described by the table.
+	 */
+	void setUpdateIndex(final long min, final long max) {
+		minUpdateIndex = min;
+		maxUpdateIndex = max;
+	}
+
+	/**
+	 * Begin writing a table.
+	 *
+	 * @param os
+	 *            stream to write the table to.
+	 * @throws IOException
+	 *             the header could not be written.
+	 */
+	void begin(final OutputStream os) throws IOException {
+		out = os;
+		position = 0;
+		block = new BlockWriter(REF_BLOCK);
+		write(header());
+	}
+
+	/**
+	 * Add a reference. References must be added in sorted name order.
+	 *
+	 * @param ref
+	 *            the reference to store.
+	 * @throws IOException
+	 *             a completed block could not be written.
+	 */
+	void writeRef(final Ref ref) throws IOException {
+		final ByteArrayOutputStream v = new ByteArrayOutputStream(48);
+		final int type;
+		if (ref.isSymbolic()) {
+			type = VALUE_SYMREF;
+			final byte[] target = Constants.encode(ref.getTarget().getName());
+			writeVarint(v, target.length);
+			v.write(target);
+		} else if (ref.getObjectId() == null) {
+			throw new IllegalArgumentException(ref.getName());
+		} else if (ref.isPeeled() && ref.getPeeledObjectId() != null) {
+			type = VALUE_PEELED_TAG;
+			ref.getObjectId().copyRawTo(v);
+			ref.getPeeledObjectId().copyRawTo(v);
+		} else if (ref.isPeeled()) {
+			type = VALUE_PEELED_NON_TAG;
+			ref.getObjectId().copyRawTo(v);
+		} else {
+			type = VALUE_ID;
+			ref.getObjectId().copyRawTo(v);
+		}
+		add(Constants.encode(ref.getName()), type, v.toByteArray());
+	}
+
+	/**
+	 * Record that a reference was deleted.
+	 *
+	 * @param name
+	 *            name of the deleted reference, in sorted order with the
+	 *            other references added to this table.
+	 * @throws IOException
+	 *             a completed block could not be written.
+	 */
+	void deleteRef(final String name) throws IOException {
+		add(Constants.encode(name), VALUE_DELETION, new byte[0]);
+	}
+
+	private void add(final byte[] name, final int type, final byte[] value)
+			throws IOException {
+		if (lastName != null && compare(lastName, name) >= 0)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().reftableRecordsOutOfOrder, RawParseUtils
+							.decode(name)));
+		if (!block.isEmpty() && blockSize < block.sizeWith(name, value))
+			flushBlock();
+		block.add(name, type, value);
+		lastName = name;
+		refCnt++;
+	}
+
+	private void flushBlock() throws IOException {
+		indexKeys.add(lastName);
+		indexPositions.add(Long.valueOf(position));
+		write(block.toByteArray());
+		block = new BlockWriter(REF_BLOCK);
+	}
+
+	/**
+	 * Finish the table, writing its index and footer.
+	 *
+	 * @return number of records written into the table.
+	 * @throws IOException
+	 *             the table could not be written.
+	 */
+	int finish() throws IOException {
+		long indexPosition = 0;
+		if (!block.isEmpty()) {
+			if (indexKeys.isEmpty()) {
+				write(block.toByteArray());
+			} else {
+				flushBlock();
+			}
+		}
+		if (1 < indexKeys.size()) {
+			final BlockWriter idx = new BlockWriter(INDEX_BLOCK);
+			for (int i = 0; i < indexKeys.size(); i++) {
+				final ByteArrayOutputStream v = new ByteArrayOutputStream(8);
+				writeVarint(v, indexPositions.get(i).longValue());
+				idx.add(indexKeys.get(i), 0, v.toByteArray());
+			}
+			indexPosition = position;
+			write(idx.toByteArray());
+		}
+
+		final byte[] footer = new byte[FOOTER_SIZE];
+		System.arraycopy(header(), 0, footer, 0, HEADER_SIZE);
+		NB.encodeInt64(footer, HEADER_SIZE, indexPosition);
+		NB.encodeInt32(footer, HEADER_SIZE + 8, refCnt);
+		final CRC32 crc = new CRC32();
+		crc.update(footer, 0, FOOTER_SIZE - 4);
+		NB.encodeInt32(footer, FOOTER_SIZE - 4, (int) crc.getValue());
+		write(footer);
+		out.flush();
+		return refCnt;
+	}
+
+	private byte[] header() {
+		final byte[] h = new byte[HEADER_SIZE];
+		System.arraycopy(MAGIC, 0, h, 0, MAGIC.length);
+		h[4] = VERSION;
+		encodeUInt24(h, 5, blockSize);
+		NB.encodeInt64(h, 8, minUpdateIndex);
+		NB.encodeInt64(h, 16, maxUpdateIndex);
+		return h;
+	}
+
+	private void write(final byte[] b) throws IOException {
+		out.write(b);
+		position += b.length;
+	}
+
+	static int compare(final byte[] a, final byte[] b) {
+		final int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			final int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0)
+				return c;
+		}
+		return a.length - b.length;
+	}
+
+	static void writeVarint(final ByteArrayOutputStream b, long v) {
+		while ((v & ~0x7fL) != 0) {
+			b.write((int) (v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		b.write((int) v);
+	}
+
+	/** Accumulates the records of one block. */
+	private static class BlockWriter {
+		private final byte type;
+
+		private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+		private final IntList restarts = new IntList();
+
+		private byte[] last;
+
+		private int cnt;
+
+		BlockWriter(final byte type) {
+			this.type = type;
+		}
+
+		boolean isEmpty() {
+			return cnt == 0;
+		}
+
+		int sizeWith(final byte[] name, final byte[] value) {
+			final int restartCnt = restarts.size() + 1;
+			return BLOCK_HEADER_SIZE + records.size() + 2 * 5 + name.length
+					+ value.length + 3 * restartCnt + 2;
+		}
+
+		void add(final byte[] name, final int valueType, final byte[] value) {
+			int prefix = 0;
+			if (cnt % RESTART_INTERVAL == 0)
+				restarts.add(BLOCK_HEADER_SIZE + records.size());
+			else
+				prefix = commonPrefix(last, name);
+
+			final int suffix = name.length - prefix;
+			writeVarint(records, prefix);
+			writeVarint(records, ((long) suffix << 3) | valueType);
+			records.write(name, prefix, suffix);
+			records.write(value, 0, value.length);
+			last = name;
+			cnt++;
+		}
+
+		byte[] toByteArray() {
+			final int len = BLOCK_HEADER_SIZE + records.size() + 3
+					* restarts.size() + 2;
+			final byte[] b = new byte[len];
+			b[0] = type;
+			encodeUInt24(b, 1, len);
+			final byte[] r = records.toByteArray();
+			System.arraycopy(r, 0, b, BLOCK_HEADER_SIZE, r.length);
+			int ptr = BLOCK_HEADER_SIZE + r.length;
+			for (int i = 0; i < restarts.size(); i++, ptr += 3)
+				encodeUInt24(b, ptr, restarts.get(i));
+			NB.encodeInt16(b, ptr, restarts.size());
+			return b;
+		}
+
+		private static int commonPrefix(final byte[] a, final byte[] b) {
+			final int n = Math.min(a.length, b.length);
+			int i = 0;
+			while (i < n && a[i] == b[i])
+				i++;
+			return i;
+		}
+	}
+
+	static void encodeUInt24(final byte[] b, final int ptr, final int v) {
+		b[ptr] = (byte) (v >>> 16);
+		b[ptr + 1] = (byte) (v >>> 8);
+		b[ptr + 2] = (byte) v;
+	}
+
+	static int decodeUInt24(final byte[] b, final int ptr) {
+		return ((b[ptr] & 0xff) << 16) | ((b[ptr + 1] & 0xff) << 8)
+				| (b[ptr + 2] & 0xff);
+	}
+}
@@ -44,128 +44,130 @@
 package org.eclipse.jgit.storage.file;
 
 import java.lang.ref.SoftReference;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches recently inflated delta bases, shared by all packs in the JVM.
+ * <p>
+ * The table is split into stripes, each guarded by its own monitor and keeping
+ * its own least recently used list, so concurrent readers rarely contend. The
+ * byte limit is global: once it is exceeded, stripes are visited round-robin
+ * and the oldest entry of each is dropped until the cache fits again. This
+ * keeps eviction close to LRU order without a list shared by all threads.
+ */
 class UnpackedObjectCache {
 	private static final int CACHE_SZ = 1024;
 
-	private static final SoftReference<Entry> DEAD;
+	private static final SoftReference<Entry> DEAD = new SoftReference<Entry>(
+			null);
+
+	private static final UnpackedObjectCache cache = new UnpackedObjectCache(
+			new WindowCacheConfig().getDeltaBaseCacheLimit(), defaultStripes());
+
+	static UnpackedObjectCache getInstance() {
+		return cache;
+	}
+
+	private static int defaultStripes() {
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		return Math.min(64, Integer.highestOneBit(Math.max(1, cpus)) * 4);
+	}
 
 	private static int hash(final long position) {
 		return (((int) position) << 22) >>> 22;
 	}
 
-	private static int maxByteCount;
+	private final Stripe[] stripes;
 
-	private static final Slot[] cache;
+	private final int stripeMask;
 
-	private static Slot lruHead;
+	private final int stripeShift;
 
-	private static Slot lruTail;
+	private volatile int maxByteCount;
 
-	private static int openByteCount;
+	private final AtomicLong openByteCount;
 
-	static {
-		DEAD = new SoftReference<Entry>(null);
-		maxByteCount = new WindowCacheConfig().getDeltaBaseCacheLimit();
+	private final AtomicInteger evictHand;
 
-		cache = new Slot[CACHE_SZ];
-		for (int i = 0; i < CACHE_SZ; i++)
-			cache[i] = new Slot();
+	/**
+	 * Create a new cache.
+	 *
+	 * @param maxBytes
+	 *            maximum number of bytes to hold.
+	 * @param stripeCount
+	 *            number of independently locked stripes; rounded down to a
+	 *            power of 2 no larger than the table.
+	 */
+	UnpackedObjectCache(final int maxBytes, final int stripeCount) {
+		final int n = Integer.highestOneBit(Math.min(CACHE_SZ, Math.max(1,
+				stripeCount)));
+		stripes = new Stripe[n];
+		for (int i = 0; i < n; i++)
+			stripes[i] = new Stripe(CACHE_SZ / n);
+		stripeMask = n - 1;
+		stripeShift = Integer.numberOfTrailingZeros(n);
+
+		maxByteCount = maxBytes;
+		openByteCount = new AtomicLong();
+		evictHand = new AtomicInteger();
 	}
 
-	static synchronized void reconfigure(final WindowCacheConfig cfg) {
+	void reconfigure(final WindowCacheConfig cfg) {
 		final int dbLimit = cfg.getDeltaBaseCacheLimit();
 		if (maxByteCount != dbLimit) {
 			maxByteCount = dbLimit;
-			releaseMemory();
+			releaseMemory(null);
 		}
 	}
 
-	static synchronized Entry get(final PackFile pack, final long position) {
-		final Slot e = cache[hash(position)];
-		if (e.provider == pack && e.position == position) {
-			final Entry buf = e.data.get();
-			if (buf != null) {
-				moveToHead(e);
-				return buf;
-			}
-		}
-		return null;
+	Entry get(final PackFile pack, final long position) {
+		final int h = hash(position);
+		return stripes[h & stripeMask].get(h >>> stripeShift, pack, position);
 	}
 
-	static synchronized void store(final PackFile pack, final long position,
-			final byte[] data, final int objectType) {
+	void store(final PackFile pack, final long position, final byte[] data,
+			final int objectType) {
 		if (data.length > maxByteCount)
 			return; // Too large to cache.
 
-		final Slot e = cache[hash(position)];
-		clearEntry(e);
-
-		openByteCount += data.length;
-		releaseMemory();
-
-		e.provider = pack;
-		e.position = position;
-		e.sz = data.length;
-		e.data = new SoftReference<Entry>(new Entry(data, objectType));
-		moveToHead(e);
+		final int h = hash(position);
+		final Slot e = stripes[h & stripeMask].store(h >>> stripeShift, pack,
+				position, data, objectType);
+		releaseMemory(e);
 	}
 
-	private static void releaseMemory() {
-		while (openByteCount > maxByteCount && lruTail != null) {
-			final Slot currOldest = lruTail;
-			final Slot nextOldest = currOldest.lruPrev;
-
-			clearEntry(currOldest);
-			currOldest.lruPrev = null;
-			currOldest.lruNext = null;
-
-			if (nextOldest == null)
-				lruHead = null;
-			else
-				nextOldest.lruNext = null;
-			lruTail = nextOldest;
-		}
+	void purge(final PackFile file) {
+		for (final Stripe s : stripes)
+			s.purge(file);
 	}
 
-	static synchronized void purge(final PackFile file) {
-		for (final Slot e : cache) {
-			if (e.provider == file) {
-				clearEntry(e);
-				unlink(e);
+	/** @return a snapshot of the cache's counters. */
+	DeltaBaseCacheStats getStats() {
+		long hits = 0, misses = 0, evictions = 0;
+		for (final Stripe s : stripes) {
+			synchronized (s) {
+				hits += s.hits;
+				misses += s.misses;
+				evictions += s.evictions;
 			}
 		}
+		return new DeltaBaseCacheStats(hits, misses, evictions, openByteCount
+				.get(), maxByteCount);
 	}
 
-	private static void moveToHead(final Slot e) {
-		unlink(e);
-		e.lruPrev = null;
-		e.lruNext = lruHead;
-		if (lruHead != null)
-			lruHead.lruPrev = e;
-		else
-			lruTail = e;
-		lruHead = e;
-	}
-
-	private static void unlink(final Slot e) {
-		final Slot prev = e.lruPrev;
-		final Slot next = e.lruNext;
-		if (prev != null)
-			prev.lruNext = next;
-		if (next != null)
-			next.lruPrev = prev;
-	}
-
-	private static void clearEntry(final Slot e) {
-		openByteCount -= e.sz;
-		e.provider = null;
-		e.data = DEAD;
-		e.sz = 0;
-	}
-
-	private UnpackedObjectCache() {
-		throw new UnsupportedOperationException();
+	private void releaseMemory(final Slot keep) {
+		// Give up once a full lap over the stripes found nothing to evict,
+		// which can only happen if the entry just stored is all that is left.
+		//
+		int idle = 0;
+		while (openByteCount.get() > maxByteCount && idle <= stripeMask) {
+			final Stripe s = stripes[evictHand.getAndIncrement() & stripeMask];
+			if (s.evictOldest(keep))
+				idle = 0;
+			else
+				idle++;
+		}
 	}
 
 	static class Entry {
@@ -179,6 +181,111 @@ static class Entry {
 		}
 	}
 
+	/** One independently locked part of the table, with its own LRU list. */
+	private final class Stripe {
+		private final Slot[] table;
+
+		private Slot lruHead;
+
+		private Slot lruTail;
+
+		long hits;
+
+		long misses;
+
+		long evictions;
+
+		Stripe(final int size) {
+			table = new Slot[size];
+			for (int i = 0; i < size; i++)
+				table[i] = new Slot();
+		}
+
+		synchronized Entry get(final int idx, final PackFile pack,
+				final long position) {
+			final Slot e = table[idx];
+			if (e.provider == pack && e.position == position) {
+				final Entry buf = e.data.get();
+				if (buf != null) {
+					moveToHead(e);
+					hits++;
+					return buf;
+				}
+			}
+			misses++;
+			return null;
+		}
+
+		synchronized Slot store(final int idx, final PackFile pack,
+				final long position, final byte[] data, final int objectType) {
+			final Slot e = table[idx];
+			if (e.provider != null) {
+				if (e.provider != pack || e.position != position)
+					evictions++;
+				clearEntry(e);
+			}
+
+			openByteCount.addAndGet(data.length);
+			e.provider = pack;
+			e.position = position;
+			e.sz = data.length;
+			e.data = new SoftReference<Entry>(new Entry(data, objectType));
+			moveToHead(e);
+			return e;
+		}
+
+		synchronized boolean evictOldest(final Slot keep) {
+			final Slot oldest = lruTail;
+			if (oldest == null || oldest == keep)
+				return false;
+			clearEntry(oldest);
+			unlink(oldest);
+			evictions++;
+			return true;
+		}
+
+		synchronized void purge(final PackFile file) {
+			for (final Slot e : table) {
+				if (e.provider == file) {
+					clearEntry(e);
+					unlink(e);
+				}
+			}
+		}
+
+		private void moveToHead(final Slot e) {
+			unlink(e);
+			e.lruNext = lruHead;
+			if (lruHead != null)
+				lruHead.lruPrev = e;
+			else
+				lruTail = e;
+			lruHead = e;
+		}
+
+		private void unlink(final Slot e) {
+			final Slot prev = e.lruPrev;
+			final Slot next = e.lruNext;
+			if (prev != null)
+				prev.lruNext = next;
+			else if (lruHead == e)
+				lruHead = next;
+			if (next != null)
+				next.lruPrev = prev;
+			else if (lruTail == e)
+				lruTail = prev;
+			e.lruPrev = null;
+			e.lruNext = null;
+		}
+
+		private void clearEntry(final Slot e) {
+			openByteCount.addAndGet(-e.sz);
+			e.provider = null;
+			e.data = DEAD;
+			e.sz = 0;
+		}
+	}
+
 	private static class Slot {
 		Slot lruPrev;
 
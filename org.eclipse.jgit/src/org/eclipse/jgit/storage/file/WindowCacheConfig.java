@@ -61,6 +61,10 @@ public class WindowCacheConfig {
 
 	private boolean packedGitMMAP;
 
+	private boolean packedGitClockCache;
+
+	private boolean packedIndexMMAP;
+
 	private int deltaBaseCacheLimit;
 
 	/** Create a default configuration. */
@@ -69,6 +73,8 @@ public WindowCacheConfig() {
 		packedGitLimit = 10 * MB;
 		packedGitWindowSize = 8 * KB;
 		packedGitMMAP = false;
+		packedGitClockCache = false;
+		packedIndexMMAP = false;
 		deltaBaseCacheLimit = 10 * MB;
 	}
 
@@ -141,6 +147,46 @@ public void setPackedGitMMAP(final boolean usemmap) {
 		packedGitMMAP = usemmap;
 	}
 
+	/**
+	 * @return true uses a segmented window cache with CLOCK eviction, which
+	 *         never blocks a reader on the load of a different window; false
+	 *         uses the striped lock table with loose LRU eviction.
+	 *         <b>Default false.</b>
+	 */
+	public boolean isPackedGitClockCache() {
+		return packedGitClockCache;
+	}
+
+	/**
+	 * @param useClock
+	 *            true uses a segmented window cache with CLOCK eviction,
+	 *            which never blocks a reader on the load of a different
+	 *            window; false uses the striped lock table with loose LRU
+	 *            eviction.
+	 */
+	public void setPackedGitClockCache(final boolean useClock) {
+		packedGitClockCache = useClock;
+	}
+
+	/**
+	 * @return true searches pack indexes through a read-only memory mapping;
+	 *         false copies each pack index onto the Java heap when the pack is
+	 *         first used. <b>Default false.</b>
+	 */
+	public boolean isPackedIndexMMAP() {
+		return packedIndexMMAP;
+	}
+
+	/**
+	 * @param usemmap
+	 *            true searches pack indexes through a read-only memory
+	 *            mapping; false copies each pack index onto the Java heap when
+	 *            the pack is first used.
+	 */
+	public void setPackedIndexMMAP(final boolean usemmap) {
+		packedIndexMMAP = usemmap;
+	}
+
 	/**
 	 * @return maximum number of bytes to cache in {@link UnpackedObjectCache}
 	 *         for inflated, recently accessed objects, without delta chains.
@@ -173,6 +219,8 @@ public void fromConfig(final Config rc) {
 		setPackedGitLimit(rc.getLong("core", null, "packedgitlimit", getPackedGitLimit()));
 		setPackedGitWindowSize(rc.getInt("core", null, "packedgitwindowsize", getPackedGitWindowSize()));
 		setPackedGitMMAP(rc.getBoolean("core", null, "packedgitmmap", isPackedGitMMAP()));
+		setPackedGitClockCache(rc.getBoolean("core", null, "packedgitclockcache", isPackedGitClockCache()));
+		setPackedIndexMMAP(rc.getBoolean("core", null, "packedindexmmap", isPackedIndexMMAP()));
 		setDeltaBaseCacheLimit(rc.getInt("core", null, "deltabasecachelimit", getDeltaBaseCacheLimit()));
 	}
 }
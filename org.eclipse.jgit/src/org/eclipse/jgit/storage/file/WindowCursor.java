@@ -45,6 +45,9 @@
 package org.eclipse.jgit.storage.file;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -52,18 +55,24 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.InflaterCache;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.storage.pack.BitmapReachability;
 import org.eclipse.jgit.storage.pack.ObjectReuseAsIs;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackOutputStream;
 import org.eclipse.jgit.storage.pack.PackWriter;
 
 /** Active handle to a ByteWindow. */
-final class WindowCursor extends ObjectReader implements ObjectReuseAsIs {
+final class WindowCursor extends ObjectReader implements ObjectReuseAsIs,
+		BitmapReachability {
 	/** Temporary buffer large enough for at least one raw object id. */
 	final byte[] tempId = new byte[Constants.OBJECT_ID_LENGTH];
 
@@ -100,6 +109,12 @@ public ObjectLoader open(AnyObjectId objectId, int typeHint)
 		return ldr;
 	}
 
+	@Override
+	public <T extends ObjectId> AsyncObjectLoaderQueue<T> open(
+			Iterable<T> objectIds, boolean reportMissing) {
+		return new PackedObjectQueue<T>(this, objectIds, reportMissing);
+	}
+
 	public long getObjectSize(AnyObjectId objectId, int typeHint)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
@@ -112,6 +127,16 @@ public long getObjectSize(AnyObjectId objectId, int typeHint)
 		return sz;
 	}
 
+	@Override
+	public CommitGraph getCommitGraph() {
+		return db.getCommitGraph();
+	}
+
+	@Override
+	public Set<ObjectId> getShallowCommits() throws IOException {
+		return db.getShallowCommits();
+	}
+
 	public LocalObjectToPack newObjectToPack(RevObject obj) {
 		return new LocalObjectToPack(obj);
 	}
@@ -127,6 +152,30 @@ public void copyObjectAsIs(PackOutputStream out, ObjectToPack otp)
 		src.pack.copyAsIs(out, src, this);
 	}
 
+	public List<RevObject> findObjectsToPack(ProgressMonitor monitor,
+			Collection<? extends ObjectId> interestingObjects,
+			Collection<? extends ObjectId> uninterestingObjects)
+			throws IOException {
+		for (PackFile pack : db.getPacks()) {
+			PackBitmapIndex idx;
+			try {
+				idx = pack.getBitmapIndex();
+			} catch (IOException e) {
+				// An unreadable bitmap only costs us the fast path.
+				continue;
+			}
+			if (idx == null)
+				continue;
+
+			// Only the first pack with bitmaps is consulted, as bitmaps
+			// cannot describe objects split across several packs.
+			//
+			PackBitmapQuery q = new PackBitmapQuery(pack, idx, this);
+			return q.find(monitor, interestingObjects, uninterestingObjects);
+		}
+		return null;
+	}
+
 	/**
 	 * Copy bytes from the window to a caller supplied buffer.
 	 *
@@ -215,7 +215,8 @@ public int read(byte[] buf, int off, int len) throws IOException {
 				if (n < 0)
 					throw new CorruptObjectException(
 							JGitText.get().baseLengthIncorrect);
-				baseOffset += n;
+				copyOffset += n;
+				baseOffset = copyOffset;
 				break;
 
 			case CMD_INSERT:
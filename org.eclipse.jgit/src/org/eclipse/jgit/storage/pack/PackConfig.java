@@ -130,6 +130,20 @@ public class PackConfig {
 	 */
 	public static final int DEFAULT_INDEX_VERSION = 2;
 
+	/**
+	 * Default value of the use bitmaps option: {@value}
+	 *
+	 * @see #setUseBitmaps(boolean)
+	 */
+	public static final boolean DEFAULT_USE_BITMAPS = true;
+
+	/**
+	 * Default distance between commits with stored bitmaps: {@value}
+	 *
+	 * @see #setBitmapCommitInterval(int)
+	 */
+	public static final int DEFAULT_BITMAP_COMMIT_INTERVAL = 100;
+
 
 	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
 
@@ -159,6 +173,10 @@ public class PackConfig {
 
 	private int indexVersion = DEFAULT_INDEX_VERSION;
 
+	private boolean useBitmaps = DEFAULT_USE_BITMAPS;
+
+	private int bitmapCommitInterval = DEFAULT_BITMAP_COMMIT_INTERVAL;
+
 
 	/** Create a default configuration. */
 	public PackConfig() {
@@ -591,6 +609,60 @@ public void setIndexVersion(final int version) {
 		indexVersion = version;
 	}
 
+	/**
+	 * True if the writer may use reachability bitmaps to find objects.
+	 *
+	 * Default setting: {@value #DEFAULT_USE_BITMAPS}
+	 *
+	 * @return true if bitmaps stored alongside packs are used to enumerate
+	 *         the objects to send, instead of walking the object graph.
+	 */
+	public boolean isUseBitmaps() {
+		return useBitmaps;
+	}
+
+	/**
+	 * Set whether the writer may use reachability bitmaps to find objects.
+	 *
+	 * Bitmaps are only consulted if the repository has them and can answer
+	 * the request from a single pack; otherwise the object graph is walked.
+	 *
+	 * Default setting: {@value #DEFAULT_USE_BITMAPS}
+	 *
+	 * @param useBitmaps
+	 *            true to use bitmaps when available.
+	 */
+	public void setUseBitmaps(boolean useBitmaps) {
+		this.useBitmaps = useBitmaps;
+	}
+
+	/**
+	 * Get the number of commits between commits given a stored bitmap.
+	 *
+	 * Default setting: {@value #DEFAULT_BITMAP_COMMIT_INTERVAL}
+	 *
+	 * @return distance, in commits, between selected bitmap commits.
+	 */
+	public int getBitmapCommitInterval() {
+		return bitmapCommitInterval;
+	}
+
+	/**
+	 * Set the number of commits between commits given a stored bitmap.
+	 *
+	 * Smaller intervals make queries faster, at the cost of a larger bitmap
+	 * index. The tips of the pack always receive a bitmap.
+	 *
+	 * Default setting: {@value #DEFAULT_BITMAP_COMMIT_INTERVAL}
+	 *
+	 * @param interval
+	 *            distance, in commits, between selected bitmap commits. Must
+	 *            be at least 1.
+	 */
+	public void setBitmapCommitInterval(int interval) {
+		bitmapCommitInterval = Math.max(1, interval);
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 *
@@ -617,5 +689,7 @@ public void fromConfig(final Config rc) {
 		setReuseDeltas(rc.getBoolean("pack", "reusedeltas", isReuseDeltas()));
 		setReuseObjects(rc.getBoolean("pack", "reuseobjects", isReuseObjects()));
 		setDeltaCompress(rc.getBoolean("pack", "deltacompression", isDeltaCompress()));
+		setUseBitmaps(rc.getBoolean("pack", "usebitmaps", isUseBitmaps()));
+		setBitmapCommitInterval(rc.getInt("pack", "bitmapcommitinterval", getBitmapCommitInterval()));
 	}
 }
@@ -58,13 +58,7 @@
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.FutureTask;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
@@ -88,6 +82,7 @@
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.storage.file.PackBitmapIndexWriter;
 import org.eclipse.jgit.storage.file.PackIndexWriter;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.TemporaryBuffer;
@@ -150,6 +145,9 @@ public class PackWriter {
 	/** {@link #reader} recast to the reuse interface, if it supports it. */
 	private final ObjectReuseAsIs reuseSupport;
 
+	/** {@link #reader} recast to the bitmap interface, if it supports it. */
+	private final BitmapReachability bitmapSupport;
+
 	private final PackConfig config;
 
 	private List<ObjectToPack> sortedByName;
@@ -164,6 +162,11 @@ public class PackWriter {
 
 	private boolean ignoreMissingUninteresting = true;
 
+	private Collection<? extends ObjectId> tips;
+
+	private Collection<? extends ObjectId> shallowCommits = Collections
+			.<ObjectId> emptySet();
+
 	/**
 	 * Create writer for specified repository.
 	 * <p>
@@ -223,6 +226,10 @@ public PackWriter(final PackConfig config, final ObjectReader reader) {
 			reuseSupport = ((ObjectReuseAsIs) reader);
 		else
 			reuseSupport = null;
+		if (reader instanceof BitmapReachability)
+			bitmapSupport = ((BitmapReachability) reader);
+		else
+			bitmapSupport = null;
 
 		deltaBaseAsOffset = config.isDeltaBaseAsOffset();
 		reuseDeltas = config.isReuseDeltas();
@@ -296,6 +303,23 @@ public void setIgnoreMissingUninteresting(final boolean ignore) {
 		ignoreMissingUninteresting = ignore;
 	}
 
+	/**
+	 * Cut the history included in the pack at a set of commits.
+	 * <p>
+	 * The listed commits are packed as though they had no parents, so none of
+	 * their ancestors are considered by
+	 * {@link #preparePack(ProgressMonitor, Collection, Collection)} unless
+	 * reachable through some other path. This is how a shallow history is
+	 * sent to a client that asked for a limited depth, or that is itself
+	 * shallow. Reachability bitmaps are not used for such a pack.
+	 *
+	 * @param shallow
+	 *            the commits at the boundary of the shallow history.
+	 */
+	public void setShallowCommits(final Collection<? extends ObjectId> shallow) {
+		shallowCommits = shallow;
+	}
+
 	/**
 	 * Returns objects number in a pack file that was created by this writer.
 	 *
@@ -357,6 +381,14 @@ public void preparePack(final Iterator<RevObject> objectsSource)
 	 * Order is consistent with general git in-pack rules: sort by object type,
 	 * recency, path and delta-base first.
 	 * </p>
+	 * <p>
+	 * If the repository provides reachability bitmaps and
+	 * {@link PackConfig#isUseBitmaps()} is set, the objects may instead be
+	 * found by combining bitmaps, avoiding the graph traversal. Bitmaps do not
+	 * discover the edge objects a thin pack may delta against, so they are
+	 * not used when {@link #setThin(boolean)} was set and uninteresting
+	 * objects were given.
+	 * </p>
 	 *
 	 * @param countingMonitor
 	 *            progress during object enumeration.
@@ -375,9 +407,20 @@ public void preparePack(ProgressMonitor countingMonitor,
 			throws IOException {
 		if (countingMonitor == null)
 			countingMonitor = NullProgressMonitor.INSTANCE;
-		ObjectWalk walker = setUpWalker(interestingObjects,
-				uninterestingObjects);
-		findObjectsToPack(countingMonitor, walker);
+		tips = interestingObjects;
+
+		// Bitmaps and the graph walk report progress in the same task, so
+		// a query the bitmaps cannot answer does not restart the counting.
+		//
+		countingMonitor.beginTask(JGitText.get().countingObjects,
+				ProgressMonitor.UNKNOWN);
+		if (!findObjectsWithBitmaps(countingMonitor, interestingObjects,
+				uninterestingObjects)) {
+			ObjectWalk walker = setUpWalker(interestingObjects,
+					uninterestingObjects);
+			findObjectsToPack(countingMonitor, walker);
+		}
+		countingMonitor.endTask();
 	}
 
 	/**
@@ -432,6 +475,35 @@ public void writeIndex(final OutputStream indexStream) throws IOException {
 		iw.write(list, packcsum);
 	}
 
+	/**
+	 * Create a reachability bitmap index to match the pack file just written.
+	 * <p>
+	 * This method can only be invoked after
+	 * {@link #preparePack(ProgressMonitor, Collection, Collection)} and
+	 * {@link #writePack(ProgressMonitor, ProgressMonitor, OutputStream)} have
+	 * been invoked and completed successfully. Bitmaps are only meaningful for
+	 * packs that are closed under reachability, that is packs prepared
+	 * without uninteresting objects, such as a full repack.
+	 *
+	 * @param monitor
+	 *            progress monitor to report the number of commits processed.
+	 * @param bitmapStream
+	 *            output for the bitmap data. Caller is responsible for
+	 *            closing this stream.
+	 * @throws IOException
+	 *             the objects could not be read, or the bitmap data could not
+	 *             be written to the supplied stream.
+	 */
+	public void writeBitmapIndex(ProgressMonitor monitor,
+			final OutputStream bitmapStream) throws IOException {
+		if (monitor == null)
+			monitor = NullProgressMonitor.INSTANCE;
+		final PackBitmapIndexWriter bw = new PackBitmapIndexWriter(reader,
+				sortByName(), packcsum);
+		bw.setCommitInterval(config.getBitmapCommitInterval());
+		bw.write(bitmapStream, tips, monitor);
+	}
+
 	private List<ObjectToPack> sortByName() {
 		if (sortedByName == null) {
 			sortedByName = new ArrayList<ObjectToPack>(objectsMap.size());
@@ -627,7 +699,8 @@ private void searchForDeltas(final ProgressMonitor monitor,
 		if (estSize < 2 * config.getDeltaSearchWindowSize())
 			estSize = 2 * config.getDeltaSearchWindowSize();
 
-		final List<DeltaTask> myTasks = new ArrayList<DeltaTask>(threads * 2);
+		final List<FutureTask<Object>> myTasks = new ArrayList<FutureTask<Object>>(
+				threads * 2);
 		for (int i = 0; i < cnt;) {
 			final int start = i;
 			final int batchSize;
@@ -652,104 +725,12 @@ private void searchForDeltas(final ProgressMonitor monitor,
 				batchSize = end - start;
 			}
 			i += batchSize;
-			myTasks.add(new DeltaTask(config, reader, dc, pm, batchSize, start, list));
+			myTasks.add(new FutureTask<Object>(new DeltaTask(config, reader, dc,
+					pm, batchSize, start, list)));
 		}
 
-		final Executor executor = config.getExecutor();
-		final List<Throwable> errors = Collections
-				.synchronizedList(new ArrayList<Throwable>());
-		if (executor instanceof ExecutorService) {
-			// Caller supplied us a service, use it directly.
-			//
-			runTasks((ExecutorService) executor, myTasks, errors);
-
-		} else if (executor == null) {
-			// Caller didn't give us a way to run the tasks, spawn up a
-			// temporary thread pool and make sure it tears down cleanly.
-			//
-			ExecutorService pool = Executors.newFixedThreadPool(threads);
-			try {
-				runTasks(pool, myTasks, errors);
-			} finally {
-				pool.shutdown();
-				for (;;) {
-					try {
-						if (pool.awaitTermination(60, TimeUnit.SECONDS))
-							break;
-					} catch (InterruptedException e) {
-						throw new IOException(
-								JGitText.get().packingCancelledDuringObjectsWriting);
-					}
-				}
-			}
-		} else {
-			// The caller gave us an executor, but it might not do
-			// asynchronous execution.  Wrap everything and hope it
-			// can schedule these for us.
-			//
-			final CountDownLatch done = new CountDownLatch(myTasks.size());
-			for (final DeltaTask task : myTasks) {
-				executor.execute(new Runnable() {
-					public void run() {
-						try {
-							task.call();
-						} catch (Throwable failure) {
-							errors.add(failure);
-						} finally {
-							done.countDown();
-						}
-					}
-				});
-			}
-			try {
-				done.await();
-			} catch (InterruptedException ie) {
-				// We can't abort the other tasks as we have no handle.
-				// Cross our fingers and just break out anyway.
-				//
-				throw new IOException(
-						JGitText.get().packingCancelledDuringObjectsWriting);
-			}
-		}
-
-		// If any task threw an error, try to report it back as
-		// though we weren't using a threaded search algorithm.
-		//
-		if (!errors.isEmpty()) {
-			Throwable err = errors.get(0);
-			if (err instanceof Error)
-				throw (Error) err;
-			if (err instanceof RuntimeException)
-				throw (RuntimeException) err;
-			if (err instanceof IOException)
-				throw (IOException) err;
-
-			IOException fail = new IOException(err.getMessage());
-			fail.initCause(err);
-			throw fail;
-		}
-	}
-
-	private void runTasks(ExecutorService pool, List<DeltaTask> tasks,
-			List<Throwable> errors) throws IOException {
-		List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
-		for (DeltaTask task : tasks)
-			futures.add(pool.submit(task));
-
-		try {
-			for (Future<?> f : futures) {
-				try {
-					f.get();
-				} catch (ExecutionException failed) {
-					errors.add(failed.getCause());
-				}
-			}
-		} catch (InterruptedException ie) {
-			for (Future<?> f : futures)
-				f.cancel(true);
-			throw new IOException(
-					JGitText.get().packingCancelledDuringObjectsWriting);
-		}
+		ParallelTasks.run(config.getExecutor(), threads, myTasks,
+				JGitText.get().packingCancelledDuringObjectsWriting);
 	}
 
 	private void writeObjects(ProgressMonitor writeMonitor, PackOutputStream out)
@@ -955,6 +936,7 @@ private ObjectWalk setUpWalker(
 		walker.sort(RevSort.COMMIT_TIME_DESC);
 		if (thin)
 			walker.sort(RevSort.BOUNDARY, true);
+		walker.assumeShallow(shallowCommits);
 
 		for (ObjectId id : interestingObjects) {
 			RevObject o = walker.parseAny(id);
@@ -976,11 +958,37 @@ private ObjectWalk setUpWalker(
 		return walker;
 	}
 
+	private boolean findObjectsWithBitmaps(
+			final ProgressMonitor countingMonitor,
+			final Collection<? extends ObjectId> interestingObjects,
+			final Collection<? extends ObjectId> uninterestingObjects)
+			throws IOException {
+		if (bitmapSupport == null || !config.isUseBitmaps())
+			return false;
+
+		if (!shallowCommits.isEmpty())
+			return false;
+
+		// A thin pack needs the walk to find the edge objects it may use
+		// as delta bases; without them the pack is complete but larger.
+		//
+		final boolean haves = uninterestingObjects != null
+				&& !uninterestingObjects.isEmpty();
+		if (haves && (thin || !ignoreMissingUninteresting))
+			return false;
+
+		final List<RevObject> found = bitmapSupport.findObjectsToPack(
+				countingMonitor, interestingObjects, uninterestingObjects);
+		if (found == null)
+			return false;
+		for (RevObject o : found)
+			addObject(o, 0);
+		return true;
+	}
+
 	private void findObjectsToPack(final ProgressMonitor countingMonitor,
 			final ObjectWalk walker) throws MissingObjectException,
 			IncorrectObjectTypeException,			IOException {
-		countingMonitor.beginTask(JGitText.get().countingObjects,
-				ProgressMonitor.UNKNOWN);
 		RevObject o;
 
 		while ((o = walker.next()) != null) {
@@ -991,7 +999,6 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 			addObject(o, walker.getPathHashCode());
 			countingMonitor.update(1);
 		}
-		countingMonitor.endTask();
 	}
 
 	/**
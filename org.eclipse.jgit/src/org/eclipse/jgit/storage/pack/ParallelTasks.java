@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.pack;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs a batch of tasks concurrently and waits for all of them to finish.
+ * <p>
+ * Shared by the code paths that split their work across several threads, so
+ * that failures are reported back to the caller the same way everywhere: as
+ * though the work had been done on the calling thread.
+ */
+public final class ParallelTasks {
+	/**
+	 * Execute every task and wait for all of them to complete.
+	 * <p>
+	 * If a task fails the remaining tasks are still waited for, then the first
+	 * failure (in list order) is thrown from this method. Errors, runtime
+	 * exceptions and IOExceptions are rethrown unchanged, any other exception
+	 * is wrapped in an IOException.
+	 *
+	 * @param executor
+	 *            executor to run the tasks on. If null a temporary pool is
+	 *            created for the duration of this call.
+	 * @param threads
+	 *            number of threads in the temporary pool, when one is needed.
+	 * @param tasks
+	 *            the tasks to run. Each task is executed exactly once.
+	 * @param interruptedMessage
+	 *            message of the IOException thrown if the calling thread is
+	 *            interrupted while waiting. The tasks are cancelled first.
+	 * @throws IOException
+	 *             a task failed, or the calling thread was interrupted.
+	 */
+	public static void run(Executor executor, int threads,
+			List<? extends FutureTask<?>> tasks, String interruptedMessage)
+			throws IOException {
+		ExecutorService pool = null;
+		if (executor == null) {
+			// Caller didn't give us a way to run the tasks, spawn up a
+			// temporary thread pool for the duration of the call.
+			//
+			pool = Executors.newFixedThreadPool(threads);
+			executor = pool;
+		}
+
+		Throwable err = null;
+		try {
+			for (FutureTask<?> task : tasks)
+				executor.execute(task);
+			for (FutureTask<?> task : tasks) {
+				try {
+					task.get();
+				} catch (ExecutionException failed) {
+					if (err == null)
+						err = failed.getCause();
+				}
+			}
+		} catch (InterruptedException ie) {
+			for (FutureTask<?> task : tasks)
+				task.cancel(true);
+			throw new IOException(interruptedMessage);
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+
+		// If any task threw an error, try to report it back as
+		// though we weren't using threads.
+		//
+		if (err != null) {
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			if (err instanceof IOException)
+				throw (IOException) err;
+
+			IOException fail = new IOException(err.getMessage());
+			fail.initCause(err);
+			throw fail;
+		}
+	}
+
+	private ParallelTasks() {
+		// Don't create instances of a static only utility.
+	}
+}
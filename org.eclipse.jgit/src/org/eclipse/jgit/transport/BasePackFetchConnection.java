@@ -51,6 +51,7 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Set;
 
 import org.eclipse.jgit.JGitText;
@@ -72,6 +73,7 @@
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.ObjectDirectory;
 import org.eclipse.jgit.storage.file.PackLock;
 import org.eclipse.jgit.transport.PacketLineIn.AckNackResult;
 import org.eclipse.jgit.util.TemporaryBuffer;
@@ -168,6 +170,21 @@ static enum MultiAck {
 
 	private boolean allowOfsDelta;
 
+	/** Number of commits of history to fetch; 0 for the complete history. */
+	private final int depth;
+
+	/** Shallow commits of the local repository when the fetch started. */
+	private Set<ObjectId> localShallow;
+
+	/** Shallow commits to record once the pack is received. */
+	private Set<ObjectId> newShallow;
+
+	/** Local shallow commits the peer is sending the parents of. */
+	private Set<ObjectId> unshallow;
+
+	/** True if the next response begins with the shallow boundary. */
+	private boolean shallowInfoPending;
+
 	private String lockMessage;
 
 	private PackLock packLock;
@@ -184,6 +201,7 @@ static enum MultiAck {
 		includeTags = transport.getTagOpt() != TagOpt.NO_TAGS;
 		thinPack = transport.isFetchThin();
 		allowOfsDelta = cfg.allowOfsDelta;
+		depth = transport.getDepth();
 
 		walk = new RevWalk(local);
 		reachableCommits = new RevCommitList<RevCommit>();
@@ -242,6 +260,7 @@ protected void doFetch(final ProgressMonitor monitor,
 		try {
 			markRefsAdvertised();
 			markReachable(have, maxTimeWanted(want));
+			localShallow = walk.getObjectReader().getShallowCommits();
 
 			if (statelessRPC) {
 				state = new TemporaryBuffer.Heap(Integer.MAX_VALUE);
@@ -257,6 +276,7 @@ protected void doFetch(final ProgressMonitor monitor,
 				pckState = null;
 
 				receivePack(monitor);
+				updateShallow();
 			}
 		} catch (CancelledException ce) {
 			close();
@@ -345,7 +365,8 @@ private boolean sendWants(final Collection<Ref> want) throws IOException {
 		boolean first = true;
 		for (final Ref r : want) {
 			try {
-				if (walk.parseAny(r.getObjectId()).has(REACHABLE)) {
+				if (depth == 0
+						&& walk.parseAny(r.getObjectId()).has(REACHABLE)) {
 					// We already have this object. Asking for it is
 					// not a very good idea.
 					//
@@ -368,6 +389,10 @@ private boolean sendWants(final Collection<Ref> want) throws IOException {
 		}
 		if (first)
 			return false;
+		for (final ObjectId id : localShallow)
+			p.writeString("shallow " + id.name() + "\n");
+		if (depth > 0)
+			p.writeString("deepen " + depth + "\n");
 		p.end();
 		outNeedsEnd = false;
 		return true;
@@ -394,6 +419,10 @@ else if (wantCapability(line, OPTION_MULTI_ACK))
 		else if (wantCapability(line, OPTION_SIDE_BAND))
 			sideband = true;
 
+		if ((depth > 0 || !localShallow.isEmpty())
+				&& !isCapableOf(OPTION_SHALLOW))
+			throw new PackProtocolException(uri, JGitText.get().shallowNotSupported);
+
 		if (statelessRPC && multiAck != MultiAck.DETAILED) {
 			// Our stateless RPC implementation relies upon the detailed
 			// ACK status to tell us common objects for reuse in future
@@ -416,6 +445,7 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 
 		if (statelessRPC)
 			state.writeTo(out, null);
+		shallowInfoPending = depth > 0;
 
 		negotiateBegin();
 		SEND_HAVES: for (;;) {
@@ -451,7 +481,7 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 			}
 
 			READ_RESULT: for (;;) {
-				final AckNackResult anr = pckIn.readACK(ackId);
+				final AckNackResult anr = readACK(ackId);
 				switch (anr) {
 				case NAK:
 					// More have lines are necessary to compute the
@@ -469,7 +499,7 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 					resultsPending = 0;
 					receivedAck = true;
 					if (statelessRPC)
-						state.writeTo(out, null);
+						sendState();
 					break SEND_HAVES;
 
 				case ACK_CONTINUE:
@@ -492,7 +522,7 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 			}
 
 			if (statelessRPC)
-				state.writeTo(out, null);
+				sendState();
 
 			if (receivedContinue && havesSinceLastContinue > MAX_HAVES) {
 				// Our history must be really different from the remote's.
@@ -526,7 +556,7 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 		}
 
 		READ_RESULT: while (resultsPending > 0 || multiAck != MultiAck.OFF) {
-			final AckNackResult anr = pckIn.readACK(ackId);
+			final AckNackResult anr = readACK(ackId);
 			resultsPending--;
 			switch (anr) {
 			case NAK:
@@ -555,6 +585,72 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 		}
 	}
 
+	private void sendState() throws IOException {
+		state.writeTo(out, null);
+
+		// Every stateless request asks to deepen again, so every response
+		// repeats the shallow boundary.
+		shallowInfoPending = depth > 0;
+	}
+
+	private AckNackResult readACK(final MutableObjectId ackId)
+			throws IOException {
+		if (shallowInfoPending) {
+			shallowInfoPending = false;
+			readShallowInfo();
+		}
+		return pckIn.readACK(ackId);
+	}
+
+	private void readShallowInfo() throws IOException {
+		newShallow = new HashSet<ObjectId>();
+		unshallow = new HashSet<ObjectId>();
+		for (;;) {
+			final String line = pckIn.readString();
+			if (line == PacketLineIn.END)
+				break;
+			if (line.startsWith("shallow "))
+				newShallow.add(ObjectId.fromString(line.substring(8)));
+			else if (line.startsWith("unshallow "))
+				unshallow.add(ObjectId.fromString(line.substring(10)));
+			else
+				throw new PackProtocolException(uri, MessageFormat.format(
+						JGitText.get().expectedGot, "shallow", line));
+		}
+	}
+
+	private void updateShallow() throws IOException {
+		if (newShallow == null)
+			return;
+
+		final Set<ObjectId> shallow = new HashSet<ObjectId>(localShallow);
+		shallow.removeAll(unshallow);
+		final RevWalk rw = new RevWalk(local);
+		try {
+			for (final ObjectId id : newShallow) {
+				if (!shallow.contains(id) && !hasAllParents(rw, id))
+					shallow.add(id);
+			}
+		} finally {
+			rw.release();
+		}
+		if (!shallow.equals(localShallow)
+				&& local.getObjectDatabase() instanceof ObjectDirectory)
+			((ObjectDirectory) local.getObjectDatabase())
+					.setShallowCommits(shallow);
+	}
+
+	private static boolean hasAllParents(final RevWalk rw, final ObjectId id)
+			throws IOException {
+		// The peer did not send the parents, so if they are here anyway
+		// we already had their history and the commit is not shallow.
+		for (final RevCommit p : rw.parseCommit(id).getParents()) {
+			if (!rw.getObjectReader().has(p))
+				return false;
+		}
+		return true;
+	}
+
 	private void negotiateBegin() throws IOException {
 		walk.resetRetain(REACHABLE, ADVERTISED);
 		walk.markStart(reachableCommits);
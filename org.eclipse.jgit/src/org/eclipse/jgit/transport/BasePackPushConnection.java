@@ -91,6 +91,8 @@ class BasePackPushConnection extends BasePackConnection implements
 
 	static final String CAPABILITY_SIDE_BAND_64K = "side-band-64k";
 
+	static final String CAPABILITY_ATOMIC = "atomic";
+
 	private final boolean thinPack;
 
 	private boolean capableDeleteRefs;
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.ParallelTasks;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.MutableInteger;
+
+/**
+ * Verifies a received pack is connected to the repository it was stored in.
+ * <p>
+ * Instead of walking the history from the pushed tips down to the advertised
+ * references, only the commits, trees and tags of the received pack are
+ * parsed. Every object they refer to must either be in the same pack, be one
+ * of the delta bases the pack was completed with, or already exist in the
+ * repository. Existing objects are only probed for in the object database,
+ * they are not parsed, as the repository is assumed to be connected already.
+ * <p>
+ * The objects of the pack are independent of each other for the purpose of
+ * this check, so they are split across several threads.
+ */
+class ConnectivityChecker {
+	private final Repository db;
+
+	private final ObjectIdSubclassMap<ObjectId> newObjects;
+
+	private final ObjectIdSubclassMap<ObjectId> baseObjects;
+
+	private int threads = 1;
+
+	/**
+	 * Create a checker for a pack received into a repository.
+	 *
+	 * @param db
+	 *            the repository the pack was stored in.
+	 * @param newObjects
+	 *            objects contained in the pack, as returned by
+	 *            {@link IndexPack#getNewObjectIds()}.
+	 * @param baseObjects
+	 *            objects appended to complete a thin pack, as returned by
+	 *            {@link IndexPack#getBaseObjectIds()}.
+	 */
+	ConnectivityChecker(final Repository db,
+			final ObjectIdSubclassMap<ObjectId> newObjects,
+			final ObjectIdSubclassMap<ObjectId> baseObjects) {
+		this.db = db;
+		this.newObjects = newObjects;
+		this.baseObjects = baseObjects;
+	}
+
+	/**
+	 * @param threads
+	 *            number of threads to parse the pack's objects with. If &lt;=
+	 *            0 the number of available processors is used.
+	 */
+	void setThreads(final int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Check the pack, and that the new values of the commands exist.
+	 *
+	 * @param commands
+	 *            the commands to be executed. Deletes and commands that have
+	 *            already failed are ignored.
+	 * @throws MissingObjectException
+	 *             an object is referenced but neither received nor present in
+	 *             the repository.
+	 * @throws IOException
+	 *             an object could not be read.
+	 */
+	void check(final Collection<ReceiveCommand> commands)
+			throws MissingObjectException, IOException {
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			for (final ReceiveCommand cmd : commands) {
+				if (cmd.getResult() != ReceiveCommand.Result.NOT_ATTEMPTED)
+					continue;
+				if (cmd.getType() == ReceiveCommand.Type.DELETE)
+					continue;
+				final ObjectId id = cmd.getNewId();
+				if (!isReceived(id) && !reader.has(id))
+					throw new MissingObjectException(id, Constants.TYPE_COMMIT);
+			}
+		} finally {
+			reader.release();
+		}
+
+		// Blobs don't refer to anything, only the other types need parsing.
+		//
+		final List<PackedObjectInfo> todo = new ArrayList<PackedObjectInfo>();
+		for (final ObjectId id : newObjects) {
+			final PackedObjectInfo oe = (PackedObjectInfo) id;
+			if (oe.getType() != Constants.OBJ_BLOB)
+				todo.add(oe);
+		}
+
+		int n = threads;
+		if (n <= 0)
+			n = Runtime.getRuntime().availableProcessors();
+		if (n == 1 || todo.size() <= 1) {
+			final Worker w = new Worker();
+			try {
+				for (final PackedObjectInfo oe : todo)
+					w.check(oe);
+			} finally {
+				w.release();
+			}
+		} else {
+			checkInParallel(todo, n);
+		}
+	}
+
+	private void checkInParallel(final List<PackedObjectInfo> todo,
+			final int n) throws IOException {
+		final int last = todo.size();
+		final AtomicInteger next = new AtomicInteger();
+		final List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>(
+				n);
+		for (int t = 0; t < n; t++) {
+			tasks.add(new FutureTask<Object>(new Callable<Object>() {
+				public Object call() throws IOException {
+					final Worker w = new Worker();
+					boolean ok = false;
+					try {
+						int i;
+						while ((i = next.getAndIncrement()) < last)
+							w.check(todo.get(i));
+						ok = true;
+					} finally {
+						if (!ok)
+							next.set(last);
+						w.release();
+					}
+					return null;
+				}
+			}));
+		}
+
+		try {
+			ParallelTasks.run(null, n, tasks,
+					JGitText.get().connectivityCheckInterrupted);
+		} finally {
+			// Stop workers still claiming entries if we were interrupted.
+			next.set(last);
+		}
+	}
+
+	private boolean isReceived(final AnyObjectId id) {
+		return newObjects.contains(id) || baseObjects.contains(id);
+	}
+
+	/** Parses objects of the pack on a single thread. */
+	private class Worker {
+		private final ObjectReader reader = db.newObjectReader();
+
+		private final CanonicalTreeParser treeParser = new CanonicalTreeParser();
+
+		private final MutableObjectId idBuf = new MutableObjectId();
+
+		/** Objects outside of the pack this worker already found. */
+		private final ObjectIdSubclassMap<ObjectId> existing = new ObjectIdSubclassMap<ObjectId>();
+
+		void check(final PackedObjectInfo oe) throws IOException {
+			final byte[] raw = reader.open(oe, oe.getType()).getCachedBytes();
+			switch (oe.getType()) {
+			case Constants.OBJ_COMMIT:
+				checkCommit(raw);
+				break;
+			case Constants.OBJ_TREE:
+				checkTree(raw);
+				break;
+			case Constants.OBJ_TAG:
+				checkTag(oe, raw);
+				break;
+			}
+		}
+
+		private void checkCommit(final byte[] raw) throws IOException {
+			// "tree " + hex + "\n", then "parent " + hex + "\n" per parent.
+			//
+			idBuf.fromString(raw, 5);
+			require(idBuf, Constants.OBJ_TREE);
+
+			int ptr = 46;
+			while (ptr + 48 <= raw.length && raw[ptr] == 'p'
+					&& raw[ptr + 1] == 'a') {
+				idBuf.fromString(raw, ptr + 7);
+				require(idBuf, Constants.OBJ_COMMIT);
+				ptr += 48;
+			}
+		}
+
+		private void checkTree(final byte[] raw) throws IOException {
+			treeParser.reset(raw);
+			while (!treeParser.eof()) {
+				final int mode = treeParser.getEntryRawMode();
+				if ((mode & FileMode.TYPE_MASK) != FileMode.TYPE_GITLINK) {
+					treeParser.getEntryObjectId(idBuf);
+					if ((mode & FileMode.TYPE_MASK) == FileMode.TYPE_TREE)
+						require(idBuf, Constants.OBJ_TREE);
+					else
+						require(idBuf, Constants.OBJ_BLOB);
+				}
+				treeParser.next(1);
+			}
+		}
+
+		private void checkTag(final AnyObjectId tagId, final byte[] raw)
+				throws IOException {
+			// "object " + hex + "\n" + "type " + name + "\n"
+			//
+			final MutableInteger ptr = new MutableInteger();
+			ptr.value = 53;
+			final int type = Constants.decodeTypeString(tagId, raw,
+					(byte) '\n', ptr);
+			idBuf.fromString(raw, 7);
+			require(idBuf, type);
+		}
+
+		private void require(final AnyObjectId id, final int type)
+				throws IOException {
+			if (isReceived(id) || existing.contains(id))
+				return;
+			if (!reader.has(id))
+				throw new MissingObjectException(id.copy(), type);
+			existing.add(id.copy());
+		}
+
+		void release() {
+			reader.release();
+		}
+	}
+}
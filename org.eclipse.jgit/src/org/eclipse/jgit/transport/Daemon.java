@@ -52,10 +52,20 @@
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.text.MessageFormat;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.lib.Constants;
@@ -71,6 +81,9 @@ public class Daemon {
 	/** 9418: IANA assigned port number for Git. */
 	public static final int DEFAULT_PORT = 9418;
 
+	/** Default number of requests waiting for a worker thread. */
+	public static final int DEFAULT_QUEUE_SIZE = 50;
+
 	private static final int BACKLOG = 5;
 
 	private InetSocketAddress myAddress;
@@ -93,6 +106,14 @@ public class Daemon {
 
 	private PackConfig packConfig;
 
+	private int maxThreads;
+
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+
+	private int maxConnectionsPerAddress;
+
+	private final Map<InetAddress, Integer> connections = new HashMap<InetAddress, Integer>();
+
 	/** Configure a daemon to listen on any available network port. */
 	public Daemon() {
 		this(null);
@@ -257,6 +278,79 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/**
+	 * @return maximum number of clients served at once; 0 if a new thread is
+	 *         started for every client.
+	 * @see #setMaxThreads(int)
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Set the number of threads available to serve clients.
+	 * <p>
+	 * If 0 (the default), a new thread is started for every accepted client,
+	 * and lives until the client disconnects. If positive, connections are
+	 * accepted and their request line is read with non-blocking I/O on a
+	 * single thread, and only then is the request handed to a fixed pool of
+	 * this many worker threads. Requests that cannot be started right away
+	 * wait in a queue of {@link #getQueueSize()} entries; once that is full
+	 * further clients are turned away with an error.
+	 * <p>
+	 * This setting only takes effect when the daemon is started.
+	 *
+	 * @param threads
+	 *            number of worker threads, or 0 to use a thread per client.
+	 */
+	public void setMaxThreads(final int threads) {
+		maxThreads = threads;
+	}
+
+	/**
+	 * @return number of requests that may wait for a worker thread.
+	 * @see #setMaxThreads(int)
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Set the number of requests that may wait for a worker thread.
+	 * <p>
+	 * Only used if {@link #setMaxThreads(int)} is positive. If 0, a request is
+	 * refused unless a worker thread is idle.
+	 *
+	 * @param size
+	 *            maximum number of queued requests.
+	 */
+	public void setQueueSize(final int size) {
+		queueSize = size;
+	}
+
+	/**
+	 * @return maximum number of connections from a single client address; 0
+	 *         if there is no limit.
+	 */
+	public int getMaxConnectionsPerAddress() {
+		return maxConnectionsPerAddress;
+	}
+
+	/**
+	 * Limit the number of connections a single client address may have open.
+	 * <p>
+	 * Connections beyond the limit are closed with an error as soon as they are
+	 * accepted. The limit counts connections still sending their request as
+	 * well as those being served.
+	 *
+	 * @param limit
+	 *            maximum number of connections from one address; 0 (the
+	 *            default) for no limit.
+	 */
+	public void setMaxConnectionsPerAddress(final int limit) {
+		maxConnectionsPerAddress = limit;
+	}
+
 	/**
 	 * Start this daemon on a background thread.
 	 *
@@ -269,6 +363,11 @@ public synchronized void start() throws IOException {
 		if (acceptThread != null)
 			throw new IllegalStateException(JGitText.get().daemonAlreadyRunning);
 
+		if (0 < maxThreads) {
+			startSelector();
+			return;
+		}
+
 		final ServerSocket listenSock = new ServerSocket(
 				myAddress != null ? myAddress.getPort() : 0, BACKLOG,
 				myAddress != null ? myAddress.getAddress() : null);
@@ -301,6 +400,58 @@ public void run() {
 		acceptThread.start();
 	}
 
+	private void startSelector() throws IOException {
+		final ServerSocketChannel listenChannel = ServerSocketChannel.open();
+		final ThreadPoolExecutor workers = newWorkerPool();
+		final DaemonSelector selector;
+		try {
+			listenChannel.socket().bind(myAddress, BACKLOG);
+			myAddress = (InetSocketAddress) listenChannel.socket()
+					.getLocalSocketAddress();
+			selector = new DaemonSelector(this, listenChannel, workers);
+		} catch (IOException err) {
+			listenChannel.close();
+			workers.shutdown();
+			throw err;
+		}
+
+		run = true;
+		acceptThread = new Thread(processors, "Git-Daemon-Accept") {
+			public void run() {
+				try {
+					selector.run();
+				} finally {
+					// Clients already being served are allowed to finish.
+					workers.shutdown();
+					synchronized (Daemon.this) {
+						acceptThread = null;
+					}
+				}
+			}
+		};
+		acceptThread.start();
+	}
+
+	private ThreadPoolExecutor newWorkerPool() {
+		final BlockingQueue<Runnable> queue;
+		if (0 < queueSize)
+			queue = new ArrayBlockingQueue<Runnable>(queueSize);
+		else
+			queue = new SynchronousQueue<Runnable>();
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		return new ThreadPoolExecutor(maxThreads, maxThreads, 60,
+				TimeUnit.SECONDS, queue, new ThreadFactory() {
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(processors, r,
+								"Git-Daemon-Worker-"
+										+ threadCount.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
 	/** @return true if this daemon is receiving connections. */
 	public synchronized boolean isRunning() {
 		return run;
@@ -318,8 +469,27 @@ private void startClient(final Socket s) {
 		final DaemonClient dc = new DaemonClient(this);
 
 		final SocketAddress peer = s.getRemoteSocketAddress();
+		final InetAddress addr;
 		if (peer instanceof InetSocketAddress)
-			dc.setRemoteAddress(((InetSocketAddress) peer).getAddress());
+			addr = ((InetSocketAddress) peer).getAddress();
+		else
+			addr = null;
+		dc.setRemoteAddress(addr);
+
+		if (!openConnection(addr)) {
+			try {
+				final PacketLineOut pckOut;
+				pckOut = new PacketLineOut(s.getOutputStream());
+				pckOut.writeString("ERR "
+						+ MessageFormat.format(
+								JGitText.get().daemonTooManyConnections,
+								addr.getHostAddress()) + "\n");
+				s.close();
+			} catch (IOException e) {
+				// Ignore unexpected IO exceptions from clients
+			}
+			return;
+		}
 
 		new Thread(processors, "Git-Daemon-Client " + peer.toString()) {
 			public void run() {
@@ -339,11 +509,47 @@ public void run() {
 					} catch (IOException e) {
 						// Ignore close exceptions
 					}
+					closeConnection(addr);
 				}
 			}
 		}.start();
 	}
 
+	/**
+	 * Count a new connection from a client address.
+	 *
+	 * @param addr
+	 *            address of the client; may be null if unknown.
+	 * @return true if the connection may proceed; false if the address already
+	 *         has the maximum number of connections open. If true, the caller
+	 *         must later call {@link #closeConnection(InetAddress)}.
+	 */
+	boolean openConnection(final InetAddress addr) {
+		if (addr == null)
+			return true;
+		synchronized (connections) {
+			final Integer cnt = connections.get(addr);
+			final int n = cnt != null ? cnt.intValue() : 0;
+			final int limit = maxConnectionsPerAddress;
+			if (0 < limit && limit <= n)
+				return false;
+			connections.put(addr, Integer.valueOf(n + 1));
+			return true;
+		}
+	}
+
+	void closeConnection(final InetAddress addr) {
+		if (addr == null)
+			return;
+		synchronized (connections) {
+			final Integer cnt = connections.get(addr);
+			if (cnt == null || cnt.intValue() <= 1)
+				connections.remove(addr);
+			else
+				connections.put(addr, Integer.valueOf(cnt.intValue() - 1));
+		}
+	}
+
 	synchronized DaemonService matchService(final String cmd) {
 		for (final DaemonService d : services) {
 			if (d.handles(cmd))
@@ -96,7 +96,18 @@ void execute(final Socket sock)
 
 		if (0 < daemon.getTimeout())
 			sock.setSoTimeout(daemon.getTimeout() * 1000);
-		String cmd = new PacketLineIn(rawIn).readStringRaw();
+		final String cmd = new PacketLineIn(rawIn).readStringRaw();
+		sock.setSoTimeout(0);
+		execute(cmd);
+	}
+
+	void execute(final Socket sock, final String cmd) throws IOException {
+		rawIn = new BufferedInputStream(sock.getInputStream());
+		rawOut = new BufferedOutputStream(sock.getOutputStream());
+		execute(cmd);
+	}
+
+	private void execute(String cmd) throws IOException {
 		final int nul = cmd.indexOf('\0');
 		if (nul >= 0) {
 			// Newer clients hide a "host" header behind this byte.
@@ -109,7 +120,6 @@ void execute(final Socket sock)
 		final DaemonService srv = getDaemon().matchService(cmd);
 		if (srv == null)
 			return;
-		sock.setSoTimeout(0);
 		srv.execute(this, cmd);
 	}
 }
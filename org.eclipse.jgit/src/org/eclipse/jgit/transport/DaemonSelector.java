@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Non-blocking accept loop for {@link Daemon}.
+ * <p>
+ * A single thread accepts new connections and reads the request line sent by
+ * each client with a {@link Selector}, so idle or slow clients cost only a
+ * small buffer rather than a thread. Once a complete request line is known the
+ * connection is switched back to blocking mode and handed to the executor,
+ * which runs the requested service.
+ * <p>
+ * Clients are turned away with an <code>ERR</code> packet if they have too
+ * many connections open, or if the executor refuses to take on more work.
+ */
+final class DaemonSelector implements Runnable {
+	/** How often idle connections are checked for timeout, in milliseconds. */
+	private static final long EXPIRE_INTERVAL = 1000;
+
+	private final Daemon daemon;
+
+	private final ServerSocketChannel listen;
+
+	private final Executor workers;
+
+	private final Selector selector;
+
+	DaemonSelector(final Daemon daemon, final ServerSocketChannel listen,
+			final Executor workers) throws IOException {
+		this.daemon = daemon;
+		this.listen = listen;
+		this.workers = workers;
+		this.selector = Selector.open();
+
+		listen.configureBlocking(false);
+		listen.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	public void run() {
+		final List<PendingClient> ready = new ArrayList<PendingClient>();
+		long nextExpire = 0;
+		try {
+			while (daemon.isRunning()) {
+				final long timeout = daemon.getTimeout() * 1000L;
+				selector.select(0 < timeout ? EXPIRE_INTERVAL : 0);
+
+				final Iterator<SelectionKey> i;
+				i = selector.selectedKeys().iterator();
+				while (i.hasNext()) {
+					final SelectionKey key = i.next();
+					i.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable())
+						accept(timeout);
+					else if (key.isReadable())
+						read(key, ready);
+				}
+
+				if (!ready.isEmpty()) {
+					// Cancelled keys are only deregistered by the next
+					// selection, and a channel must be deregistered before
+					// it can be put back into blocking mode.
+					//
+					selector.selectNow();
+					for (final PendingClient c : ready)
+						dispatch(c);
+					ready.clear();
+				}
+
+				final long now = System.currentTimeMillis();
+				if (0 < timeout && nextExpire <= now) {
+					expire(now);
+					nextExpire = now + EXPIRE_INTERVAL;
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// Shutdown requested.
+		} catch (IOException e) {
+			// Fall through and stop accepting connections.
+		} finally {
+			for (final PendingClient c : ready)
+				c.close();
+			for (final SelectionKey key : selector.keys()) {
+				final Object att = key.attachment();
+				if (att instanceof PendingClient)
+					((PendingClient) att).close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			}
+			try {
+				listen.close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			}
+		}
+	}
+
+	private void accept(final long timeout) throws IOException {
+		final SocketChannel ch = listen.accept();
+		if (ch == null)
+			return;
+
+		final InetAddress addr;
+		final Socket s = ch.socket();
+		if (s.getRemoteSocketAddress() instanceof InetSocketAddress)
+			addr = ((InetSocketAddress) s.getRemoteSocketAddress())
+					.getAddress();
+		else
+			addr = null;
+
+		if (!daemon.openConnection(addr)) {
+			sendError(ch, MessageFormat.format(
+					JGitText.get().daemonTooManyConnections,
+					addr.getHostAddress()));
+			try {
+				ch.close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			}
+			return;
+		}
+
+		final PendingClient c = new PendingClient(ch, addr);
+		if (0 < timeout)
+			c.deadline = System.currentTimeMillis() + timeout;
+		try {
+			ch.configureBlocking(false);
+			ch.register(selector, SelectionKey.OP_READ, c);
+		} catch (IOException e) {
+			c.close();
+		}
+	}
+
+	private void read(final SelectionKey key, final List<PendingClient> ready) {
+		final PendingClient c = (PendingClient) key.attachment();
+		try {
+			if (c.read()) {
+				key.cancel();
+				ready.add(c);
+			}
+		} catch (IOException e) {
+			key.cancel();
+			c.close();
+		}
+	}
+
+	private void dispatch(final PendingClient c) {
+		final String cmd = c.getCommand();
+		final Socket s = c.channel.socket();
+		try {
+			c.channel.configureBlocking(true);
+		} catch (IOException e) {
+			c.close();
+			return;
+		}
+
+		final DaemonClient dc = new DaemonClient(daemon);
+		dc.setRemoteAddress(c.address);
+		try {
+			workers.execute(new Runnable() {
+				public void run() {
+					try {
+						dc.execute(s, cmd);
+					} catch (IOException e) {
+						// Ignore unexpected IO exceptions from clients
+						e.printStackTrace();
+					} finally {
+						c.close();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			sendError(c.channel, JGitText.get().daemonServerBusy);
+			c.close();
+		}
+	}
+
+	private void expire(final long now) {
+		for (final SelectionKey key : selector.keys()) {
+			final Object att = key.attachment();
+			if (att instanceof PendingClient) {
+				final PendingClient c = (PendingClient) att;
+				if (c.deadline != 0 && c.deadline <= now) {
+					key.cancel();
+					c.close();
+				}
+			}
+		}
+	}
+
+	private static void sendError(final SocketChannel ch, final String msg) {
+		try {
+			// The error is short enough to fit in the socket's send buffer,
+			// so a single write attempt suffices even if non-blocking.
+			//
+			final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			new PacketLineOut(buf).writeString("ERR " + msg + "\n");
+			ch.write(ByteBuffer.wrap(buf.toByteArray()));
+		} catch (IOException e) {
+			// The client is going away anyway.
+		}
+	}
+
+	/** A connection whose request line has not yet been fully read. */
+	private final class PendingClient {
+		final SocketChannel channel;
+
+		final InetAddress address;
+
+		long deadline;
+
+		private final ByteBuffer header = ByteBuffer.allocate(4);
+
+		private ByteBuffer line;
+
+		private boolean closed;
+
+		PendingClient(final SocketChannel channel, final InetAddress address) {
+			this.channel = channel;
+			this.address = address;
+		}
+
+		/**
+		 * Read whatever is available of the request line.
+		 *
+		 * @return true once the complete request line has been read.
+		 * @throws IOException
+		 *             the client closed the connection, or sent an invalid
+		 *             packet header.
+		 */
+		boolean read() throws IOException {
+			if (line == null) {
+				if (channel.read(header) < 0)
+					throw new EOFException();
+				if (header.hasRemaining())
+					return false;
+
+				final byte[] hdr = header.array();
+				final int len;
+				try {
+					len = RawParseUtils.parseHexInt16(hdr, 0);
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw invalidHeader(hdr);
+				}
+				if (len <= 4)
+					throw invalidHeader(hdr);
+				line = ByteBuffer.allocate(len - 4);
+			}
+
+			// Never read past the request line; anything after it belongs
+			// to the service and is read by the worker thread.
+			//
+			if (channel.read(line) < 0)
+				throw new EOFException();
+			return !line.hasRemaining();
+		}
+
+		String getCommand() {
+			return RawParseUtils.decode(Constants.CHARSET, line.array(), 0,
+					line.capacity());
+		}
+
+		synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			} finally {
+				daemon.closeConnection(address);
+			}
+		}
+
+		private IOException invalidHeader(final byte[] hdr) {
+			return new IOException(MessageFormat.format(
+					JGitText.get().invalidPacketLineHeader, RawParseUtils
+							.decode(Constants.CHARSET, hdr, 0, hdr.length)));
+		}
+	}
+}
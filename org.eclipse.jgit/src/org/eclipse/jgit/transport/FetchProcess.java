@@ -141,7 +141,8 @@ else if (tagopt == TagOpt.FETCH_TAGS)
 				expandFetchTags();
 
 			final boolean includedTags;
-			if (!askFor.isEmpty() && !askForIsComplete()) {
+			if (!askFor.isEmpty()
+					&& (transport.getDepth() > 0 || !askForIsComplete())) {
 				fetchObjects(monitor);
 				includedTags = conn.didFetchIncludeTags();
 
@@ -383,9 +384,11 @@ private void want(final Ref src, final RefSpec spec)
 		if (spec.getDestination() != null) {
 			try {
 				final TrackingRefUpdate tru = createUpdate(spec, newId);
-				if (newId.equals(tru.getOldObjectId()))
+				// An unchanged ref is still wanted to deepen its history.
+				if (!newId.equals(tru.getOldObjectId()))
+					localUpdates.add(tru);
+				else if (transport.getDepth() == 0)
 					return;
-				localUpdates.add(tru);
 			} catch (IOException err) {
 				// Bad symbolic ref? That is the most likely cause.
 				//
@@ -45,6 +45,7 @@
 
 package org.eclipse.jgit.transport;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -56,15 +57,21 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.InflaterCache;
@@ -77,9 +84,14 @@
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
 import org.eclipse.jgit.storage.file.PackIndexWriter;
 import org.eclipse.jgit.storage.file.PackLock;
 import org.eclipse.jgit.storage.pack.BinaryDelta;
+import org.eclipse.jgit.storage.pack.DeltaStream;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.ParallelTasks;
+import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.NB;
 
 /** Indexes Git pack files for local use. */
@@ -130,6 +142,9 @@ public static IndexPack create(final Repository db, final InputStream is)
 		final IndexPack ip = new IndexPack(db, is, base);
 		ip.setIndexVersion(db.getConfig().get(CoreConfig.KEY)
 				.getPackIndexVersion());
+		final PackConfig pc = new PackConfig(db);
+		ip.setThreads(pc.getThreads());
+		ip.setBigFileThreshold(pc.getBigFileThreshold());
 		return ip;
 	}
 
@@ -228,6 +243,15 @@ private static enum Source {
 
 	private ObjectReader readCurs;
 
+	private int resolverThreads = 1;
+
+	private Executor executor;
+
+	private long bigFileThreshold = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
+
+	/** Whole objects too large to check for collisions while streaming. */
+	private List<PackedObjectInfo> largeObjects;
+
 	/**
 	 * Create a new pack indexer utility.
 	 *
@@ -277,6 +301,57 @@ public void setIndexVersion(final int version) {
 		outputVersion = version;
 	}
 
+	/**
+	 * Set the number of threads used to resolve delta compressed objects.
+	 * <p>
+	 * Each thread resolves all of the deltas that depend on one base object
+	 * before moving on to the next base, so memory use grows only with the
+	 * number of threads, not with the size of the pack. The generated index
+	 * is the same regardless of the number of threads used.
+	 *
+	 * @param threads
+	 *            number of threads to use. If &lt;= 0 the number of available
+	 *            processors is used; 1 resolves deltas on the calling thread.
+	 */
+	public void setThreads(final int threads) {
+		resolverThreads = threads;
+	}
+
+	/**
+	 * Set the executor used to run delta resolution tasks.
+	 * <p>
+	 * If no executor is supplied and more than one thread is configured, a
+	 * temporary pool is created for the duration of {@link #index(ProgressMonitor)}.
+	 *
+	 * @param executor
+	 *            executor to run tasks on; null to create a temporary pool.
+	 */
+	public void setExecutor(final Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Set the size above which objects are never held entirely in memory.
+	 * <p>
+	 * Objects (and delta results) at least this large are not inflated into
+	 * a single array. Their names are computed by streaming the content, and
+	 * deltas based on them are applied against a stream that re-reads the base
+	 * from the pack being written. Memory needed to index such objects is then
+	 * independent of their size.
+	 *
+	 * Default setting: {@value PackConfig#DEFAULT_BIG_FILE_THRESHOLD}
+	 *
+	 * @param bigFileThreshold
+	 *            the limit, in bytes.
+	 */
+	public void setBigFileThreshold(final long bigFileThreshold) {
+		this.bigFileThreshold = bigFileThreshold;
+	}
+
+	private boolean isLarge(final long sz) {
+		return bigFileThreshold <= sz || Integer.MAX_VALUE <= sz;
+	}
+
 	/**
 	 * Configure this index pack instance to make a thin pack complete.
 	 * <p>
@@ -414,6 +489,8 @@ public void index(final ProgressMonitor progress) throws IOException {
 				readPackFooter();
 				endInput();
 				progress.endTask();
+				if (largeObjects != null)
+					verifyLargeObjects();
 				if (deltaCount > 0) {
 					if (packOut == null)
 						throw new IOException(JGitText.get().needPackOut);
@@ -475,85 +552,96 @@ private void resolveDeltas(final ProgressMonitor progress)
 			throws IOException {
 		progress.beginTask(PROGRESS_RESOLVE_DELTA, deltaCount);
 		final int last = entryCount;
-		for (int i = 0; i < last; i++) {
-			final int before = entryCount;
-			resolveDeltas(entries[i]);
-			progress.update(entryCount - before);
-			if (progress.isCancelled())
-				throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+		int threads = resolverThreads;
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+
+		if (threads == 1 || last <= 1) {
+			final DeltaResolver r = new DeltaResolver();
+			try {
+				for (int i = 0; i < last; i++) {
+					r.resolveDeltas(entries[i]);
+					progress.update(r.takeResolvedCount());
+					if (progress.isCancelled())
+						throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+				}
+			} finally {
+				r.release();
+			}
+		} else {
+			resolveDeltasInParallel(progress, last, threads);
 		}
 		progress.endTask();
 	}
 
-	private void resolveDeltas(final PackedObjectInfo oe) throws IOException {
-		final int oldCRC = oe.getCRC();
-		if (baseById.get(oe) != null || baseByPos.containsKey(oe.getOffset()))
-			resolveDeltas(oe.getOffset(), oldCRC, Constants.OBJ_BAD, null, oe);
-	}
-
-	private void resolveDeltas(final long pos, final int oldCRC, int type,
-			byte[] data, PackedObjectInfo oe) throws IOException {
-		crc.reset();
-		position(pos);
-		int c = readFrom(Source.FILE);
-		final int typeCode = (c >> 4) & 7;
-		long sz = c & 15;
-		int shift = 4;
-		while ((c & 0x80) != 0) {
-			c = readFrom(Source.FILE);
-			sz += (c & 0x7f) << shift;
-			shift += 7;
+	private void resolveDeltasInParallel(final ProgressMonitor progress,
+			final int last, final int threads) throws IOException {
+		// Each worker claims the next whole object from the entries table
+		// and resolves every delta that (transitively) depends upon it,
+		// before claiming another. Two workers never share a subtree, so
+		// at most one delta chain per thread is held in memory at once.
+		//
+		final ProgressMonitor pm = new ThreadSafeProgressMonitor(progress);
+		final AtomicInteger next = new AtomicInteger();
+		final List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>(
+				threads);
+		for (int t = 0; t < threads; t++) {
+			tasks.add(new FutureTask<Object>(new Callable<Object>() {
+				public Object call() throws IOException {
+					final DeltaResolver r = new DeltaResolver();
+					boolean ok = false;
+					try {
+						int i;
+						while ((i = next.getAndIncrement()) < last) {
+							r.resolveDeltas(entries[i]);
+							pm.update(r.takeResolvedCount());
+							if (pm.isCancelled())
+								throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+						}
+						ok = true;
+					} finally {
+						if (!ok)
+							next.set(last);
+						r.release();
+					}
+					return null;
+				}
+			}));
 		}
 
-		switch (typeCode) {
-		case Constants.OBJ_COMMIT:
-		case Constants.OBJ_TREE:
-		case Constants.OBJ_BLOB:
-		case Constants.OBJ_TAG:
-			type = typeCode;
-			data = inflateAndReturn(Source.FILE, sz);
-			break;
-		case Constants.OBJ_OFS_DELTA: {
-			c = readFrom(Source.FILE) & 0xff;
-			while ((c & 128) != 0)
-				c = readFrom(Source.FILE) & 0xff;
-			data = BinaryDelta.apply(data, inflateAndReturn(Source.FILE, sz));
-			break;
-		}
-		case Constants.OBJ_REF_DELTA: {
-			crc.update(buf, fill(Source.FILE, 20), 20);
-			use(20);
-			data = BinaryDelta.apply(data, inflateAndReturn(Source.FILE, sz));
-			break;
-		}
-		default:
-			throw new IOException(MessageFormat.format(JGitText.get().unknownObjectType, typeCode));
+		try {
+			ParallelTasks.run(executor, threads, tasks,
+					JGitText.get().downloadCancelledDuringIndexing);
+		} finally {
+			// Stop workers still claiming entries if we were interrupted.
+			next.set(last);
 		}
+	}
 
-		final int crc32 = (int) crc.getValue();
-		if (oldCRC != crc32)
-			throw new IOException(MessageFormat.format(JGitText.get().corruptionDetectedReReadingAt, pos));
-		if (oe == null) {
-			objectDigest.update(Constants.encodedTypeString(type));
-			objectDigest.update((byte) ' ');
-			objectDigest.update(Constants.encodeASCII(data.length));
-			objectDigest.update((byte) 0);
-			objectDigest.update(data);
-			tempObjectId.fromRaw(objectDigest.digest(), 0);
-
-			verifySafeObject(tempObjectId, type, data);
-			oe = new PackedObjectInfo(pos, crc32, tempObjectId);
-			addObjectAndTrack(oe);
+	private void verifyLargeObjects() throws IOException {
+		final DeltaResolver r = new DeltaResolver();
+		try {
+			for (final PackedObjectInfo oe : largeObjects)
+				r.verifySafeLargeObject(oe, r.openWhole(oe.getOffset()));
+		} finally {
+			r.release();
 		}
+		largeObjects = null;
+	}
 
-		resolveChildDeltas(pos, type, data, oe);
+	private synchronized boolean hasDeltaChildren(final PackedObjectInfo oe) {
+		return baseById.get(oe) != null || baseByPos.containsKey(oe.getOffset());
 	}
 
-	private UnresolvedDelta removeBaseById(final AnyObjectId id){
+	private synchronized UnresolvedDelta removeBaseById(final AnyObjectId id) {
 		final DeltaChain d = baseById.get(id);
 		return d != null ? d.remove() : null;
 	}
 
+	private synchronized UnresolvedDelta removeBaseByPos(final long pos) {
+		return baseByPos.remove(pos);
+	}
+
 	private static UnresolvedDelta reverse(UnresolvedDelta c) {
 		UnresolvedDelta tail = null;
 		while (c != null) {
@@ -565,31 +653,6 @@ private static UnresolvedDelta reverse(UnresolvedDelta c) {
 		return tail;
 	}
 
-	private void resolveChildDeltas(final long pos, int type, byte[] data,
-			PackedObjectInfo oe) throws IOException {
-		UnresolvedDelta a = reverse(removeBaseById(oe));
-		UnresolvedDelta b = reverse(baseByPos.remove(pos));
-		while (a != null && b != null) {
-			if (a.position < b.position) {
-				resolveDeltas(a.position, a.crc, type, data, null);
-				a = a.next;
-			} else {
-				resolveDeltas(b.position, b.crc, type, data, null);
-				b = b.next;
-			}
-		}
-		resolveChildDeltaChain(type, data, a);
-		resolveChildDeltaChain(type, data, b);
-	}
-
-	private void resolveChildDeltaChain(final int type, final byte[] data,
-			UnresolvedDelta a) throws IOException {
-		while (a != null) {
-			resolveDeltas(a.position, a.crc, type, data, null);
-			a = a.next;
-		}
-	}
-
 	private void fixThinPack(final ProgressMonitor progress) throws IOException {
 		growEntries();
 
@@ -599,38 +662,55 @@ private void fixThinPack(final ProgressMonitor progress) throws IOException {
 		packDigest.reset();
 		originalEOF = packOut.length() - 20;
 		final Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, false);
-		final List<DeltaChain> missing = new ArrayList<DeltaChain>(64);
-		long end = originalEOF;
+		final List<DeltaChain> bases = new ArrayList<DeltaChain>(64);
 		for (final DeltaChain baseId : baseById) {
-			if (baseId.head == null)
-				continue;
-			if (needBaseObjectIds)
-				baseObjectIds.add(baseId);
-			final ObjectLoader ldr;
-			try {
-				ldr = readCurs.open(baseId);
-			} catch (MissingObjectException notFound) {
-				missing.add(baseId);
-				continue;
-			}
-			final byte[] data = ldr.getCachedBytes();
-			final int typeCode = ldr.getType();
-			final PackedObjectInfo oe;
-
-			crc.reset();
-			packOut.seek(end);
-			writeWhole(def, typeCode, data);
-			oe = new PackedObjectInfo(end, (int) crc.getValue(), baseId);
-			entries[entryCount++] = oe;
-			end = packOut.getFilePointer();
+			if (baseId.head != null)
+				bases.add(baseId);
+		}
 
-			resolveChildDeltas(oe.getOffset(), typeCode, data, oe);
-			if (progress.isCancelled())
-				throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+		// Open the bases as one batch, so the repository can read them
+		// in the order they are stored. Missing bases are skipped, and
+		// found afterwards as the chains that were never resolved.
+		//
+		final AsyncObjectLoaderQueue<DeltaChain> q = readCurs.open(bases,
+				false);
+		final DeltaResolver resolver = new DeltaResolver();
+		long end = originalEOF;
+		try {
+			while (q.next()) {
+				final DeltaChain baseId = q.getCurrent();
+				if (baseId.head == null)
+					continue;
+				if (needBaseObjectIds)
+					baseObjectIds.add(baseId);
+				final ObjectLoader ldr = q.open();
+				final int typeCode = ldr.getType();
+				final PackedObjectInfo oe;
+
+				crc.reset();
+				packOut.seek(end);
+				writeWhole(def, typeCode, ldr);
+				oe = new PackedObjectInfo(end, (int) crc.getValue(), baseId);
+				oe.setType(typeCode);
+				entries[entryCount++] = oe;
+				end = packOut.getFilePointer();
+
+				if (ldr.isLarge() || isLarge(ldr.getSize()))
+					resolver.resolveChildDeltas(oe.getOffset(), typeCode, null,
+							resolver.openWhole(oe.getOffset()), oe);
+				else
+					resolver.resolveChildDeltas(oe.getOffset(), typeCode, ldr
+							.getCachedBytes(), null, oe);
+				if (progress.isCancelled())
+					throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+			}
+		} finally {
+			q.release();
+			resolver.release();
 		}
 		def.end();
 
-		for (final DeltaChain base : missing) {
+		for (final DeltaChain base : bases) {
 			if (base.head != null)
 				throw new MissingObjectException(base, "delta base");
 		}
@@ -647,8 +727,8 @@ private void fixThinPack(final ProgressMonitor progress) throws IOException {
 	}
 
 	private void writeWhole(final Deflater def, final int typeCode,
-			final byte[] data) throws IOException {
-		int sz = data.length;
+			final ObjectLoader ldr) throws IOException {
+		long sz = ldr.getSize();
 		int hdrlen = 0;
 		buf[hdrlen++] = (byte) ((typeCode << 4) | sz & 15);
 		sz >>>= 4;
@@ -661,14 +741,32 @@ private void writeWhole(final Deflater def, final int typeCode,
 		crc.update(buf, 0, hdrlen);
 		packOut.write(buf, 0, hdrlen);
 		def.reset();
-		def.setInput(data);
-		def.finish();
-		while (!def.finished()) {
-			final int datlen = def.deflate(buf);
-			packDigest.update(buf, 0, datlen);
-			crc.update(buf, 0, datlen);
-			packOut.write(buf, 0, datlen);
+		if (ldr.isLarge()) {
+			final InputStream in = ldr.openStream();
+			try {
+				final byte[] tmp = new byte[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(tmp)) > 0) {
+					def.setInput(tmp, 0, n);
+					while (!def.needsInput())
+						deflate(def);
+				}
+			} finally {
+				in.close();
+			}
+		} else {
+			def.setInput(ldr.getCachedBytes());
 		}
+		def.finish();
+		while (!def.finished())
+			deflate(def);
+	}
+
+	private void deflate(final Deflater def) throws IOException {
+		final int datlen = def.deflate(buf);
+		packDigest.update(buf, 0, datlen);
+		crc.update(buf, 0, datlen);
+		packOut.write(buf, 0, datlen);
 	}
 
 	private void fixHeaderFooter(final byte[] origcsum, final byte[] tailcsum)
@@ -844,24 +942,49 @@ private void indexOneObject() throws IOException {
 
 	private void whole(final int type, final long pos, final long sz)
 			throws IOException {
-		final byte[] data = inflateAndReturn(Source.INPUT, sz);
 		objectDigest.update(Constants.encodedTypeString(type));
 		objectDigest.update((byte) ' ');
 		objectDigest.update(Constants.encodeASCII(sz));
 		objectDigest.update((byte) 0);
+
+		if (packOut != null && isLarge(sz)) {
+			// Hash the content as it streams through, the object is
+			// checked once the pack is on disk and it can be re-read.
+			//
+			inflate(Source.INPUT, sz, skipBuffer, false, objectDigest);
+			tempObjectId.fromRaw(objectDigest.digest(), 0);
+
+			final int crc32 = (int) crc.getValue();
+			final PackedObjectInfo oe;
+			oe = new PackedObjectInfo(pos, crc32, tempObjectId);
+			oe.setType(type);
+			if (largeObjects == null)
+				largeObjects = new ArrayList<PackedObjectInfo>();
+			largeObjects.add(oe);
+			addObjectAndTrack(oe);
+			return;
+		}
+
+		final byte[] data = inflateAndReturn(Source.INPUT, sz);
 		objectDigest.update(data);
 		tempObjectId.fromRaw(objectDigest.digest(), 0);
 
-		verifySafeObject(tempObjectId, type, data);
+		verifySafeObject(readCurs, tempObjectId, type, data);
 		final int crc32 = (int) crc.getValue();
-		addObjectAndTrack(new PackedObjectInfo(pos, crc32, tempObjectId));
+		final PackedObjectInfo oe = new PackedObjectInfo(pos, crc32,
+				tempObjectId);
+		oe.setType(type);
+		addObjectAndTrack(oe);
 	}
 
-	private void verifySafeObject(final AnyObjectId id, final int type,
-			final byte[] data) throws IOException {
+	private void verifySafeObject(final ObjectReader reader,
+			final AnyObjectId id, final int type, final byte[] data)
+			throws IOException {
 		if (objCheck != null) {
 			try {
-				objCheck.check(type, data);
+				synchronized (objCheck) {
+					objCheck.check(type, data);
+				}
 			} catch (CorruptObjectException e) {
 				throw new IOException(MessageFormat.format(JGitText.get().invalidObject
 						, Constants.typeString(type) , id.name() , e.getMessage()));
@@ -869,7 +992,7 @@ private void verifySafeObject(final AnyObjectId id, final int type,
 		}
 
 		try {
-			final ObjectLoader ldr = readCurs.open(id, type);
+			final ObjectLoader ldr = reader.open(id, type);
 			final byte[] existingData = ldr.getCachedBytes();
 			if (!Arrays.equals(data, existingData)) {
 				throw new IOException(MessageFormat.format(JGitText.get().collisionOn, id.name()));
@@ -886,13 +1009,6 @@ private long position() {
 		return bBase + bOffset;
 	}
 
-	private void position(final long pos) throws IOException {
-		packOut.seek(pos);
-		bBase = pos;
-		bOffset = 0;
-		bAvail = 0;
-	}
-
 	// Consume exactly one byte from the buffer and return it.
 	private int readFrom(final Source src) throws IOException {
 		if (bAvail == 0)
@@ -956,18 +1072,20 @@ private void sync() throws IOException {
 
 	private void inflateAndSkip(final Source src, final long inflatedSize)
 			throws IOException {
-		inflate(src, inflatedSize, skipBuffer, false /* do not keep result */);
+		inflate(src, inflatedSize, skipBuffer, false /* do not keep result */,
+				null);
 	}
 
 	private byte[] inflateAndReturn(final Source src, final long inflatedSize)
 			throws IOException {
 		final byte[] dst = new byte[(int) inflatedSize];
-		inflate(src, inflatedSize, dst, true /* keep result in dst */);
+		inflate(src, inflatedSize, dst, true /* keep result in dst */, null);
 		return dst;
 	}
 
 	private void inflate(final Source src, final long inflatedSize,
-			final byte[] dst, final boolean keep) throws IOException {
+			final byte[] dst, final boolean keep, final MessageDigest md)
+			throws IOException {
 		final Inflater inf = inflater;
 		try {
 			int off = 0;
@@ -993,6 +1111,8 @@ private void inflate(final Source src, final long inflatedSize,
 								JGitText.get().unknownZlibError));
 					}
 				}
+				if (md != null)
+					md.update(dst, off, r);
 				cnt += r;
 				if (keep)
 					off += r;
@@ -1017,6 +1137,526 @@ private void inflate(final Source src, final long inflatedSize,
 		}
 	}
 
+	/**
+	 * Resolves delta chains by reading back the spooled pack file.
+	 * <p>
+	 * Every resolver has its own file handle, buffer and inflater, so several
+	 * of them can run concurrently, each working through the deltas that
+	 * depend on a different base object. The tables shared with the enclosing
+	 * IndexPack are only modified through its synchronized methods.
+	 * <p>
+	 * Objects above {@link IndexPack#bigFileThreshold} are never inflated into
+	 * memory. They are described by a {@link LargeBase}, which re-reads the
+	 * object (and its own bases) from the pack whenever it is needed.
+	 */
+	private class DeltaResolver {
+		private final RandomAccessFile file;
+
+		private final ObjectReader reader;
+
+		private final byte[] rbuf = new byte[BUFFER_SIZE];
+
+		private final byte[] rskip = new byte[512];
+
+		private final byte[] rhdr = new byte[20];
+
+		private final CRC32 rcrc = new CRC32();
+
+		private final MessageDigest rdigest = Constants.newMessageDigest();
+
+		private final MutableObjectId rid = new MutableObjectId();
+
+		private Inflater rinf;
+
+		private long rBase;
+
+		private int rOffset;
+
+		private int rAvail;
+
+		private int resolved;
+
+		private byte[] deltaResult;
+
+		DeltaResolver() throws IOException {
+			file = new RandomAccessFile(dstPack, "r");
+			reader = objectDatabase.newReader();
+			rinf = InflaterCache.get();
+		}
+
+		int takeResolvedCount() {
+			final int n = resolved;
+			resolved = 0;
+			return n;
+		}
+
+		void release() throws IOException {
+			try {
+				reader.release();
+				InflaterCache.release(rinf);
+			} finally {
+				rinf = null;
+				file.close();
+			}
+		}
+
+		void resolveDeltas(final PackedObjectInfo oe) throws IOException {
+			final int oldCRC = oe.getCRC();
+			if (hasDeltaChildren(oe))
+				resolveDeltas(oe.getOffset(), oldCRC, Constants.OBJ_BAD, null,
+						null, oe);
+		}
+
+		private void resolveDeltas(final long pos, final int oldCRC, int type,
+				byte[] data, LargeBase large, PackedObjectInfo oe)
+				throws IOException {
+			rcrc.reset();
+			position(pos);
+			int c = readByte();
+			final int typeCode = (c >> 4) & 7;
+			long sz = c & 15;
+			int shift = 4;
+			while ((c & 0x80) != 0) {
+				c = readByte();
+				sz += (c & 0x7f) << shift;
+				shift += 7;
+			}
+
+			switch (typeCode) {
+			case Constants.OBJ_COMMIT:
+			case Constants.OBJ_TREE:
+			case Constants.OBJ_BLOB:
+			case Constants.OBJ_TAG:
+				type = typeCode;
+				if (isLarge(sz)) {
+					large = new LargeBase(type, sz, position(), null, null);
+					data = null;
+					inflate(sz, rskip, false);
+				} else {
+					large = null;
+					data = inflate(sz);
+				}
+				break;
+			case Constants.OBJ_OFS_DELTA: {
+				c = readByte();
+				while ((c & 128) != 0)
+					c = readByte();
+				large = applyDelta(type, data, large, sz);
+				data = takeDeltaResult();
+				break;
+			}
+			case Constants.OBJ_REF_DELTA: {
+				rcrc.update(rbuf, fill(20), 20);
+				use(20);
+				large = applyDelta(type, data, large, sz);
+				data = takeDeltaResult();
+				break;
+			}
+			default:
+				throw new IOException(MessageFormat.format(JGitText.get().unknownObjectType, typeCode));
+			}
+
+			final int crc32 = (int) rcrc.getValue();
+			if (oldCRC != crc32)
+				throw new IOException(MessageFormat.format(JGitText.get().corruptionDetectedReReadingAt, pos));
+			if (oe == null) {
+				if (large != null) {
+					digest(type, large);
+					verifySafeLargeObject(rid, large);
+				} else {
+					rdigest.update(Constants.encodedTypeString(type));
+					rdigest.update((byte) ' ');
+					rdigest.update(Constants.encodeASCII(data.length));
+					rdigest.update((byte) 0);
+					rdigest.update(data);
+					rid.fromRaw(rdigest.digest(), 0);
+					verifySafeObject(reader, rid, type, data);
+				}
+				oe = new PackedObjectInfo(pos, crc32, rid);
+				oe.setType(type);
+				addObjectAndTrack(oe);
+				resolved++;
+			}
+
+			resolveChildDeltas(pos, type, data, large, oe);
+		}
+
+		/**
+		 * Apply the delta at the current position to a base.
+		 * <p>
+		 * Small deltas against small bases are applied in memory, the result
+		 * is left in {@link #deltaResult}. Anything else only has its CRC
+		 * verified here, and the result is described by a new LargeBase. A
+		 * small result of a large base is still materialized, so that its
+		 * own children can be applied in memory again.
+		 *
+		 * @return description of the result if it is large; null if the
+		 *         result is in {@link #deltaResult}.
+		 */
+		private LargeBase applyDelta(final int type, final byte[] base,
+				final LargeBase largeBase, final long deltaSize)
+				throws IOException {
+			final long dataPos = position();
+			deltaResult = null;
+			if (largeBase == null && !isLarge(deltaSize)) {
+				final byte[] delta = inflate(deltaSize);
+				final long resultSize = BinaryDelta.getResultSize(delta);
+				if (!isLarge(resultSize)) {
+					deltaResult = BinaryDelta.apply(base, delta);
+					return null;
+				}
+				return new LargeBase(type, resultSize, dataPos, null, base);
+			}
+
+			inflate(deltaSize, rskip, false);
+			final LargeBase r = new LargeBase(type, BinaryDelta
+					.getResultSize(rhdr), dataPos, largeBase, base);
+			if (isLarge(r.size))
+				return r;
+			deltaResult = r.readFully();
+			return null;
+		}
+
+		private byte[] takeDeltaResult() {
+			final byte[] r = deltaResult;
+			deltaResult = null;
+			return r;
+		}
+
+		void resolveChildDeltas(final long pos, int type, byte[] data,
+				LargeBase large, PackedObjectInfo oe) throws IOException {
+			UnresolvedDelta a = reverse(removeBaseById(oe));
+			UnresolvedDelta b = reverse(removeBaseByPos(pos));
+			while (a != null && b != null) {
+				if (a.position < b.position) {
+					resolveDeltas(a.position, a.crc, type, data, large, null);
+					a = a.next;
+				} else {
+					resolveDeltas(b.position, b.crc, type, data, large, null);
+					b = b.next;
+				}
+			}
+			resolveChildDeltaChain(type, data, large, a);
+			resolveChildDeltaChain(type, data, large, b);
+		}
+
+		private void resolveChildDeltaChain(final int type, final byte[] data,
+				final LargeBase large, UnresolvedDelta a) throws IOException {
+			while (a != null) {
+				resolveDeltas(a.position, a.crc, type, data, large, null);
+				a = a.next;
+			}
+		}
+
+		/**
+		 * Describe the whole (non-delta) object stored at a position.
+		 *
+		 * @param pos
+		 *            offset of the object header within the pack.
+		 * @return a description that can stream the object's content.
+		 * @throws IOException
+		 *             the pack cannot be read.
+		 */
+		LargeBase openWhole(final long pos) throws IOException {
+			position(pos);
+			int c = readByte();
+			final int typeCode = (c >> 4) & 7;
+			long sz = c & 15;
+			int shift = 4;
+			while ((c & 0x80) != 0) {
+				c = readByte();
+				sz += (c & 0x7f) << shift;
+				shift += 7;
+			}
+			return new LargeBase(typeCode, sz, position(), null, null);
+		}
+
+		private void digest(final int type, final LargeBase large)
+				throws IOException {
+			rdigest.update(Constants.encodedTypeString(type));
+			rdigest.update((byte) ' ');
+			rdigest.update(Constants.encodeASCII(large.size));
+			rdigest.update((byte) 0);
+
+			final InputStream in = large.open();
+			try {
+				long cnt = 0;
+				int n;
+				while ((n = in.read(rskip)) > 0) {
+					rdigest.update(rskip, 0, n);
+					cnt += n;
+				}
+				if (cnt != large.size)
+					throw new CorruptObjectException(MessageFormat.format(
+							JGitText.get().packfileCorruptionDetected,
+							JGitText.get().wrongDecompressedLength));
+			} finally {
+				in.close();
+			}
+			rid.fromRaw(rdigest.digest(), 0);
+		}
+
+		void verifySafeLargeObject(final AnyObjectId id, final LargeBase large)
+				throws IOException {
+			if (objCheck != null && large.type != Constants.OBJ_BLOB) {
+				// The checker can only validate a complete buffer. Objects
+				// other than blobs are never this big in sane repositories.
+				//
+				verifySafeObject(reader, id, large.type, large.readFully());
+				return;
+			}
+
+			final ObjectLoader ldr;
+			try {
+				ldr = reader.open(id, large.type);
+			} catch (MissingObjectException notLocal) {
+				// This is OK, we don't have a copy of the object locally
+				// but the API throws when we try to read it as usually its
+				// an error to read something that doesn't exist.
+				return;
+			}
+
+			boolean same = ldr.getSize() == large.size;
+			if (same) {
+				final InputStream theirs = ldr.openStream();
+				try {
+					final InputStream ours = large.open();
+					try {
+						same = sameContent(ours, theirs);
+					} finally {
+						ours.close();
+					}
+				} finally {
+					theirs.close();
+				}
+			}
+			if (!same)
+				throw new IOException(MessageFormat.format(JGitText.get().collisionOn, id.name()));
+		}
+
+		private boolean sameContent(final InputStream ours,
+				final InputStream theirs) throws IOException {
+			final byte[] b = new byte[rskip.length];
+			int n;
+			while ((n = ours.read(rskip)) > 0) {
+				IO.readFully(theirs, b, 0, n);
+				for (int i = 0; i < n; i++) {
+					if (rskip[i] != b[i])
+						return false;
+				}
+			}
+			return theirs.read() < 0;
+		}
+
+		private long position() {
+			return rBase + rOffset;
+		}
+
+		private void position(final long pos) throws IOException {
+			file.seek(pos);
+			rBase = pos;
+			rOffset = 0;
+			rAvail = 0;
+		}
+
+		private int readByte() throws IOException {
+			if (rAvail == 0)
+				fill(1);
+			rAvail--;
+			final int b = rbuf[rOffset++] & 0xff;
+			rcrc.update(b);
+			return b;
+		}
+
+		private void use(final int cnt) {
+			rOffset += cnt;
+			rAvail -= cnt;
+		}
+
+		private int fill(final int need) throws IOException {
+			while (rAvail < need) {
+				int next = rOffset + rAvail;
+				int free = rbuf.length - next;
+				if (free + rAvail < need) {
+					if (rAvail > 0)
+						System.arraycopy(rbuf, rOffset, rbuf, 0, rAvail);
+					rBase += rOffset;
+					rOffset = 0;
+					next = rAvail;
+					free = rbuf.length - next;
+				}
+				next = file.read(rbuf, next, free);
+				if (next <= 0)
+					throw new EOFException(JGitText.get().packfileIsTruncated);
+				rAvail += next;
+			}
+			return rOffset;
+		}
+
+		private byte[] inflate(final long inflatedSize) throws IOException {
+			final byte[] dst = new byte[(int) inflatedSize];
+			inflate(inflatedSize, dst, true);
+			return dst;
+		}
+
+		/**
+		 * Inflate the object at the current position.
+		 * <p>
+		 * When the result is not kept the first bytes of the inflated data are
+		 * saved in {@link #rhdr}, which is enough to read a delta's header.
+		 */
+		private void inflate(final long inflatedSize, final byte[] dst,
+				final boolean keep) throws IOException {
+			final Inflater inf = rinf;
+			try {
+				int off = 0;
+				long cnt = 0;
+				int p = fill(24);
+				inf.setInput(rbuf, p, rAvail);
+
+				for (;;) {
+					int r = inf.inflate(dst, off, dst.length - off);
+					if (r == 0) {
+						if (inf.finished())
+							break;
+						if (inf.needsInput()) {
+							rcrc.update(rbuf, p, rAvail);
+							use(rAvail);
+							p = fill(24);
+							inf.setInput(rbuf, p, rAvail);
+						} else {
+							throw new CorruptObjectException(MessageFormat.format(
+									JGitText.get().packfileCorruptionDetected,
+									JGitText.get().unknownZlibError));
+						}
+					}
+					if (!keep && cnt < rhdr.length)
+						System.arraycopy(dst, 0, rhdr, (int) cnt, (int) Math
+								.min(r, rhdr.length - cnt));
+					cnt += r;
+					if (keep)
+						off += r;
+				}
+
+				if (cnt != inflatedSize) {
+					throw new CorruptObjectException(MessageFormat.format(JGitText
+							.get().packfileCorruptionDetected,
+							JGitText.get().wrongDecompressedLength));
+				}
+
+				int left = rAvail - inf.getRemaining();
+				if (left > 0) {
+					rcrc.update(rbuf, p, left);
+					use(left);
+				}
+			} catch (DataFormatException dfe) {
+				throw new CorruptObjectException(MessageFormat.format(JGitText
+						.get().packfileCorruptionDetected, dfe.getMessage()));
+			} finally {
+				inf.reset();
+			}
+		}
+
+		/**
+		 * An object whose content is streamed from the pack when needed.
+		 * <p>
+		 * A whole object is inflated directly. A delta is applied through a
+		 * {@link DeltaStream} against its base, which is either a smaller
+		 * object still held in memory, or another LargeBase.
+		 */
+		private class LargeBase {
+			final int type;
+
+			final long size;
+
+			/** Offset of the deflated data, just after the object header. */
+			final long dataOffset;
+
+			final LargeBase base;
+
+			final byte[] baseData;
+
+			LargeBase(final int type, final long size, final long dataOffset,
+					final LargeBase base, final byte[] baseData) {
+				this.type = type;
+				this.size = size;
+				this.dataOffset = dataOffset;
+				this.base = base;
+				this.baseData = baseData;
+			}
+
+			InputStream open() throws IOException {
+				final InputStream in = inflateFrom(dataOffset);
+				if (base == null && baseData == null)
+					return in;
+
+				return new DeltaStream(in) {
+					@Override
+					protected InputStream openBase() throws IOException {
+						if (base != null)
+							return base.open();
+						return new ByteArrayInputStream(baseData);
+					}
+
+					@Override
+					protected long getBaseSize() throws IOException {
+						if (base != null)
+							return base.size;
+						return baseData.length;
+					}
+				};
+			}
+
+			byte[] readFully() throws IOException {
+				final byte[] r = new byte[(int) size];
+				final InputStream in = open();
+				try {
+					IO.readFully(in, r, 0, r.length);
+				} finally {
+					in.close();
+				}
+				return r;
+			}
+		}
+
+		private InputStream inflateFrom(final long pos) {
+			final InputStream raw = new InputStream() {
+				private long ptr = pos;
+
+				@Override
+				public int read() throws IOException {
+					file.seek(ptr);
+					final int b = file.read();
+					if (0 <= b)
+						ptr++;
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					file.seek(ptr);
+					final int n = file.read(b, off, len);
+					if (0 < n)
+						ptr += n;
+					return n;
+				}
+			};
+			final Inflater inf = InflaterCache.get();
+			return new InflaterInputStream(raw, inf, BUFFER_SIZE) {
+				private boolean closed;
+
+				@Override
+				public void close() throws IOException {
+					if (!closed) {
+						closed = true;
+						super.close();
+						InflaterCache.release(inf);
+					}
+				}
+			};
+		}
+	}
+
 	private static class DeltaChain extends ObjectId {
 		UnresolvedDelta head;
 
@@ -1164,7 +1804,7 @@ private void cleanupTemporaryFiles() {
 			dstPack.deleteOnExit();
 	}
 
-	private void addObjectAndTrack(PackedObjectInfo oe) {
+	private synchronized void addObjectAndTrack(PackedObjectInfo oe) {
 		entries[entryCount++] = oe;
 		if (needNewObjectIds())
 			newObjectIds.add(oe);
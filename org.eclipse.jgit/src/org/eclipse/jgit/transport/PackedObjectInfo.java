@@ -45,6 +45,7 @@
 package org.eclipse.jgit.transport;
 
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 
 /**
@@ -59,6 +60,8 @@ public class PackedObjectInfo extends ObjectId {
 
 	private int crc;
 
+	private int type = Constants.OBJ_BAD;
+
 	PackedObjectInfo(final long headerOffset, final int packedCRC,
 			final AnyObjectId id) {
 		super(id);
@@ -112,4 +115,23 @@ public int getCRC() {
 	public void setCRC(final int crc) {
 		this.crc = crc;
 	}
+
+	/**
+	 * @return the object type, such as {@link Constants#OBJ_COMMIT}, or
+	 *         {@link Constants#OBJ_BAD} if it has not been recorded.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Record the type of the object.
+	 *
+	 * @param type
+	 *            the object type, once known. Delta compressed objects have
+	 *            the type of their base.
+	 */
+	public void setType(final int type) {
+		this.type = type;
+	}
 }
@@ -89,6 +89,19 @@ public void writeString(final String s) throws IOException {
 		writePacket(Constants.encode(s));
 	}
 
+	/**
+	 * Write packets that are already framed with their length headers.
+	 *
+	 * @param packets
+	 *            zero or more complete packets, as produced by
+	 *            {@link #writePacket(byte[])}.
+	 * @throws IOException
+	 *             the packets could not be written.
+	 */
+	void writeRaw(final byte[] packets) throws IOException {
+		out.write(packets);
+	}
+
 	/**
 	 * Write a binary packet to the stream.
 	 *
@@ -119,9 +132,23 @@ public void writePacket(final byte[] packet) throws IOException {
 	 *             as the end marker may have been only partially written.
 	 */
 	public void end() throws IOException {
+		writeEnd();
+		flush();
+	}
+
+	/**
+	 * Write a packet end marker without flushing the underlying stream.
+	 * <p>
+	 * The marker is sent to the peer at the next {@link #flush()}. This
+	 * permits a buffering stream to decide when the data actually goes out.
+	 *
+	 * @throws IOException
+	 *             the end marker could not be written, the stream is corrupted
+	 *             as the end marker may have been only partially written.
+	 */
+	public void writeEnd() throws IOException {
 		formatLength(0);
 		out.write(lenbuffer, 0, 4);
-		flush();
 	}
 
 	/**
@@ -45,6 +45,7 @@
 
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 
 /**
  * A command being processed by {@link ReceivePack}.
@@ -213,6 +214,45 @@ public void setResult(final Result s, final String m) {
 		message = m;
 	}
 
+	/**
+	 * Set the result of this command from a reference update.
+	 *
+	 * @param r
+	 *            the result of the {@link RefUpdate} that applied this
+	 *            command.
+	 */
+	public void setResult(final RefUpdate.Result r) {
+		switch (r) {
+		case NOT_ATTEMPTED:
+			setResult(Result.NOT_ATTEMPTED);
+			break;
+
+		case LOCK_FAILURE:
+		case IO_FAILURE:
+			setResult(Result.LOCK_FAILURE);
+			break;
+
+		case NO_CHANGE:
+		case NEW:
+		case FORCED:
+		case FAST_FORWARD:
+			setResult(Result.OK);
+			break;
+
+		case REJECTED:
+			setResult(Result.REJECTED_NONFASTFORWARD);
+			break;
+
+		case REJECTED_CURRENT_BRANCH:
+			setResult(Result.REJECTED_CURRENT_BRANCH);
+			break;
+
+		default:
+			setResult(Result.REJECTED_OTHER_REASON, r.name());
+			break;
+		}
+	}
+
 	void setRef(final Ref r) {
 		ref = r;
 	}
@@ -43,6 +43,7 @@
 
 package org.eclipse.jgit.transport;
 
+import static org.eclipse.jgit.transport.BasePackPushConnection.CAPABILITY_ATOMIC;
 import static org.eclipse.jgit.transport.BasePackPushConnection.CAPABILITY_DELETE_REFS;
 import static org.eclipse.jgit.transport.BasePackPushConnection.CAPABILITY_OFS_DELTA;
 import static org.eclipse.jgit.transport.BasePackPushConnection.CAPABILITY_REPORT_STATUS;
@@ -68,6 +69,7 @@
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
@@ -75,7 +77,6 @@
 import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.Config.SectionParser;
 import org.eclipse.jgit.revwalk.ObjectWalk;
@@ -86,6 +87,7 @@
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.PackLock;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.transport.ReceiveCommand.Result;
 import org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser;
 import org.eclipse.jgit.util.io.InterruptTimer;
@@ -129,6 +131,12 @@ public class ReceivePack {
 
 	private boolean allowOfsDelta;
 
+	/** Should all commands of a push succeed or fail together? */
+	private boolean atomic;
+
+	/** Was {@link #atomic} requested by the client for this push? */
+	private boolean atomicRequested;
+
 	/** Identity to record action as within the reflog. */
 	private PersonIdent refLogIdent;
 
@@ -367,6 +375,30 @@ public void setAllowNonFastForwards(final boolean canRewind) {
 		allowNonFastForwards = canRewind;
 	}
 
+	/**
+	 * @return true if a push is only applied when every one of its commands
+	 *         can succeed.
+	 */
+	public boolean isAtomic() {
+		return atomic;
+	}
+
+	/**
+	 * Require every push to be applied atomically.
+	 * <p>
+	 * Clients may also request this for a single push through the
+	 * {@code atomic} capability, which is advertised when the repository's
+	 * reference database supports it. If the database does not support atomic
+	 * updates, every command of an atomic push is rejected.
+	 *
+	 * @param atomic
+	 *            true to reject all commands of a push if any one of them
+	 *            fails.
+	 */
+	public void setAtomic(final boolean atomic) {
+		this.atomic = atomic;
+	}
+
 	/** @return identity of the user making the changes in the reflog. */
 	public PersonIdent getRefLogIdent() {
 		return refLogIdent;
@@ -690,6 +722,8 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException {
 		adv.advertiseCapability(CAPABILITY_SIDE_BAND_64K);
 		adv.advertiseCapability(CAPABILITY_DELETE_REFS);
 		adv.advertiseCapability(CAPABILITY_REPORT_STATUS);
+		if (db.getRefDatabase().performsAtomicTransactions())
+			adv.advertiseCapability(CAPABILITY_ATOMIC);
 		if (allowOfsDelta)
 			adv.advertiseCapability(CAPABILITY_OFS_DELTA);
 		refs = refFilter.filter(db.getAllRefs());
@@ -746,6 +780,7 @@ private void recvCommands() throws IOException {
 
 	private void enableCapabilities() {
 		reportStatus = enabledCapablities.contains(CAPABILITY_REPORT_STATUS);
+		atomicRequested = enabledCapablities.contains(CAPABILITY_ATOMIC);
 
 		sideBand = enabledCapablities.contains(CAPABILITY_SIDE_BAND_64K);
 		if (sideBand) {
@@ -776,8 +811,8 @@ private void receivePack() throws IOException {
 
 		ip = IndexPack.create(db, rawIn);
 		ip.setFixThin(true);
-		ip.setNeedNewObjectIds(checkReferencedIsReachable);
-		ip.setNeedBaseObjectIds(checkReferencedIsReachable);
+		ip.setNeedNewObjectIds(needCheckConnectivity());
+		ip.setNeedBaseObjectIds(needCheckConnectivity());
 		ip.setObjectChecking(isCheckReceivedObjects());
 		ip.index(NullProgressMonitor.INSTANCE);
 
@@ -796,14 +831,20 @@ private boolean needCheckConnectivity() {
 	}
 
 	private void checkConnectivity() throws IOException {
-		ObjectIdSubclassMap<ObjectId> baseObjects = null;
-		ObjectIdSubclassMap<ObjectId> providedObjects = null;
+		final ObjectIdSubclassMap<ObjectId> baseObjects = ip.getBaseObjectIds();
+		final ObjectIdSubclassMap<ObjectId> providedObjects = ip.getNewObjectIds();
+		ip = null;
 
-		if (checkReferencedIsReachable) {
-			baseObjects = ip.getBaseObjectIds();
-			providedObjects = ip.getNewObjectIds();
+		if (!checkReferencedIsReachable) {
+			// Only the received objects need to be parsed, anything
+			// else they point to is already in the repository.
+			//
+			final ConnectivityChecker checker = new ConnectivityChecker(db,
+					providedObjects, baseObjects);
+			checker.setThreads(new PackConfig(db).getThreads());
+			checker.check(commands);
+			return;
 		}
-		ip = null;
 
 		final ObjectWalk ow = new ObjectWalk(db);
 		for (final ReceiveCommand cmd : commands) {
@@ -966,72 +1007,30 @@ private void validateCommands() {
 
 	private void executeCommands() {
 		preReceive.onPreReceive(this, filterCommands(Result.NOT_ATTEMPTED));
-		for (final ReceiveCommand cmd : filterCommands(Result.NOT_ATTEMPTED))
-			execute(cmd);
-	}
-
-	private void execute(final ReceiveCommand cmd) {
-		try {
-			final RefUpdate ru = db.updateRef(cmd.getRefName());
-			ru.setRefLogIdent(getRefLogIdent());
-			switch (cmd.getType()) {
-			case DELETE:
-				if (!ObjectId.zeroId().equals(cmd.getOldId())) {
-					// We can only do a CAS style delete if the client
-					// didn't bork its delete request by sending the
-					// wrong zero id rather than the advertised one.
-					//
-					ru.setExpectedOldObjectId(cmd.getOldId());
-				}
-				ru.setForceUpdate(true);
-				status(cmd, ru.delete(walk));
-				break;
 
-			case CREATE:
-			case UPDATE:
-			case UPDATE_NONFASTFORWARD:
-				ru.setForceUpdate(isAllowNonFastForwards());
-				ru.setExpectedOldObjectId(cmd.getOldId());
-				ru.setNewObjectId(cmd.getNewId());
-				ru.setRefLogMessage("push", true);
-				status(cmd, ru.update(walk));
-				break;
-			}
-		} catch (IOException err) {
-			cmd.setResult(Result.REJECTED_OTHER_REASON, MessageFormat.format(
-					JGitText.get().lockError, err.getMessage()));
+		final boolean all = atomic || atomicRequested;
+		final List<ReceiveCommand> toApply = filterCommands(Result.NOT_ATTEMPTED);
+		if (all && toApply.size() != commands.size()) {
+			for (final ReceiveCommand cmd : toApply)
+				cmd.setResult(Result.REJECTED_OTHER_REASON,
+						JGitText.get().transactionAborted);
+			return;
 		}
-	}
 
-	private void status(final ReceiveCommand cmd, final RefUpdate.Result result) {
-		switch (result) {
-		case NOT_ATTEMPTED:
-			cmd.setResult(Result.NOT_ATTEMPTED);
-			break;
-
-		case LOCK_FAILURE:
-		case IO_FAILURE:
-			cmd.setResult(Result.LOCK_FAILURE);
-			break;
-
-		case NO_CHANGE:
-		case NEW:
-		case FORCED:
-		case FAST_FORWARD:
-			cmd.setResult(Result.OK);
-			break;
-
-		case REJECTED:
-			cmd.setResult(Result.REJECTED_NONFASTFORWARD);
-			break;
-
-		case REJECTED_CURRENT_BRANCH:
-			cmd.setResult(Result.REJECTED_CURRENT_BRANCH);
-			break;
-
-		default:
-			cmd.setResult(Result.REJECTED_OTHER_REASON, result.name());
-			break;
+		final BatchRefUpdate batch = db.getRefDatabase().newBatchUpdate();
+		batch.setAllowNonFastForwards(isAllowNonFastForwards());
+		batch.setAtomic(all);
+		batch.setRefLogIdent(getRefLogIdent());
+		batch.setRefLogMessage("push", true);
+		batch.addCommand(toApply);
+		try {
+			batch.execute(walk, NullProgressMonitor.INSTANCE);
+		} catch (IOException err) {
+			for (final ReceiveCommand cmd : toApply) {
+				if (cmd.getResult() == Result.NOT_ATTEMPTED)
+					cmd.setResult(Result.REJECTED_OTHER_REASON, MessageFormat
+							.format(JGitText.get().lockError, err.getMessage()));
+			}
 		}
 	}
 
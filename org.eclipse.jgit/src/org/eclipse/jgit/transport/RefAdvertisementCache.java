@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.RefDirectory;
+import org.eclipse.jgit.storage.file.ReftableDatabase;
+
+/**
+ * Caches encoded reference advertisements of repositories.
+ * <p>
+ * Formatting an advertisement parses the object of every reference in order to
+ * peel annotated tags, then encodes one line per reference. For repositories
+ * with many references this dominates the cost of a fetch that transfers
+ * little. The cache keeps the encoded bytes, keyed by the modification count
+ * of the repository's {@link RefDirectory}, so that an advertiser can replay
+ * them with a single write while no reference has changed.
+ * <p>
+ * Entries are held weakly by reference database, and only the most recent
+ * encoding of each advertisement format is kept.
+ *
+ * @see RefAdvertiser#send(Repository, RefFilter, RefAdvertisementCache)
+ */
+public class RefAdvertisementCache {
+	private static final RefAdvertisementCache INSTANCE = new RefAdvertisementCache();
+
+	/** @return the cache shared by all repositories of this process. */
+	public static RefAdvertisementCache getInstance() {
+		return INSTANCE;
+	}
+
+	private final Map<RefDatabase, Map<String, Entry>> entries = new WeakHashMap<RefDatabase, Map<String, Entry>>();
+
+	/** Discard all cached advertisements. */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @param db
+	 *            the repository.
+	 * @return modification count of the repository's references; -1 if its
+	 *         references do not track modifications and cannot be cached.
+	 */
+	static int getModificationCount(final Repository db) {
+		final RefDatabase refs = db.getRefDatabase();
+		if (refs instanceof RefDirectory)
+			return ((RefDirectory) refs).getModificationCount();
+		if (refs instanceof ReftableDatabase)
+			return ((ReftableDatabase) refs).getModificationCount();
+		return -1;
+	}
+
+	synchronized Entry get(final Repository db, final String format) {
+		final Map<String, Entry> m = entries.get(db.getRefDatabase());
+		return m != null ? m.get(format) : null;
+	}
+
+	synchronized void put(final Repository db, final String format,
+			final Entry e) {
+		Map<String, Entry> m = entries.get(db.getRefDatabase());
+		if (m == null) {
+			m = new HashMap<String, Entry>(4);
+			entries.put(db.getRefDatabase(), m);
+		}
+		m.put(format, e);
+	}
+
+	/** One encoded advertisement. */
+	static class Entry {
+		/** Modification count of the references the encoding was made from. */
+		final int modCnt;
+
+		/** The lines, encoded by {@link RefAdvertiser#encode(CharSequence)}. */
+		final byte[] encoded;
+
+		/** Every object the advertisement offered, including peeled tags. */
+		final ObjectIdSubclassMap<ObjectId> advertised;
+
+		Entry(final int modCnt, final byte[] encoded,
+				final ObjectIdSubclassMap<ObjectId> advertised) {
+			this.modCnt = modCnt;
+			this.encoded = encoded;
+			this.advertised = advertised;
+		}
+	}
+}
@@ -43,6 +43,7 @@
 
 package org.eclipse.jgit.transport;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -52,6 +53,7 @@
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefComparator;
 import org.eclipse.jgit.lib.Repository;
@@ -59,6 +61,7 @@
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.eclipse.jgit.util.RefMap;
 
 /** Support for the start of {@link UploadPack} and {@link ReceivePack}. */
@@ -86,6 +89,20 @@ protected void writeOne(final CharSequence line) throws IOException {
 		protected void end() throws IOException {
 			pckOut.end();
 		}
+
+		@Override
+		protected byte[] encode(final CharSequence line) {
+			final byte[] s = Constants.encode(line.toString());
+			final byte[] r = new byte[4 + s.length];
+			PacketLineOut.formatLength(r, r.length);
+			System.arraycopy(s, 0, r, 4, s.length);
+			return r;
+		}
+
+		@Override
+		protected void writeEncoded(final byte[] lines) throws IOException {
+			pckOut.writeRaw(lines);
+		}
 	}
 
 	private RevWalk walk;
@@ -102,6 +119,12 @@ protected void end() throws IOException {
 
 	private boolean first = true;
 
+	/** Receives encoded lines while an advertisement is being cached. */
+	private ByteArrayOutputStream recorder;
+
+	/** Objects advertised while recording, or by a replayed advertisement. */
+	private ObjectIdSubclassMap<ObjectId> advertised;
+
 	/**
 	 * Initialize a new advertisement formatter.
 	 *
@@ -178,6 +201,84 @@ public void send(final Map<String, Ref> refs) throws IOException {
 		}
 	}
 
+	/**
+	 * Format an advertisement for all refs of a repository, reusing a cached
+	 * encoding when possible.
+	 * <p>
+	 * The refs are always read from the repository. If none changed since the
+	 * advertisement was last formatted with the same capabilities, filter and
+	 * advertiser type, the cached bytes are written in one operation and no
+	 * object is parsed. Objects are then not flagged as advertised; callers
+	 * must use {@link #isAdvertised(AnyObjectId)} instead of the flag.
+	 * <p>
+	 * Advertisers that do not implement {@link #encode(CharSequence)} format
+	 * the advertisement as {@link #send(Map)} does.
+	 *
+	 * @param db
+	 *            repository whose refs are advertised.
+	 * @param filter
+	 *            filter applied to the refs before they are advertised. Its
+	 *            result must depend only on the refs it is given, as the cache
+	 *            is keyed by the filter's class.
+	 * @param cache
+	 *            cache to look up and store the encoded advertisement in.
+	 * @return the refs read from the repository, after filtering.
+	 * @throws IOException
+	 *             the refs could not be read, or the underlying output stream
+	 *             failed to write out an advertisement record.
+	 */
+	public Map<String, Ref> send(final Repository db, final RefFilter filter,
+			final RefAdvertisementCache cache) throws IOException {
+		final int before = RefAdvertisementCache.getModificationCount(db);
+		final Map<String, Ref> refs = filter.filter(db.getAllRefs());
+		final int after = RefAdvertisementCache.getModificationCount(db);
+		if (after < 0) {
+			send(refs);
+			return refs;
+		}
+
+		final String format = getClass().getName() + ' '
+				+ filter.getClass().getName() + ' ' + derefTags + ' '
+				+ capablities;
+		final RefAdvertisementCache.Entry e = cache.get(db, format);
+		if (e != null && e.modCnt == after) {
+			advertised = e.advertised;
+			if (e.encoded.length > 0) {
+				first = false;
+				writeEncoded(e.encoded);
+			}
+			return refs;
+		}
+
+		recorder = new ByteArrayOutputStream();
+		advertised = new ObjectIdSubclassMap<ObjectId>();
+		send(refs);
+		final ByteArrayOutputStream rec = recorder;
+		recorder = null;
+		if (rec != null) {
+			final byte[] encoded = rec.toByteArray();
+			if (encoded.length > 0)
+				writeEncoded(encoded);
+			if (before == after)
+				cache.put(db, format, new RefAdvertisementCache.Entry(after,
+						encoded, advertised));
+		}
+		return refs;
+	}
+
+	/**
+	 * Determine whether an object was advertised by a cached advertisement.
+	 *
+	 * @param id
+	 *            the object.
+	 * @return true if the last {@link #send(Repository, RefFilter,
+	 *         RefAdvertisementCache)} offered the object, directly or as a
+	 *         peeled tag.
+	 */
+	public boolean isAdvertised(final AnyObjectId id) {
+		return advertised != null && advertised.contains(id);
+	}
+
 	private Iterable<Ref> getSortedRefs(Map<String, Ref> all) {
 		if (all instanceof RefMap
 				|| (all instanceof SortedMap && ((SortedMap) all).comparator() == null))
@@ -245,10 +346,16 @@ private void advertiseAnyOnce(final RevObject obj, final String refName)
 
 	private void advertiseAny(final RevObject obj, final String refName)
 			throws IOException {
-		obj.add(ADVERTISED);
+		markAdvertised(obj);
 		advertiseId(obj, refName);
 	}
 
+	private void markAdvertised(final RevObject obj) {
+		obj.add(ADVERTISED);
+		if (recorder != null && !advertised.contains(obj))
+			advertised.add(obj.copy());
+	}
+
 	private void advertiseTag(final RevTag tag, final String refName)
 			throws IOException {
 		RevObject o = tag;
@@ -260,7 +367,7 @@ private void advertiseTag(final RevTag tag, final String refName)
 			} catch (IOException err) {
 				return;
 			}
-			target.add(ADVERTISED);
+			markAdvertised(target);
 			o = target;
 		} while (o instanceof RevTag);
 		advertiseAny(tag.getObject(), refName);
@@ -299,6 +406,20 @@ public void advertiseId(final AnyObjectId id, final String refName)
 			}
 		}
 		tmpLine.append('\n');
+		if (recorder != null) {
+			final byte[] line = encode(tmpLine);
+			if (line != null) {
+				recorder.write(line);
+				return;
+			}
+			// Not supported by this advertiser; write out what was
+			// recorded so far and continue without caching.
+			//
+			final byte[] recorded = recorder.toByteArray();
+			recorder = null;
+			if (recorded.length > 0)
+				writeEncoded(recorded);
+		}
 		writeOne(tmpLine);
 	}
 
@@ -314,6 +435,44 @@ public void advertiseId(final AnyObjectId id, final String refName)
 	 */
 	protected abstract void writeOne(CharSequence line) throws IOException;
 
+	/**
+	 * Encode a single advertisement line for caching.
+	 * <p>
+	 * Advertisers supporting {@link #send(Repository, RefFilter,
+	 * RefAdvertisementCache)} return the exact bytes
+	 * {@link #writeOne(CharSequence)} would write for the line, and implement
+	 * {@link #writeEncoded(byte[])}.
+	 *
+	 * @param line
+	 *            the advertisement line, always ending with LF.
+	 * @return the encoded line; null if this advertiser cannot be cached.
+	 */
+	protected byte[] encode(CharSequence line) {
+		return null;
+	}
+
+	/**
+	 * Write lines previously encoded by {@link #encode(CharSequence)}.
+	 * <p>
+	 * The default implementation decodes the lines as UTF-8 and passes each
+	 * one to {@link #writeOne(CharSequence)}, which matches an
+	 * {@link #encode(CharSequence)} returning the UTF-8 encoding of the line.
+	 * Advertisers encoding lines in any other way must override this method.
+	 *
+	 * @param lines
+	 *            one or more encoded lines, concatenated.
+	 * @throws IOException
+	 *             the underlying output stream failed to write out the lines.
+	 */
+	protected void writeEncoded(byte[] lines) throws IOException {
+		int ptr = 0;
+		while (ptr < lines.length) {
+			final int end = RawParseUtils.nextLF(lines, ptr);
+			writeOne(RawParseUtils.decode(Constants.CHARSET, lines, ptr, end));
+			ptr = end;
+		}
+	}
+
 	/**
 	 * Mark the end of the advertisements.
 	 *
@@ -534,6 +534,9 @@ private static String findTrackingRefName(final String remoteName,
 	/** Should fetch request thin-pack if remote repository can produce it. */
 	private boolean fetchThin = DEFAULT_FETCH_THIN;
 
+	/** Number of commits of history to fetch, 0 for the complete history. */
+	private int depth;
+
 	/** Name of the receive pack program, if it must be executed. */
 	private String optionReceivePack = RemoteConfig.DEFAULT_RECEIVE_PACK;
 
@@ -652,6 +655,34 @@ public void setFetchThin(final boolean fetchThin) {
 		this.fetchThin = fetchThin;
 	}
 
+	/**
+	 * @return number of commits of history fetch will obtain for each wanted
+	 *         ref; 0 if the complete history is obtained.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Limit the history obtained by fetch.
+	 * <p>
+	 * A positive depth asks the remote repository to send only the wanted
+	 * commits and their ancestors up to the given number of commits, making
+	 * the local repository shallow. Fetching with a larger depth into a
+	 * shallow repository deepens its history. The remote repository must
+	 * support the shallow capability.
+	 *
+	 * @param depth
+	 *            number of commits to obtain, counting the wanted commit
+	 *            itself; 0 to obtain the complete history.
+	 */
+	public void setDepth(final int depth) {
+		if (depth < 0)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().invalidDepth, Integer.valueOf(depth)));
+		this.depth = depth;
+	}
+
 	/**
 	 * @return true if fetch will verify received objects are formatted
 	 *         correctly. Validating objects requires more CPU time on the
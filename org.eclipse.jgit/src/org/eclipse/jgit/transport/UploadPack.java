@@ -60,9 +60,11 @@
 import org.eclipse.jgit.errors.PackProtocolException;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.AsyncRevObjectQueue;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevFlagSet;
@@ -97,6 +99,8 @@ public class UploadPack {
 
 	static final String OPTION_NO_PROGRESS = BasePackFetchConnection.OPTION_NO_PROGRESS;
 
+	static final String OPTION_SHALLOW = BasePackFetchConnection.OPTION_SHALLOW;
+
 	/** Database we read the objects from. */
 	private final Repository db;
 
@@ -139,6 +143,13 @@ public class UploadPack {
 	/** Filter used while advertising the refs to the client. */
 	private RefFilter refFilter;
 
+	/** Cache of encoded advertisements; null to always format them. */
+	private RefAdvertisementCache advertisementCache = RefAdvertisementCache
+			.getInstance();
+
+	/** Advertiser that sent the refs, if they were sent on this connection. */
+	private RefAdvertiser advertiser;
+
 	/** Capabilities requested by the client. */
 	private final Set<String> options = new HashSet<String>();
 
@@ -151,6 +162,18 @@ public class UploadPack {
 	/** Objects on both sides, these don't have to be sent. */
 	private final List<RevObject> commonBase = new ArrayList<RevObject>();
 
+	/** Commits the client has, but whose parents it does not have. */
+	private final Set<ObjectId> clientShallowCommits = new HashSet<ObjectId>();
+
+	/** Number of commits of history the client asked for; 0 for all. */
+	private int depth;
+
+	/** Commits whose parents are not sent; see {@link #sendShallowInfo()}. */
+	private final Set<ObjectId> shallowCommits = new HashSet<ObjectId>();
+
+	/** Parents of commits the client no longer needs to treat as shallow. */
+	private final List<RevObject> deepenFrom = new ArrayList<RevObject>();
+
 	/** null if {@link #commonBase} should be examined again. */
 	private Boolean okToGiveUp;
 
@@ -262,6 +285,25 @@ public void setRefFilter(final RefFilter refFilter) {
 		this.refFilter = refFilter != null ? refFilter : RefFilter.DEFAULT;
 	}
 
+	/** @return the cache of encoded ref advertisements; null if disabled. */
+	public RefAdvertisementCache getAdvertisementCache() {
+		return advertisementCache;
+	}
+
+	/**
+	 * Set the cache of encoded ref advertisements.
+	 * <p>
+	 * The cache is only consulted while no ref filter is set, as a filter may
+	 * hide different refs from different clients. By default the cache shared
+	 * by all repositories of the process is used.
+	 *
+	 * @param cache
+	 *            the cache; null to format every advertisement from scratch.
+	 */
+	public void setAdvertisementCache(final RefAdvertisementCache cache) {
+		advertisementCache = cache;
+	}
+
 	/**
 	 * Set the configuration used by the pack generator.
 	 *
@@ -340,6 +382,9 @@ private void service() throws IOException {
 		if (wantAll.isEmpty())
 			return;
 
+		if (depth > 0)
+			sendShallowInfo();
+
 		if (options.contains(OPTION_MULTI_ACK_DETAILED))
 			multiAck = MultiAck.DETAILED;
 		else if (options.contains(OPTION_MULTI_ACK))
@@ -347,8 +392,14 @@ else if (options.contains(OPTION_MULTI_ACK))
 		else
 			multiAck = MultiAck.OFF;
 
-		if (negotiate())
+		if (negotiate()) {
+			// Everything from here on is the pack. Flush the final ACK or
+			// NAK so a caller buffering the response, such as the smart
+			// HTTP servlet, starts streaming before objects are counted.
+			//
+			pckOut.flush();
 			sendPack();
+		}
 	}
 
 	/**
@@ -369,9 +420,15 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException {
 		adv.advertiseCapability(OPTION_SIDE_BAND_64K);
 		adv.advertiseCapability(OPTION_THIN_PACK);
 		adv.advertiseCapability(OPTION_NO_PROGRESS);
+		adv.advertiseCapability(OPTION_SHALLOW);
 		adv.setDerefTags(true);
-		refs = refFilter.filter(db.getAllRefs());
-		adv.send(refs);
+		if (advertisementCache != null && refFilter == RefFilter.DEFAULT) {
+			refs = adv.send(db, refFilter, advertisementCache);
+			advertiser = adv;
+		} else {
+			refs = refFilter.filter(db.getAllRefs());
+			adv.send(refs);
+		}
 		adv.end();
 	}
 
@@ -389,6 +446,14 @@ private void recvWants() throws IOException {
 
 			if (line == PacketLineIn.END)
 				break;
+			if (!isFirst && line.startsWith("shallow ")) {
+				recvShallow(line);
+				continue;
+			}
+			if (!isFirst && line.startsWith("deepen ")) {
+				recvDeepen(line);
+				continue;
+			}
 			if (!line.startsWith("want ") || line.length() < 45)
 				throw new PackProtocolException(MessageFormat.format(JGitText.get().expectedGot, "want", line));
 
@@ -408,7 +473,8 @@ private void recvWants() throws IOException {
 			} catch (IOException e) {
 				throw new PackProtocolException(MessageFormat.format(JGitText.get().notValid, id.name()), e);
 			}
-			if (!o.has(ADVERTISED))
+			if (!o.has(ADVERTISED)
+					&& (advertiser == null || !advertiser.isAdvertised(o)))
 				throw new PackProtocolException(MessageFormat.format(JGitText.get().notValid, id.name()));
 			try {
 				want(o);
@@ -418,6 +484,32 @@ private void recvWants() throws IOException {
 		}
 	}
 
+	private void recvShallow(final String line) throws PackProtocolException {
+		final ObjectId id;
+		try {
+			id = ObjectId.fromString(line.substring(8));
+		} catch (IllegalArgumentException e) {
+			throw new PackProtocolException(MessageFormat.format(
+					JGitText.get().expectedGot, "shallow", line));
+		}
+		try {
+			clientShallowCommits.add(walk.parseCommit(id).copy());
+		} catch (IOException notKnown) {
+			// A shallow commit we don't know cannot limit what we send.
+		}
+	}
+
+	private void recvDeepen(final String line) throws PackProtocolException {
+		try {
+			depth = Integer.parseInt(line.substring(7));
+		} catch (NumberFormatException e) {
+			depth = -1;
+		}
+		if (depth <= 0)
+			throw new PackProtocolException(MessageFormat.format(
+					JGitText.get().invalidDepth, line.substring(7)));
+	}
+
 	private void want(RevObject o) throws MissingObjectException, IOException {
 		if (!o.has(WANT)) {
 			o.add(WANT);
@@ -434,8 +526,71 @@ else if (o instanceof RevTag) {
 		}
 	}
 
+	/**
+	 * Tell the client which commits become the boundary of its history.
+	 * <p>
+	 * Commits {@link #depth} steps away from a wanted commit are shallow, and
+	 * their parents will not be sent. A commit the client has as shallow but
+	 * which is now closer to a wanted commit is unshallowed, and its parents
+	 * are sent as though they were wanted.
+	 *
+	 * @throws IOException
+	 *             a commit could not be parsed.
+	 */
+	private void sendShallowInfo() throws IOException {
+		final Set<RevCommit> clientShallow = new HashSet<RevCommit>();
+		for (final ObjectId id : clientShallowCommits)
+			clientShallow.add(walk.lookupCommit(id));
+
+		final Set<RevCommit> seen = new HashSet<RevCommit>();
+		final List<RevCommit> unshallow = new ArrayList<RevCommit>();
+		List<RevCommit> level = new ArrayList<RevCommit>();
+		for (final RevCommit c : wantCommits) {
+			if (seen.add(c))
+				level.add(c);
+		}
+
+		// Breadth first, so every commit is reached at its smallest depth.
+		for (int d = 1; !level.isEmpty(); d++) {
+			final List<RevCommit> next = new ArrayList<RevCommit>();
+			for (final RevCommit c : level) {
+				walk.parseHeaders(c);
+				if (d == depth) {
+					if (c.getParentCount() > 0) {
+						shallowCommits.add(c.copy());
+						pckOut.writeString("shallow " + c.name() + "\n");
+					}
+					continue;
+				}
+				if (clientShallow.contains(c)) {
+					unshallow.add(c);
+					for (final RevCommit p : c.getParents())
+						deepenFrom.add(p);
+				}
+				for (final RevCommit p : c.getParents()) {
+					if (seen.add(p))
+						next.add(p);
+				}
+			}
+			level = next;
+		}
+
+		for (final RevCommit c : unshallow)
+			pckOut.writeString("unshallow " + c.name() + "\n");
+
+		// Over a pipe the client waits for this section before it sends
+		// its haves. Otherwise the section is part of a single buffered
+		// response, and flushing here would make the caller start
+		// streaming in the middle of negotiation.
+		//
+		pckOut.writeEnd();
+		if (biDirectionalPipe)
+			pckOut.flush();
+	}
+
 	private boolean negotiate() throws IOException {
 		ObjectId last = ObjectId.zeroId();
+		final List<ObjectId> peerHas = new ArrayList<ObjectId>(64);
 		for (;;) {
 			String line;
 			try {
@@ -445,6 +600,7 @@ private boolean negotiate() throws IOException {
 			}
 
 			if (line == PacketLineIn.END) {
+				last = processHaveLines(peerHas, last);
 				if (commonBase.isEmpty() || multiAck != MultiAck.OFF)
 					pckOut.writeString("NAK\n");
 				if (!biDirectionalPipe)
@@ -452,39 +608,11 @@ private boolean negotiate() throws IOException {
 				pckOut.flush();
 
 			} else if (line.startsWith("have ") && line.length() == 45) {
-				final ObjectId id = ObjectId.fromString(line.substring(5));
-				if (matchHave(id)) {
-					// Both sides have the same object; let the client know.
-					//
-					last = id;
-					switch (multiAck) {
-					case OFF:
-						if (commonBase.size() == 1)
-							pckOut.writeString("ACK " + id.name() + "\n");
-						break;
-					case CONTINUE:
-						pckOut.writeString("ACK " + id.name() + " continue\n");
-						break;
-					case DETAILED:
-						pckOut.writeString("ACK " + id.name() + " common\n");
-						break;
-					}
-				} else if (okToGiveUp()) {
-					// They have this object; we don't.
-					//
-					switch (multiAck) {
-					case OFF:
-						break;
-					case CONTINUE:
-						pckOut.writeString("ACK " + id.name() + " continue\n");
-						break;
-					case DETAILED:
-						pckOut.writeString("ACK " + id.name() + " ready\n");
-						break;
-					}
-				}
+				peerHas.add(ObjectId.fromString(line.substring(5)));
 
 			} else if (line.equals("done")) {
+				last = processHaveLines(peerHas, last);
+
 				if (commonBase.isEmpty())
 					pckOut.writeString("NAK\n");
 
@@ -499,21 +627,83 @@ else if (multiAck != MultiAck.OFF)
 		}
 	}
 
-	private boolean matchHave(final ObjectId id) {
-		final RevObject o;
+	private ObjectId processHaveLines(final List<ObjectId> peerHas,
+			ObjectId last) throws IOException {
+		if (peerHas.isEmpty())
+			return last;
+
+		// The client sends its have lines in rounds before flushing, so
+		// look up the whole round at once. This lets the object database
+		// read the objects in pack order instead of the client's order.
+		//
+		final ObjectIdSubclassMap<RevObject> matched = new ObjectIdSubclassMap<RevObject>();
+		boolean ackFirstCommon = commonBase.isEmpty();
+		final AsyncRevObjectQueue q = walk.parseAny(peerHas, false);
 		try {
-			o = walk.parseAny(id);
-		} catch (IOException err) {
-			return false;
+			for (;;) {
+				final RevObject o;
+				try {
+					o = q.next();
+				} catch (IOException err) {
+					// Treat an unreadable object as one we don't have.
+					continue;
+				}
+				if (o == null)
+					break;
+				if (!matched.contains(o))
+					matched.add(o);
+
+				if (!o.has(PEER_HAS)) {
+					o.add(PEER_HAS);
+					if (o instanceof RevCommit)
+						((RevCommit) o).carry(PEER_HAS);
+					addCommonBase(o);
+				}
+			}
+		} finally {
+			q.release();
 		}
 
-		if (!o.has(PEER_HAS)) {
-			o.add(PEER_HAS);
-			if (o instanceof RevCommit)
-				((RevCommit) o).carry(PEER_HAS);
-			addCommonBase(o);
+		// Reply in the order the client sent the objects.
+		//
+		for (final ObjectId id : peerHas) {
+			if (matched.contains(id)) {
+				// Both sides have the same object; let the client know.
+				//
+				last = id;
+				switch (multiAck) {
+				case OFF:
+					// Without multi-ack only the first common object
+					// the client ever sent is acknowledged.
+					if (ackFirstCommon) {
+						pckOut.writeString("ACK " + id.name() + "\n");
+						ackFirstCommon = false;
+					}
+					break;
+				case CONTINUE:
+					pckOut.writeString("ACK " + id.name() + " continue\n");
+					break;
+				case DETAILED:
+					pckOut.writeString("ACK " + id.name() + " common\n");
+					break;
+				}
+			} else if (okToGiveUp()) {
+				// They have this object; we don't.
+				//
+				switch (multiAck) {
+				case OFF:
+					break;
+				case CONTINUE:
+					pckOut.writeString("ACK " + id.name() + " continue\n");
+					break;
+				case DETAILED:
+					pckOut.writeString("ACK " + id.name() + " ready\n");
+					break;
+				}
+			}
 		}
-		return true;
+		peerHas.clear();
+		return last;
 	}
 
 	private void addCommonBase(final RevObject o) {
@@ -588,7 +778,21 @@ private void sendPack() throws IOException {
 		try {
 			pw.setDeltaBaseAsOffset(options.contains(OPTION_OFS_DELTA));
 			pw.setThin(options.contains(OPTION_THIN_PACK));
-			pw.preparePack(pm, wantAll, commonBase);
+
+			// The client's shallow commits are cut too, even those being
+			// unshallowed: it lacks their ancestors, so they must not hide
+			// objects reachable from the ancestors it does want.
+			List<RevObject> want = wantAll;
+			if (!clientShallowCommits.isEmpty() || !shallowCommits.isEmpty()) {
+				final Set<ObjectId> cut = new HashSet<ObjectId>(shallowCommits);
+				cut.addAll(clientShallowCommits);
+				pw.setShallowCommits(cut);
+			}
+			if (!deepenFrom.isEmpty()) {
+				want = new ArrayList<RevObject>(wantAll);
+				want.addAll(deepenFrom);
+			}
+			pw.preparePack(pm, want, commonBase);
 			if (options.contains(OPTION_INCLUDE_TAG)) {
 				for (final Ref r : refs.values()) {
 					final RevObject o;
@@ -69,12 +69,14 @@
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectChecker;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.AsyncRevObjectQueue;
 import org.eclipse.jgit.revwalk.DateRevQueue;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevFlag;
@@ -661,16 +663,51 @@ private Collection<WalkRemoteObjectDatabase> expandOneAlternate(
 	}
 
 	private void markLocalRefsComplete(final Set<ObjectId> have) throws TransportException {
-		for (final Ref r : local.getAllRefs().values()) {
+		// Parse every local ref and assumed object as one batch, so they
+		// are read in the order they are stored in the repository.
+		//
+		final Collection<Ref> refs = local.getAllRefs().values();
+		final List<ObjectId> ids = new ArrayList<ObjectId>(refs.size()
+				+ have.size());
+		for (final Ref r : refs) {
+			if (r.getObjectId() != null)
+				ids.add(r.getObjectId());
+		}
+		ids.addAll(have);
+
+		final ObjectIdSubclassMap<RevObject> found = new ObjectIdSubclassMap<RevObject>();
+		final AsyncRevObjectQueue q = revWalk.parseAny(ids, false);
+		try {
+			RevObject o;
+			while ((o = q.next()) != null) {
+				if (!found.contains(o))
+					found.add(o);
+			}
+		} catch (IOException readError) {
+			throw new TransportException(JGitText.get().cannotReadObject, readError);
+		} finally {
+			q.release();
+		}
+
+		for (final Ref r : refs) {
+			final ObjectId id = r.getObjectId();
+			if (id == null)
+				continue;
 			try {
-				markLocalObjComplete(revWalk.parseAny(r.getObjectId()));
+				final RevObject o = found.get(id);
+				if (o == null)
+					throw new MissingObjectException(id, "unknown");
+				markLocalObjComplete(o);
 			} catch (IOException readError) {
 				throw new TransportException(MessageFormat.format(JGitText.get().localRefIsMissingObjects, r.getName()), readError);
 			}
 		}
 		for (final ObjectId id : have) {
 			try {
-				markLocalObjComplete(revWalk.parseAny(id));
+				final RevObject o = found.get(id);
+				if (o == null)
+					throw new MissingObjectException(id, "unknown");
+				markLocalObjComplete(o);
 			} catch (IOException readError) {
 				throw new TransportException(MessageFormat.format(JGitText.get().transportExceptionMissingAssumed, id.name()), readError);
 			}